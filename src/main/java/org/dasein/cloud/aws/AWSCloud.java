@@ -20,14 +20,20 @@
 package org.dasein.cloud.aws;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Hex;
 import org.apache.http.*;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.utils.URIUtils;
-import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientAsyncConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
@@ -39,15 +45,14 @@ import org.dasein.cloud.aws.compute.EC2ComputeServices;
 import org.dasein.cloud.aws.compute.EC2Exception;
 import org.dasein.cloud.aws.compute.EC2Method;
 import org.dasein.cloud.aws.identity.AWSIdentityServices;
-import org.dasein.cloud.aws.identity.IAMMethod;
 import org.dasein.cloud.aws.network.EC2NetworkServices;
 import org.dasein.cloud.aws.network.ELBMethod;
 import org.dasein.cloud.aws.platform.AWSPlatformServices;
 import org.dasein.cloud.aws.storage.AWSCloudStorageServices;
+import org.dasein.cloud.aws.storage.GlacierJobPoller;
 import org.dasein.cloud.aws.storage.S3Method;
 import org.dasein.cloud.compute.ComputeServices;
 import org.dasein.cloud.compute.VirtualMachineSupport;
-import org.dasein.cloud.platform.KeyValuePair;
 import org.dasein.cloud.storage.BlobStoreSupport;
 import org.dasein.cloud.storage.StorageServices;
 import org.dasein.cloud.util.APITrace;
@@ -59,24 +64,28 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AWSCloud extends AbstractCloud {
 
-    private static final int MAX_RETRIES = 0;
-
     static private String getLastItem( String name ) {
         int idx = name.lastIndexOf('.');
 
@@ -184,43 +193,11 @@ public class AWSCloud extends AbstractCloud {
     }
 
     static public byte[] HmacSHA256( String data, byte[] key ) throws InternalException {
-
-        final String algorithm = "HmacSHA256";
-        Mac mac;
-        try {
-            mac = Mac.getInstance(algorithm);
-            mac.init(new SecretKeySpec(key, algorithm));
-            return mac.doFinal(data.getBytes("UTF-8"));
-        }
-        catch( NoSuchAlgorithmException e ) {
-            throw new InternalException(e);
-        }
-        catch( InvalidKeyException e ) {
-            throw new InternalException(e);
-        }
-        catch( UnsupportedEncodingException e ) {
-            throw new InternalException(e);
-        }
+        return SignatureV4Signer.hmacSHA256(key, data);
     }
 
     static public String computeSHA256Hash( String value ) throws InternalException {
-        try {
-            byte[] valueBytes = value.getBytes("utf-8");
-            BufferedInputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(valueBytes));
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] buffer = new byte[4096];
-            int read;
-            while( ( read = inputStream.read(buffer, 0, buffer.length) ) != -1 ) {
-                digest.update(buffer, 0, read);
-            }
-            return new String(Hex.encodeHex(digest.digest(), true));
-        }
-        catch( NoSuchAlgorithmException e ) {
-            throw new InternalException(e);
-        }
-        catch( IOException e ) {
-            throw new InternalException(e);
-        }
+        return SignatureV4Signer.sha256Hex(value);
     }
 
     public AWSCloud() {
@@ -286,7 +263,7 @@ public class AWSCloud extends AbstractCloud {
             Thread t = new Thread() {
                 public void run() {
                     try {
-                        createTags(1, service, resourceIds, keyValuePairs);
+                        applyTags(service, resourceIds, keyValuePairs);
                     }
                     finally {
                         release();
@@ -298,12 +275,12 @@ public class AWSCloud extends AbstractCloud {
             t.setDaemon(true);
             t.start();
         } else {
-            createTags(1, service, resourceIds, keyValuePairs);
+            applyTags(service, resourceIds, keyValuePairs);
         }
         return true;
     }
 
-    private void createTags( int attempt, String service, String[] resourceIds, Tag... keyValuePairs ) {
+    private void applyTags( String service, String[] resourceIds, Tag... keyValuePairs ) {
     	APITrace.begin(this, "Cloud.createTags");
     	try {
     		try {
@@ -332,16 +309,8 @@ public class AWSCloud extends AbstractCloud {
     			try {
     				method.invoke();
     			} catch( EC2Exception e ) {
-    				if( attempt > MAX_RETRIES ) {
-    					logger.error("EC2 error setting tags for " + Arrays.toString(resourceIds) + ": " + e.getSummary());
-    					return;
-    				}
-    				try {
-    					Thread.sleep(5000L);
-    				} catch( InterruptedException ignore ) {
-    				}
-    				logger.warn("Retry attempt "+ (attempt + 1) + " to create tags for ["+resourceIds+"]");
-    				createTags(attempt + 1, service, resourceIds, keyValuePairs);
+    				// throttling and transient failures have already been retried by EC2Method under the retry policy
+    				logger.error("EC2 error setting tags for " + Arrays.toString(resourceIds) + ": " + e.getSummary());
     			}
     		} catch( Throwable ignore ) {
     			logger.error("Error while creating tags for " + Arrays.toString(resourceIds) + ".", ignore);
@@ -522,12 +491,123 @@ public class AWSCloud extends AbstractCloud {
 
     static public final String DSN_ACCESS_KEY = "accessKey";
 
+    static public final String MAX_CONNECTIONS           = "maxConnections";
+    static public final String MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+    static public final String IDLE_CONNECTION_TIMEOUT   = "idleConnectionTimeout";
+    static public final String INSTANCE_LIST_PAGE_SIZE   = "instanceListPageSize";
+    static public final String S3_CHUNKED_UPLOAD         = "s3ChunkedUpload";
+    static public final String S3_PART_SIZE              = "s3PartSize";
+    static public final String S3_TRANSFER_THREADS       = "s3TransferThreads";
+    static public final String S3_LIST_THREADS           = "s3ListThreads";
+    static public final String S3_COPY_THREADS           = "s3CopyThreads";
+    static public final String GLACIER_TRANSFER_THREADS  = "glacierTransferThreads";
+    static public final String HEDGE_REQUESTS            = "hedgeRequests";
+    static public final String HEDGE_PERCENTILE          = "hedgePercentile";
+    static public final String HEDGE_BUDGET              = "hedgeBudget";
+
+    static private final int DEFAULT_MAX_CONNECTIONS           = 200;
+    static private final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    static private final int DEFAULT_IDLE_CONNECTION_TIMEOUT   = 60;
+    static private final int DEFAULT_INSTANCE_LIST_PAGE_SIZE   = 1000;
+    static private final int DEFAULT_S3_PART_SIZE              = 16;
+    static private final int DEFAULT_S3_TRANSFER_THREADS       = 4;
+    static private final int DEFAULT_S3_LIST_THREADS           = 1;
+    static private final int DEFAULT_S3_COPY_THREADS           = 8;
+    static private final int DEFAULT_GLACIER_TRANSFER_THREADS  = 4;
+
     @Override
     public @Nonnull ContextRequirements getContextRequirements() {
         return new ContextRequirements(
                 new ContextRequirements.Field(DSN_ACCESS_KEY, "AWS API access keys", ContextRequirements.FieldType.KEYPAIR, ContextRequirements.Field.ACCESS_KEYS, true),
                 new ContextRequirements.Field("proxyHost", "Proxy host", ContextRequirements.FieldType.TEXT, false),
-                new ContextRequirements.Field("proxyPort", "Proxy port", ContextRequirements.FieldType.TEXT, false));
+                new ContextRequirements.Field("proxyPort", "Proxy port", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(MAX_CONNECTIONS, "Maximum pooled HTTP connections", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(MAX_CONNECTIONS_PER_ROUTE, "Maximum pooled HTTP connections per endpoint", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(IDLE_CONNECTION_TIMEOUT, "Seconds before an idle pooled connection is closed", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(INSTANCE_LIST_PAGE_SIZE, "Instances fetched per DescribeInstances page (5-1000, 0 to disable paging)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(S3_CHUNKED_UPLOAD, "Sign S3 file uploads chunk by chunk while sending (true/false)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(S3_PART_SIZE, "Size in MB of the parts of large S3 transfers (5 or more)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(S3_TRANSFER_THREADS, "Parts of one S3 transfer sent in parallel", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(S3_LIST_THREADS, "Key prefixes of one S3 bucket listed in parallel (1 lists sequentially)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(S3_COPY_THREADS, "S3 objects copied in parallel when moving or renaming many objects", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(GLACIER_TRANSFER_THREADS, "Parts of one Glacier archive transfer sent or fetched in parallel", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(HEDGE_REQUESTS, "Send a second copy of slow read-only requests (true/false)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(HEDGE_PERCENTILE, "Latency percentile a request must exceed before it is hedged (50-100)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(HEDGE_BUDGET, "Most extra requests hedging may add, as a percentage of all requests", ContextRequirements.FieldType.TEXT, false));
+    }
+
+    /**
+     * @return the <code>MaxResults</code> used when paging through <code>DescribeInstances</code>, or 0 if instances
+     * should be listed in a single request
+     */
+    public int getInstanceListPageSize() {
+        ProviderContext ctx = getContext();
+        int size = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), INSTANCE_LIST_PAGE_SIZE, DEFAULT_INSTANCE_LIST_PAGE_SIZE);
+
+        if( size <= 0 ) {
+            return 0;
+        }
+        // the range accepted by EC2
+        return Math.max(5, Math.min(1000, size));
+    }
+
+    /**
+     * @return true if S3 file uploads should be sent with <code>STREAMING-AWS4-HMAC-SHA256-PAYLOAD</code>, signing
+     * each chunk as it is sent instead of hashing the whole file before the request starts
+     */
+    public boolean isS3ChunkedUpload() {
+        ProviderContext ctx = getContext();
+        Properties props = ( ctx == null ? null : ctx.getCustomProperties() );
+
+        return ( props != null && "true".equalsIgnoreCase(props.getProperty(S3_CHUNKED_UPLOAD, "").trim()) );
+    }
+
+    /**
+     * @return the size in bytes of the parts large S3 uploads are split into; never less than the 5MB S3 minimum
+     */
+    public long getS3PartSize() {
+        ProviderContext ctx = getContext();
+        int mb = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), S3_PART_SIZE, DEFAULT_S3_PART_SIZE);
+
+        return Math.max(5, mb) * 1024L * 1024L;
+    }
+
+    /**
+     * @return the number of parts of a single S3 transfer that may be in flight at once
+     */
+    public int getS3TransferThreads() {
+        ProviderContext ctx = getContext();
+
+        return Math.max(1, getIntProperty(ctx == null ? null : ctx.getCustomProperties(), S3_TRANSFER_THREADS, DEFAULT_S3_TRANSFER_THREADS));
+    }
+
+    /**
+     * @return the number of key prefixes of a single S3 bucket that may be listed at once; 1 lists the bucket
+     * sequentially
+     */
+    public int getS3ListThreads() {
+        ProviderContext ctx = getContext();
+
+        return Math.max(1, getIntProperty(ctx == null ? null : ctx.getCustomProperties(), S3_LIST_THREADS, DEFAULT_S3_LIST_THREADS));
+    }
+
+    /**
+     * @return the number of S3 objects that may be copied at once when many objects are moved; each may itself
+     * copy up to {@link #getS3TransferThreads()} parts at once
+     */
+    public int getS3CopyThreads() {
+        ProviderContext ctx = getContext();
+
+        return Math.max(1, getIntProperty(ctx == null ? null : ctx.getCustomProperties(), S3_COPY_THREADS, DEFAULT_S3_COPY_THREADS));
+    }
+
+    /**
+     * @return the number of parts of a single Glacier archive upload or download that may be in flight at once
+     */
+    public int getGlacierTransferThreads() {
+        ProviderContext ctx = getContext();
+
+        return Math.max(1, getIntProperty(ctx == null ? null : ctx.getCustomProperties(), GLACIER_TRANSFER_THREADS, DEFAULT_GLACIER_TRANSFER_THREADS));
     }
 
     public byte[][] getAccessKey() {
@@ -540,6 +620,7 @@ public class AWSCloud extends AbstractCloud {
     }
 
     private transient volatile EC2Provider provider;
+    private transient volatile RetryPolicy retryPolicy;
 
     public @Nonnull EC2Provider getEC2Provider() {
         if( provider == null ) {
@@ -548,6 +629,63 @@ public class AWSCloud extends AbstractCloud {
         return provider;
     }
 
+    /**
+     * @return the policy deciding how failed calls to AWS are retried
+     */
+    public @Nonnull RetryPolicy getRetryPolicy() {
+        if( retryPolicy == null ) {
+            retryPolicy = new ExponentialBackoffRetryPolicy();
+        }
+        return retryPolicy;
+    }
+
+    /**
+     * Replaces the policy deciding how failed calls to AWS are retried.
+     *
+     * @param retryPolicy the new policy, or <code>null</code> to restore the default exponential backoff
+     */
+    public void setRetryPolicy( @Nullable RetryPolicy retryPolicy ) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    private final SignatureV4Signer v4Signer = new SignatureV4Signer();
+
+    private final ConcurrentMap<String, AdaptiveConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<String, AdaptiveConcurrencyLimiter>();
+
+    /**
+     * Returns the limiter bounding the number of requests in flight to the given service endpoint. Limiters start at
+     * {@link AdaptiveConcurrencyLimiter#DEFAULT_INITIAL_LIMIT} and never grow past the per-endpoint connection pool
+     * size ({@link #MAX_CONNECTIONS_PER_ROUTE}).
+     *
+     * @param service the AWS service, e.g. <code>ec2</code> or <code>s3</code>
+     * @param region  the region of the endpoint, or <code>null</code> for global services
+     * @return the limiter shared by all requests to that endpoint
+     */
+    public @Nonnull AdaptiveConcurrencyLimiter getConcurrencyLimiter( @Nonnull String service, @Nullable String region ) {
+        String key = AdaptiveConcurrencyLimiter.getKey(service, region);
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiters.get(key);
+
+        if( limiter == null ) {
+            ProviderContext ctx = getContext();
+            int max = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+            AdaptiveConcurrencyLimiter existing;
+
+            limiter = new AdaptiveConcurrencyLimiter(service, region, AdaptiveConcurrencyLimiter.DEFAULT_MIN_LIMIT, AdaptiveConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, max);
+            existing = concurrencyLimiters.putIfAbsent(key, limiter);
+            if( existing != null ) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * @return the concurrency limiters of every endpoint this provider has talked to, for monitoring their current limits
+     */
+    public @Nonnull Collection<AdaptiveConcurrencyLimiter> getConcurrencyLimiters() {
+        return Collections.unmodifiableCollection(concurrencyLimiters.values());
+    }
+
     public @Nullable String getEc2Url() {
         ProviderContext ctx = getContext();
         String url = getEc2Url(ctx == null ? null : ctx.getRegionId());
@@ -1009,182 +1147,20 @@ public class AWSCloud extends AbstractCloud {
      * @throws InternalException
      */
     public String getV4Authorization( String accessKey, String secretKey, String action, String url, String serviceId, Map<String, String> headers, String bodyHash ) throws InternalException {
-        serviceId = serviceId.toLowerCase();
-        String regionId = "us-east-1"; // default for IAM
-//        if( ctx != null && ctx.getRegionId() != null && !ctx.getRegionId().isEmpty() &&
-//                !serviceId.equalsIgnoreCase(IAMMethod.SERVICE_ID) ) {
-//            regionId = getContext().getRegionId();
-//        } else {
-        String host = url.replaceAll("https?:\\/\\/", "");
-        if( host.indexOf('/') > 0 ) {
-            host = host.substring(0, host.indexOf('/', 1));
-        }
-        if( !IAMMethod.SERVICE_ID.equalsIgnoreCase(serviceId) ) {
-            String[] urlParts = host.split("\\."); // everywhere except s3 and iam this is: service.region.amazonaws.com
-            regionId = urlParts[urlParts.length-3];
-            if( regionId.startsWith("s3-") ) {
-                regionId = regionId.substring(3);
-            }
-        }
-        String amzDate = extractV4Date(headers);
-        String credentialScope = getV4CredentialScope(amzDate, regionId, serviceId);
-        String signedHeaders = getV4SignedHeaders(headers);
-        String signature = signV4(secretKey, action, url, regionId, serviceId, headers, bodyHash);
-
-        return V4_ALGORITHM + " " + "Credential=" + accessKey + "/" + credentialScope + ", " + "SignedHeaders=" + signedHeaders + ", " + "Signature=" + signature;
-    }
-
-    private String signV4( String secretKey, String action, String serviceUrl, String regionId, String serviceId, Map<String, String> headers, String bodyHash ) throws InternalException {
-        final String canonicalRequest = getV4CanonicalRequest(action, serviceUrl, headers, bodyHash);
-
-        String amzDate = extractV4Date(headers);
-        final String stringToSign = getV4StringToSign(amzDate, regionId, serviceId, canonicalRequest);
-
-        // signature uses YYYYMMDD
-        String dateStamp = amzDate.substring(0, 8);
-        final byte[] signingKey = getV4SigningKey(secretKey, dateStamp, regionId, serviceId);
-
-        return new String(Hex.encodeHex(HmacSHA256(stringToSign, signingKey), true));
-    }
-
-    private String extractV4Date( Map<String, String> headers ) throws InternalException {
-
-        Map<String, String> lower = new HashMap<String, String>();
-        for( Map.Entry<String, String> entry : headers.entrySet() ) {
-            lower.put(entry.getKey().toLowerCase(), entry.getValue());
-        }
-        String amzDate = headers.get(P_AWS_DATE);
-        // expecting YYYYMMDDTHHMMSSZ
-        if( amzDate != null ) {
-            if( amzDate.length() != 16 ) {
-                throw new InternalException("request has invalid " + P_AWS_DATE);
-            }
-            return amzDate;
-        }
-
-        String date = lower.get("date");
-        if( date == null ) {
-            throw new InternalException("request is missing date header");
-        }
-        SimpleDateFormat parser = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz");
-        try {
-            return getV4HeaderDate(parser.parse(date));
-
-        } catch( ParseException e ) {
-            throw new InternalException("request has invalid date header format");
-        }
-    }
-
-    private byte[] getV4SigningKey( String secretKey, String dateStamp, String regionId, String serviceId ) throws InternalException {
-        byte[] withSecret = ( "AWS4" + secretKey ).getBytes();
-        byte[] withDate = HmacSHA256(dateStamp, withSecret);
-        byte[] withRegion = HmacSHA256(regionId, withDate);
-        byte[] withService = HmacSHA256(serviceId, withRegion);
-        return HmacSHA256("aws4_request", withService);
-    }
-
-    private String getV4StringToSign( String dateStamp, String regionId, String serviceId, String canonicalRequest ) throws InternalException {
-        return V4_ALGORITHM + "\n" + dateStamp + "\n" + getV4CredentialScope(dateStamp, regionId, serviceId) + "\n" + computeSHA256Hash(canonicalRequest);
-    }
-
-    private String getV4CredentialScope( String dateStamp, String regionId, String serviceId ) {
-        return dateStamp.substring(0, 8) + "/" + regionId + "/" + serviceId + "/" + V4_TERMINATION;
-    }
-
-    private String getV4CanonicalRequest( String action, String serviceUrl, Map<String, String> headers, String bodyHash ) throws InternalException {
-    /*
-        CanonicalRequest =
-        HTTPRequestMethod + '\n' +
-        CanonicalURI + '\n' +
-        CanonicalQueryString + '\n' +
-        CanonicalHeaders + '\n' +
-        SignedHeaders + '\n' +
-        HexEncode(Hash(Payload))
-    */
-
-        final URI endpoint;
-        try {
-            endpoint = new URI(serviceUrl.replace(" ", "%20")).normalize();
-        } catch( URISyntaxException e ) {
-            throw new InternalException(e);
-        }
-
-        final StringBuilder s = new StringBuilder();
-        s.append(action.toUpperCase()).append("\n");
-
-        String path = endpoint.getPath();
-        if( path == null || path.length() == 0 ) {
-            path = "/";
-        }
-        s.append(encode(path, true)).append("\n");
-        s.append(getV4CanonicalQueryString(endpoint)).append("\n");
-
-        List<String> sortedHeaders = new ArrayList<String>();
-        sortedHeaders.addAll(headers.keySet());
-        Collections.sort(sortedHeaders, String.CASE_INSENSITIVE_ORDER);
-
-        for( String header : sortedHeaders ) {
-            String value = headers.get(header).trim().replaceAll("\\s+", " ");
-            header = header.toLowerCase().replaceAll("\\s+", " ");
-            s.append(header).append(":").append(value).append("\n");
-        }
-        s.append("\n").append(getV4SignedHeaders(headers)).append("\n").append(bodyHash);
-
-        return s.toString();
-    }
-
-    private String getV4CanonicalQueryString( URI endpoint ) throws InternalException {
-        // parse query params and translate to another form of tuple that is comparable on both key and value
-
-        List<NameValuePair> parsedParams = URLEncodedUtils.parse(endpoint, "UTF-8");
-        List<KeyValuePair> queryParams = new ArrayList<KeyValuePair>(parsedParams.size());
-        for( NameValuePair param : parsedParams ) {
-            String key = encode(param.getName(), false);
-            String value = param.getValue() != null ? encode(param.getValue(), false) : "";
-            queryParams.add(new KeyValuePair(key, value));
-        }
-
-        // sort query parameters by key, then value
-        Collections.sort(queryParams);
+        ProviderContext ctx = getContext();
 
-        StringBuilder sb = new StringBuilder();
-        for( KeyValuePair pair : queryParams ) {
-            if( sb.length() > 0 ) {
-                sb.append("&");
-            }
-            sb.append(pair.getKey()).append("=").append(pair.getValue());
-        }
-        return sb.toString();
+        return v4Signer.getAuthorization(accessKey, secretKey, action, url, serviceId, headers, bodyHash, ctx == null ? null : ctx.getRegionId());
     }
 
-    private String getV4SignedHeaders( Map<String, String> headers ) {
-        // move to set to lower case and remove dupes
-        Set<String> sorted = new TreeSet<String>();
-        for( String header : headers.keySet() ) {
-            sorted.add(header.toLowerCase());
-        }
-
-        StringBuilder sb = new StringBuilder();
-        for( String header : sorted ) {
-            if( sb.length() > 0 ) {
-                sb.append(";");
-            }
-            sb.append(header.toLowerCase());
-        }
-
-        return sb.toString();
+    /**
+     * @return the signer used for AWS v4 signatures, which caches derived signing keys for this provider
+     */
+    public @Nonnull SignatureV4Signer getV4Signer() {
+        return v4Signer;
     }
 
     public String getV4HeaderDate( Date date ) {
-        SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
-        Calendar cal = Calendar.getInstance(new SimpleTimeZone(0, "GMT"));
-        fmt.setCalendar(cal);
-        if( date == null ) {
-            return fmt.format(new Date());
-        }
-        else {
-            return fmt.format(date);
-        }
+        return SignatureV4Signer.formatAmzDate(date == null ? new Date() : date);
     }
 
     @Override
@@ -1433,6 +1409,19 @@ public class AWSCloud extends AbstractCloud {
         parameters.put(key, value.toString());
     }
 
+    private final Object                         clientLock = new Object();
+    private transient PoolingClientConnectionManager connectionManager;
+    private transient DefaultHttpClient              client;
+    private transient DefaultHttpClient              multipartClient;
+
+    /**
+     * Returns the HTTP client for this provider. Clients are shared and backed by a pooled connection manager, so
+     * callers must release the connection (by consuming the response entity or calling
+     * {@link org.apache.http.client.methods.HttpRequestBase#releaseConnection()}) instead of shutting the client down.
+     *
+     * @return the shared HTTP client
+     * @throws InternalException if no context was set for this provider
+     */
     public @Nonnull HttpClient getClient() throws InternalException {
         return getClient(false);
     }
@@ -1442,30 +1431,41 @@ public class AWSCloud extends AbstractCloud {
         if( ctx == null ) {
             throw new InternalException("No context was specified for this request");
         }
-
-        final HttpParams params = new BasicHttpParams();
-
-        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-        if( !multipart ) {
-            HttpProtocolParams.setContentCharset(params, Consts.UTF_8.toString());
+        synchronized( clientLock ) {
+            if( connectionManager == null ) {
+                connectionManager = createConnectionManager(ctx);
+                IdleConnectionReaper.register(connectionManager, getIdleConnectionTimeout(ctx));
+            }
+            if( multipart ) {
+                if( multipartClient == null ) {
+                    multipartClient = createClient(ctx, connectionManager, true);
+                }
+                return multipartClient;
+            }
+            if( client == null ) {
+                client = createClient(ctx, connectionManager, false);
+            }
+            return client;
         }
-        HttpProtocolParams.setUserAgent(params, "Dasein Cloud");
+    }
 
+    private @Nonnull PoolingClientConnectionManager createConnectionManager( @Nonnull ProviderContext ctx ) {
+        PoolingClientConnectionManager manager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
         Properties p = ctx.getCustomProperties();
-        if( p != null ) {
-            String proxyHost = p.getProperty("proxyHost");
-            String proxyPortStr = p.getProperty("proxyPort");
-            int proxyPort = 0;
-            if( proxyPortStr != null ) {
-                proxyPort = Integer.parseInt(proxyPortStr);
-            }
-            if( proxyHost != null && proxyHost.length() > 0 && proxyPort > 0 ) {
-                params.setParameter(ConnRoutePNames.DEFAULT_PROXY,
-                        new HttpHost(proxyHost, proxyPort)
-                );
-            }
+        int maxTotal = getIntProperty(p, MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        int maxPerRoute = getIntProperty(p, MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+
+        manager.setMaxTotal(maxTotal);
+        manager.setDefaultMaxPerRoute(Math.min(maxPerRoute, maxTotal));
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Created connection pool for " + ctx.getAccountNumber() + " (total=" + maxTotal + ", perRoute=" + maxPerRoute + ")");
         }
-        DefaultHttpClient client = new DefaultHttpClient(params);
+        return manager;
+    }
+
+    private @Nonnull DefaultHttpClient createClient( @Nonnull ProviderContext ctx, @Nonnull ClientConnectionManager manager, boolean multipart ) {
+        final HttpParams params = createParams(ctx, multipart);
+        DefaultHttpClient client = new DefaultHttpClient(manager, params);
         client.addRequestInterceptor(new HttpRequestInterceptor() {
             public void process(
                     final HttpRequest request,
@@ -1498,6 +1498,302 @@ public class AWSCloud extends AbstractCloud {
         return client;
     }
 
+    private @Nonnull HttpParams createParams( @Nonnull ProviderContext ctx, boolean multipart ) {
+        HttpParams params = new BasicHttpParams();
+
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        if( !multipart ) {
+            HttpProtocolParams.setContentCharset(params, Consts.UTF_8.toString());
+        }
+        HttpProtocolParams.setUserAgent(params, "Dasein Cloud");
+
+        Properties p = ctx.getCustomProperties();
+        if( p != null ) {
+            String proxyHost = p.getProperty("proxyHost");
+            String proxyPortStr = p.getProperty("proxyPort");
+            int proxyPort = 0;
+            if( proxyPortStr != null ) {
+                proxyPort = Integer.parseInt(proxyPortStr);
+            }
+            if( proxyHost != null && proxyHost.length() > 0 && proxyPort > 0 ) {
+                params.setParameter(ConnRoutePNames.DEFAULT_PROXY,
+                        new HttpHost(proxyHost, proxyPort)
+                );
+            }
+        }
+        return params;
+    }
+
+    private int getIdleConnectionTimeout( @Nonnull ProviderContext ctx ) {
+        return getIntProperty(ctx.getCustomProperties(), IDLE_CONNECTION_TIMEOUT, DEFAULT_IDLE_CONNECTION_TIMEOUT);
+    }
+
+    private int getIntProperty( @Nullable Properties props, @Nonnull String name, int defaultValue ) {
+        String value = ( props == null ? null : props.getProperty(name) );
+
+        if( value == null || value.trim().length() == 0 ) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value.trim());
+
+            return ( i > 0 ? i : defaultValue );
+        }
+        catch( NumberFormatException e ) {
+            logger.warn("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private transient ExecutorService asyncExecutor;
+
+    /**
+     * Returns the executor for this provider's parallel work: the parts of multipart transfers, bulk operations, and
+     * the parsing of responses to requests sent through the {@link #getAsyncTransport() asynchronous transport}.
+     * The executor is sized to the connection pool ({@link #MAX_CONNECTIONS}); idle threads are reclaimed after a
+     * minute.
+     *
+     * @return the shared executor for parallel work
+     */
+    public @Nonnull ExecutorService getAsyncExecutor() {
+        synchronized( clientLock ) {
+            if( asyncExecutor == null ) {
+                ProviderContext ctx = getContext();
+                int threads = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+                final String name = "AWS Async " + (ctx == null ? "" : ctx.getAccountNumber() + " ");
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread( @Nonnull Runnable r ) {
+                        Thread t = new Thread(r, name + count.incrementAndGet());
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+                executor.allowCoreThreadTimeOut(true);
+                asyncExecutor = executor;
+            }
+            return asyncExecutor;
+        }
+    }
+
+    private transient AsyncTransport asyncTransport;
+
+    /**
+     * Returns the non-blocking transport behind {@link EC2Method#invokeAsync()} and
+     * {@link org.dasein.cloud.aws.storage.S3Method#invokeAsync(String, String)}. Its connection pool has the same
+     * limits as the blocking client's ({@link #MAX_CONNECTIONS}, {@link #MAX_CONNECTIONS_PER_ROUTE}); requests beyond
+     * them wait for a connection without holding a thread.
+     *
+     * @return the shared transport for asynchronous requests
+     * @throws InternalException if no context was set for this provider or the I/O threads could not be started
+     */
+    public @Nonnull AsyncTransport getAsyncTransport() throws InternalException {
+        ProviderContext ctx = getContext();
+
+        if( ctx == null ) {
+            throw new InternalException("No context was specified for this request");
+        }
+        synchronized( clientLock ) {
+            if( asyncTransport == null ) {
+                Properties p = ctx.getCustomProperties();
+                int maxTotal = getIntProperty(p, MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+                int maxPerRoute = getIntProperty(p, MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+                final String name = "AWS I/O " + ctx.getAccountNumber() + " ";
+
+                try {
+                    DefaultConnectingIOReactor reactor = new DefaultConnectingIOReactor(new IOReactorConfig(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread( @Nonnull Runnable r ) {
+                            Thread t = new Thread(r, name + count.incrementAndGet());
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                    PoolingClientAsyncConnectionManager manager = new PoolingClientAsyncConnectionManager(reactor);
+                    DefaultHttpAsyncClient client = new DefaultHttpAsyncClient(manager);
+
+                    manager.setMaxTotal(maxTotal);
+                    manager.setDefaultMaxPerRoute(Math.min(maxPerRoute, maxTotal));
+                    client.setParams(createParams(ctx, false));
+                    asyncTransport = new AsyncTransport(client, manager, getAsyncExecutor(), getIdleConnectionTimeout(ctx));
+                }
+                catch( IOReactorException e ) {
+                    throw new InternalException("Unable to start the asynchronous HTTP client", e);
+                }
+            }
+            return asyncTransport;
+        }
+    }
+
+    private transient GlacierJobPoller glacierJobPoller;
+    private transient ExecutorService  hedgeExecutor;
+    private transient RequestHedger    requestHedger;
+
+    /**
+     * Returns the hedger racing a second copy of slow read-only requests against the first, if hedging has been
+     * enabled with {@link #HEDGE_REQUESTS}. Hedged requests run on their own threads, so callers already on the
+     * {@link #getAsyncExecutor() asynchronous executor} cannot starve it.
+     *
+     * @return the shared request hedger, or <code>null</code> if requests are not hedged
+     */
+    public @Nullable RequestHedger getRequestHedger() {
+        ProviderContext ctx = getContext();
+        Properties props = ( ctx == null ? null : ctx.getCustomProperties() );
+
+        if( props == null || !"true".equalsIgnoreCase(props.getProperty(HEDGE_REQUESTS, "").trim()) ) {
+            return null;
+        }
+        synchronized( clientLock ) {
+            if( requestHedger == null ) {
+                final String name = "AWS Hedge " + ctx.getAccountNumber() + " ";
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread( @Nonnull Runnable r ) {
+                        Thread t = new Thread(r, name + count.incrementAndGet());
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                int percentile = getIntProperty(props, HEDGE_PERCENTILE, (int)(RequestHedger.DEFAULT_PERCENTILE * 100));
+                int budget = getIntProperty(props, HEDGE_BUDGET, (int)(RequestHedger.DEFAULT_BUDGET * 100));
+
+                hedgeExecutor = executor;
+                requestHedger = new RequestHedger(executor, RequestHedger.DEFAULT_ACTIONS, percentile / 100.0, budget / 100.0);
+            }
+            return requestHedger;
+        }
+    }
+
+    /**
+     * Returns the poller tracking outstanding Glacier jobs for this provider. All callers share it, so the jobs of
+     * one vault are checked together however many callers are waiting on them.
+     *
+     * @return the shared Glacier job poller
+     */
+    public @Nonnull GlacierJobPoller getGlacierJobPoller() {
+        synchronized( clientLock ) {
+            if( glacierJobPoller == null ) {
+                glacierJobPoller = new GlacierJobPoller(this);
+            }
+            return glacierJobPoller;
+        }
+    }
+
+    /**
+     * Shuts down the pooled connections and asynchronous request threads held by this provider. Any client obtained
+     * through {@link #getClient()} before this call must not be used afterwards; a fresh pool is created on the next
+     * call to {@link #getClient()}.
+     */
+    @Override
+    public void close() {
+        PoolingClientConnectionManager manager;
+        ExecutorService executor;
+        GlacierJobPoller poller;
+        ExecutorService hedges;
+        AsyncTransport transport;
+
+        synchronized( clientLock ) {
+            transport = asyncTransport;
+            asyncTransport = null;
+            manager = connectionManager;
+            executor = asyncExecutor;
+            poller = glacierJobPoller;
+            hedges = hedgeExecutor;
+            hedgeExecutor = null;
+            requestHedger = null;
+            connectionManager = null;
+            asyncExecutor = null;
+            glacierJobPoller = null;
+            client = null;
+            multipartClient = null;
+        }
+        try {
+            if( poller != null ) {
+                poller.close();
+            }
+            if( transport != null ) {
+                transport.close();
+            }
+            if( executor != null ) {
+                executor.shutdownNow();
+            }
+            if( hedges != null ) {
+                hedges.shutdownNow();
+            }
+            if( manager != null ) {
+                IdleConnectionReaper.unregister(manager);
+                manager.shutdown();
+            }
+        }
+        finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Periodically evicts expired and idle connections from every live provider pool. A single daemon thread
+     * serves all {@link AWSCloud} instances; pools are weakly referenced so an unclosed provider does not leak.
+     */
+    static private class IdleConnectionReaper extends Thread {
+        static private final long REAP_INTERVAL = 5000L;
+
+        static private final Map<PoolingClientConnectionManager, Integer> managers = new WeakHashMap<PoolingClientConnectionManager, Integer>();
+        static private IdleConnectionReaper instance;
+
+        static synchronized void register( @Nonnull PoolingClientConnectionManager manager, int idleTimeoutSeconds ) {
+            synchronized( managers ) {
+                managers.put(manager, idleTimeoutSeconds);
+            }
+            if( instance == null || !instance.isAlive() ) {
+                instance = new IdleConnectionReaper();
+                instance.start();
+            }
+        }
+
+        static void unregister( @Nonnull PoolingClientConnectionManager manager ) {
+            synchronized( managers ) {
+                managers.remove(manager);
+            }
+        }
+
+        private IdleConnectionReaper() {
+            setName("AWS Idle Connection Reaper");
+            setDaemon(true);
+        }
+
+        public void run() {
+            while( true ) {
+                try {
+                    Thread.sleep(REAP_INTERVAL);
+                }
+                catch( InterruptedException e ) {
+                    return;
+                }
+                Map<PoolingClientConnectionManager, Integer> current;
+
+                synchronized( managers ) {
+                    current = new HashMap<PoolingClientConnectionManager, Integer>(managers);
+                }
+                for( Map.Entry<PoolingClientConnectionManager, Integer> entry : current.entrySet() ) {
+                    try {
+                        entry.getKey().closeExpiredConnections();
+                        entry.getKey().closeIdleConnections(entry.getValue(), TimeUnit.SECONDS);
+                    }
+                    catch( Throwable t ) {
+                        logger.warn("Unable to evict idle connections: " + t.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * DEBUG_AWS should be specified as system properties, otherwise return false
      *
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client side limit on the number of requests in flight against a single service endpoint, adjusted with
+ * additive-increase/multiplicative-decrease. Each successful response grows the limit by roughly one request per
+ * round trip while the endpoint is kept busy; a throttling response halves it, and the latency of an action rising
+ * well above the best latency seen recently for that same action shrinks it gently. Baselines are kept per action
+ * because the actions sharing an endpoint differ widely in cost: a fast action would otherwise make every slower one
+ * look like congestion. Decreases are spaced at least one round trip apart so that a burst
+ * of throttling responses from requests already in flight counts as a single congestion signal.
+ * <p>
+ * Callers bracket each request with {@link #acquire()} and one of the <code>release</code> methods.
+ * Instances are shared per (service, region) through {@link AWSCloud#getConcurrencyLimiter(String, String)}.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+    static private final Logger logger = AWSCloud.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    static public final int    DEFAULT_INITIAL_LIMIT     = 10;
+    static public final int    DEFAULT_MIN_LIMIT         = 1;
+    static public final double THROTTLE_BACKOFF_RATIO    = 0.5;
+    static public final double LATENCY_BACKOFF_RATIO     = 0.9;
+    static public final double LATENCY_TOLERANCE         = 2.0;
+
+    static private final int    MIN_RTT_WINDOW   = 500;
+    static private final double RTT_SMOOTHING    = 0.2;
+
+    private final String service;
+    private final String region;
+    private final int    minLimit;
+    private final int    maxLimit;
+
+    private final Map<String, Baseline> baselines = new HashMap<String, Baseline>();
+    private final Baseline              overall   = new Baseline();
+
+    private double limit;
+    private int    inFlight;
+    private long   lastDecrease;
+    private long   throttleCount;
+
+    /**
+     * The recent latencies of one action, or of every action together.
+     */
+    static private class Baseline {
+        private long   minRtt = Long.MAX_VALUE;
+        private double smoothedRtt;
+        private int    samples;
+
+        void sample( long rtt ) {
+            if( samples == 0 ) {
+                smoothedRtt = rtt;
+            }
+            else {
+                smoothedRtt = smoothedRtt + RTT_SMOOTHING * (rtt - smoothedRtt);
+            }
+            samples++;
+            if( rtt < minRtt ) {
+                minRtt = rtt;
+            }
+            else if( samples % MIN_RTT_WINDOW == 0 ) {
+                // let the baseline follow lasting changes in the endpoint's latency
+                minRtt = Math.max(rtt, (long)(smoothedRtt / LATENCY_TOLERANCE));
+            }
+        }
+
+        boolean isCongested() {
+            return ( samples > 10 && smoothedRtt > minRtt * LATENCY_TOLERANCE );
+        }
+    }
+
+    public AdaptiveConcurrencyLimiter( @Nonnull String service, @Nullable String region, int minLimit, int initialLimit, int maxLimit ) {
+        this.service = service;
+        this.region = region;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Blocks until the current limit allows another request to this endpoint.
+     * @return the start time of the request in nanoseconds, to be passed back to {@link #release(long, String, boolean)}
+     * @throws InternalException the thread was interrupted while waiting for a slot
+     */
+    public synchronized long acquire() throws InternalException {
+        while( inFlight >= (int)limit ) {
+            try {
+                wait();
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException("Interrupted while waiting to send a request to " + getKey(), e);
+            }
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * @param policy the retry policy that classifies errors for the provider
+     * @param status the HTTP status of a response
+     * @param code   the AWS error code of the response, if it has one
+     * @return true if the response signals that the endpoint is shedding load
+     */
+    static public boolean isThrottled( @Nonnull RetryPolicy policy, int status, @Nullable String code ) {
+        if( status >= 200 && status < 300 ) {
+            return false;
+        }
+        return ( policy.classify(status, code) == RetryPolicy.ErrorCategory.THROTTLING );
+    }
+
+    /**
+     * Releases a slot and feeds the outcome of the request into the limit.
+     * @param startNanos the value returned by {@link #acquire()}
+     * @param action     the action requested, whose latency is compared only with earlier requests for it
+     * @param throttled  true if the endpoint answered with a throttling response
+     */
+    public synchronized void release( long startNanos, @Nullable String action, boolean throttled ) {
+        long now = System.nanoTime();
+        long rtt = now - startNanos;
+        boolean busy = inFlight >= (int)limit / 2;
+
+        inFlight--;
+        try {
+            if( throttled ) {
+                throttleCount++;
+                decrease(now, THROTTLE_BACKOFF_RATIO, "throttled");
+                return;
+            }
+            Baseline baseline = baselines.get(action);
+
+            if( baseline == null ) {
+                baseline = new Baseline();
+                baselines.put(action, baseline);
+            }
+            baseline.sample(rtt);
+            overall.sample(rtt);
+            if( baseline.isCongested() ) {
+                decrease(now, LATENCY_BACKOFF_RATIO, action + " latency " + (long)(baseline.smoothedRtt / 1000000L) + "ms");
+            }
+            else if( busy && limit < maxLimit ) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+        finally {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Releases a slot without a latency sample, for requests whose duration says nothing about the endpoint
+     * (uploads and other requests dominated by the size of the payload).
+     * @param throttled true if the endpoint answered with a throttling response
+     */
+    public synchronized void release( boolean throttled ) {
+        inFlight--;
+        if( throttled ) {
+            throttleCount++;
+            decrease(System.nanoTime(), THROTTLE_BACKOFF_RATIO, "throttled");
+        }
+        notifyAll();
+    }
+
+    /**
+     * Releases a slot for a request that failed before the endpoint answered.
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    private void decrease( long now, double ratio, @Nonnull String reason ) {
+        long cooldown = (long)overall.smoothedRtt;
+
+        if( lastDecrease != 0L && now - lastDecrease < cooldown ) {
+            return;
+        }
+        lastDecrease = now;
+        double previous = limit;
+
+        limit = Math.max(minLimit, limit * ratio);
+        if( logger.isDebugEnabled() && (int)previous != (int)limit ) {
+            logger.debug("Concurrency limit for " + getKey() + " reduced from " + (int)previous + " to " + (int)limit + " (" + reason + ")");
+        }
+    }
+
+    public @Nonnull String getService() {
+        return service;
+    }
+
+    public @Nullable String getRegion() {
+        return region;
+    }
+
+    public @Nonnull String getKey() {
+        return getKey(service, region);
+    }
+
+    static @Nonnull String getKey( @Nonnull String service, @Nullable String region ) {
+        return (region == null ? service : service + "/" + region);
+    }
+
+    /**
+     * @return the number of requests currently allowed in flight
+     */
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the smoothed request latency in milliseconds, or 0 if no request has completed yet
+     */
+    public synchronized long getLatency() {
+        return (long)(overall.smoothedRtt / 1000000L);
+    }
+
+    /**
+     * @return the number of throttling responses seen since this limiter was created
+     */
+    public synchronized long getThrottleCount() {
+        return throttleCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getKey() + " [limit=" + (int)limit + ", inFlight=" + inFlight + ", latency=" + getLatency() + "ms, throttled=" + throttleCount + "]";
+    }
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientAsyncConnectionManager;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests through a non-blocking HTTP client, so that any number of requests may be in flight while only the
+ * client's I/O threads and a timer thread exist. Requests queue for a connection in the client's own pool rather than
+ * on a thread. Each response is buffered by the I/O threads and only then handed to an executor for parsing, which
+ * is CPU work; retries wait on the timer instead of a sleeping thread.
+ * <p>
+ * Instances are shared per provider through {@link AWSCloud#getAsyncTransport()}.
+ * </p>
+ */
+public class AsyncTransport {
+    static private final Logger logger = AWSCloud.getLogger(AsyncTransport.class);
+
+    static private final long EVICT_INTERVAL = 5000L;
+
+    /**
+     * One call, which may be sent several times if it fails with a retryable error.
+     */
+    public interface Exchange<T> {
+        /**
+         * @return the action requested, for logging
+         */
+        @Nonnull String getName();
+
+        /**
+         * @return a newly built and signed request; it is called again for every attempt
+         */
+        @Nonnull HttpUriRequest createRequest() throws CloudException, InternalException;
+
+        /**
+         * Interprets a complete response. It is called on a parsing thread, never on an I/O thread.
+         * @param request  the request that was answered
+         * @param response the response, whose entity is held in memory
+         * @return the result of the call
+         */
+        T handle( @Nonnull HttpUriRequest request, @Nonnull HttpResponse response ) throws CloudException, InternalException;
+
+        /**
+         * @param failure an exception thrown by {@link #createRequest()} or {@link #handle(HttpUriRequest, HttpResponse)}
+         * @return whether and how the call should be retried after that failure
+         */
+        @Nonnull RetryPolicy.ErrorCategory classify( @Nonnull Exception failure );
+    }
+
+    private final DefaultHttpAsyncClient             client;
+    private final PoolingClientAsyncConnectionManager manager;
+    private final Executor                           parsers;
+    private final ScheduledExecutorService           timer;
+
+    /**
+     * @param client             a client that has not yet been started
+     * @param manager            the connection pool of the client
+     * @param parsers            runs the parsing of responses
+     * @param idleTimeoutSeconds the time after which idle pooled connections are closed
+     */
+    public AsyncTransport( @Nonnull DefaultHttpAsyncClient client, @Nonnull final PoolingClientAsyncConnectionManager manager, @Nonnull Executor parsers, final int idleTimeoutSeconds ) {
+        this.client = client;
+        this.manager = manager;
+        this.parsers = parsers;
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread( @Nonnull Runnable r ) {
+                Thread t = new Thread(r, "AWS Async Timer");
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                manager.closeExpiredConnections();
+                manager.closeIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS);
+            }
+        }, EVICT_INTERVAL, EVICT_INTERVAL, TimeUnit.MILLISECONDS);
+        client.start();
+    }
+
+    /**
+     * Sends the call and returns without waiting for the response. Failures surface from {@link Future#get()} as an
+     * {@link java.util.concurrent.ExecutionException} wrapping the {@link CloudException} or
+     * {@link InternalException} that ended the call. Cancelling the future abandons the request in flight.
+     * @param exchange builds the requests and interprets their responses
+     * @param policy   decides which failures are retried
+     * @return the pending result of the call
+     */
+    public @Nonnull <T> Future<T> execute( @Nonnull Exchange<T> exchange, @Nonnull RetryPolicy policy ) {
+        Call<T> call = new Call<T>(exchange, policy);
+
+        call.send();
+        return call.result;
+    }
+
+    /**
+     * @return the pool of connections used by asynchronous requests
+     */
+    public @Nonnull PoolingClientAsyncConnectionManager getConnectionManager() {
+        return manager;
+    }
+
+    /**
+     * Stops the I/O threads, abandoning any request still in flight.
+     */
+    public void close() {
+        timer.shutdownNow();
+        try {
+            client.shutdown();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The attempts of one call.
+     */
+    private class Call<T> {
+        private final Exchange<T>  exchange;
+        private final RetryPolicy  policy;
+        private final Result<T>    result = new Result<T>();
+        private int                attempt;
+        private long               totalDelay;
+
+        Call( @Nonnull Exchange<T> exchange, @Nonnull RetryPolicy policy ) {
+            this.exchange = exchange;
+            this.policy = policy;
+        }
+
+        void send() {
+            if( result.isDone() ) {
+                return;
+            }
+            final HttpUriRequest request;
+
+            attempt++;
+            try {
+                request = exchange.createRequest();
+                if( !request.containsHeader("Accept-Encoding") ) {
+                    request.addHeader("Accept-Encoding", "gzip");
+                }
+            }
+            catch( Exception e ) {
+                result.failed(e);
+                return;
+            }
+            Future<HttpResponse> pending = client.execute(request, new FutureCallback<HttpResponse>() {
+                public void completed( HttpResponse response ) {
+                    Call.this.completed(request, response);
+                }
+
+                public void failed( Exception e ) {
+                    Call.this.failed(e);
+                }
+
+                public void cancelled() {
+                    Call.this.cancelled();
+                }
+            });
+
+            result.pending = pending;
+            if( result.isCancelled() ) {
+                // cancelled while the request was being handed to the client
+                pending.cancel(true);
+            }
+        }
+
+        void completed( @Nonnull final HttpUriRequest request, @Nonnull final HttpResponse response ) {
+            try {
+                parsers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            result.completed(exchange.handle(request, decode(response)));
+                        }
+                        catch( Exception e ) {
+                            retry(e);
+                        }
+                    }
+                });
+            }
+            catch( RejectedExecutionException e ) {
+                result.failed(new InternalException("Unable to parse the response to " + exchange.getName(), e));
+            }
+        }
+
+        void failed( @Nonnull Exception e ) {
+            logger.error("I/O error from server communications: " + e.getMessage());
+            retry(new InternalException("There was a temporary communication issue with the cloud, please try your request again", e));
+        }
+
+        void cancelled() {
+            result.cancel(true);
+        }
+
+        private void retry( @Nonnull Exception failure ) {
+            RetryPolicy.ErrorCategory category = exchange.classify(failure);
+            long delay = policy.getDelay(attempt, category, totalDelay);
+
+            if( delay < 0L || result.isDone() ) {
+                if( delay < 0L && category != RetryPolicy.ErrorCategory.FATAL ) {
+                    logger.error("Giving up on " + exchange.getName() + " after " + attempt + " attempts: " + failure.getMessage());
+                }
+                result.failed(failure);
+                return;
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Retrying " + exchange.getName() + " in " + delay + "ms after " + category + " error: " + failure.getMessage());
+            }
+            totalDelay += delay;
+            try {
+                timer.schedule(new Runnable() {
+                    public void run() {
+                        send();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            catch( RejectedExecutionException e ) {
+                result.failed(failure);
+            }
+        }
+    }
+
+    /**
+     * The future handed to the caller; cancelling it also abandons the attempt in flight.
+     */
+    static private class Result<T> extends BasicFuture<T> {
+        private volatile Future<HttpResponse> pending;
+
+        Result() {
+            super(null);
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning ) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<HttpResponse> attempt = pending;
+
+            if( cancelled && attempt != null ) {
+                attempt.cancel(true);
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Undoes the gzip encoding requested for every asynchronous call.
+     */
+    static private @Nonnull HttpResponse decode( @Nonnull HttpResponse response ) {
+        HttpEntity entity = response.getEntity();
+
+        if( entity != null ) {
+            Header header = entity.getContentEncoding();
+
+            if( header != null ) {
+                for( HeaderElement codec : header.getElements() ) {
+                    if( codec.getName().equalsIgnoreCase("gzip") ) {
+                        response.setEntity(new GzipDecompressingEntity(entity));
+                        break;
+                    }
+                }
+            }
+        }
+        return response;
+    }
+}
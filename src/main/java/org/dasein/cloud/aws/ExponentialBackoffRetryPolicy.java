@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Default {@link RetryPolicy}: exponential backoff with full jitter. The delay before attempt <i>n + 1</i> is a
+ * random value between zero and <code>min(maxDelay, baseDelay * 2^(n - 1))</code>, so threads that fail together
+ * spread their retries out instead of hitting the endpoint again in lock step. Throttling errors back off from a
+ * larger base than other transient errors. Each call gives up after {@link #getMaxAttempts()} attempts or once the
+ * time spent waiting would exceed {@link #getMaxTotalDelay()}, whichever comes first.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+    static public final int  DEFAULT_MAX_ATTEMPTS          = 5;
+    static public final long DEFAULT_BASE_DELAY            = 100L;
+    static public final long DEFAULT_THROTTLING_BASE_DELAY = 500L;
+    static public final long DEFAULT_MAX_DELAY             = 20000L;
+    static public final long DEFAULT_MAX_TOTAL_DELAY       = 60000L;
+
+    static private final Set<String> THROTTLING_CODES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "Throttling", "ThrottlingException", "ThrottledException", "RequestThrottled", "RequestThrottledException",
+            "RequestLimitExceeded", "TooManyRequestsException", "SlowDown", "PriorRequestNotComplete",
+            "BandwidthLimitExceeded", "ProvisionedThroughputExceededException"
+    )));
+
+    static private final Set<String> TRANSIENT_CODES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "InternalError", "InternalFailure", "ServiceUnavailable", "ServiceUnavailableException", "Unavailable",
+            "RequestTimeout", "RequestTimeoutException", "IDPCommunicationError"
+    )));
+
+    static private final Random random = new Random();
+
+    private final int  maxAttempts;
+    private final long baseDelay;
+    private final long throttlingBaseDelay;
+    private final long maxDelay;
+    private final long maxTotalDelay;
+
+    public ExponentialBackoffRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_THROTTLING_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_TOTAL_DELAY);
+    }
+
+    /**
+     * @param maxAttempts         the maximum number of attempts per call, including the first one
+     * @param baseDelay           the backoff base in milliseconds for transient errors
+     * @param throttlingBaseDelay the backoff base in milliseconds for throttling errors
+     * @param maxDelay            the cap in milliseconds on a single delay
+     * @param maxTotalDelay       the retry budget: the maximum time in milliseconds a call may spend waiting
+     */
+    public ExponentialBackoffRetryPolicy( int maxAttempts, long baseDelay, long throttlingBaseDelay, long maxDelay, long maxTotalDelay ) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.throttlingBaseDelay = throttlingBaseDelay;
+        this.maxDelay = maxDelay;
+        this.maxTotalDelay = maxTotalDelay;
+    }
+
+    @Override
+    public @Nonnull ErrorCategory classify( int status, @Nullable String code ) {
+        if( code != null ) {
+            if( THROTTLING_CODES.contains(code) ) {
+                return ErrorCategory.THROTTLING;
+            }
+            if( TRANSIENT_CODES.contains(code) ) {
+                return ErrorCategory.TRANSIENT;
+            }
+        }
+        if( status == 429 ) {
+            return ErrorCategory.THROTTLING;
+        }
+        if( status == 500 || status == 502 || status == 503 || status == 504 ) {
+            return ErrorCategory.TRANSIENT;
+        }
+        return ErrorCategory.FATAL;
+    }
+
+    @Override
+    public long getDelay( int attempt, @Nonnull ErrorCategory category, long totalDelay ) {
+        if( category == ErrorCategory.FATAL || attempt >= maxAttempts ) {
+            return -1L;
+        }
+        long base = ( category == ErrorCategory.THROTTLING ? throttlingBaseDelay : baseDelay );
+        long ceiling = base << Math.min(attempt - 1, 30);
+
+        if( ceiling <= 0 || ceiling > maxDelay ) {
+            ceiling = maxDelay;
+        }
+        long delay = ( long ) ( random.nextDouble() * ( ceiling + 1 ) );
+
+        if( totalDelay + delay > maxTotalDelay ) {
+            return -1L;
+        }
+        return delay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getMaxTotalDelay() {
+        return maxTotalDelay;
+    }
+}
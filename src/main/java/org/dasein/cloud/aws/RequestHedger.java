@@ -0,0 +1,368 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hedges read-only requests against tail latency. Once a whitelisted action has been slower than a percentile of
+ * its recent latencies, an identical second request is sent and whichever starts answering first is used; the
+ * other is abandoned. Hedges are paid for from a budget shared by every action: each request earns a fraction of a hedge, so
+ * hedging can never add more than that fraction of extra load, however slow the endpoint becomes.
+ * <p>
+ * Only idempotent actions may be hedged, since both requests may reach AWS. Instances are shared per provider
+ * through {@link AWSCloud#getRequestHedger()}.
+ * </p>
+ */
+public class RequestHedger {
+    static private final Logger logger = AWSCloud.getLogger(RequestHedger.class);
+
+    static public final double DEFAULT_PERCENTILE = 0.95;
+    static public final double DEFAULT_BUDGET     = 0.05;
+
+    /**
+     * The read-only actions hedged by default.
+     */
+    static public final Set<String> DEFAULT_ACTIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "DescribeAddresses", "DescribeAvailabilityZones", "DescribeImages", "DescribeInstanceStatus",
+            "DescribeInstances", "DescribeKeyPairs", "DescribeNetworkInterfaces", "DescribeRegions",
+            "DescribeRouteTables", "DescribeSecurityGroups", "DescribeSnapshots", "DescribeSubnets", "DescribeTags",
+            "DescribeVolumes", "DescribeVpcs", "DescribeLoadBalancers", "DescribeInstanceHealth",
+            "ListHostedZones", "GetHostedZone", "ListResourceRecordSets",
+            "GetUser", "GetGroup", "ListUsers", "ListGroups", "ListServerCertificates")));
+
+    static private final int    WINDOW      = 256;
+    static private final int    MIN_SAMPLES = 20;
+    static private final long   MIN_DELAY   = 10L;
+    static private final double MAX_TOKENS  = 10.0;
+
+    /**
+     * A request that may be sent more than once.
+     */
+    public interface Request<T> {
+        /**
+         * @param race decides which copy answers; a request that hands its response on while still reading it must
+         *             claim the race first, and a request that never claims it is claimed for when it returns
+         */
+        T execute( @Nonnull Race race ) throws CloudException, InternalException;
+    }
+
+    /**
+     * Decides which copy of a hedged request answers.
+     */
+    public interface Race {
+        /**
+         * @return true if this copy is, or now becomes, the one answering; false if the other copy already is, in
+         * which case this copy should be abandoned without reading its response
+         */
+        boolean claim();
+    }
+
+    static private final Race UNCONTESTED = new Race() {
+        @Override
+        public boolean claim() {
+            return true;
+        }
+    };
+
+    /**
+     * Thrown by a copy that lost the race; how it ended is of no interest.
+     */
+    static private class Superseded extends Exception {
+        static private final long serialVersionUID = 1L;
+    }
+
+    /**
+     * One copy of a hedged request.
+     */
+    static private class Copy<T> implements Callable<T>, Race {
+        private final Request<T>            request;
+        private final AtomicReference<Race> winner;
+
+        Copy( @Nonnull Request<T> request, @Nonnull AtomicReference<Race> winner ) {
+            this.request = request;
+            this.winner = winner;
+        }
+
+        @Override
+        public boolean claim() {
+            return ( winner.compareAndSet(null, this) || winner.get() == this );
+        }
+
+        @Override
+        public T call() throws Exception {
+            T result;
+
+            try {
+                result = request.execute(this);
+            }
+            catch( Exception e ) {
+                Race owner = winner.get();
+
+                if( owner != null && owner != this ) {
+                    throw new Superseded();
+                }
+                throw e;
+            }
+            if( !claim() ) {
+                throw new Superseded();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The most recent latencies of one action, in milliseconds.
+     */
+    static class Latencies {
+        private final long[] samples = new long[WINDOW];
+        private int          count;
+        private int          next;
+
+        synchronized void add( long millis ) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * @return the latency below which the given fraction of recent requests finished, or -1 if there are too
+         * few samples to tell
+         */
+        synchronized long getPercentile( double percentile ) {
+            if( count < MIN_SAMPLES ) {
+                return -1L;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, Math.max(0, (int)Math.ceil(percentile * count) - 1))];
+        }
+    }
+
+    private final ExecutorService                executor;
+    private final Set<String>                    actions;
+    private final double                         percentile;
+    private final double                         budget;
+    private final ConcurrentMap<String, Latencies> latencies = new ConcurrentHashMap<String, Latencies>();
+    private final AtomicLong                     hedged    = new AtomicLong();
+    private final AtomicLong                     won       = new AtomicLong();
+    private double                               tokens;
+
+    /**
+     * @param executor   runs the requests being raced; it must not be bounded by callers waiting on it
+     * @param actions    the actions that may be hedged
+     * @param percentile the fraction of recent requests, between 0 and 1, that must be beaten before hedging
+     * @param budget     the hedges allowed per request, between 0 and 1
+     */
+    public RequestHedger( @Nonnull ExecutorService executor, @Nonnull Set<String> actions, double percentile, double budget ) {
+        this.executor = executor;
+        this.actions = actions;
+        this.percentile = Math.min(1.0, Math.max(0.5, percentile));
+        this.budget = Math.min(1.0, Math.max(0.0, budget));
+    }
+
+    /**
+     * @return true if requests for the action may be sent twice
+     */
+    public boolean isHedged( @Nullable String action ) {
+        return ( action != null && actions.contains(action) );
+    }
+
+    /**
+     * @return the number of second requests sent
+     */
+    public long getHedgeCount() {
+        return hedged.get();
+    }
+
+    /**
+     * @return the number of second requests that answered before the first
+     */
+    public long getWinCount() {
+        return won.get();
+    }
+
+    /**
+     * Sends the request, racing a second copy against it if the first is slower than usual and the budget allows.
+     * @param action  the action being requested, which must be whitelisted
+     * @param request sends the request; it is called from pooled threads and may be called twice at once
+     * @return the first successful response
+     * @throws CloudException the request failed; if both copies failed, the failure of the first
+     * @throws InternalException the request failed locally or the caller was interrupted
+     */
+    public <T> T invoke( @Nonnull String action, @Nonnull final Request<T> request ) throws CloudException, InternalException {
+        final Latencies stats = getLatencies(action);
+        long delay = stats.getPercentile(percentile);
+
+        deposit();
+        if( delay < 0L ) {
+            // nothing to compare against yet
+            long start = System.nanoTime();
+            T result = request.execute(UNCONTESTED);
+
+            stats.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        }
+        CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+        List<Future<T>> futures = new ArrayList<Future<T>>(2);
+        AtomicReference<Race> winner = new AtomicReference<Race>();
+        final Copy<T> first = new Copy<T>(request, winner);
+        final AtomicBoolean recorded = new AtomicBoolean();
+        final long start = System.nanoTime();
+
+        futures.add(completion.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return first.call();
+                }
+                finally {
+                    if( recorded.compareAndSet(false, true) ) {
+                        stats.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }
+            }
+        }));
+        try {
+            Future<T> done = completion.poll(Math.max(MIN_DELAY, delay), TimeUnit.MILLISECONDS);
+
+            if( done == null && winner.get() == null && withdraw() ) {
+                hedged.incrementAndGet();
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Hedging " + action + " after " + delay + "ms");
+                }
+                futures.add(completion.submit(new Copy<T>(request, winner)));
+            }
+            if( done == null ) {
+                done = completion.take();
+            }
+            ExecutionException failure = null;
+            int remaining = futures.size() - 1;
+
+            while( true ) {
+                try {
+                    T result = done.get();
+
+                    if( done != futures.get(0) ) {
+                        won.incrementAndGet();
+                    }
+                    return result;
+                }
+                catch( ExecutionException e ) {
+                    if( !(e.getCause() instanceof Superseded) ) {
+                        if( winner.get() != null ) {
+                            // the copy that was answering failed part way through; the other has been abandoned
+                            throw rethrow(e.getCause());
+                        }
+                        if( failure == null || done == futures.get(0) ) {
+                            failure = e;
+                        }
+                    }
+                    if( remaining == 0 ) {
+                        throw rethrow(failure == null ? null : failure.getCause());
+                    }
+                    // the other copy may still succeed
+                    remaining--;
+                    done = completion.take();
+                }
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted while waiting for " + action, e);
+        }
+        finally {
+            // a first request that lost counts as at least as slow as the one that beat it
+            if( recorded.compareAndSet(false, true) ) {
+                stats.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            for( Future<T> future : futures ) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private @Nonnull Latencies getLatencies( @Nonnull String action ) {
+        Latencies stats = latencies.get(action);
+
+        if( stats == null ) {
+            Latencies existing;
+
+            stats = new Latencies();
+            existing = latencies.putIfAbsent(action, stats);
+            if( existing != null ) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    private synchronized void deposit() {
+        tokens = Math.min(MAX_TOKENS, tokens + budget);
+    }
+
+    private synchronized boolean withdraw() {
+        if( tokens < 1.0 ) {
+            return false;
+        }
+        tokens -= 1.0;
+        return true;
+    }
+
+    static private @Nonnull CloudException rethrow( @Nullable Throwable cause ) throws CloudException, InternalException {
+        if( cause instanceof CloudException ) {
+            throw (CloudException)cause;
+        }
+        if( cause instanceof InternalException ) {
+            throw (InternalException)cause;
+        }
+        if( cause instanceof RuntimeException ) {
+            throw (RuntimeException)cause;
+        }
+        if( cause instanceof Error ) {
+            throw (Error)cause;
+        }
+        throw new InternalException(cause);
+    }
+}
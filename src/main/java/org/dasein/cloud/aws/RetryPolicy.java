@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Decides whether a failed AWS call should be attempted again and how long to wait before doing so. The policy
+ * in effect for a provider is available through {@link AWSCloud#getRetryPolicy()} and may be replaced with
+ * {@link AWSCloud#setRetryPolicy(RetryPolicy)}.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Broad classes of failures that drive the retry decision.
+     */
+    enum ErrorCategory {
+        /**
+         * The service rejected the call because the account is sending too many requests.
+         */
+        THROTTLING,
+        /**
+         * A server-side or transport failure that is likely to succeed on a later attempt.
+         */
+        TRANSIENT,
+        /**
+         * A failure that will not go away by repeating the same request.
+         */
+        FATAL
+    }
+
+    /**
+     * Classifies a failed response.
+     *
+     * @param status the HTTP status returned by the service
+     * @param code   the AWS error code from the response body, if one could be read
+     * @return the category of the failure
+     */
+    @Nonnull ErrorCategory classify( int status, @Nullable String code );
+
+    /**
+     * Computes the pause before the next attempt of a call.
+     *
+     * @param attempt    the number of attempts already made for this call, starting at 1
+     * @param category   the category of the failure of the last attempt
+     * @param totalDelay the time in milliseconds already spent waiting between attempts of this call
+     * @return the delay in milliseconds before the next attempt, or a negative value if the call should fail now
+     */
+    long getDelay( int attempt, @Nonnull ErrorCategory category, long totalDelay );
+}
@@ -0,0 +1,642 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.identity.IAMMethod;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * AWS Signature Version 4 signer. Signing is on the path of every request, so the work that does not depend on the
+ * request is done once: the derived signing key is cached per (date, region, service), <code>Mac</code>,
+ * <code>MessageDigest</code> and date formats are reused per thread, and the canonical request, signed header list
+ * and target region are each built in a single pass without regular expressions.
+ * <p>
+ * Instances are thread safe; {@link AWSCloud} keeps one per provider.
+ * </p>
+ */
+public class SignatureV4Signer {
+    static private final String  HMAC_SHA256  = "HmacSHA256";
+    static private final Charset UTF8         = Charset.forName("UTF-8");
+    static private final char[]  HEX          = "0123456789abcdef".toCharArray();
+    static private final char[]  HEX_UPPER    = "0123456789ABCDEF".toCharArray();
+    static private final String  DEFAULT_REGION = "us-east-1";
+    static private final int     MAX_CACHED_KEYS = 256;
+    static private final int     BUFFER_SIZE  = 64 * 1024;
+
+    /**
+     * The payload hash sent for uploads whose chunks are signed as they are sent.
+     */
+    static public final String   STREAMING_PAYLOAD = "STREAMING-AWS4-HMAC-SHA256-PAYLOAD";
+    static private final String  CHUNK_ALGORITHM   = "AWS4-HMAC-SHA256-PAYLOAD";
+    static private final String  EMPTY_HASH        = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    static private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(HMAC_SHA256);
+            }
+            catch( NoSuchAlgorithmException e ) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static private final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            }
+            catch( NoSuchAlgorithmException e ) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static private final ThreadLocal<byte[]> buffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    static private final ThreadLocal<SimpleDateFormat> amzDateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US);
+
+            fmt.setTimeZone(new SimpleTimeZone(0, "GMT"));
+            return fmt;
+        }
+    };
+
+    static private final ThreadLocal<SimpleDateFormat> httpDateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        }
+    };
+
+    static private class SigningKey {
+        final String secretKey;
+        final byte[] key;
+
+        SigningKey( String secretKey, byte[] key ) {
+            this.secretKey = secretKey;
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentMap<String, SigningKey> signingKeys = new ConcurrentHashMap<String, SigningKey>();
+
+    /**
+     * Generates the value of the <code>Authorization</code> header for a request.
+     *
+     * @param accessKey     the access key ID
+     * @param secretKey     the secret access key
+     * @param action        the HTTP method (GET, POST, etc)
+     * @param url           the full URL for the request, including any query parameters
+     * @param serviceId     the canonical name of the service targeted in the request (e.g. "glacier")
+     * @param headers       the headers to sign; must include x-amz-date or date
+     * @param bodyHash      a hex-encoded SHA-256 hash of the body of the request
+     * @param defaultRegion the region to sign for when it cannot be read from an AWS host name
+     * @return a string suitable for including as the HTTP Authorization header
+     * @throws InternalException the request could not be signed
+     */
+    public @Nonnull String getAuthorization( @Nonnull String accessKey, @Nonnull String secretKey, @Nonnull String action, @Nonnull String url, @Nonnull String serviceId, @Nonnull Map<String, String> headers, @Nonnull String bodyHash, @Nullable String defaultRegion ) throws InternalException {
+        serviceId = serviceId.toLowerCase(Locale.ENGLISH);
+        String regionId = getRegion(getHost(url), serviceId, defaultRegion);
+        String amzDate = getAmzDate(headers);
+        String dateStamp = amzDate.substring(0, 8);
+        StringBuilder signedHeaders = new StringBuilder(64);
+        String canonicalRequest = getCanonicalRequest(action, url, headers, bodyHash, signedHeaders);
+        String scope = getScope(dateStamp, regionId, serviceId);
+        String stringToSign = AWSCloud.V4_ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+        String signature = toHex(hmacSHA256(getSigningKey(secretKey, dateStamp, regionId, serviceId), stringToSign));
+
+        return AWSCloud.V4_ALGORITHM + " Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+    }
+
+    /**
+     * @return the credential scope for a date, region and service
+     */
+    static public @Nonnull String getScope( @Nonnull String dateStamp, @Nonnull String regionId, @Nonnull String serviceId ) {
+        return dateStamp + "/" + regionId + "/" + serviceId + "/" + AWSCloud.V4_TERMINATION;
+    }
+
+    /**
+     * Signs one chunk of a <code>STREAMING-AWS4-HMAC-SHA256-PAYLOAD</code> upload. Each chunk signature covers the
+     * signature before it, starting from the seed signature of the request headers.
+     *
+     * @param signingKey        the key returned by {@link #getSigningKey(String, String, String, String)}
+     * @param amzDate           the x-amz-date of the request
+     * @param scope             the credential scope of the request
+     * @param previousSignature the signature of the previous chunk, or the seed signature for the first chunk
+     * @param chunk             the chunk data
+     * @param offset            the start of the chunk in <code>chunk</code>
+     * @param length            the chunk length; 0 for the final chunk
+     * @return the hex-encoded chunk signature
+     * @throws InternalException HMAC-SHA256 is not available
+     */
+    public @Nonnull String getChunkSignature( @Nonnull byte[] signingKey, @Nonnull String amzDate, @Nonnull String scope, @Nonnull String previousSignature, @Nonnull byte[] chunk, int offset, int length ) throws InternalException {
+        MessageDigest digest = getSHA256Digest();
+
+        digest.update(chunk, offset, length);
+        String stringToSign = CHUNK_ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + previousSignature + "\n" + EMPTY_HASH + "\n" + toHex(digest.digest());
+
+        return toHex(hmacSHA256(signingKey, stringToSign));
+    }
+
+    /**
+     * Returns the derived signing key for a date, region and service, computing it only on first use.
+     *
+     * @param secretKey the secret access key
+     * @param dateStamp the signing date as YYYYMMDD
+     * @param regionId  the region signed for
+     * @param serviceId the service signed for
+     * @return the signing key
+     * @throws InternalException HMAC-SHA256 is not available
+     */
+    public @Nonnull byte[] getSigningKey( @Nonnull String secretKey, @Nonnull String dateStamp, @Nonnull String regionId, @Nonnull String serviceId ) throws InternalException {
+        String cacheKey = dateStamp + "/" + regionId + "/" + serviceId;
+        SigningKey cached = signingKeys.get(cacheKey);
+
+        if( cached != null && cached.secretKey.equals(secretKey) ) {
+            return cached.key;
+        }
+        byte[] key = hmacSHA256(( "AWS4" + secretKey ).getBytes(UTF8), dateStamp);
+
+        key = hmacSHA256(key, regionId);
+        key = hmacSHA256(key, serviceId);
+        key = hmacSHA256(key, AWSCloud.V4_TERMINATION);
+        if( signingKeys.size() >= MAX_CACHED_KEYS ) {
+            // keys for past dates are never used again
+            signingKeys.clear();
+        }
+        signingKeys.put(cacheKey, new SigningKey(secretKey, key));
+        return key;
+    }
+
+    /**
+     * Builds the canonical request in one pass over the sorted headers, appending the signed header list to
+     * <code>signedHeaders</code> along the way.
+     */
+    @Nonnull String getCanonicalRequest( @Nonnull String action, @Nonnull String url, @Nonnull Map<String, String> headers, @Nonnull String bodyHash, @Nonnull StringBuilder signedHeaders ) throws InternalException {
+        final URI endpoint;
+
+        try {
+            endpoint = new URI(url.indexOf(' ') < 0 ? url : replaceSpaces(url)).normalize();
+        }
+        catch( URISyntaxException e ) {
+            throw new InternalException(e);
+        }
+        StringBuilder s = new StringBuilder(256 + url.length() + headers.size() * 48);
+        String path = endpoint.getPath();
+
+        s.append(action.toUpperCase(Locale.ENGLISH)).append('\n');
+        if( path == null || path.length() == 0 ) {
+            s.append('/');
+        }
+        else {
+            uriEncode(s, path, true);
+        }
+        s.append('\n');
+        appendCanonicalQueryString(s, endpoint.getRawQuery());
+        s.append('\n');
+
+        String[][] sorted = new String[headers.size()][];
+        int i = 0;
+
+        for( Map.Entry<String, String> entry : headers.entrySet() ) {
+            sorted[i++] = new String[] { entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue() };
+        }
+        Arrays.sort(sorted, new java.util.Comparator<String[]>() {
+            @Override
+            public int compare( String[] a, String[] b ) {
+                return a[0].compareTo(b[0]);
+            }
+        });
+        String previous = null;
+
+        for( String[] header : sorted ) {
+            s.append(header[0]).append(':');
+            appendCollapsed(s, header[1]);
+            s.append('\n');
+            if( !header[0].equals(previous) ) {
+                if( signedHeaders.length() > 0 ) {
+                    signedHeaders.append(';');
+                }
+                signedHeaders.append(header[0]);
+                previous = header[0];
+            }
+        }
+        s.append('\n').append(signedHeaders).append('\n').append(bodyHash);
+        return s.toString();
+    }
+
+    static private void appendCanonicalQueryString( @Nonnull StringBuilder s, @Nullable String rawQuery ) throws InternalException {
+        if( rawQuery == null || rawQuery.length() == 0 ) {
+            return;
+        }
+        List<String[]> params = new ArrayList<String[]>();
+        int start = 0;
+
+        while( start <= rawQuery.length() ) {
+            int end = start;
+
+            // '&' and ';' both separate parameters, as in URLEncodedUtils
+            while( end < rawQuery.length() && rawQuery.charAt(end) != '&' && rawQuery.charAt(end) != ';' ) {
+                end++;
+            }
+            if( end > start ) {
+                int eq = rawQuery.indexOf('=', start);
+                String name, value;
+
+                if( eq < 0 || eq > end ) {
+                    name = rawQuery.substring(start, end);
+                    value = "";
+                }
+                else {
+                    name = rawQuery.substring(start, eq);
+                    value = rawQuery.substring(eq + 1, end);
+                }
+                StringBuilder encodedName = new StringBuilder(name.length() + 8);
+                StringBuilder encodedValue = new StringBuilder(value.length() + 8);
+
+                uriEncode(encodedName, decode(name), false);
+                uriEncode(encodedValue, decode(value), false);
+                params.add(new String[] { encodedName.toString(), encodedValue.toString() });
+            }
+            start = end + 1;
+        }
+        // sort query parameters by key, then value
+        Collections.sort(params, new java.util.Comparator<String[]>() {
+            @Override
+            public int compare( String[] a, String[] b ) {
+                int c = a[0].compareTo(b[0]);
+
+                return (c != 0 ? c : a[1].compareTo(b[1]));
+            }
+        });
+        boolean first = true;
+
+        for( String[] param : params ) {
+            if( !first ) {
+                s.append('&');
+            }
+            s.append(param[0]).append('=').append(param[1]);
+            first = false;
+        }
+    }
+
+    static private @Nonnull String decode( @Nonnull String value ) throws InternalException {
+        if( value.indexOf('%') < 0 && value.indexOf('+') < 0 ) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        catch( IllegalArgumentException e ) {
+            // not valid percent-encoding; sign it as it was given
+            return value;
+        }
+    }
+
+    /**
+     * Percent-encodes everything except unreserved characters, and <code>/</code> if the value is a path.
+     */
+    static private void uriEncode( @Nonnull StringBuilder s, @Nonnull String value, boolean path ) {
+        for( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt(i);
+
+            if( (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~' || (path && c == '/') ) {
+                s.append(c);
+            }
+            else if( c < 0x80 ) {
+                appendEscaped(s, c);
+            }
+            else {
+                int end = i + 1;
+
+                if( Character.isHighSurrogate(c) && end < value.length() ) {
+                    end++;
+                }
+                for( byte b : value.substring(i, end).getBytes(UTF8) ) {
+                    appendEscaped(s, b & 0xff);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    static private void appendEscaped( @Nonnull StringBuilder s, int b ) {
+        s.append('%').append(HEX_UPPER[b >> 4]).append(HEX_UPPER[b & 0x0f]);
+    }
+
+    /**
+     * Appends a header value trimmed and with runs of whitespace collapsed to a single space.
+     */
+    static private void appendCollapsed( @Nonnull StringBuilder s, @Nullable String value ) {
+        if( value == null ) {
+            return;
+        }
+        boolean space = false;
+        boolean started = false;
+
+        for( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt(i);
+
+            if( Character.isWhitespace(c) ) {
+                space = started;
+            }
+            else {
+                if( space ) {
+                    s.append(' ');
+                    space = false;
+                }
+                s.append(c);
+                started = true;
+            }
+        }
+    }
+
+    static private @Nonnull String replaceSpaces( @Nonnull String url ) {
+        StringBuilder s = new StringBuilder(url.length() + 16);
+
+        for( int i = 0; i < url.length(); i++ ) {
+            char c = url.charAt(i);
+
+            if( c == ' ' ) {
+                s.append("%20");
+            }
+            else {
+                s.append(c);
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * @param url a request URL
+     * @return the host name of the URL, without scheme, port or path
+     */
+    static public @Nonnull String getHost( @Nonnull String url ) {
+        int start = url.indexOf("://");
+
+        start = (start < 0 ? 0 : start + 3);
+        int end = start;
+
+        while( end < url.length() ) {
+            char c = url.charAt(end);
+
+            if( c == '/' || c == ':' || c == '?' ) {
+                break;
+            }
+            end++;
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * Works out the region a request is signed for from the endpoint host. AWS hosts name the region in the label
+     * before <code>amazonaws</code> (<code>ec2.eu-west-1.amazonaws.com</code>,
+     * <code>s3-us-west-2.amazonaws.com</code>); global endpoints such as IAM and the classic S3 endpoint sign for
+     * us-east-1.
+     *
+     * @param host          the endpoint host
+     * @param serviceId     the lower case service ID
+     * @param defaultRegion the region to use for hosts outside amazonaws.com
+     * @return the region to sign for
+     */
+    static public @Nonnull String getRegion( @Nonnull String host, @Nonnull String serviceId, @Nullable String defaultRegion ) {
+        if( IAMMethod.SERVICE_ID.equals(serviceId) ) {
+            return DEFAULT_REGION;
+        }
+        int aws = host.indexOf(".amazonaws.");
+
+        if( aws < 0 ) {
+            if( defaultRegion != null && defaultRegion.length() > 0 ) {
+                return defaultRegion;
+            }
+            return getLegacyRegion(host);
+        }
+        int start = host.lastIndexOf('.', aws - 1) + 1;
+        String label = host.substring(start, aws);
+
+        if( label.startsWith("s3-") ) {
+            return label.substring(3);
+        }
+        if( start == 0 || label.equals(serviceId) || label.equals("s3") ) {
+            // service.amazonaws.com or bucket.s3.amazonaws.com
+            return DEFAULT_REGION;
+        }
+        return label;
+    }
+
+    /**
+     * The third label from the end, as regions were originally read from every host.
+     */
+    static private @Nonnull String getLegacyRegion( @Nonnull String host ) {
+        int end = host.length();
+
+        for( int i = 0; i < 2; i++ ) {
+            end = host.lastIndexOf('.', end - 1);
+            if( end < 0 ) {
+                return DEFAULT_REGION;
+            }
+        }
+        String label = host.substring(host.lastIndexOf('.', end - 1) + 1, end);
+
+        return (label.startsWith("s3-") ? label.substring(3) : label);
+    }
+
+    /**
+     * @return the x-amz-date header, or the date header converted to the same format
+     */
+    static @Nonnull String getAmzDate( @Nonnull Map<String, String> headers ) throws InternalException {
+        String amzDate = headers.get(AWSCloud.P_AWS_DATE);
+
+        // expecting YYYYMMDDTHHMMSSZ
+        if( amzDate != null ) {
+            if( amzDate.length() != 16 ) {
+                throw new InternalException("request has invalid " + AWSCloud.P_AWS_DATE);
+            }
+            return amzDate;
+        }
+        String date = null;
+
+        for( Map.Entry<String, String> entry : headers.entrySet() ) {
+            if( "date".equalsIgnoreCase(entry.getKey()) ) {
+                date = entry.getValue();
+                break;
+            }
+        }
+        if( date == null ) {
+            throw new InternalException("request is missing date header");
+        }
+        try {
+            return formatAmzDate(httpDateFormat.get().parse(date));
+        }
+        catch( ParseException e ) {
+            throw new InternalException("request has invalid date header format");
+        }
+    }
+
+    /**
+     * @param date the date to format
+     * @return the date as YYYYMMDD'T'HHMMSS'Z' in UTC
+     */
+    static public @Nonnull String formatAmzDate( @Nonnull Date date ) {
+        return amzDateFormat.get().format(date);
+    }
+
+    static public @Nonnull byte[] hmacSHA256( @Nonnull byte[] key, @Nonnull String data ) throws InternalException {
+        Mac hmac = mac.get();
+
+        try {
+            hmac.init(new SecretKeySpec(key, HMAC_SHA256));
+        }
+        catch( InvalidKeyException e ) {
+            throw new InternalException(e);
+        }
+        return hmac.doFinal(data.getBytes(UTF8));
+    }
+
+    /**
+     * @return this thread's SHA-256 digest, reset and ready for use
+     */
+    static public @Nonnull MessageDigest getSHA256Digest() {
+        MessageDigest digest = sha256.get();
+
+        digest.reset();
+        return digest;
+    }
+
+    static public @Nonnull String sha256Hex( @Nonnull String value ) {
+        return toHex(getSHA256Digest().digest(value.getBytes(UTF8)));
+    }
+
+    static public @Nonnull String sha256Hex( @Nonnull byte[] value ) {
+        return toHex(getSHA256Digest().digest(value));
+    }
+
+    /**
+     * Hashes a file without holding more than one buffer of it in memory.
+     *
+     * @param file the file to hash
+     * @return the hex-encoded SHA-256 hash of the file contents
+     * @throws InternalException the file could not be read
+     */
+    static public @Nonnull String sha256Hex( @Nonnull File file ) throws InternalException {
+        return sha256Hex(file, 0L, file.length());
+    }
+
+    /**
+     * Hashes part of a file with positional reads, a buffer at a time, so several parts of one file can be hashed
+     * at once.
+     *
+     * @param file   the file to hash
+     * @param offset the position of the first byte to hash
+     * @param length the number of bytes to hash
+     * @return the hex-encoded SHA-256 hash of the range
+     * @throws InternalException the file could not be read
+     */
+    static public @Nonnull String sha256Hex( @Nonnull File file, long offset, long length ) throws InternalException {
+        MessageDigest digest = getSHA256Digest();
+        ByteBuffer buf = ByteBuffer.wrap(buffer.get());
+        FileInputStream input = null;
+
+        try {
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            long position = offset;
+            long end = offset + length;
+
+            while( position < end ) {
+                buf.clear();
+                buf.limit((int)Math.min(buf.capacity(), end - position));
+                int read = channel.read(buf, position);
+
+                if( read == -1 ) {
+                    throw new InternalException("Unexpected end of " + file + " at " + position);
+                }
+                digest.update(buf.array(), 0, read);
+                position += read;
+            }
+            return toHex(digest.digest());
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            if( input != null ) {
+                try {
+                    input.close();
+                }
+                catch( IOException ignore ) {
+                }
+            }
+        }
+    }
+
+    static public @Nonnull String toHex( @Nonnull byte[] bytes ) {
+        char[] chars = new char[bytes.length * 2];
+
+        for( int i = 0; i < bytes.length; i++ ) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Copies a response body to the wire log line by line as it is read, so that a response can be parsed straight
+ * from the connection while still being logged. Only the current line is held in memory. Use {@link #wrap} to
+ * get the stream itself back when wire logging is off.
+ */
+public class WireLogInputStream extends FilterInputStream {
+    static private final int MAX_LINE = 8192;
+
+    /**
+     * @param input the response body
+     * @param wire  the wire logger of the calling method
+     * @return a stream copying the body to the wire log if it is enabled for debug, otherwise <code>input</code>
+     */
+    static public @Nonnull InputStream wrap( @Nonnull InputStream input, @Nonnull Logger wire ) {
+        if( wire.isDebugEnabled() ) {
+            return new WireLogInputStream(input, wire);
+        }
+        return input;
+    }
+
+    private final Logger                wire;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+    private WireLogInputStream( @Nonnull InputStream input, @Nonnull Logger wire ) {
+        super(input);
+        this.wire = wire;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+
+        if( b == -1 ) {
+            flush();
+        }
+        else {
+            log(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read( @Nonnull byte[] buffer, int offset, int length ) throws IOException {
+        int count = super.read(buffer, offset, length);
+
+        if( count == -1 ) {
+            flush();
+        }
+        for( int i = 0; i < count; i++ ) {
+            log(buffer[offset + i]);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip( long n ) throws IOException {
+        // route skipped bytes through read() so they still reach the log
+        byte[] buffer = new byte[(int)Math.min(n, 2048L)];
+        int count = read(buffer, 0, buffer.length);
+
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            super.close();
+        }
+    }
+
+    private void log( int b ) {
+        if( b == '\n' ) {
+            flush();
+        }
+        else if( b != '\r' ) {
+            line.write(b);
+            if( line.size() >= MAX_LINE ) {
+                flush();
+            }
+        }
+    }
+
+    private void flush() {
+        if( line.size() > 0 ) {
+            try {
+                wire.debug(line.toString("UTF-8"));
+            }
+            catch( UnsupportedEncodingException e ) {
+                wire.debug(line.toString());
+            }
+            line.reset();
+        }
+    }
+}
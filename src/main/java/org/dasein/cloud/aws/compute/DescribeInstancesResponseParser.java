@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.util.Jiterator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a <code>DescribeInstances</code> response. Each <code>instancesSet/item</code> is turned into a small,
+ * detached DOM subtree as soon as it closes and handed to a {@link Converter}, so only one instance is held in memory
+ * at a time and the resulting virtual machines can be pushed to a {@link Jiterator} while the rest of the response
+ * is still downloading. The <code>nextToken</code> of a paginated response is available from {@link #getNextToken()}
+ * once parsing is done.
+ */
+public class DescribeInstancesResponseParser implements XmlStreamParser<VirtualMachine> {
+
+    /**
+     * Converts a single <code>instancesSet/item</code> element into a virtual machine.
+     */
+    public interface Converter {
+        @Nullable VirtualMachine toVirtualMachine( @Nonnull Node item ) throws CloudException, InternalException;
+    }
+
+    private final Converter                converter;
+    private final VMFilterOptions          options;
+    private final List<VirtualMachine>     list;
+    private final Jiterator<VirtualMachine> iterator;
+    private final Semaphore                unconsumed;
+    private final long                     patience;
+    private String                         nextToken;
+    private boolean                        abandoned;
+
+    /**
+     * Collects the parsed virtual machines into a list, which is also returned from {@link #parse(InputStream)}.
+     */
+    public DescribeInstancesResponseParser( @Nonnull Converter converter, @Nullable VMFilterOptions options, @Nonnull List<VirtualMachine> list ) {
+        this.converter = converter;
+        this.options = options;
+        this.list = list;
+        this.iterator = null;
+        this.unconsumed = null;
+        this.patience = 0L;
+    }
+
+    /**
+     * Pushes each parsed virtual machine to the iterator as soon as its item has been read.
+     */
+    public DescribeInstancesResponseParser( @Nonnull Converter converter, @Nullable VMFilterOptions options, @Nonnull Jiterator<VirtualMachine> iterator ) {
+        this.converter = converter;
+        this.options = options;
+        this.list = null;
+        this.iterator = iterator;
+        this.unconsumed = null;
+        this.patience = 0L;
+    }
+
+    /**
+     * Pushes each parsed virtual machine to the iterator once a permit is available from <code>unconsumed</code>,
+     * which the consumer of the iterator releases for every result it takes. Parsing stops, and
+     * {@link #isAbandoned()} becomes true, if no permit becomes available within the patience.
+     * @param patience the longest time, in milliseconds, to wait for the consumer
+     */
+    public DescribeInstancesResponseParser( @Nonnull Converter converter, @Nullable VMFilterOptions options, @Nonnull Jiterator<VirtualMachine> iterator, @Nonnull Semaphore unconsumed, long patience ) {
+        this.converter = converter;
+        this.options = options;
+        this.list = null;
+        this.iterator = iterator;
+        this.unconsumed = unconsumed;
+        this.patience = patience;
+    }
+
+    /**
+     * @return the token for the next page of results, or <code>null</code> if this was the last page
+     */
+    public @Nullable String getNextToken() {
+        return nextToken;
+    }
+
+    /**
+     * @return true if parsing stopped early because the consumer stopped taking results
+     */
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    @Override
+    public List<VirtualMachine> parse( InputStream stream ) throws IOException, CloudException, InternalException {
+        XMLStreamReader reader = null;
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            reader = factory.createXMLStreamReader(stream);
+            nextToken = null;
+            abandoned = false;
+
+            int depth = 0;
+            boolean inInstances = false;
+
+            while( reader.hasNext() ) {
+                int event = reader.next();
+
+                switch( event ) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        String name = reader.getLocalName();
+
+                        if( inInstances && "item".equals(name) ) {
+                            Node item = readElement(reader, builder.newDocument());
+                            VirtualMachine vm = converter.toVirtualMachine(item);
+
+                            depth--;
+                            if( vm != null && (options == null || options.matches(vm)) && !add(vm) ) {
+                                abandoned = true;
+                                return Collections.emptyList();
+                            }
+                        }
+                        else if( "instancesSet".equals(name) ) {
+                            inInstances = true;
+                        }
+                        else if( depth == 2 && "nextToken".equals(name) ) {
+                            String value = reader.getElementText().trim();
+
+                            depth--;
+                            nextToken = (value.length() > 0 ? value : null);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        depth--;
+                        if( "instancesSet".equals(reader.getLocalName()) ) {
+                            inInstances = false;
+                        }
+                        break;
+                }
+            }
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        catch( ParserConfigurationException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            if( reader != null ) {
+                try {
+                    reader.close();
+                }
+                catch( XMLStreamException e ) {
+                    // Ignore
+                }
+            }
+        }
+        return (list == null ? Collections.<VirtualMachine>emptyList() : list);
+    }
+
+    private boolean add( @Nonnull VirtualMachine vm ) throws InternalException {
+        if( unconsumed != null ) {
+            try {
+                if( !unconsumed.tryAcquire(patience, TimeUnit.MILLISECONDS) ) {
+                    return false;
+                }
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+        }
+        if( iterator != null ) {
+            iterator.push(vm);
+        }
+        else {
+            list.add(vm);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the element the reader is positioned on, and everything under it, into a DOM element. The reader is
+     * left on the matching end tag.
+     */
+    private @Nonnull Element readElement( @Nonnull XMLStreamReader reader, @Nonnull Document doc ) throws XMLStreamException {
+        List<Element> path = new ArrayList<Element>();
+        StringBuilder text = new StringBuilder();
+        Element root = doc.createElement(reader.getLocalName());
+        boolean hasChildren = false;
+
+        path.add(root);
+        while( reader.hasNext() ) {
+            int event = reader.next();
+
+            switch( event ) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = doc.createElement(reader.getLocalName());
+
+                    // whitespace between child elements is only formatting
+                    if( text.toString().trim().length() > 0 ) {
+                        path.get(path.size() - 1).appendChild(doc.createTextNode(text.toString()));
+                    }
+                    text.setLength(0);
+                    path.get(path.size() - 1).appendChild(child);
+                    path.add(child);
+                    hasChildren = false;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    Element current = path.remove(path.size() - 1);
+
+                    if( text.length() > 0 && (!hasChildren || text.toString().trim().length() > 0) ) {
+                        current.appendChild(doc.createTextNode(text.toString()));
+                    }
+                    text.setLength(0);
+                    if( path.isEmpty() ) {
+                        return root;
+                    }
+                    hasChildren = true;
+                    break;
+            }
+        }
+        return root;
+    }
+}
@@ -32,6 +32,9 @@ import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.CalendarWrapper;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorPopulator;
+import org.dasein.util.PopulatorThread;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Megabyte;
 import org.dasein.util.uom.storage.Storage;
@@ -683,33 +686,14 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
             throw new CloudException("No context was established for this request");
         }
 
-        Future<Iterable<IpAddress>> ipPoolFuture = null;
-        Iterable<IpAddress> addresses;
-        if( getProvider().hasNetworkServices() ) {
-            NetworkServices services = getProvider().getNetworkServices();
-
-            if( services != null ) {
-                if( services.hasIpAddressSupport() ) {
-                    IpAddressSupport support = services.getIpAddressSupport();
-
-                    if( support != null ) {
-                        ipPoolFuture = support.listIpPoolConcurrently(IPVersion.IPV4, false);
-                    }
-                }
-            }
-        }
-
-
         Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_INSTANCES);
         EC2Method method;
-        NodeList blocks;
-        Document doc;
 
         AWSCloud.addIndexedParameters(parameters, "InstanceId", instanceIds);
 
         method = new EC2Method(getProvider(), parameters);
         try {
-            doc = method.invoke();
+            method.invoke(new DescribeInstancesResponseParser(new InstanceConverter(ctx), null, results));
         } catch( EC2Exception e ) {
             String code = e.getCode();
 
@@ -719,39 +703,69 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
             logger.error(e.getSummary());
             throw new CloudException(e);
         }
-        blocks = doc.getElementsByTagName("instancesSet");
-        for( int i = 0; i < blocks.getLength(); i++ ) {
-            NodeList instances = blocks.item(i).getChildNodes();
+        for( Iterator<VirtualMachine> it = results.iterator(); it.hasNext(); ) {
+            if( Arrays.binarySearch(instanceIds, it.next().getProviderVirtualMachineId()) < 0 ) {
+                it.remove();
+            }
+        }
+        return results;
+    }
 
-            for( int j = 0; j < instances.getLength(); j++ ) {
-                Node instance = instances.item(j);
+    /**
+     * Converts streamed <code>instancesSet</code> items with {@link #toVirtualMachine(ProviderContext, Node, IpAddressIndex)},
+     * looking up the account's elastic IPs in the background and indexing them once the first item arrives.
+     */
+    private class InstanceConverter implements DescribeInstancesResponseParser.Converter {
+        private final ProviderContext             ctx;
+        private final Future<Iterable<IpAddress>> ipPoolFuture;
+        private volatile IpAddressIndex           addresses;
 
-                if( instance.getNodeName().equals("item") ) {
-                    try {
-                        if( ipPoolFuture != null ) {
-                            addresses = ipPoolFuture.get(30, TimeUnit.SECONDS);
-                        }
-                        else {
-                            addresses = Collections.emptyList();
+        InstanceConverter( @Nonnull ProviderContext ctx ) throws CloudException, InternalException {
+            Future<Iterable<IpAddress>> future = null;
+
+            this.ctx = ctx;
+            if( getProvider().hasNetworkServices() ) {
+                NetworkServices services = getProvider().getNetworkServices();
+
+                if( services != null ) {
+                    if( services.hasIpAddressSupport() ) {
+                        IpAddressSupport support = services.getIpAddressSupport();
+
+                        if( support != null ) {
+                            future = support.listIpPoolConcurrently(IPVersion.IPV4, false);
                         }
-                    } catch( InterruptedException e ) {
-                        logger.error(e.getMessage());
-                        addresses = Collections.emptyList();
-                    } catch( ExecutionException e ) {
-                        logger.error(e.getMessage());
-                        addresses = Collections.emptyList();
-                    } catch( TimeoutException e ) {
-                        logger.error(e.getMessage());
-                        addresses = Collections.emptyList();
                     }
-                    VirtualMachine server = toVirtualMachine(ctx, instance, addresses);
-                    if( server != null && Arrays.binarySearch(instanceIds, server.getProviderVirtualMachineId()) >= 0) {
-                        results.add(server);
+                }
+            }
+            this.ipPoolFuture = future;
+        }
+
+        @Override
+        public @Nullable VirtualMachine toVirtualMachine( @Nonnull Node item ) throws CloudException, InternalException {
+            if( addresses == null ) {
+                Iterable<IpAddress> pool;
+
+                try {
+                    if( ipPoolFuture != null ) {
+                        pool = ipPoolFuture.get(30, TimeUnit.SECONDS);
+                    }
+                    else {
+                        pool = Collections.emptyList();
                     }
+                } catch( InterruptedException e ) {
+                    logger.error(e.getMessage());
+                    pool = Collections.emptyList();
+                } catch( ExecutionException e ) {
+                    logger.error(e.getMessage());
+                    pool = Collections.emptyList();
+                } catch( TimeoutException e ) {
+                    logger.error(e.getMessage());
+                    pool = Collections.emptyList();
                 }
+                addresses = new IpAddressIndex(pool);
             }
+            return EC2Instance.this.toVirtualMachine(ctx, item, addresses);
         }
-        return results;
     }
 
     @Override
@@ -1655,7 +1669,7 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
                 Node instance = instances.item(j);
 
                 if( instance.getNodeName().equals("item") ) {
-                    VirtualMachine server = toVirtualMachine(ctx, instance, new ArrayList<IpAddress>() /* can't be an elastic IP */);
+                    VirtualMachine server = toVirtualMachine(ctx, instance, IpAddressIndex.EMPTY /* can't be an elastic IP */);
                     if( server != null ) {
                         servers.add(server);
                         instanceIds.add(server.getProviderVirtualMachineId());
@@ -1893,84 +1907,160 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         return extraParameters;
     }
 
-    private @Nonnull Iterable<VirtualMachine> listVirtualMachinesWithParams( Map<String, String> extraParameters, @Nullable VMFilterOptions options ) throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "listVirtualMachines");
-        try {
-            ProviderContext ctx = getProvider().getContext();
+    private @Nonnull Iterable<VirtualMachine> listVirtualMachinesWithParams( Map<String, String> extraParameters, final @Nullable VMFilterOptions options ) throws InternalException, CloudException {
+        final ProviderContext ctx = getProvider().getContext();
 
-            if( ctx == null ) {
-                throw new CloudException("No context was established for this request");
-            }
+        if( ctx == null ) {
+            throw new CloudException("No context was established for this request");
+        }
+        final Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_INSTANCES);
 
-            Future<Iterable<IpAddress>> ipPoolFuture = null;
-            Iterable<IpAddress> addresses;
-            if( getProvider().hasNetworkServices() ) {
-                NetworkServices services = getProvider().getNetworkServices();
+        AWSCloud.addExtraParameters(parameters, extraParameters);
 
-                if( services != null ) {
-                    if( services.hasIpAddressSupport() ) {
-                        IpAddressSupport support = services.getIpAddressSupport();
+        // MaxResults/NextToken are AWS only
+        final int pageSize = (getProvider().getEC2Provider().isAWS() ? getProvider().getInstanceListPageSize() : 0);
+        // lets the populator run at most about a page ahead of the consumer
+        final Semaphore unconsumed = new Semaphore(Math.max(pageSize, 1));
 
-                        if( support != null ) {
-                            ipPoolFuture = support.listIpPoolConcurrently(IPVersion.IPV4, false);
+        getProvider().hold();
+        PopulatorThread<VirtualMachine> populator = new PopulatorThread<VirtualMachine>(new JiteratorPopulator<VirtualMachine>() {
+            @Override
+            public void populate( @Nonnull Jiterator<VirtualMachine> iterator ) throws Exception {
+                APITrace.begin(getProvider(), "listVirtualMachines");
+                try {
+                    try {
+                        InstanceConverter converter = new InstanceConverter(ctx);
+
+                        if( pageSize < 1 ) {
+                            EC2Method method = new EC2Method(getProvider(), parameters);
+
+                            try {
+                                method.invoke(new DescribeInstancesResponseParser(converter, options, iterator));
+                            } catch( EC2Exception e ) {
+                                logger.error(e.getSummary());
+                                throw new CloudException(e);
+                            }
+                            return;
                         }
+                        InstancePage page = new InstancePage(parameters, null, pageSize);
+
+                        while( page != null ) {
+                            DescribeInstancesResponseParser parser = new DescribeInstancesResponseParser(converter, options, iterator, unconsumed, TimeUnit.MINUTES.toMillis(10L));
+
+                            // pushes each instance as it is parsed, waiting whenever a page of results is unconsumed
+                            page.parse(parser);
+                            if( parser.isAbandoned() ) {
+                                logger.warn("Abandoning instance listing; results have not been consumed for 10 minutes");
+                                return;
+                            }
+                            String nextToken = parser.getNextToken();
+
+                            // download the next page while the consumer works through this one
+                            page = (nextToken == null ? null : new InstancePage(parameters, nextToken, pageSize));
+                        }
+                    }
+                    finally {
+                        getProvider().release();
                     }
                 }
+                finally {
+                    APITrace.end();
+                }
             }
+        });
 
-            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_INSTANCES);
+        populator.populate();
+        if( pageSize < 1 ) {
+            return populator.getResult();
+        }
+        final Iterable<VirtualMachine> result = populator.getResult();
 
-            AWSCloud.addExtraParameters(parameters, extraParameters);
+        return new Iterable<VirtualMachine>() {
+            @Override
+            public @Nonnull Iterator<VirtualMachine> iterator() {
+                final Iterator<VirtualMachine> it = result.iterator();
 
-            EC2Method method = new EC2Method(getProvider(), parameters);
-            ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
-            NodeList blocks;
-            Document doc;
+                return new Iterator<VirtualMachine>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
 
-            try {
-                doc = method.invoke();
-            } catch( EC2Exception e ) {
-                logger.error(e.getSummary());
-                throw new CloudException(e);
-            }
-            blocks = doc.getElementsByTagName("instancesSet");
-            for( int i = 0; i < blocks.getLength(); i++ ) {
-                NodeList instances = blocks.item(i).getChildNodes();
+                    @Override
+                    public VirtualMachine next() {
+                        VirtualMachine vm = it.next();
 
-                for( int j = 0; j < instances.getLength(); j++ ) {
-                    Node instance = instances.item(j);
+                        unconsumed.release();
+                        return vm;
+                    }
 
-                    if( instance.getNodeName().equals("item") ) {
+                    @Override
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+        };
+    }
 
-                        try {
-                            if( ipPoolFuture != null ) {
-                                addresses = ipPoolFuture.get(30, TimeUnit.SECONDS);
-                            }
-                            else {
-                                addresses = Collections.emptyList();
-                            }
-                        } catch( InterruptedException e ) {
-                            logger.error(e.getMessage());
-                            addresses = Collections.emptyList();
-                        } catch( ExecutionException e ) {
-                            logger.error(e.getMessage());
-                            addresses = Collections.emptyList();
-                        } catch( TimeoutException e ) {
-                            logger.error(e.getMessage());
-                            addresses = Collections.emptyList();
-                        }
+    /**
+     * One page of a paginated <code>DescribeInstances</code> listing, downloaded in the background from the moment
+     * it is created. Only the raw response is held until the page is parsed.
+     */
+    private class InstancePage {
+        private final Future<List<byte[]>> body;
 
-                        VirtualMachine vm = toVirtualMachine(ctx, instance, addresses);
+        InstancePage( @Nonnull Map<String, String> parameters, @Nullable String nextToken, int pageSize ) throws InternalException, CloudException {
+            Map<String, String> pageParameters = new HashMap<String, String>(parameters);
 
-                        if( options == null || options.matches(vm) ) {
-                            list.add(vm);
-                        }
+            pageParameters.put("MaxResults", String.valueOf(pageSize));
+            if( nextToken != null ) {
+                pageParameters.put("NextToken", nextToken);
+            }
+            body = new EC2Method(getProvider(), pageParameters).invokeAsync(new XmlStreamParser<byte[]>() {
+                @Override
+                public List<byte[]> parse( InputStream stream ) throws IOException {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int count;
+
+                    while( (count = stream.read(buffer)) != -1 ) {
+                        out.write(buffer, 0, count);
                     }
+                    return Collections.singletonList(out.toByteArray());
                 }
+            });
+        }
+
+        /**
+         * Waits for the page to arrive and then streams it through the parser.
+         */
+        void parse( @Nonnull DescribeInstancesResponseParser parser ) throws InternalException, CloudException {
+            try {
+                parser.parse(new ByteArrayInputStream(body.get().get(0)));
+            }
+            catch( IOException e ) {
+                throw new CloudException(e);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            catch( ExecutionException e ) {
+                Throwable cause = e.getCause();
+
+                if( cause instanceof EC2Exception ) {
+                    logger.error(((EC2Exception)cause).getSummary());
+                    throw new CloudException(cause);
+                }
+                if( cause instanceof CloudException ) {
+                    throw (CloudException)cause;
+                }
+                if( cause instanceof InternalException ) {
+                    throw (InternalException)cause;
+                }
+                throw new CloudException(cause);
             }
-            return list;
-        } finally {
-            APITrace.end();
         }
     }
 
@@ -2157,7 +2247,7 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         }
     }
 
-    private @Nullable VirtualMachine toVirtualMachine( @Nonnull ProviderContext ctx, @Nullable Node instance, @Nonnull Iterable<IpAddress> addresses ) throws CloudException {
+    private @Nullable VirtualMachine toVirtualMachine( @Nonnull ProviderContext ctx, @Nullable Node instance, @Nonnull IpAddressIndex addresses ) throws CloudException {
         if( instance == null ) {
             return null;
         }
@@ -2259,12 +2349,11 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
                 if( attr.hasChildNodes() ) {
                     String value = attr.getFirstChild().getNodeValue();
 
+                    IpAddress addr = addresses.forPublicIp(value);
+
                     server.setPublicAddresses(new RawAddress(value));
-                    for( IpAddress addr : addresses ) {
-                        if( value.equals(addr.getRawAddress().getIpAddress()) ) {
-                            server.setProviderAssignedIpAddressId(addr.getProviderIpAddressId());
-                            break;
-                        }
+                    if( addr != null ) {
+                        server.setProviderAssignedIpAddressId(addr.getProviderIpAddressId());
                     }
                 }
             }
@@ -2541,6 +2630,13 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
                 server.setClientRequestToken(AWSCloud.getTextValue(attr));
             }
         }
+        if( server.getProviderAssignedIpAddressId() == null && server.getProviderVirtualMachineId() != null ) {
+            IpAddress addr = addresses.forInstance(server.getProviderVirtualMachineId());
+
+            if( addr != null ) {
+                server.setProviderAssignedIpAddressId(addr.getProviderIpAddressId());
+            }
+        }
         if( server.getPlatform() == null ) {
             server.setPlatform(Platform.UNKNOWN);
         }
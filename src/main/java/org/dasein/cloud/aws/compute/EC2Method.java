@@ -26,12 +26,18 @@ import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.admin.PrepaymentSupport;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.AdaptiveConcurrencyLimiter;
+import org.dasein.cloud.aws.AsyncTransport;
+import org.dasein.cloud.aws.RequestHedger;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.WireLogInputStream;
 import org.dasein.cloud.aws.identity.IAMMethod;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.identity.ServiceAction;
@@ -46,6 +52,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
@@ -53,6 +60,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class EC2Method {
     static private final Logger logger = AWSCloud.getLogger(EC2Method.class);
@@ -584,7 +593,6 @@ public class EC2Method {
         return new ServiceAction[0];
     }
 
-    private int                 attempts   = 0;
     private Map<String, String> parameters = null;
     private AWSCloud            provider   = null;
     private String              url        = null;
@@ -649,7 +657,133 @@ public class EC2Method {
         this.invoke(false, callback);
     }
 
+    /**
+     * Sends this request through the provider's {@link AWSCloud#getAsyncTransport() non-blocking transport} and
+     * returns without waiting for the response. No thread waits while the request is in flight, including between
+     * retries. Failures surface from {@link Future#get()} as an {@link java.util.concurrent.ExecutionException}
+     * wrapping the exception {@link #invoke()} would have thrown.
+     *
+     * @return the pending response document
+     * @throws InternalException the transport could not be started
+     */
+    public @Nonnull Future<Document> invokeAsync() throws InternalException {
+        return provider.getAsyncTransport().execute(new AsyncExchange<Document>() {
+            @Override
+            public Document handle( @Nonnull HttpUriRequest request, @Nonnull HttpResponse response ) throws CloudException, InternalException {
+                return handleResponse((HttpPost)request, response, null, null);
+            }
+        }, provider.getRetryPolicy());
+    }
+
+    /**
+     * Asynchronous variant of {@link #invoke(XmlStreamParser)}. The response is received without holding a thread
+     * and then parsed by the callback on one of the provider's {@link AWSCloud#getAsyncExecutor() worker threads}.
+     *
+     * @param callback the parser for the successful response
+     * @return the pending result of the parser
+     * @throws InternalException the transport could not be started
+     */
+    public @Nonnull <T> Future<List<T>> invokeAsync( @Nonnull final XmlStreamParser<T> callback ) throws InternalException {
+        return provider.getAsyncTransport().execute(new AsyncExchange<List<T>>() {
+            @Override
+            public List<T> handle( @Nonnull HttpUriRequest request, @Nonnull HttpResponse response ) throws CloudException, InternalException {
+                final List<List<T>> result = new ArrayList<List<T>>(1);
+
+                handleResponse((HttpPost)request, response, new XmlStreamParser<T>() {
+                    @Override
+                    public List<T> parse( InputStream stream ) throws IOException, CloudException, InternalException {
+                        List<T> items = callback.parse(stream);
+
+                        result.add(items);
+                        return items;
+                    }
+                }, null);
+                return ( result.isEmpty() ? null : result.get(0) );
+            }
+        }, provider.getRetryPolicy());
+    }
+
+    /**
+     * Sends this call through the asynchronous transport, retrying the errors {@link #invoke()} would retry.
+     */
+    private abstract class AsyncExchange<T> implements AsyncTransport.Exchange<T> {
+        @Override
+        public @Nonnull String getName() {
+            return parameters.get(AWSCloud.P_ACTION);
+        }
+
+        @Override
+        public @Nonnull HttpUriRequest createRequest() throws CloudException, InternalException {
+            APITrace.trace(provider, parameters.get(AWSCloud.P_ACTION));
+            return createPost();
+        }
+
+        @Override
+        public @Nonnull RetryPolicy.ErrorCategory classify( @Nonnull Exception failure ) {
+            if( failure instanceof EC2Exception ) {
+                EC2Exception e = ( EC2Exception ) failure;
+
+                return provider.getRetryPolicy().classify(e.getStatus(), e.getCode());
+            }
+            return RetryPolicy.ErrorCategory.FATAL;
+        }
+    }
+
     private Document invoke( boolean debug, XmlStreamParser callback ) throws EC2Exception, CloudException, InternalException {
+        RetryPolicy retryPolicy = provider.getRetryPolicy();
+        long totalDelay = 0L;
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            try {
+                return hedge(debug, callback);
+            }
+            catch( EC2Exception e ) {
+                RetryPolicy.ErrorCategory category = retryPolicy.classify(e.getStatus(), e.getCode());
+                long delay = retryPolicy.getDelay(attempt, category, totalDelay);
+
+                if( delay < 0L ) {
+                    if( category != RetryPolicy.ErrorCategory.FATAL ) {
+                        logger.error("Giving up on " + parameters.get(AWSCloud.P_ACTION) + " after " + attempt + " attempts: " + e.getSummary());
+                    }
+                    throw e;
+                }
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Retrying " + parameters.get(AWSCloud.P_ACTION) + " in " + delay + "ms after " + category + " error: " + e.getSummary());
+                }
+                try {
+                    Thread.sleep(delay);
+                }
+                catch( InterruptedException interrupted ) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                totalDelay += delay;
+            }
+        }
+    }
+
+    /**
+     * Sends whitelisted read-only actions through the provider's {@link RequestHedger}, if hedging is enabled. The
+     * first copy whose response arrives claims the race and is parsed as it streams in; the other is aborted.
+     */
+    private Document hedge( final boolean debug, final XmlStreamParser callback ) throws EC2Exception, CloudException, InternalException {
+        String action = parameters.get(AWSCloud.P_ACTION);
+        RequestHedger hedger = provider.getRequestHedger();
+
+        if( hedger == null || !hedger.isHedged(action) ) {
+            return execute(debug, callback, null);
+        }
+        return hedger.invoke(action, new RequestHedger.Request<Document>() {
+            @Override
+            public Document execute( @Nonnull RequestHedger.Race race ) throws CloudException, InternalException {
+                return EC2Method.this.execute(debug, callback, race);
+            }
+        });
+    }
+
+    private Document execute( boolean debug, XmlStreamParser callback, @Nullable RequestHedger.Race race ) throws EC2Exception, CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("ENTER - " + EC2Method.class.getName() + ".invoke(" + debug + ")");
         }
@@ -657,316 +791,346 @@ public class EC2Method {
             wire.debug("");
             wire.debug("--------------------------------------------------------------------------------------");
         }
-        HttpClient client = null;
+        HttpPost post = null;
         try {
             if( logger.isDebugEnabled() ) {
                 logger.debug("Talking to server at " + url);
             }
 
-            HttpPost post = new HttpPost(url);
-            client = provider.getClient();
-
-            HttpResponse response;
+            post = createPost();
+            HttpClient client = provider.getClient();
+            HttpResponse response = null;
+            String serviceId = post.getURI().getHost().split("\\.")[0];
+            AdaptiveConcurrencyLimiter limiter = provider.getConcurrencyLimiter(serviceId, provider.getContext().getRegionId());
+            long started = limiter.acquire();
 
-            attempts++;
-            post.addHeader("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
-            post.addHeader(AWSCloud.P_AWS_DATE, provider.getV4HeaderDate(null));
-            String host = post.getURI().getHost();
-            String serviceId = host.split("\\.")[0];
-            post.addHeader("host", host);
-            if( provider.isDebug() ) {
-                post.addHeader("Connection", "close");
+            try {
+                APITrace.trace(provider, parameters.get(AWSCloud.P_ACTION));
+                response = client.execute(post);
+                if( wire.isDebugEnabled() ) {
+                    wire.debug(response.getStatusLine().toString());
+                }
             }
-
-            RequestTrackingStrategy strategy = provider.getContext().getRequestTrackingStrategy();
-            if( strategy != null && strategy.getSendAsHeader() ) {
-                post.addHeader(strategy.getHeaderName(), strategy.getRequestId());
+            catch( IOException e ) {
+                logger.error("I/O error from server communications: " + e.getMessage());
+                throw new InternalException("There was a temporary communication issue with the cloud, please try your request again", e);
             }
+            finally {
+                if( response == null ) {
+                    limiter.release();
+                }
+            }
+            int status = response.getStatusLine().getStatusCode();
+            String errorCode = null;
 
-            List<NameValuePair> params = new ArrayList<NameValuePair>();
-
-            for( Map.Entry<String, String> entry : parameters.entrySet() ) {
-                params.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
+            if( status == HttpServletResponse.SC_OK ) {
+                limiter.release(started, parameters.get(AWSCloud.P_ACTION), false);
             }
             try {
-                post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+                return handleResponse(post, response, callback, race);
+            }
+            catch( EC2Exception e ) {
+                errorCode = e.getCode();
+                throw e;
+            }
+            finally {
+                if( status != HttpServletResponse.SC_OK ) {
+                    // ELB and IAM throttle with a 400, so errors can only be classified once their code is known
+                    limiter.release(started, parameters.get(AWSCloud.P_ACTION), AdaptiveConcurrencyLimiter.isThrottled(provider.getRetryPolicy(), status, errorCode));
+                }
+            }
+        }
+        finally {
+            if( post != null ) {
+                post.releaseConnection();
+            }
+            if( logger.isTraceEnabled() ) {
+                logger.trace("EXIT - " + EC2Method.class.getName() + ".invoke()");
             }
-            catch( UnsupportedEncodingException e ) {
-                throw new InternalException(e);
+            if( wire.isDebugEnabled() ) {
+                wire.debug("--------------------------------------------------------------------------------------");
+                wire.debug("");
             }
 
-            Map<String, String> headers = new HashMap<String, String>();
+        }
+    }
+
+    /**
+     * Builds and signs the request for this call; each attempt needs a request of its own.
+     */
+    private @Nonnull HttpPost createPost() throws InternalException {
+        HttpPost post = new HttpPost(url);
+
+        post.addHeader("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
+        post.addHeader(AWSCloud.P_AWS_DATE, provider.getV4HeaderDate(null));
+        String host = post.getURI().getHost();
+        String serviceId = host.split("\\.")[0];
+        post.addHeader("host", host);
+        if( provider.isDebug() ) {
+            post.addHeader("Connection", "close");
+        }
+
+        RequestTrackingStrategy strategy = provider.getContext().getRequestTrackingStrategy();
+        if( strategy != null && strategy.getSendAsHeader() ) {
+            post.addHeader(strategy.getHeaderName(), strategy.getRequestId());
+        }
+
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+
+        for( Map.Entry<String, String> entry : parameters.entrySet() ) {
+            params.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
+        }
+        try {
+            post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        for( Header header : post.getAllHeaders() ) {
+            headers.put(header.getName(), header.getValue());
+        }
+
+        final String v4Authorization;
+        try {
+            v4Authorization = provider.getV4Authorization(new String(provider.getAccessKey()[0]), new String(provider.getAccessKey()[1]), post.getMethod(), url, serviceId, headers, provider.getRequestBodyHash(EntityUtils.toString(post.getEntity())));
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        post.addHeader(AWSCloud.P_CFAUTH, v4Authorization);
+
+
+        if( wire.isDebugEnabled() ) {
+            wire.debug(post.getRequestLine().toString());
             for( Header header : post.getAllHeaders() ) {
-                headers.put(header.getName(), header.getValue());
+                wire.debug(header.getName() + ": " + header.getValue());
             }
+            wire.debug("");
 
-            final String v4Authorization;
             try {
-                v4Authorization = provider.getV4Authorization(new String(provider.getAccessKey()[0]), new String(provider.getAccessKey()[1]), post.getMethod(), url, serviceId, headers, provider.getRequestBodyHash(EntityUtils.toString(post.getEntity())));
+                wire.debug(EntityUtils.toString(post.getEntity()));
             }
-            catch( IOException e ) {
-                throw new InternalException(e);
+            catch( IOException ignore ) {
             }
-            post.addHeader(AWSCloud.P_CFAUTH, v4Authorization);
 
+            wire.debug("");
+        }
+        return post;
+    }
 
-            if( wire.isDebugEnabled() ) {
-                wire.debug(post.getRequestLine().toString());
-                for( Header header : post.getAllHeaders() ) {
-                    wire.debug(header.getName() + ": " + header.getValue());
-                }
-                wire.debug("");
+    /**
+     * Interprets a response to this call, parsing a successful one with the callback if there is one.
+     * @param post     the request answered, which is aborted if a hedged copy of it has already answered
+     * @param response the response
+     * @param callback the parser of a successful response, or null to return it as a document
+     * @param race     the race between hedged copies of this call, or null if it is not hedged
+     * @return the response document, or null if the callback parsed it
+     */
+    private Document handleResponse( @Nonnull HttpPost post, @Nonnull HttpResponse response, @Nullable XmlStreamParser callback, @Nullable RequestHedger.Race race ) throws EC2Exception, CloudException, InternalException {
+        int status = response.getStatusLine().getStatusCode();
 
-                try {
-                    wire.debug(EntityUtils.toString(post.getEntity()));
+        if( status == HttpServletResponse.SC_OK ) {
+            try {
+                HttpEntity entity = response.getEntity();
+
+                if( entity == null ) {
+                    throw EC2Exception.create(status);
                 }
-                catch( IOException ignore ) {
+                if( race != null && !race.claim() ) {
+                    // another copy of this hedged request is already answering; abort rather than drain this one
+                    post.abort();
+                    throw new CloudException("Superseded by a hedged copy of " + parameters.get(AWSCloud.P_ACTION));
                 }
+                InputStream input = entity.getContent();
 
-                wire.debug("");
-            }
-            try {
-                APITrace.trace(provider, parameters.get(AWSCloud.P_ACTION));
-                response = client.execute(post);
-                if( wire.isDebugEnabled() ) {
-                    wire.debug(response.getStatusLine().toString());
+                try {
+                    // When callback is passed, callback will parse the response, and therefore there
+                    // will be no DOM document created. The callback will likely take a list to populate
+                    // the results with.
+                    if( callback != null ) {
+                        callback.parse(WireLogInputStream.wrap(input, wire));
+                        return null;
+                    }
+                    else {
+                        return parseResponse(input);
+                    }
+                }
+                finally {
+                    input.close();
                 }
             }
             catch( IOException e ) {
-                logger.error("I/O error from server communications: " + e.getMessage());
-                throw new InternalException("There was a temporary communication issue with the cloud, please try your request again", e);
+                logger.error("Error parsing response from AWS: " + e.getMessage());
+                throw new CloudException(CloudErrorType.COMMUNICATION, status, null, e.getMessage());
             }
-            int status = response.getStatusLine().getStatusCode();
-            if( status == HttpServletResponse.SC_OK ) {
-                try {
-                    HttpEntity entity = response.getEntity();
+        }
+        else if( status == HttpServletResponse.SC_FORBIDDEN ) {
+            String msg = "API Access Denied (403)";
 
-                    if( entity == null ) {
-                        throw EC2Exception.create(status);
-                    }
-                    InputStream input = entity.getContent();
+            try {
+                HttpEntity entity = response.getEntity();
 
-                    try {
-                        // When callback is passed, callback will parse the response, and therefore there
-                        // will be no DOM document created. The callback will likely take a list to populate
-                        // the results with.
-                        if( callback != null ) {
-                            callback.parse(input);
-                            return null;
-                        }
-                        else {
-                            return parseResponse(input);
-                        }
-                    }
-                    finally {
-                        input.close();
-                    }
+                if( entity == null ) {
+                    throw EC2Exception.create(status);
                 }
-                catch( IOException e ) {
-                    logger.error("Error parsing response from AWS: " + e.getMessage());
-                    throw new CloudException(CloudErrorType.COMMUNICATION, status, null, e.getMessage());
-                }
-            }
-            else if( status == HttpServletResponse.SC_FORBIDDEN ) {
-                String msg = "API Access Denied (403)";
+                InputStream input = entity.getContent();
 
                 try {
-                    HttpEntity entity = response.getEntity();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(input));
+                    StringBuilder sb = new StringBuilder();
+                    String line;
 
-                    if( entity == null ) {
-                        throw EC2Exception.create(status);
+                    while( ( line = in.readLine() ) != null ) {
+                        sb.append(line);
+                        sb.append("\n");
                     }
-                    InputStream input = entity.getContent();
-
+                    //System.out.println(sb);
                     try {
-                        BufferedReader in = new BufferedReader(new InputStreamReader(input));
-                        StringBuilder sb = new StringBuilder();
-                        String line;
+                        Document doc = parseResponse(sb.toString());
 
-                        while( ( line = in.readLine() ) != null ) {
-                            sb.append(line);
-                            sb.append("\n");
-                        }
-                        //System.out.println(sb);
-                        try {
-                            Document doc = parseResponse(sb.toString());
-
-                            if( doc != null ) {
-                                NodeList blocks = doc.getElementsByTagName("Error");
-                                String code = null, message = null, requestId = null;
-
-                                if( blocks.getLength() > 0 ) {
-                                    Node error = blocks.item(0);
-                                    NodeList attrs;
-
-                                    attrs = error.getChildNodes();
-                                    for( int i = 0; i < attrs.getLength(); i++ ) {
-                                        Node attr = attrs.item(i);
-
-                                        if( attr.getNodeName().equals("Code") ) {
-                                            code = attr.getFirstChild().getNodeValue().trim();
-                                        }
-                                        else if( attr.getNodeName().equals("Message") ) {
-                                            message = attr.getFirstChild().getNodeValue().trim();
-                                        }
-                                    }
+                        if( doc != null ) {
+                            NodeList blocks = doc.getElementsByTagName("Error");
+                            String code = null, message = null, requestId = null;
 
-                                }
-                                blocks = doc.getElementsByTagName("RequestID");
-                                if( blocks.getLength() > 0 ) {
-                                    Node id = blocks.item(0);
+                            if( blocks.getLength() > 0 ) {
+                                Node error = blocks.item(0);
+                                NodeList attrs;
 
-                                    requestId = id.getFirstChild().getNodeValue().trim();
-                                }
-                                if( message == null && code == null ) {
-                                    throw new CloudException(CloudErrorType.COMMUNICATION, status, null, "Unable to identify error condition: " + status + "/" + requestId + "/null");
-                                }
-                                else if( message == null ) {
-                                    message = code;
+                                attrs = error.getChildNodes();
+                                for( int i = 0; i < attrs.getLength(); i++ ) {
+                                    Node attr = attrs.item(i);
+
+                                    if( attr.getNodeName().equals("Code") ) {
+                                        code = attr.getFirstChild().getNodeValue().trim();
+                                    }
+                                    else if( attr.getNodeName().equals("Message") ) {
+                                        message = attr.getFirstChild().getNodeValue().trim();
+                                    }
                                 }
-                                throw EC2Exception.create(status, requestId, code, message);
+
                             }
+                            blocks = doc.getElementsByTagName("RequestID");
+                            if( blocks.getLength() > 0 ) {
+                                Node id = blocks.item(0);
+
+                                requestId = id.getFirstChild().getNodeValue().trim();
+                            }
+                            if( message == null && code == null ) {
+                                throw new CloudException(CloudErrorType.COMMUNICATION, status, null, "Unable to identify error condition: " + status + "/" + requestId + "/null");
+                            }
+                            else if( message == null ) {
+                                message = code;
+                            }
+                            throw EC2Exception.create(status, requestId, code, message);
                         }
-                        catch( RuntimeException ignore ) {
-                            // ignore me
-                        }
-                        catch( Error ignore ) {
-                            // ignore me
-                        }
-                        msg = msg + ": " + sb.toString().trim().replaceAll("\n", " / ");
                     }
-                    finally {
-                        input.close();
+                    catch( RuntimeException ignore ) {
+                        // ignore me
                     }
+                    catch( Error ignore ) {
+                        // ignore me
+                    }
+                    msg = msg + ": " + sb.toString().trim().replaceAll("\n", " / ");
                 }
-                catch( IOException ignore ) {
-                    // ignore me
-                }
-                catch( RuntimeException ignore ) {
-                    // ignore me
-                }
-                catch( Error ignore ) {
-                    // ignore me
+                finally {
+                    input.close();
                 }
-                throw new CloudException(msg);
             }
-            else {
-                if( logger.isDebugEnabled() ) {
-                    logger.debug("Received " + status + " from " + parameters.get(AWSCloud.P_ACTION));
-                }
-                if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
-                    if( attempts >= 5 ) {
-                        String msg;
+            catch( IOException ignore ) {
+                // ignore me
+            }
+            catch( RuntimeException ignore ) {
+                // ignore me
+            }
+            catch( Error ignore ) {
+                // ignore me
+            }
+            throw new CloudException(msg);
+        }
+        else {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Received " + status + " from " + parameters.get(AWSCloud.P_ACTION));
+            }
+            try {
+                HttpEntity entity = response.getEntity();
 
-                        if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
-                            msg = "Cloud service is currently unavailable.";
-                        }
-                        else {
-                            msg = "The cloud service encountered a server error while processing your request.";
-                            try {
-                                HttpEntity entity = response.getEntity();
+                if( entity == null ) {
+                    throw EC2Exception.create(status);
+                }
+                InputStream input = entity.getContent();
+                Document doc;
 
-                                if( entity == null ) {
-                                    throw EC2Exception.create(status);
-                                }
-                                msg = msg + "Response from server was:\n" + EntityUtils.toString(entity);
-                            }
-                            catch( IOException ignore ) {
-                                // ignore me
+                try {
+                    doc = parseResponse(input);
+                }
+                catch( CloudException e ) {
+                    if( status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+                        // server errors often come without a parsable body; keep the status so they can be retried
+                        throw EC2Exception.create(status, null, null, getServerErrorMessage(status));
+                    }
+                    throw e;
+                }
+                finally {
+                    input.close();
+                }
+                if( doc != null ) {
+                    NodeList blocks = doc.getElementsByTagName("Error");
+                    String code = null, message = null, requestId = null;
+
+                    if( blocks.getLength() > 0 ) {
+                        Node error = blocks.item(0);
+                        NodeList attrs;
+
+                        attrs = error.getChildNodes();
+                        for( int i = 0; i < attrs.getLength(); i++ ) {
+                            Node childNode = attrs.item(i).getFirstChild();
+                            String name = attrs.item(i).getNodeName();
+                            String value = null;
+                            if( childNode != null && childNode.getNodeValue() != null ) {
+                                value = childNode.getNodeValue().trim();
                             }
-                            catch( RuntimeException ignore ) {
-                                // ignore me
+                            if( "Code".equals(name) ) {
+                                code = value;
                             }
-                            catch( Error ignore ) {
-                                // ignore me
+                            else if( "Message".equals(name) ) {
+                                message = value;
                             }
                         }
-                        logger.error(msg);
-                        throw new CloudException(msg);
-                    }
-                    else {
-                        try {
-                            Thread.sleep(5000L);
-                        }
-                        catch( InterruptedException e ) { /* ignore */ }
-                        return invoke();
-                    }
-                }
-                try {
-                    HttpEntity entity = response.getEntity();
 
-                    if( entity == null ) {
-                        throw EC2Exception.create(status);
                     }
-                    InputStream input = entity.getContent();
-                    Document doc;
+                    blocks = doc.getElementsByTagName("RequestID");
+                    if( blocks.getLength() > 0 ) {
+                        Node id = blocks.item(0);
 
-                    try {
-                        doc = parseResponse(input);
-                    }
-                    finally {
-                        input.close();
+                        requestId = id.getFirstChild().getNodeValue().trim();
                     }
-                    if( doc != null ) {
-                        NodeList blocks = doc.getElementsByTagName("Error");
-                        String code = null, message = null, requestId = null;
-
-                        if( blocks.getLength() > 0 ) {
-                            Node error = blocks.item(0);
-                            NodeList attrs;
-
-                            attrs = error.getChildNodes();
-                            for( int i = 0; i < attrs.getLength(); i++ ) {
-                                Node childNode = attrs.item(i).getFirstChild();
-                                String name = attrs.item(i).getNodeName();
-                                String value = null;
-                                if( childNode != null && childNode.getNodeValue() != null ) {
-                                    value = childNode.getNodeValue().trim();
-                                }
-                                if( "Code".equals(name) ) {
-                                    code = value;
-                                }
-                                else if( "Message".equals(name) ) {
-                                    message = value;
-                                }
-                            }
-
+                    if( message == null ) {
+                        if( status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+                            throw EC2Exception.create(status, requestId, code, getServerErrorMessage(status));
                         }
-                        blocks = doc.getElementsByTagName("RequestID");
-                        if( blocks.getLength() > 0 ) {
-                            Node id = blocks.item(0);
-
-                            requestId = id.getFirstChild().getNodeValue().trim();
-                        }
-                        if( message == null ) {
-                            throw new CloudException(CloudErrorType.COMMUNICATION, status, null, "Unable to identify error condition: " + status + "/" + requestId + "/" + code);
-                        }
-                        if( code != null && code.toLowerCase().contains("capacity") ) {
-                            throw new CloudException(CloudErrorType.CAPACITY, status, code, message);
-                        }
-                        throw EC2Exception.create(status, requestId, code, message);
+                        throw new CloudException(CloudErrorType.COMMUNICATION, status, null, "Unable to identify error condition: " + status + "/" + requestId + "/" + code);
                     }
-                    throw new CloudException("Unable to parse error.");
-                }
-                catch( IOException e ) {
-                    logger.error(e);
-                    throw new CloudException(e);
+                    if( code != null && code.toLowerCase().contains("capacity") ) {
+                        throw new CloudException(CloudErrorType.CAPACITY, status, code, message);
+                    }
+                    throw EC2Exception.create(status, requestId, code, message);
                 }
+                throw new CloudException("Unable to parse error.");
             }
-        }
-        finally {
-            if( client != null ) {
-                client.getConnectionManager().shutdown();
-            }
-            if( logger.isTraceEnabled() ) {
-                logger.trace("EXIT - " + EC2Method.class.getName() + ".invoke()");
-            }
-            if( wire.isDebugEnabled() ) {
-                wire.debug("--------------------------------------------------------------------------------------");
-                wire.debug("");
+            catch( IOException e ) {
+                logger.error(e);
+                throw new CloudException(e);
             }
+        }
+    }
 
+    private String getServerErrorMessage( int status ) {
+        if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
+            return "Cloud service is currently unavailable.";
         }
+        return "The cloud service encountered a server error while processing your request.";
     }
 
     private Document parseResponse( String responseBody ) throws CloudException, InternalException {
@@ -994,30 +1158,31 @@ public class EC2Method {
         }
     }
 
+    /**
+     * Builds the DOM straight from the response stream, leaving the XML parser to decode it (UTF-8 unless the
+     * document declares otherwise). The body is copied to the wire log only when wire logging is enabled.
+     */
     private Document parseResponse( InputStream responseBodyAsStream ) throws CloudException, InternalException {
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new InputStreamReader(responseBodyAsStream));
-            StringBuilder sb = new StringBuilder();
-            String line;
+        InputStream input = WireLogInputStream.wrap(responseBodyAsStream, wire);
 
-            while( ( line = in.readLine() ) != null ) {
-                sb.append(line);
-                sb.append("\n");
-            }
-            return parseResponse(sb.toString());
+        try {
+            return XMLParser.parse(input);
         }
         catch( IOException e ) {
             throw new CloudException(e);
         }
+        catch( ParserConfigurationException e ) {
+            throw new CloudException(e);
+        }
+        catch( SAXException e ) {
+            throw new CloudException(e);
+        }
         finally {
-            if( in != null ) {
-                try {
-                    in.close();
-                }
-                catch( IOException e ) {
-                    // Ignore
-                }
+            try {
+                input.close();
+            }
+            catch( IOException e ) {
+                // Ignore
             }
         }
     }
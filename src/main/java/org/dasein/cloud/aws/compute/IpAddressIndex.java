@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.network.IpAddress;
+import org.dasein.cloud.network.RawAddress;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The elastic IP pool of an account indexed by public IP and by the instance each address is assigned to. Built once
+ * per listing so that joining instances to their elastic IPs costs a hash lookup per instance instead of a scan of
+ * the whole pool.
+ */
+final class IpAddressIndex {
+    static final IpAddressIndex EMPTY = new IpAddressIndex(Collections.<IpAddress>emptyList());
+
+    private final Map<String, IpAddress> byPublicIp   = new HashMap<String, IpAddress>();
+    private final Map<String, IpAddress> byInstanceId = new HashMap<String, IpAddress>();
+
+    IpAddressIndex( @Nonnull Iterable<IpAddress> addresses ) {
+        for( IpAddress address : addresses ) {
+            RawAddress raw = address.getRawAddress();
+            String instanceId = address.getServerId();
+
+            // keep the first match, as the linear scan this replaces did
+            if( raw != null && raw.getIpAddress() != null && !byPublicIp.containsKey(raw.getIpAddress()) ) {
+                byPublicIp.put(raw.getIpAddress(), address);
+            }
+            if( instanceId != null && !byInstanceId.containsKey(instanceId) ) {
+                byInstanceId.put(instanceId, address);
+            }
+        }
+    }
+
+    @Nullable IpAddress forPublicIp( @Nonnull String ipAddress ) {
+        return byPublicIp.get(ipAddress);
+    }
+
+    @Nullable IpAddress forInstance( @Nonnull String instanceId ) {
+        return byInstanceId.get(instanceId);
+    }
+}
@@ -35,6 +35,8 @@ import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.AdaptiveConcurrencyLimiter;
+import org.dasein.cloud.aws.RequestHedger;
 import org.dasein.cloud.aws.compute.EC2Exception;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.DNSSupport;
@@ -46,6 +48,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
@@ -133,7 +136,18 @@ public class Route53Method {
     }
 	   
     private Document get() throws EC2Exception, CloudException, InternalException {
-        return invokeMethod(new HttpGet(url));
+        RequestHedger hedger = provider.getRequestHedger();
+
+        if( hedger == null || !hedger.isHedged(operation) ) {
+            return invokeMethod(new HttpGet(url));
+        }
+        // each copy of a hedged request needs a request object of its own
+        return hedger.invoke(operation, new RequestHedger.Request<Document>() {
+            @Override
+            public Document execute( @Nonnull RequestHedger.Race race ) throws CloudException, InternalException {
+                return invokeMethod(new HttpGet(url));
+            }
+        });
     }
 	   
 	private Document post(String body) throws EC2Exception, CloudException, InternalException {
@@ -166,10 +180,9 @@ public class Route53Method {
 		if( logger.isDebugEnabled() ) {
 			logger.debug("Talking to server at " + url);
 		}
-        HttpClient client = null;
 		try {
-            client = provider.getClient();
-            HttpResponse response;
+            HttpClient client = provider.getClient();
+            HttpResponse response = null;
     		int status;
     
     		attempts++;
@@ -189,6 +202,9 @@ public class Route53Method {
             String xml;
 
             try {
+                AdaptiveConcurrencyLimiter limiter = provider.getConcurrencyLimiter("route53", null);
+                long started = limiter.acquire();
+
                 try {
                     APITrace.trace(provider, operation);
                     response = client.execute(method);
@@ -205,6 +221,12 @@ public class Route53Method {
                     logger.error(e);
                     throw new InternalException(e);
                 }
+                finally {
+                    if( response == null ) {
+                        limiter.release();
+                    }
+                }
+                xml = null;
                 try {
                     HttpEntity entity = response.getEntity();
 
@@ -223,6 +245,10 @@ public class Route53Method {
                     logger.error("Failed to read response error due to a cloud I/O error: " + e.getMessage());
                     throw new CloudException(e);
                 }
+                finally {
+                    // Route53 throttles with a 400, so errors can only be classified once their code is known
+                    limiter.release(started, operation, AdaptiveConcurrencyLimiter.isThrottled(provider.getRetryPolicy(), status, getErrorCode(status, xml)));
+                }
             }
             finally {
                 if( wire.isDebugEnabled() ) {
@@ -350,13 +376,37 @@ public class Route53Method {
     		}
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
-            }
+            method.releaseConnection();
             logger.debug("Done");
         }
 	}
 	
+    /**
+     * @return the AWS error code in the body of an error response, or null if it is not an error or has no code
+     */
+    private @Nullable String getErrorCode(int status, @Nullable String xml) {
+        if( xml == null || (status >= HttpServletResponse.SC_OK && status < HttpServletResponse.SC_MULTIPLE_CHOICES) ) {
+            return null;
+        }
+        try {
+            NodeList blocks = parseResponse(xml, false).getElementsByTagName("Code");
+
+            if( blocks.getLength() > 0 && blocks.item(0).hasChildNodes() ) {
+                return blocks.item(0).getFirstChild().getNodeValue().trim();
+            }
+        }
+        catch( CloudException ignore ) {
+            // not XML
+        }
+        catch( InternalException ignore ) {
+            // not XML
+        }
+        catch( RuntimeException ignore ) {
+            // not XML
+        }
+        return null;
+    }
+
 	private Document parseResponse(String responseBody, boolean debug) throws CloudException, InternalException {
 	    try {
 	        if( debug ) { System.out.println(responseBody); }
@@ -26,11 +26,13 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.AdaptiveConcurrencyLimiter;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.platform.CDNSupport;
 import org.dasein.cloud.util.APITrace;
@@ -148,10 +150,13 @@ public class CloudFrontMethod {
         client = provider.getClient();
         CloudFrontResponse response = new CloudFrontResponse();
 
-        HttpResponse httpResponse;
+        HttpResponse httpResponse = null;
         int status;
 
         try {
+            AdaptiveConcurrencyLimiter limiter = provider.getConcurrencyLimiter("cloudfront", null);
+            long started = limiter.acquire();
+
             try {
                 APITrace.trace(provider, action.toString());
                 httpResponse = client.execute(method);
@@ -163,135 +168,161 @@ public class CloudFrontMethod {
                 e.printStackTrace();
                 throw new InternalException(e);
             }
-            Header header = httpResponse.getFirstHeader("ETag");
-
-            if( header != null ) {
-                response.etag = header.getValue();
-            }
-            else {
-                response.etag = null;
+            finally {
+                if( httpResponse == null ) {
+                    limiter.release();
+                }
             }
-            if( status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_CREATED || status == HttpServletResponse.SC_ACCEPTED ) {
-                try {
-                    HttpEntity entity = httpResponse.getEntity();
+            String errorCode = null;
+            boolean released = false;
 
-                    if( entity == null ) {
-                        throw new CloudFrontException(status, null, null, "NoResponse", "No response body was specified");
-                    }
-                    InputStream input;
+            if( status >= HttpServletResponse.SC_OK && status < HttpServletResponse.SC_MULTIPLE_CHOICES ) {
+                released = true;
+                limiter.release(started, action.toString(), false);
+            }
+            try {
+                Header header = httpResponse.getFirstHeader("ETag");
 
+                if( header != null ) {
+                    response.etag = header.getValue();
+                }
+                else {
+                    response.etag = null;
+                }
+                if( status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_CREATED || status == HttpServletResponse.SC_ACCEPTED ) {
                     try {
-                        input = entity.getContent();
+                        HttpEntity entity = httpResponse.getEntity();
+
+                        if( entity == null ) {
+                            throw new CloudFrontException(status, null, null, "NoResponse", "No response body was specified");
+                        }
+                        InputStream input;
+
+                        try {
+                            input = entity.getContent();
+                        }
+                        catch( IOException e ) {
+                            throw new CloudException(e);
+                        }
+                        try {
+                            response.document = parseResponse(input);
+                            return response;
+                        }
+                        finally {
+                            input.close();
+                        }
                     }
                     catch( IOException e ) {
+                        logger.error(e);
+                        e.printStackTrace();
                         throw new CloudException(e);
                     }
-                    try {
-                        response.document = parseResponse(input);
-                        return response;
-                    }
-                    finally {
-                        input.close();
-                    }
                 }
-                catch( IOException e ) {
-                    logger.error(e);
-                    e.printStackTrace();
-                    throw new CloudException(e);
+                else if( status == HttpServletResponse.SC_NO_CONTENT ) {
+                    return null;
                 }
-            }
-            else if( status == HttpServletResponse.SC_NO_CONTENT ) {
-                return null;
-            }
-            else {
-                if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
-                    if( attempts >= 5 ) {
-                        String msg;
+                else {
+                    if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+                        if( attempts >= 5 ) {
+                            String msg;
 
-                        if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
-                            msg = "Cloud service is currently unavailable.";
+                            if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
+                                msg = "Cloud service is currently unavailable.";
+                            }
+                            else {
+                                msg = "The cloud service encountered a server error while processing your request.";
+                            }
+                            logger.error(msg);
+                            throw new CloudException(msg);
                         }
                         else {
-                            msg = "The cloud service encountered a server error while processing your request.";
+                            // free the slot before retrying, which needs one of its own
+                            released = true;
+                            limiter.release(started, action.toString(), AdaptiveConcurrencyLimiter.isThrottled(provider.getRetryPolicy(), status, null));
+                            EntityUtils.consumeQuietly(httpResponse.getEntity());
+                            try { Thread.sleep(5000L); }
+                            catch( InterruptedException ignore ) { }
+                            return invoke(args);
                         }
-                        logger.error(msg);
-                        throw new CloudException(msg);
-                    }
-                    else {
-                        try { Thread.sleep(5000L); }
-                        catch( InterruptedException ignore ) { }
-                        return invoke(args);
                     }
-                }
-                try {
-                    HttpEntity entity = httpResponse.getEntity();
+                    try {
+                        HttpEntity entity = httpResponse.getEntity();
 
-                    if( entity == null ) {
-                        throw new CloudFrontException(status, null, null, "NoResponse", "No response body was specified");
-                    }
-                    InputStream input;
+                        if( entity == null ) {
+                            throw new CloudFrontException(status, null, null, "NoResponse", "No response body was specified");
+                        }
+                        InputStream input;
 
-                    try {
-                        input = entity.getContent();
-                    }
-                    catch( IOException e ) {
-                        throw new CloudException(e);
-                    }
-                    Document doc;
+                        try {
+                            input = entity.getContent();
+                        }
+                        catch( IOException e ) {
+                            throw new CloudException(e);
+                        }
+                        Document doc;
 
-                    try {
-                        doc = parseResponse(input);
-                    }
-                    finally {
-                        input.close();
-                    }
-                    if( doc != null ) {
-                        String code = null, message = null, requestId = null, type = null;
-                        NodeList blocks = doc.getElementsByTagName("Error");
+                        try {
+                            doc = parseResponse(input);
+                        }
+                        finally {
+                            input.close();
+                        }
+                        if( doc != null ) {
+                            String code = null, message = null, requestId = null, type = null;
+                            NodeList blocks = doc.getElementsByTagName("Error");
 
-                        if( blocks.getLength() > 0 ) {
-                            Node error = blocks.item(0);
-                            NodeList attrs;
+                            if( blocks.getLength() > 0 ) {
+                                Node error = blocks.item(0);
+                                NodeList attrs;
 
-                            attrs = error.getChildNodes();
-                            for( int i=0; i<attrs.getLength(); i++ ) {
-                                Node attr = attrs.item(i);
+                                attrs = error.getChildNodes();
+                                for( int i=0; i<attrs.getLength(); i++ ) {
+                                    Node attr = attrs.item(i);
 
-                                if( attr.getNodeName().equals("Code") ) {
-                                    code = attr.getFirstChild().getNodeValue().trim();
-                                }
-                                else if( attr.getNodeName().equals("Type") ) {
-                                    type = attr.getFirstChild().getNodeValue().trim();
+                                    if( attr.getNodeName().equals("Code") ) {
+                                        code = attr.getFirstChild().getNodeValue().trim();
+                                    }
+                                    else if( attr.getNodeName().equals("Type") ) {
+                                        type = attr.getFirstChild().getNodeValue().trim();
+                                    }
+                                    else if( attr.getNodeName().equals("Message") ) {
+                                        message = attr.getFirstChild().getNodeValue().trim();
+                                    }
                                 }
-                                else if( attr.getNodeName().equals("Message") ) {
-                                    message = attr.getFirstChild().getNodeValue().trim();
-                                }
-                            }
 
-                        }
-                        blocks = doc.getElementsByTagName("RequestId");
-                        if( blocks.getLength() > 0 ) {
-                            Node id = blocks.item(0);
+                            }
+                            blocks = doc.getElementsByTagName("RequestId");
+                            if( blocks.getLength() > 0 ) {
+                                Node id = blocks.item(0);
 
-                            requestId = id.getFirstChild().getNodeValue().trim();
-                        }
-                        if( message == null ) {
-                            throw new CloudException("Unable to identify error condition: " + status + "/" + requestId + "/" + code);
+                                requestId = id.getFirstChild().getNodeValue().trim();
+                            }
+                            if( message == null ) {
+                                throw new CloudException("Unable to identify error condition: " + status + "/" + requestId + "/" + code);
+                            }
+                            throw new CloudFrontException(status, requestId, type, code, message);
                         }
-                        throw new CloudFrontException(status, requestId, type, code, message);
+                        throw new CloudException("Unable to parse error.");
+                    }
+                    catch( IOException e ) {
+                        logger.error(e);
+                        e.printStackTrace();
+                        throw new CloudException(e);
                     }
-                    throw new CloudException("Unable to parse error.");
                 }
-                catch( IOException e ) {
-                    logger.error(e);
-                    e.printStackTrace();
-                    throw new CloudException(e);
+            }
+            catch( CloudFrontException e ) {
+                errorCode = e.getCode();
+                throw e;
+            }
+            finally {
+                if( !released ) {
+                    // errors can only be classified as throttling once their code is known
+                    limiter.release(started, action.toString(), AdaptiveConcurrencyLimiter.isThrottled(provider.getRetryPolicy(), status, errorCode));
                 }
             }
         } finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
-            }
+            method.releaseConnection();
         }
     }
 	
@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.SignatureV4Signer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Sends a file in the <code>aws-chunked</code> encoding used by <code>STREAMING-AWS4-HMAC-SHA256-PAYLOAD</code>
+ * uploads. Each chunk is hashed and signed just before it is written, so the file is read once and only one chunk
+ * is held in memory, however large the file is. The file is read with positional reads, so a range of it can be
+ * sent as one part of a multipart upload. {@link #getContent()} produces the same chunks for clients that read the
+ * body rather than have it written.
+ */
+class ChunkedUploadEntity extends AbstractHttpEntity {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    static private final Charset ASCII            = Charset.forName("US-ASCII");
+    static private final String  CHUNK_SIGNATURE  = ";chunk-signature=";
+    static private final byte[]  CRLF             = { '\r', '\n' };
+    static private final int     SIGNATURE_LENGTH = 64;
+
+    private final File              file;
+    private final long              offset;
+    private final long              length;
+    private final SignatureV4Signer signer;
+    private final byte[]            signingKey;
+    private final String            amzDate;
+    private final String            scope;
+    private final String            seedSignature;
+    private final PayloadDigest     digest;
+
+    /**
+     * @param file          the file to upload
+     * @param offset        the position of the first byte to send
+     * @param length        the number of bytes to send
+     * @param contentType   the content type of the file
+     * @param signer        the signer that produced the request signature
+     * @param signingKey    the signing key for the request
+     * @param amzDate       the x-amz-date of the request
+     * @param scope         the credential scope of the request
+     * @param seedSignature the signature from the Authorization header of the request
+     * @param digest        updated with the file bytes as each chunk is written, or <code>null</code>
+     */
+    ChunkedUploadEntity( @Nonnull File file, long offset, long length, @Nullable String contentType, @Nonnull SignatureV4Signer signer, @Nonnull byte[] signingKey, @Nonnull String amzDate, @Nonnull String scope, @Nonnull String seedSignature, @Nullable PayloadDigest digest ) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.signer = signer;
+        this.signingKey = signingKey;
+        this.amzDate = amzDate;
+        this.scope = scope;
+        this.seedSignature = seedSignature;
+        this.digest = digest;
+        setContentType(contentType);
+    }
+
+    /**
+     * @param length the size of the file being sent
+     * @return the number of bytes the file takes once chunked and signed, which is the request Content-Length
+     */
+    static long getEncodedLength( long length ) {
+        long fullChunks = length / CHUNK_SIZE;
+        int remainder = (int)(length % CHUNK_SIZE);
+        long total = fullChunks * getChunkLength(CHUNK_SIZE);
+
+        if( remainder > 0 ) {
+            total += getChunkLength(remainder);
+        }
+        return total + getChunkLength(0);
+    }
+
+    static private long getChunkLength( int dataLength ) {
+        return Integer.toHexString(dataLength).length() + CHUNK_SIGNATURE.length() + SIGNATURE_LENGTH + CRLF.length + dataLength + CRLF.length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return getEncodedLength(length);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new ChunkStream(new FileInputStream(file));
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo( OutputStream output ) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            Chunker chunker = new Chunker(input.getChannel());
+            byte[] header;
+
+            while( (header = chunker.next()) != null ) {
+                output.write(header);
+                output.write(chunker.getData(), 0, chunker.getSize());
+                output.write(CRLF);
+            }
+            output.flush();
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private @Nonnull String sign( @Nonnull String previousSignature, @Nonnull byte[] chunk, int length ) throws IOException {
+        try {
+            return signer.getChunkSignature(signingKey, amzDate, scope, previousSignature, chunk, 0, length);
+        }
+        catch( InternalException e ) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads until the chunk is full or the range ends; every chunk but the last must be full size.
+     */
+    private int fill( @Nonnull FileChannel channel, @Nonnull ByteBuffer chunk, long position, long end ) throws IOException {
+        chunk.clear();
+        chunk.limit((int)Math.min(chunk.capacity(), end - position));
+        while( chunk.hasRemaining() ) {
+            int read = channel.read(chunk, position + chunk.position());
+
+            if( read == -1 ) {
+                throw new EOFException("Unexpected end of " + file + " at " + (position + chunk.position()));
+            }
+        }
+        return chunk.position();
+    }
+
+    /**
+     * Reads and signs the file one chunk at a time, each signature continuing the chain from the one before.
+     */
+    private class Chunker {
+        private final FileChannel channel;
+        private final ByteBuffer  chunk     = ByteBuffer.allocate(CHUNK_SIZE);
+        private String            signature = seedSignature;
+        private long              position  = offset;
+        private boolean           done      = false;
+
+        Chunker( @Nonnull FileChannel channel ) {
+            this.channel = channel;
+            if( digest != null ) {
+                digest.reset();
+            }
+        }
+
+        /**
+         * Reads the next chunk, which is then available from {@link #getData()}.
+         * @return the signed header line of the chunk, or <code>null</code> once the final, empty chunk has been read
+         */
+        @Nullable byte[] next() throws IOException {
+            if( done ) {
+                return null;
+            }
+            int size = fill(channel, chunk, position, offset + length);
+
+            position += size;
+            if( digest != null ) {
+                digest.update(chunk.array(), 0, size);
+            }
+            signature = sign(signature, chunk.array(), size);
+            done = ( size == 0 );
+            return ( Integer.toHexString(size) + CHUNK_SIGNATURE + signature + "\r\n" ).getBytes(ASCII);
+        }
+
+        @Nonnull byte[] getData() {
+            return chunk.array();
+        }
+
+        int getSize() {
+            return chunk.position();
+        }
+    }
+
+    /**
+     * Reads the encoded body, holding only the chunk being read.
+     */
+    private class ChunkStream extends InputStream {
+        private final FileInputStream input;
+        private final Chunker         chunker;
+        private final byte[]          frame = new byte[(int)getChunkLength(CHUNK_SIZE)];
+        private int                   frameLength;
+        private int                   framePosition;
+
+        ChunkStream( @Nonnull FileInputStream input ) {
+            this.input = input;
+            this.chunker = new Chunker(input.getChannel());
+        }
+
+        @Override
+        public int read() throws IOException {
+            if( !fillFrame() ) {
+                return -1;
+            }
+            return frame[framePosition++] & 0xff;
+        }
+
+        @Override
+        public int read( @Nonnull byte[] bytes, int off, int len ) throws IOException {
+            if( len == 0 ) {
+                return 0;
+            }
+            if( !fillFrame() ) {
+                return -1;
+            }
+            int count = Math.min(len, frameLength - framePosition);
+
+            System.arraycopy(frame, framePosition, bytes, off, count);
+            framePosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return frameLength - framePosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+        private boolean fillFrame() throws IOException {
+            if( framePosition < frameLength ) {
+                return true;
+            }
+            byte[] header = chunker.next();
+
+            if( header == null ) {
+                return false;
+            }
+            int size = chunker.getSize();
+
+            System.arraycopy(header, 0, frame, 0, header.length);
+            System.arraycopy(chunker.getData(), 0, frame, header.length, size);
+            System.arraycopy(CRLF, 0, frame, header.length + size, CRLF.length);
+            frameLength = header.length + size + CRLF.length;
+            framePosition = 0;
+            return true;
+        }
+    }
+}
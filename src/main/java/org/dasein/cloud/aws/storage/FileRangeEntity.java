@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sends a file, or one range of it such as a part of a multipart upload. The range is read with positional channel
+ * reads into one small reused buffer, so parts of the same file can be sent concurrently and no part is ever copied
+ * whole onto the heap. A {@link PayloadDigest} can be updated from the same buffer, so the range is checksummed
+ * without being read again.
+ */
+class FileRangeEntity extends AbstractHttpEntity {
+    static private final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long offset;
+    private final long length;
+    private final PayloadDigest digest;
+
+    FileRangeEntity( @Nonnull File file, long offset, long length, @Nullable String contentType ) {
+        this(file, offset, length, contentType, null);
+    }
+
+    /**
+     * @param digest updated with the bytes as they are written, starting over each time the range is written
+     */
+    FileRangeEntity( @Nonnull File file, long offset, long length, @Nullable String contentType, @Nullable PayloadDigest digest ) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.digest = digest;
+        setContentType(contentType);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        FileChannel channel = input.getChannel();
+
+        try {
+            channel.position(offset);
+        }
+        catch( IOException e ) {
+            input.close();
+            throw e;
+        }
+        return new RangeStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo( OutputStream output ) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            FileChannel channel = input.getChannel();
+            // the HTTP client only accepts byte arrays, so a direct buffer would cost one more copy
+            ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(length, 1L)));
+            byte[] bytes = buffer.array();
+            long position = offset;
+            long end = offset + length;
+
+            if( digest != null ) {
+                digest.reset();
+            }
+            while( position < end ) {
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(), end - position));
+
+                int count = channel.read(buffer, position);
+
+                if( count < 0 ) {
+                    throw new EOFException("Unexpected end of " + file + " at " + position);
+                }
+                position += count;
+                if( digest != null ) {
+                    digest.update(bytes, 0, count);
+                }
+                output.write(bytes, 0, count);
+            }
+            output.flush();
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Ends the stream of a file channel at the end of the range.
+     */
+    static private class RangeStream extends FilterInputStream {
+        private long remaining;
+
+        RangeStream( @Nonnull InputStream input, long length ) {
+            super(input);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if( remaining < 1L ) {
+                return -1;
+            }
+            int b = super.read();
+
+            if( b != -1 ) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read( @Nonnull byte[] bytes, int off, int len ) throws IOException {
+            if( remaining < 1L ) {
+                return -1;
+            }
+            int count = super.read(bytes, off, (int)Math.min(len, remaining));
+
+            if( count > 0 ) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
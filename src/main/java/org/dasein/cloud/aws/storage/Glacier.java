@@ -39,9 +39,13 @@ import org.json.JSONObject;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * Implements support for Amazon Glacier using the Dasein Cloud blob storage interface. Dasein Cloud buckets are
@@ -272,7 +276,7 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
         }
     }
 
-    private String getPaginationMarker(JSONObject jsonObject) throws JSONException {
+    static String getPaginationMarker(JSONObject jsonObject) throws JSONException {
         if (jsonObject.has(MARKER) && !jsonObject.isNull(MARKER)) {
             final String marker = jsonObject.getString(MARKER);
             if (marker.length() > 0) {
@@ -384,9 +388,31 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
     }
 
     protected void put(@Nullable String bucket, @Nonnull String object, @Nonnull File file) throws CloudException, InternalException {
+        putArchive(bucket, object, file, null);
+    }
+
+    /**
+     * Uploads a file as a new archive. Glacier names archives itself, so the object name becomes the archive
+     * description.
+     * @return the ID of the new archive
+     */
+    private @Nonnull String putArchive(@Nullable String bucket, @Nonnull String object, @Nonnull File file, @Nullable FileTransfer transfer) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.putFile");
         try {
-            // TODO: upload
+            if( bucket == null ) {
+                throw new CloudException("No bucket was specified for this request");
+            }
+            if( transfer != null ) {
+                transfer.setBytesToTransfer(file.length());
+            }
+            TransferStatistics statistics = new TransferStatistics(logger, "PUT " + bucket + "/" + object);
+            String archiveId = new GlacierArchiveUpload(getProvider(), bucket, object, file, transfer).upload();
+
+            statistics.log(logger, file.length());
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Stored " + object + " in " + bucket + " as archive " + archiveId);
+            }
+            return archiveId;
         }
         finally {
             APITrace.end();
@@ -396,7 +422,18 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
     protected void put(@Nullable String bucket, @Nonnull String object, @Nonnull String content) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.putString");
         try {
-            // TODO: upload
+            if( bucket == null ) {
+                throw new CloudException("No bucket was specified for this request");
+            }
+            try {
+                String archiveId = GlacierArchiveUpload.upload(getProvider(), bucket, object, content.getBytes("utf-8"));
+
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Stored " + object + " in " + bucket + " as archive " + archiveId);
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new InternalException(e);
+            }
         }
         finally {
             APITrace.end();
@@ -464,8 +501,10 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
             if( !exists(bucket) ) {
                 createBucket(bucket, false);
             }
-            put(bucket, fileName, source);
-            return getObject(bucket, fileName);
+            String archiveId = putArchive(bucket, fileName, source, null);
+
+            // archives cannot be looked up synchronously, so the blob is built from what was stored
+            return Blob.getInstance(getContext().getRegionId(), archiveId, bucket, archiveId, System.currentTimeMillis(), new Storage<Byte>(source.length(), Storage.BYTE));
         }
         finally {
             APITrace.end();
@@ -536,7 +575,7 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
         }
     }
 
-    private OfflineStoreRequest loadRequestJson(JSONObject jsonObject, String bucket)
+    static OfflineStoreRequest loadRequestJson(JSONObject jsonObject, String bucket)
             throws CloudException, JSONException {
         String jobId = jsonObject.getString("JobId");
         String actionDescription = jsonObject.getString("Action");
@@ -585,7 +624,7 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
                 storage, jobDescription, requestStatus, statusDescription, creationTs, completionTs);
     }
 
-    private static OfflineStoreRequestStatus parseRequestStatus(String statusCode) throws CloudException {
+    static OfflineStoreRequestStatus parseRequestStatus(String statusCode) throws CloudException {
         OfflineStoreRequestStatus requestStatus;
         if (statusCode == null) {
             throw new CloudException("invalid glacier job status");
@@ -632,6 +671,19 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
         }
     }
 
+    /**
+     * Waits for a job without polling it individually. Jobs are tracked by the provider's {@link GlacierJobPoller},
+     * which checks every watched job in a vault with one paged listing.
+     * @param bucket the vault the job belongs to
+     * @param requestId the job to wait on
+     * @param callback notified when the job finishes, if not null
+     * @return a future holding the finished job
+     * @throws InternalException the provider has been closed
+     */
+    public @Nonnull Future<OfflineStoreRequest> watchRequest(@Nonnull String bucket, @Nonnull String requestId, @Nullable GlacierJobPoller.Callback callback) throws InternalException {
+        return getProvider().getGlacierJobPoller().watch(bucket, requestId, callback);
+    }
+
     @Nonnull
     @Override
     public OfflineStoreRequest createListRequest(@Nonnull String bucket) throws CloudException, InternalException {
@@ -669,8 +721,28 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
     public OfflineStoreRequest createDownloadRequest(@Nonnull String bucket, @Nonnull String object) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.createDownloadRequest");
         try {
-            // todo
-            throw new OperationNotSupportedException("glacier downloads are not yet supported");
+            try {
+
+                JSONObject bodyJson = new JSONObject();
+                bodyJson.put("Type", "archive-retrieval");
+                bodyJson.put("ArchiveId", object);
+
+                final GlacierMethod method = GlacierMethod.build(getProvider(), GlacierAction.CREATE_JOB)
+                        .vaultId(bucket).bodyText(bodyJson.toString()).toMethod();
+
+                Map<String,String> responseHeaders = method.invokeHeaders();
+                if (!responseHeaders.containsKey(HEADER_JOB_ID)) {
+                    throw new CloudException("Glacier response missing " + HEADER_JOB_ID + " header");
+                }
+                String jobId = responseHeaders.get(HEADER_JOB_ID);
+
+                return new OfflineStoreRequest(jobId, bucket, object, OfflineStoreRequestAction.DOWNLOAD,
+                        ACTION_ARCHIVE_RETRIEVAL, null, "", OfflineStoreRequestStatus.IN_PROGRESS, "",
+                        System.currentTimeMillis(), -1);
+
+            } catch (JSONException e) {
+                throw new CloudException(e);
+            }
         }
         finally {
             APITrace.end();
@@ -679,32 +751,48 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
 
     @Nonnull
     @Override
-    public Iterable<Blob> getListRequestResult(@Nonnull String bucket, @Nonnull String requestId)
+    public Iterable<Blob> getListRequestResult(@Nonnull final String bucket, @Nonnull final String requestId)
             throws InternalException, CloudException {
         final String regionId = getContext().getRegionId();
 
         if( regionId == null ) {
             throw new CloudException("No region ID was specified");
         }
+        // inventories of large vaults run to gigabytes, so archives are streamed to the caller as they are parsed
+        getProvider().hold();
+        PopulatorThread<Blob> populator = new PopulatorThread<Blob>(new JiteratorPopulator<Blob>() {
+            public void populate(@Nonnull Jiterator<Blob> iterator) throws CloudException, InternalException {
+                try {
+                    listArchives(bucket, requestId, regionId, iterator);
+                }
+                finally {
+                    getProvider().release();
+                }
+            }
+        });
+        populator.populate();
+        return populator.getResult();
+    }
+
+    private void listArchives(@Nonnull final String bucket, @Nonnull String requestId, @Nonnull final String regionId, @Nonnull final Jiterator<Blob> iterator) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.getListRequestResult");
         try {
-
-            final GlacierMethod method = GlacierMethod.build(getProvider(), GlacierAction.GET_JOB_OUTPUT)
-                    .vaultId(bucket).jobId(requestId).toMethod();
-
-            try {
-                JSONObject jsonObject = method.invokeJson();
-                JSONArray archives = jsonObject.getJSONArray("ArchiveList");
-
-                // not using thread here because there is no potential for pagination in the API
-                List<Blob> blobs = new ArrayList<Blob>(archives.length());
-                for (int i=0; i<archives.length(); i++) {
-                    blobs.add(loadArchiveJson(archives.getJSONObject(i), bucket, regionId));
+            final GlacierInventoryParser parser = new GlacierInventoryParser(new GlacierInventoryParser.Handler() {
+                public void archive(@Nonnull String archiveId, long size, long created) {
+                    iterator.push(Blob.getInstance(regionId, archiveId, bucket, archiveId, created,
+                            new Storage<Byte>(size, Storage.BYTE)));
                 }
-                return blobs;
-
-            } catch (JSONException e) {
-                throw new CloudException(e);
+            });
+
+            GlacierMethod.build(getProvider(), GlacierAction.GET_JOB_OUTPUT)
+                    .vaultId(bucket).jobId(requestId).toMethod()
+                    .invokeStream(new GlacierMethod.ResponseHandler() {
+                        public void handle(@Nonnull Map<String, String> headers, @Nonnull InputStream body) throws IOException, CloudException, InternalException {
+                            parser.parse(body);
+                        }
+                    });
+            if (logger.isDebugEnabled()) {
+                logger.debug("Listed " + parser.getArchiveCount() + " archives from inventory " + requestId + " of " + bucket);
             }
         }
         finally {
@@ -712,19 +800,37 @@ public class Glacier extends AbstractBlobStoreSupport<AWSCloud> implements Offli
         }
     }
 
-    private Blob loadArchiveJson(JSONObject jsonObject, String bucket, String regionId) throws JSONException {
-        String archiveId = jsonObject.getString("ArchiveId");
-        Storage<Byte> size = new Storage<Byte>(jsonObject.getLong("Size"), Storage.BYTE);
-        return Blob.getInstance(regionId, archiveId, bucket, archiveId,
-                parseTimestamp(jsonObject.getString("CreationDate")), size);
-    }
-
     @Nonnull
     @Override
-    public FileTransfer getDownloadRequestResult(@Nonnull String bucket, @Nonnull String requestId, @Nonnull File toFile) throws InternalException, CloudException {
+    public FileTransfer getDownloadRequestResult(@Nonnull final String bucket, @Nonnull final String requestId, @Nonnull final File toFile) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Blob.getDownloadRequestResult");
         try {
-            throw new OperationNotSupportedException("glacier downloads are not yet supported");
+            final FileTransfer transfer = new FileTransfer();
+            final GlacierJobDownload download = new GlacierJobDownload(getProvider(), bucket, requestId, toFile, transfer);
+
+            // fail now if the job is missing or unfinished rather than through the transfer
+            transfer.setBytesToTransfer(download.describe());
+
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        TransferStatistics statistics = new TransferStatistics(logger, "GET " + bucket + "/" + requestId);
+
+                        download.download();
+                        statistics.log(logger, toFile.length());
+                        transfer.complete(null);
+                    }
+                    catch( Throwable t ) {
+                        logger.error("Unable to download job " + requestId + " from " + bucket + ": " + t.getMessage());
+                        transfer.complete(t);
+                    }
+                }
+            };
+
+            t.setName("Glacier Download " + bucket + "/" + requestId);
+            t.setDaemon(true);
+            t.start();
+            return transfer;
         }
         finally {
             APITrace.end();
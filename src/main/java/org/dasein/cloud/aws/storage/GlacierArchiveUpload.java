@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.SignatureV4Signer;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a file to a Glacier vault as an archive. A file of up to one part is sent in a single request; a larger file
+ * becomes a multipart upload whose parts, a power of two MiB each as Glacier requires, are sent up to
+ * {@link AWSCloud#getGlacierTransferThreads()} at once. Each part is tree hashed in a single pass just before it is
+ * sent, which also yields the payload hash for signing, and Glacier's own tree hash of every part is checked against
+ * it. The archive checksum is assembled from the part hashes without reading the file again. A part that fails is
+ * retried on its own; an upload that cannot be completed is aborted.
+ */
+class GlacierArchiveUpload {
+    static private final Logger logger = AWSCloud.getLogger(GlacierArchiveUpload.class);
+
+    static final long DEFAULT_PART_SIZE = 64L * GlacierTreeHash.CHUNK_SIZE;
+    static final long MAX_PART_SIZE     = 4096L * GlacierTreeHash.CHUNK_SIZE;
+
+    static private final int    MAX_PARTS       = 10000;
+    static private final int    PART_ATTEMPTS   = 3;
+    static private final int    MAX_DESCRIPTION = 1024;
+    static private final String TREE_HASH       = "x-amz-sha256-tree-hash";
+
+    private final AWSCloud     provider;
+    private final String       vault;
+    private final String       description;
+    private final File         file;
+    private final FileTransfer transfer;
+    private final AtomicLong   transferred = new AtomicLong();
+
+    /**
+     * @param provider    the provider to upload through
+     * @param vault       the target vault
+     * @param description the archive description, usually the name of the object
+     * @param file        the file to upload
+     * @param transfer    updated with the bytes stored as each part completes
+     */
+    GlacierArchiveUpload( @Nonnull AWSCloud provider, @Nonnull String vault, @Nonnull String description, @Nonnull File file, @Nullable FileTransfer transfer ) {
+        this.provider = provider;
+        this.vault = vault;
+        this.description = toDescription(description);
+        this.file = file;
+        this.transfer = transfer;
+    }
+
+    /**
+     * @return the smallest part size from the default upwards, doubled as needed, that keeps the archive within the
+     * Glacier part limit
+     * @throws CloudException the archive is too large for Glacier
+     */
+    static long getPartSize( long archiveSize ) throws CloudException {
+        long partSize = DEFAULT_PART_SIZE;
+
+        while( (archiveSize + partSize - 1) / partSize > MAX_PARTS ) {
+            if( partSize >= MAX_PART_SIZE ) {
+                throw new CloudException("An archive of " + archiveSize + " bytes is larger than Glacier allows");
+            }
+            partSize *= 2;
+        }
+        return partSize;
+    }
+
+    /**
+     * Archive descriptions are limited to printable ASCII.
+     */
+    static @Nonnull String toDescription( @Nonnull String name ) {
+        StringBuilder str = new StringBuilder();
+
+        for( int i = 0; i < name.length() && str.length() < MAX_DESCRIPTION; i++ ) {
+            char c = name.charAt(i);
+
+            str.append(c >= 0x20 && c <= 0x7e ? c : '?');
+        }
+        return str.toString();
+    }
+
+    /**
+     * Uploads an in-memory payload as an archive in a single request.
+     * @return the ID of the new archive
+     */
+    static @Nonnull String upload( @Nonnull AWSCloud provider, @Nonnull String vault, @Nonnull String description, @Nonnull byte[] bytes ) throws CloudException, InternalException {
+        GlacierTreeHash hash = GlacierTreeHash.of(bytes);
+        Map<String, String> headers = getHeaders(hash);
+
+        headers.put("x-amz-archive-description", toDescription(description));
+        GlacierMethod method = GlacierMethod.build(provider, GlacierAction.CREATE_ARCHIVE).vaultId(vault)
+                .headers(headers).bodyBytes(bytes).toMethod();
+
+        return getArchiveId(vault, hash, method.invokeHeaders());
+    }
+
+    /**
+     * @return the ID of the new archive
+     */
+    @Nonnull String upload() throws CloudException, InternalException {
+        long length = file.length();
+        long partSize = getPartSize(length);
+
+        if( length <= partSize ) {
+            GlacierTreeHash hash = GlacierTreeHash.of(file, 0L, length);
+            Map<String, String> headers = getHeaders(hash);
+
+            headers.put("x-amz-archive-description", description);
+            GlacierMethod method = GlacierMethod.build(provider, GlacierAction.CREATE_ARCHIVE).vaultId(vault)
+                    .headers(headers).bodyFile(file).toMethod();
+            String archiveId = getArchiveId(vault, hash, method.invokeHeaders());
+
+            progress(length);
+            return archiveId;
+        }
+        String uploadId = initiate(partSize);
+        boolean completed = false;
+
+        try {
+            byte[] treeHash = GlacierTreeHash.combine(uploadParts(uploadId, length, partSize));
+            String archiveId = complete(uploadId, length, treeHash);
+
+            completed = true;
+            return archiveId;
+        }
+        finally {
+            if( !completed ) {
+                abort(uploadId);
+            }
+        }
+    }
+
+    static private @Nonnull Map<String, String> getHeaders( @Nonnull GlacierTreeHash hash ) {
+        Map<String, String> headers = new HashMap<String, String>();
+
+        headers.put(TREE_HASH, hash.getTreeHashHex());
+        headers.put(AWSCloud.P_AWS_CONTENT_SHA256, hash.getLinearHashHex());
+        return headers;
+    }
+
+    static private @Nonnull String getArchiveId( @Nonnull String vault, @Nonnull GlacierTreeHash hash, @Nonnull Map<String, String> response ) throws CloudException {
+        String archiveId = response.get("x-amz-archive-id");
+        String treeHash = response.get(TREE_HASH);
+
+        if( archiveId == null ) {
+            throw new CloudException("No archive ID was returned for an upload to " + vault);
+        }
+        if( treeHash != null && !treeHash.equalsIgnoreCase(hash.getTreeHashHex()) ) {
+            throw new CloudException("Checksum mismatch uploading to " + vault + ": tree hash " + treeHash + " does not match " + hash.getTreeHashHex());
+        }
+        return archiveId;
+    }
+
+    private @Nonnull String initiate( long partSize ) throws CloudException, InternalException {
+        Map<String, String> headers = new HashMap<String, String>();
+
+        headers.put("x-amz-part-size", String.valueOf(partSize));
+        headers.put("x-amz-archive-description", description);
+        Map<String, String> response = GlacierMethod.build(provider, GlacierAction.INITIATE_MULTIPART_UPLOAD)
+                .vaultId(vault).headers(headers).toMethod().invokeHeaders();
+        String uploadId = response.get("x-amz-multipart-upload-id");
+
+        if( uploadId == null ) {
+            throw new CloudException("No upload ID was returned for a multipart upload to " + vault);
+        }
+        return uploadId;
+    }
+
+    /**
+     * @return the tree hashes of the parts in order
+     */
+    private @Nonnull List<byte[]> uploadParts( @Nonnull final String uploadId, final long length, final long partSize ) throws CloudException, InternalException {
+        final int parts = (int)((length + partSize - 1) / partSize);
+        final byte[][] hashes = new byte[parts][];
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(provider.getAsyncExecutor());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        int window = provider.getGlacierTransferThreads();
+        int submitted = 0, done = 0;
+
+        try {
+            while( done < parts ) {
+                while( submitted < parts && submitted - done < window ) {
+                    final int index = submitted;
+
+                    futures.add(completion.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            long offset = index * partSize;
+                            long size = Math.min(partSize, length - offset);
+
+                            hashes[index] = uploadPart(uploadId, offset, size);
+                            progress(size);
+                            return index;
+                        }
+                    }));
+                    submitted++;
+                }
+                completion.take().get();
+                done++;
+            }
+            return Arrays.asList(hashes);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while uploading " + file + " to " + vault);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( done < parts ) {
+                for( Future<Integer> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private @Nonnull byte[] uploadPart( @Nonnull String uploadId, long offset, long size ) throws CloudException, InternalException {
+        GlacierTreeHash hash = GlacierTreeHash.of(file, offset, size);
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            Map<String, String> headers = getHeaders(hash);
+
+            headers.put("Content-Range", "bytes " + offset + "-" + (offset + size - 1) + "/*");
+            GlacierMethod method = GlacierMethod.build(provider, GlacierAction.UPLOAD_PART).vaultId(vault)
+                    .uploadId(uploadId).headers(headers).bodyFile(file, offset, size).toMethod();
+
+            try {
+                String treeHash = method.invokeHeaders().get(TREE_HASH);
+
+                if( treeHash != null && !treeHash.equalsIgnoreCase(hash.getTreeHashHex()) ) {
+                    throw new CloudException("Checksum mismatch uploading bytes " + offset + "-" + (offset + size - 1) + " of " + file + ": tree hash " + treeHash + " does not match " + hash.getTreeHashHex());
+                }
+                return hash.getTreeHash();
+            }
+            catch( CloudException e ) {
+                if( !isRetryable(e) || attempt >= PART_ATTEMPTS ) {
+                    throw e;
+                }
+                logger.warn("Retrying bytes " + offset + "-" + (offset + size - 1) + " of " + file + " after error: " + e.getMessage());
+                try {
+                    Thread.sleep(attempt * 1000L);
+                }
+                catch( InterruptedException interrupted ) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true for connection failures and server-side errors, which may succeed if the part is sent again
+     */
+    static boolean isRetryable( @Nonnull CloudException e ) {
+        if( e instanceof GlacierException ) {
+            return ( e.getHttpCode() >= 500 || "ThrottlingException".equals(e.getProviderCode()) || "RequestTimeoutException".equals(e.getProviderCode()) );
+        }
+        return ( e.getCause() instanceof IOException );
+    }
+
+    private void progress( long bytes ) {
+        if( transfer != null ) {
+            synchronized( transfer ) {
+                transfer.setBytesTransferred(transferred.addAndGet(bytes));
+            }
+        }
+    }
+
+    private @Nonnull String complete( @Nonnull String uploadId, long length, @Nonnull byte[] treeHash ) throws CloudException, InternalException {
+        Map<String, String> headers = new HashMap<String, String>();
+
+        headers.put("x-amz-archive-size", String.valueOf(length));
+        headers.put(TREE_HASH, SignatureV4Signer.toHex(treeHash));
+        Map<String, String> response = GlacierMethod.build(provider, GlacierAction.COMPLETE_MULTIPART_UPLOAD)
+                .vaultId(vault).uploadId(uploadId).headers(headers).toMethod().invokeHeaders();
+        String archiveId = response.get("x-amz-archive-id");
+
+        if( archiveId == null ) {
+            throw new CloudException("No archive ID was returned completing the multipart upload of " + file + " to " + vault);
+        }
+        return archiveId;
+    }
+
+    private void abort( @Nonnull String uploadId ) {
+        try {
+            GlacierMethod.build(provider, GlacierAction.ABORT_MULTIPART_UPLOAD).vaultId(vault).uploadId(uploadId).toMethod().invoke();
+        }
+        catch( Exception e ) {
+            logger.warn("Unable to abort multipart upload " + uploadId + " to " + vault + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Streams the JSON output of a Glacier inventory retrieval job. Each entry of the <code>ArchiveList</code> is handed
+ * to the {@link Handler} as soon as it has been read, so archives reach the caller while the rest of the inventory is
+ * still downloading and memory use does not grow with the size of the vault.
+ */
+class GlacierInventoryParser {
+    static private final JsonFactory factory = new JsonFactory();
+
+    /**
+     * Receives the archives of an inventory in the order they are listed.
+     */
+    interface Handler {
+        void archive( @Nonnull String archiveId, long size, long created ) throws CloudException, InternalException;
+    }
+
+    private final Handler          handler;
+    private final SimpleDateFormat dateFormat;
+    private final SimpleDateFormat dateFormatMillis;
+    private int                    archives;
+
+    GlacierInventoryParser( @Nonnull Handler handler ) {
+        this.handler = handler;
+        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        this.dateFormatMillis = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        this.dateFormatMillis.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * @return the number of archives handed to the handler
+     */
+    int getArchiveCount() {
+        return archives;
+    }
+
+    /**
+     * Parses an inventory, handing over each archive as it is read.
+     * @param input the inventory JSON
+     * @throws IOException the inventory could not be read or is not valid JSON
+     * @throws CloudException the inventory is not in the expected form, or the handler failed
+     * @throws InternalException the handler failed
+     */
+    void parse( @Nonnull InputStream input ) throws IOException, CloudException, InternalException {
+        JsonParser parser = factory.createParser(input);
+
+        try {
+            if( parser.nextToken() != JsonToken.START_OBJECT ) {
+                throw new CloudException("Invalid Glacier inventory: expected a JSON object");
+            }
+            while( parser.nextToken() == JsonToken.FIELD_NAME ) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                if( "ArchiveList".equals(field) && value == JsonToken.START_ARRAY ) {
+                    while( parser.nextToken() == JsonToken.START_OBJECT ) {
+                        parseArchive(parser);
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    private void parseArchive( @Nonnull JsonParser parser ) throws IOException, CloudException, InternalException {
+        String archiveId = null;
+        String created = null;
+        long size = -1L;
+
+        while( parser.nextToken() == JsonToken.FIELD_NAME ) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if( value == JsonToken.VALUE_NULL ) {
+                continue;
+            }
+            if( "ArchiveId".equals(field) ) {
+                archiveId = parser.getText();
+            }
+            else if( "Size".equals(field) ) {
+                size = parser.getValueAsLong(-1L);
+            }
+            else if( "CreationDate".equals(field) ) {
+                created = parser.getText();
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        if( archiveId == null ) {
+            throw new CloudException("Invalid Glacier inventory: archive " + (archives + 1) + " has no ArchiveId");
+        }
+        archives++;
+        handler.archive(archiveId, size, parseTimestamp(created));
+    }
+
+    private long parseTimestamp( @Nullable String timestamp ) {
+        if( timestamp == null ) {
+            return -1L;
+        }
+        try {
+            // some response dates have a millisecond component, some do not
+            return ( timestamp.indexOf('.') > -1 ? dateFormatMillis : dateFormat ).parse(timestamp).getTime();
+        }
+        catch( ParseException e ) {
+            return System.currentTimeMillis();
+        }
+    }
+}
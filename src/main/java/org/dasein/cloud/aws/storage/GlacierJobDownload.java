@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.SignatureV4Signer;
+import org.dasein.cloud.storage.FileTransfer;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads the output of a completed Glacier job as byte ranges fetched in parallel. Ranges are a power of two MiB
+ * and start on MiB boundaries, so Glacier returns the tree hash of each one; up to
+ * {@link AWSCloud#getGlacierTransferThreads()} are in flight, each written at its own offset of the target file and
+ * tree hashed as it streams in. A range that fails part way resumes from the last byte written, and a range whose
+ * hash does not match is fetched again on its own, so bytes that verified are never fetched twice. The range hashes
+ * are finally combined and checked against the tree hash of the whole output.
+ */
+class GlacierJobDownload {
+    static private final Logger logger = AWSCloud.getLogger(GlacierJobDownload.class);
+
+    static final long RANGE_SIZE = GlacierArchiveUpload.DEFAULT_PART_SIZE;
+
+    static private final int    BUFFER_SIZE    = 64 * 1024;
+    static private final int    RANGE_ATTEMPTS = 3;
+    static private final String TREE_HASH      = "x-amz-sha256-tree-hash";
+
+    private final AWSCloud     provider;
+    private final String       vault;
+    private final String       jobId;
+    private final File         toFile;
+    private final FileTransfer transfer;
+    private final AtomicLong   transferred = new AtomicLong();
+
+    private long   size = -1L;
+    private String treeHash;
+
+    GlacierJobDownload( @Nonnull AWSCloud provider, @Nonnull String vault, @Nonnull String jobId, @Nonnull File toFile, @Nullable FileTransfer transfer ) {
+        this.provider = provider;
+        this.vault = vault;
+        this.jobId = jobId;
+        this.toFile = toFile;
+        this.transfer = transfer;
+    }
+
+    /**
+     * Sizes the job output and reads its tree hash.
+     * @return the size of the job output in bytes
+     * @throws CloudException the job does not exist or has not succeeded
+     * @throws InternalException a local error occurred talking to Glacier
+     */
+    long describe() throws CloudException, InternalException {
+        JSONObject job = GlacierMethod.build(provider, GlacierAction.DESCRIBE_JOB).vaultId(vault).jobId(jobId).toMethod().invokeJson();
+
+        try {
+            String status = job.getString("StatusCode");
+
+            if( !"Succeeded".equalsIgnoreCase(status) ) {
+                throw new CloudException("Glacier job " + jobId + " in " + vault + " has not succeeded: " + status);
+            }
+            if( job.has("RetrievalByteRange") && !job.isNull("RetrievalByteRange") ) {
+                String[] range = job.getString("RetrievalByteRange").split("-");
+
+                size = Long.parseLong(range[1].trim()) - Long.parseLong(range[0].trim()) + 1L;
+            }
+            else if( job.has("ArchiveSizeInBytes") && !job.isNull("ArchiveSizeInBytes") ) {
+                size = job.getLong("ArchiveSizeInBytes");
+            }
+            else if( job.has("InventorySizeInBytes") && !job.isNull("InventorySizeInBytes") ) {
+                size = job.getLong("InventorySizeInBytes");
+            }
+            else {
+                throw new CloudException("Glacier did not report the output size of job " + jobId + " in " + vault);
+            }
+            // only present when the output is tree hash aligned
+            if( job.has("SHA256TreeHash") && !job.isNull("SHA256TreeHash") ) {
+                treeHash = job.getString("SHA256TreeHash");
+            }
+            return size;
+        }
+        catch( JSONException e ) {
+            throw new CloudException(e);
+        }
+        catch( NumberFormatException e ) {
+            throw new CloudException("Invalid retrieval range for job " + jobId + " in " + vault + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Downloads the job output sized by {@link #describe()} into the target file.
+     * @throws CloudException an error occurred with Glacier or the output did not match its checksum
+     * @throws InternalException a local error occurred writing the file
+     */
+    void download() throws CloudException, InternalException {
+        if( size < 0L ) {
+            throw new InternalException("The job output must be sized before it is downloaded");
+        }
+        int ranges = (int)((size + RANGE_SIZE - 1) / RANGE_SIZE);
+        RandomAccessFile file = null;
+
+        if( transfer != null ) {
+            transfer.setBytesToTransfer(size);
+        }
+        try {
+            file = new RandomAccessFile(toFile, "rw");
+            file.setLength(size);
+            if( ranges > 0 ) {
+                List<byte[]> hashes = fetchRanges(file.getChannel(), ranges);
+                String actual = SignatureV4Signer.toHex(GlacierTreeHash.combine(hashes));
+
+                if( treeHash != null && !treeHash.equalsIgnoreCase(actual) ) {
+                    throw new CloudException("Checksum mismatch downloading job " + jobId + " from " + vault + ": tree hash " + actual + " does not match " + treeHash);
+                }
+            }
+            file.getChannel().force(false);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            if( file != null ) {
+                try {
+                    file.close();
+                }
+                catch( IOException ignore ) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tree hashes of the ranges in order
+     */
+    private @Nonnull List<byte[]> fetchRanges( @Nonnull final FileChannel channel, int ranges ) throws CloudException, InternalException {
+        final byte[][] hashes = new byte[ranges][];
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(provider.getAsyncExecutor());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        int window = provider.getGlacierTransferThreads();
+        int submitted = 0, done = 0;
+
+        try {
+            while( done < ranges ) {
+                while( submitted < ranges && submitted - done < window ) {
+                    final int index = submitted;
+
+                    futures.add(completion.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            long start = index * RANGE_SIZE;
+                            long end = Math.min(start + RANGE_SIZE, size) - 1;
+
+                            hashes[index] = fetchRange(channel, start, end);
+                            return index;
+                        }
+                    }));
+                    submitted++;
+                }
+                completion.take().get();
+                done++;
+            }
+            return Arrays.asList(hashes);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while downloading job " + jobId + " from " + vault);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( done < ranges ) {
+                for( Future<Integer> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches the bytes from <code>start</code> to <code>end</code> inclusive. The tree hash covers everything
+     * written so far, so a broken connection resumes from the last byte written; a range that does not match the
+     * tree hash Glacier reported for it is fetched again from the start.
+     * @return the tree hash of the range
+     */
+    private @Nonnull byte[] fetchRange( @Nonnull final FileChannel channel, final long start, final long end ) throws CloudException, InternalException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final long[] position = { start };
+        final String[] expected = { null };
+        GlacierTreeHash hash = new GlacierTreeHash();
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            if( position[0] <= end ) {
+                final GlacierTreeHash current = hash;
+                Map<String, String> headers = new HashMap<String, String>();
+
+                headers.put("Range", "bytes=" + position[0] + "-" + end);
+                GlacierMethod method = GlacierMethod.build(provider, GlacierAction.GET_JOB_OUTPUT).vaultId(vault)
+                        .jobId(jobId).headers(headers).toMethod();
+
+                try {
+                    method.invokeStream(new GlacierMethod.ResponseHandler() {
+                        @Override
+                        public void handle( @Nonnull Map<String, String> headers, @Nonnull InputStream body ) throws IOException {
+                            // a resumed request covers only part of the range, so its hash is not the one to check
+                            if( position[0] == start ) {
+                                expected[0] = headers.get(TREE_HASH);
+                            }
+                            position[0] = write(body, channel, buffer, current, position[0], end);
+                        }
+                    });
+                }
+                catch( CloudException e ) {
+                    if( Thread.currentThread().isInterrupted() || !GlacierArchiveUpload.isRetryable(e) || attempt >= RANGE_ATTEMPTS ) {
+                        throw e;
+                    }
+                    logger.warn("Resuming job " + jobId + " from " + vault + " at byte " + position[0] + " after error: " + e.getMessage());
+                    pause(attempt, e);
+                    continue;
+                }
+            }
+            String actual = hash.getTreeHashHex();
+
+            if( expected[0] == null || expected[0].equalsIgnoreCase(actual) ) {
+                return hash.getTreeHash();
+            }
+            CloudException mismatch = new CloudException("Checksum mismatch downloading bytes " + start + "-" + end + " of job " + jobId + " from " + vault + ": tree hash " + actual + " does not match " + expected[0]);
+
+            if( attempt >= RANGE_ATTEMPTS ) {
+                throw mismatch;
+            }
+            logger.warn(mismatch.getMessage() + "; fetching the range again");
+            pause(attempt, mismatch);
+            progress(start - position[0]);
+            position[0] = start;
+            expected[0] = null;
+            hash = new GlacierTreeHash();
+        }
+    }
+
+    static private void pause( int attempt, @Nonnull CloudException cause ) throws CloudException {
+        try {
+            Thread.sleep(attempt * 1000L);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+    /**
+     * Copies the response body into the file at its offset, hashing it on the way.
+     * @return the position after the last byte written
+     */
+    private long write( @Nonnull InputStream input, @Nonnull FileChannel channel, @Nonnull ByteBuffer buffer, @Nonnull GlacierTreeHash hash, long position, long end ) throws IOException {
+        byte[] bytes = buffer.array();
+
+        while( position <= end ) {
+            if( Thread.currentThread().isInterrupted() ) {
+                // cancelled after another range failed; stopping here aborts the rest of this range's body
+                throw new InterruptedIOException("Cancelled at byte " + position + " of job " + jobId);
+            }
+            int read = input.read(bytes, 0, (int)Math.min(bytes.length, end - position + 1));
+
+            if( read == -1 ) {
+                throw new EOFException("Connection closed at byte " + position + " of job " + jobId);
+            }
+            hash.update(bytes, 0, read);
+            buffer.clear();
+            buffer.limit(read);
+            while( buffer.hasRemaining() ) {
+                position += channel.write(buffer, position);
+            }
+            progress(read);
+        }
+        return position;
+    }
+
+    private void progress( long bytes ) {
+        if( transfer != null ) {
+            synchronized( transfer ) {
+                transfer.setBytesTransferred(transferred.addAndGet(bytes));
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.storage.OfflineStoreRequest;
+import org.dasein.cloud.storage.OfflineStoreRequestStatus;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits on outstanding Glacier jobs on behalf of any number of callers. The jobs of a vault are checked together by
+ * paging through <code>List Jobs</code>, so a thousand jobs in one vault cost one request per poll rather than a
+ * thousand <code>Describe Job</code> calls, and the listing stops as soon as every watched job has been seen. Each
+ * vault is polled on its own schedule: the interval starts at {@link #MIN_INTERVAL}, doubles up to
+ * {@link #MAX_INTERVAL} while nothing finishes, and drops back whenever a job finishes or a new one is watched, since
+ * jobs submitted together tend to finish together. Callbacks run on the poller thread and must not block.
+ */
+public class GlacierJobPoller {
+    static private final Logger logger = AWSCloud.getLogger(GlacierJobPoller.class);
+
+    static public final long MIN_INTERVAL = 30000L;
+    static public final long MAX_INTERVAL = 15L * 60000L;
+
+    static private final String PAGE_SIZE  = "1000";
+    static private final int    MAX_MISSES = 2;
+
+    /**
+     * Notified when a watched job finishes or can no longer be tracked.
+     */
+    public interface Callback {
+        /**
+         * @param request the job, which has either succeeded or failed
+         */
+        void completed( @Nonnull OfflineStoreRequest request );
+
+        /**
+         * @param error the reason the job could not be tracked, such as the job or vault no longer existing
+         */
+        void failed( @Nonnull Exception error );
+    }
+
+    static private final Callable<OfflineStoreRequest> NOTHING = new Callable<OfflineStoreRequest>() {
+        @Override
+        public OfflineStoreRequest call() {
+            return null;
+        }
+    };
+
+    /**
+     * A watched job, completed by the poller rather than by running it.
+     */
+    static private class Watch extends FutureTask<OfflineStoreRequest> {
+        private final List<Callback> callbacks = new CopyOnWriteArrayList<Callback>();
+        private int                  misses;
+
+        Watch() {
+            super(NOTHING);
+        }
+
+        void complete( @Nonnull OfflineStoreRequest request ) {
+            if( isDone() ) {
+                return;
+            }
+            set(request);
+            for( Callback callback : callbacks ) {
+                try {
+                    callback.completed(request);
+                }
+                catch( Throwable t ) {
+                    logger.error("Glacier job callback failed: " + t.getMessage(), t);
+                }
+            }
+        }
+
+        void fail( @Nonnull Exception error ) {
+            if( isDone() ) {
+                return;
+            }
+            setException(error);
+            for( Callback callback : callbacks ) {
+                try {
+                    callback.failed(error);
+                }
+                catch( Throwable t ) {
+                    logger.error("Glacier job callback failed: " + t.getMessage(), t);
+                }
+            }
+        }
+    }
+
+    static private class Vault {
+        private final String             name;
+        private final Map<String, Watch> jobs     = new HashMap<String, Watch>();
+        private long                     interval = MIN_INTERVAL;
+        private boolean                  reset;
+        private long                     due;
+        private ScheduledFuture<?>       task;
+
+        Vault( @Nonnull String name ) {
+            this.name = name;
+        }
+    }
+
+    private final AWSCloud           provider;
+    private final Map<String, Vault> vaults = new HashMap<String, Vault>();
+    private ScheduledExecutorService scheduler;
+    private boolean                  closed;
+
+    public GlacierJobPoller( @Nonnull AWSCloud provider ) {
+        this.provider = provider;
+    }
+
+    /**
+     * Starts watching a job. Watching a job that is already watched shares the same future.
+     * @param vault    the vault the job belongs to
+     * @param jobId    the job to wait on
+     * @param callback notified when the job finishes, if not <code>null</code>
+     * @return a future holding the finished job; it fails if the job cannot be found
+     * @throws InternalException the poller has been closed
+     */
+    public @Nonnull Future<OfflineStoreRequest> watch( @Nonnull String vault, @Nonnull String jobId, @Nullable Callback callback ) throws InternalException {
+        synchronized( this ) {
+            if( closed ) {
+                throw new InternalException("The Glacier job poller has been closed");
+            }
+            Vault v = vaults.get(vault);
+
+            if( v == null ) {
+                v = new Vault(vault);
+                vaults.put(vault, v);
+            }
+            Watch watch = v.jobs.get(jobId);
+
+            if( watch == null || watch.isDone() ) {
+                watch = new Watch();
+                v.jobs.put(jobId, watch);
+            }
+            if( callback != null ) {
+                watch.callbacks.add(callback);
+            }
+            v.interval = MIN_INTERVAL;
+            v.reset = true;
+            if( v.task == null || v.due > System.currentTimeMillis() + MIN_INTERVAL ) {
+                schedule(v);
+            }
+            return watch;
+        }
+    }
+
+    /**
+     * @return the number of jobs being watched across all vaults
+     */
+    public synchronized int getWatchCount() {
+        int count = 0;
+
+        for( Vault vault : vaults.values() ) {
+            count += vault.jobs.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stops polling and cancels every outstanding watch.
+     */
+    public void close() {
+        List<Watch> cancelled = new ArrayList<Watch>();
+        ScheduledExecutorService executor;
+
+        synchronized( this ) {
+            closed = true;
+            for( Vault vault : vaults.values() ) {
+                cancelled.addAll(vault.jobs.values());
+            }
+            vaults.clear();
+            executor = scheduler;
+            scheduler = null;
+        }
+        if( executor != null ) {
+            executor.shutdownNow();
+        }
+        for( Watch watch : cancelled ) {
+            watch.cancel(false);
+        }
+    }
+
+    private void schedule( @Nonnull final Vault vault ) {
+        if( vault.task != null ) {
+            vault.task.cancel(false);
+        }
+        if( scheduler == null ) {
+            ProviderContext ctx = provider.getContext();
+            final String name = "Glacier Job Poller " + (ctx == null ? "" : ctx.getAccountNumber());
+
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread( @Nonnull Runnable r ) {
+                    Thread t = new Thread(r, name);
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        vault.due = System.currentTimeMillis() + vault.interval;
+        vault.task = scheduler.schedule(new Runnable() {
+            public void run() {
+                poll(vault);
+            }
+        }, vault.interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll( @Nonnull Vault vault ) {
+        Map<String, Watch> pending;
+        long next;
+
+        synchronized( this ) {
+            if( closed ) {
+                return;
+            }
+            vault.task = null;
+            for( Iterator<Watch> it = vault.jobs.values().iterator(); it.hasNext(); ) {
+                if( it.next().isDone() ) {
+                    it.remove();
+                }
+            }
+            if( vault.jobs.isEmpty() ) {
+                vaults.remove(vault.name);
+                return;
+            }
+            pending = new HashMap<String, Watch>(vault.jobs);
+            vault.reset = false;
+            next = Math.min(vault.interval * 2, MAX_INTERVAL);
+        }
+
+        try {
+            if( refresh(vault.name, pending) > 0 ) {
+                next = MIN_INTERVAL;
+            }
+        }
+        catch( CloudException e ) {
+            if( !GlacierArchiveUpload.isRetryable(e) ) {
+                failAll(vault, e);
+            }
+            else {
+                logger.warn("Unable to poll Glacier jobs in " + vault.name + ", will retry: " + e.getMessage());
+            }
+        }
+        catch( InternalException e ) {
+            failAll(vault, e);
+        }
+        catch( RuntimeException e ) {
+            logger.error("Unexpected error polling Glacier jobs in " + vault.name + ": " + e.getMessage(), e);
+            failAll(vault, e);
+        }
+        finally {
+            synchronized( this ) {
+                for( Iterator<Watch> it = vault.jobs.values().iterator(); it.hasNext(); ) {
+                    if( it.next().isDone() ) {
+                        it.remove();
+                    }
+                }
+                // a job watched during the poll has already reset the interval
+                if( !vault.reset ) {
+                    vault.interval = next;
+                }
+                if( vault.jobs.isEmpty() ) {
+                    vaults.remove(vault.name);
+                }
+                else if( !closed && vault.task == null ) {
+                    schedule(vault);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pages through the jobs of a vault until every pending job has been seen, completing those that have finished.
+     * @return the number of jobs that finished
+     */
+    private int refresh( @Nonnull String vault, @Nonnull Map<String, Watch> pending ) throws CloudException, InternalException {
+        Map<String, Watch> unseen = new HashMap<String, Watch>(pending);
+        Map<String, String> parameters = new HashMap<String, String>();
+        String marker = null;
+        int pages = 0, finished = 0;
+
+        parameters.put("limit", PAGE_SIZE);
+        try {
+            do {
+                if( marker != null ) {
+                    parameters.put("marker", marker);
+                }
+                JSONObject page = GlacierMethod.build(provider, GlacierAction.LIST_JOBS).vaultId(vault)
+                        .queryParameters(parameters).toMethod().invokeJson();
+                JSONArray jobs = page.getJSONArray("JobList");
+
+                pages++;
+                for( int i = 0; i < jobs.length(); i++ ) {
+                    JSONObject job = jobs.getJSONObject(i);
+                    Watch watch = unseen.remove(job.getString("JobId"));
+
+                    if( watch == null ) {
+                        continue;
+                    }
+                    watch.misses = 0;
+                    if( Glacier.parseRequestStatus(job.getString("StatusCode")) != OfflineStoreRequestStatus.IN_PROGRESS ) {
+                        watch.complete(Glacier.loadRequestJson(job, vault));
+                        finished++;
+                    }
+                }
+                marker = Glacier.getPaginationMarker(page);
+            } while( marker != null && !unseen.isEmpty() );
+        }
+        catch( JSONException e ) {
+            throw new CloudException(e);
+        }
+        // a new job may not be listed straight away, so only give up on one missing from consecutive full listings
+        for( Map.Entry<String, Watch> entry : unseen.entrySet() ) {
+            Watch watch = entry.getValue();
+
+            if( ++watch.misses >= MAX_MISSES ) {
+                watch.fail(new CloudException("Glacier job " + entry.getKey() + " was not found in " + vault));
+            }
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Polled " + pending.size() + " jobs in " + vault + " with " + pages + " requests; " + finished + " finished");
+        }
+        return finished;
+    }
+
+    private void failAll( @Nonnull Vault vault, @Nonnull Exception error ) {
+        List<Watch> watches;
+
+        synchronized( this ) {
+            watches = new ArrayList<Watch>(vault.jobs.values());
+        }
+        logger.error("Unable to poll Glacier jobs in " + vault.name + ": " + error.getMessage());
+        for( Watch watch : watches ) {
+            watch.fail(error);
+        }
+    }
+}
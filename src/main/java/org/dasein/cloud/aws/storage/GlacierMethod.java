@@ -25,14 +25,15 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
-import org.dasein.cloud.OperationNotSupportedException;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.SignatureV4Signer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -65,8 +66,12 @@ public class GlacierMethod {
     private String vaultId                 = null;
     private String archiveId               = null;
     private String jobId                   = null;
+    private String uploadId                = null;
     private String bodyText                = null;
+    private byte[] bodyBytes               = null;
     private File bodyFile                  = null;
+    private long bodyOffset                = 0L;
+    private long bodyLength                = -1L;
 
     private GlacierMethod(Builder builder) {
         this.action = builder.action;
@@ -74,10 +79,14 @@ public class GlacierMethod {
         this.vaultId = builder.vaultId;
         this.archiveId = builder.archiveId;
         this.jobId = builder.jobId;
+        this.uploadId = builder.uploadId;
         this.headers = builder.headers == null ? new HashMap<String,String>() : builder.headers;
         this.queryParameters = builder.queryParameters == null ? new HashMap<String, String>() : builder.queryParameters;
         this.bodyText = builder.bodyText;
+        this.bodyBytes = builder.bodyBytes;
         this.bodyFile = builder.bodyFile;
+        this.bodyOffset = builder.bodyOffset;
+        this.bodyLength = builder.bodyLength;
     }
 
     private static byte[] computePayloadSHA256Hash(byte[] payload) throws NoSuchAlgorithmException, IOException {
@@ -102,15 +111,15 @@ public class GlacierMethod {
      * @throws GlacierException
      */
     public JSONObject invokeJson() throws InternalException, CloudException {
-        ClientAndResponse clientAndResponse = null;
+        MethodAndResponse methodAndResponse = null;
         String content;
         try {
-            clientAndResponse = invokeInternal();
-            Header contentType = clientAndResponse.response.getFirstHeader("content-type");
+            methodAndResponse = invokeInternal();
+            Header contentType = methodAndResponse.response.getFirstHeader("content-type");
             if (!"application/json".equalsIgnoreCase(contentType.getValue())) {
                 throw new CloudException("Invalid Glacier response: expected JSON");
             }
-            final HttpEntity entity = clientAndResponse.response.getEntity();
+            final HttpEntity entity = methodAndResponse.response.getEntity();
             content = EntityUtils.toString(entity);
             if (content == null) {
                 return null;
@@ -122,8 +131,8 @@ public class GlacierMethod {
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
-            if (clientAndResponse != null) {
-                clientAndResponse.client.getConnectionManager().shutdown();
+            if (methodAndResponse != null) {
+                methodAndResponse.release();
             }
         }
     }
@@ -136,19 +145,63 @@ public class GlacierMethod {
      * @throws GlacierException
      */
     public Map<String, String> invokeHeaders() throws InternalException, CloudException {
-        ClientAndResponse clientAndResponse = invokeInternal();
+        MethodAndResponse methodAndResponse = invokeInternal();
         try {
-            Map<String, String> headers = new HashMap<String, String>();
-            // doesn't support duplicate header keys, but they are unused by glacier
-            for (Header header : clientAndResponse.response.getAllHeaders()) {
-                headers.put(header.getName().toLowerCase(), header.getValue());
+            return getHeaders(methodAndResponse.response);
+        }finally {
+            methodAndResponse.release();
+        }
+    }
+
+    /**
+     * Invokes the method and passes the response body to the handler as it arrives, so large job output can be
+     * written out without being held in memory
+     * @param handler receives the response headers and body
+     * @return map of response headers; duplicate header keys are ignored
+     * @throws InternalException
+     * @throws CloudException an I/O error reading the body is thrown as a CloudException with the IOException as its cause
+     * @throws GlacierException
+     */
+    public Map<String, String> invokeStream(@Nonnull ResponseHandler handler) throws InternalException, CloudException {
+        MethodAndResponse methodAndResponse = invokeInternal();
+        boolean handled = false;
+        try {
+            Map<String, String> headers = getHeaders(methodAndResponse.response);
+            HttpEntity entity = methodAndResponse.response.getEntity();
+            if (entity == null) {
+                throw new CloudException("No content was returned from " + getUrl());
             }
+            handler.handle(headers, entity.getContent());
+            handled = true;
             return headers;
-        }finally {
-            clientAndResponse.client.getConnectionManager().shutdown();
+        } catch (IOException e) {
+            throw new CloudException(e);
+        } finally {
+            if (handled) {
+                methodAndResponse.release();
+            } else {
+                // drop the connection rather than download the rest of a body nobody will read
+                methodAndResponse.abort();
+            }
         }
     }
 
+    /**
+     * Receives a response body from {@link #invokeStream(ResponseHandler)}.
+     */
+    public interface ResponseHandler {
+        void handle(@Nonnull Map<String, String> headers, @Nonnull InputStream body) throws IOException, CloudException, InternalException;
+    }
+
+    private static Map<String, String> getHeaders(HttpResponse response) {
+        Map<String, String> headers = new HashMap<String, String>();
+        // doesn't support duplicate header keys, but they are unused by glacier
+        for (Header header : response.getAllHeaders()) {
+            headers.put(header.getName().toLowerCase(), header.getValue());
+        }
+        return headers;
+    }
+
     /**
      * Invokes the method and returns nothing
      * @throws InternalException
@@ -156,11 +209,11 @@ public class GlacierMethod {
      */
     public void invoke() throws InternalException, CloudException {
 
-        final ClientAndResponse clientAndResponse = invokeInternal();
-        clientAndResponse.client.getConnectionManager().shutdown();
+        final MethodAndResponse methodAndResponse = invokeInternal();
+        methodAndResponse.release();
     }
 
-    private ClientAndResponse invokeInternal() throws InternalException, CloudException {
+    private MethodAndResponse invokeInternal() throws InternalException, CloudException {
 
         if( wire.isDebugEnabled() ) {
             wire.debug("");
@@ -189,14 +242,23 @@ public class GlacierMethod {
             headers.put(AWSCloud.P_AWS_DATE, provider.getV4HeaderDate(null));
             headers.put("x-amz-glacier-version", API_VERSION);
             headers.put("host", host);
+            final String bodyHash = getRequestBodyHash();
+            if (bodyFile != null || bodyBytes != null) {
+                // uploads must state the payload hash; it is signed along with the other headers
+                headers.put(AWSCloud.P_AWS_CONTENT_SHA256, bodyHash);
+            }
             final String v4Authorization = provider.getV4Authorization(accessId, secret,
-                    method.getMethod(), url, SERVICE_ID, headers, getRequestBodyHash());
+                    method.getMethod(), url, SERVICE_ID, headers, bodyHash);
             for( Map.Entry<String, String> entry : headers.entrySet() ) {
                 method.addHeader(entry.getKey(), entry.getValue());
             }
             method.addHeader(AWSCloud.P_CFAUTH, v4Authorization);
 
-            if (bodyText != null) {
+            if (bodyFile != null) {
+                ((HttpEntityEnclosingRequestBase)method).setEntity(new FileRangeEntity(bodyFile, bodyOffset, getBodyLength(), "application/octet-stream"));
+            } else if (bodyBytes != null) {
+                ((HttpEntityEnclosingRequestBase)method).setEntity(new ByteArrayEntity(bodyBytes));
+            } else if (bodyText != null) {
                 try {
                     ((HttpEntityEnclosingRequestBase)method).setEntity(new StringEntity(bodyText));
                 } catch (UnsupportedEncodingException e) {
@@ -211,7 +273,15 @@ public class GlacierMethod {
                     wire.debug(header.getName() + ": " + header.getValue());
                 }
                 wire.debug("");
-                if( bodyText != null ) {
+                if( bodyFile != null ) {
+                    wire.debug("-- " + getBodyLength() + " byte file upload --");
+                    wire.debug("");
+                }
+                else if( bodyBytes != null ) {
+                    wire.debug("-- " + bodyBytes.length + " byte upload --");
+                    wire.debug("");
+                }
+                else if( bodyText != null ) {
                     try { wire.debug(EntityUtils.toString(((HttpEntityEnclosingRequestBase)method).getEntity())); }
                     catch( IOException ignore ) { }
 
@@ -223,6 +293,7 @@ public class GlacierMethod {
             try {
                 httpResponse = client.execute(method);
             } catch (IOException e) {
+                method.releaseConnection();
                 throw new CloudException(e);
             }
             if( wire.isDebugEnabled() ) {
@@ -235,9 +306,13 @@ public class GlacierMethod {
 
             int status = httpResponse.getStatusLine().getStatusCode();
             if( status >= 400) {
-                throw getGlacierException(httpResponse);
+                try {
+                    throw getGlacierException(httpResponse);
+                } finally {
+                    method.releaseConnection();
+                }
             } else {
-                return new ClientAndResponse(client, httpResponse);
+                return new MethodAndResponse(method, httpResponse);
             }
         }
         finally {
@@ -277,14 +352,25 @@ public class GlacierMethod {
         return new GlacierException(errorType, statusCode, errorCode, errorMessage);
     }
 
+    private long getBodyLength() {
+        return bodyLength < 0L ? bodyFile.length() - bodyOffset : bodyLength;
+    }
+
     private String getRequestBodyHash() throws InternalException {
-        if (bodyText == null && bodyFile == null) {
-            // use hash of the empty string
-            return AWSCloud.computeSHA256Hash("");
+        String precomputed = headers.get(AWSCloud.P_AWS_CONTENT_SHA256);
+
+        if (precomputed != null) {
+            // computed by the caller in the same pass as the tree hash
+            return precomputed;
+        } else if (bodyFile != null) {
+            return SignatureV4Signer.sha256Hex(bodyFile, bodyOffset, getBodyLength());
+        } else if (bodyBytes != null) {
+            return SignatureV4Signer.sha256Hex(bodyBytes);
         } else if (bodyText != null) {
             return AWSCloud.computeSHA256Hash(bodyText);
         } else {
-            throw new OperationNotSupportedException("glacier file handling not implemented");
+            // use hash of the empty string
+            return AWSCloud.computeSHA256Hash("");
         }
     }
 
@@ -355,19 +441,43 @@ public class GlacierMethod {
                     url.append("/output");
                 }
                 break;
+            case INITIATE_MULTIPART_UPLOAD:
+                url.append("/multipart-uploads");
+                break;
+            case UPLOAD_PART: case COMPLETE_MULTIPART_UPLOAD: case ABORT_MULTIPART_UPLOAD:
+                if (uploadId == null) {
+                    throw new InternalException("uploadId required");
+                }
+                url.append("/multipart-uploads/").append(uploadId);
+                break;
         }
         return url.toString();
     }
 
 
-    private static class ClientAndResponse {
-        public final HttpClient client;
+    private static class MethodAndResponse {
+        public final HttpRequestBase method;
         public final HttpResponse response;
 
-        private ClientAndResponse(HttpClient client, HttpResponse response) {
-            this.client = client;
+        private MethodAndResponse(HttpRequestBase method, HttpResponse response) {
+            this.method = method;
             this.response = response;
         }
+
+        /**
+         * Consumes whatever is left of the response body so the pooled connection can be reused, then releases it.
+         */
+        public void release() {
+            EntityUtils.consumeQuietly(response.getEntity());
+            method.releaseConnection();
+        }
+
+        /**
+         * Closes the connection without reading the rest of the response body.
+         */
+        public void abort() {
+            method.abort();
+        }
     }
 
     public static Builder build(@Nonnull AWSCloud provider, @Nonnull GlacierAction action) {
@@ -380,10 +490,14 @@ public class GlacierMethod {
         private String vaultId;
         private String archiveId;
         private String jobId;
+        private String uploadId;
         public Map<String, String> headers;
         public Map<String, String> queryParameters;
         public String bodyText;
+        public byte[] bodyBytes;
         public File bodyFile;
+        public long bodyOffset;
+        public long bodyLength = -1L;
 
         public Builder(@Nonnull AWSCloud provider, @Nonnull GlacierAction action) {
             this.provider = provider;
@@ -405,6 +519,11 @@ public class GlacierMethod {
             return this;
         }
 
+        public Builder uploadId(@Nonnull String value) {
+            uploadId = value;
+            return this;
+        }
+
         public Builder headers(@Nonnull Map<String, String> value) {
             headers = value;
             return this;
@@ -420,11 +539,26 @@ public class GlacierMethod {
             return this;
         }
 
+        public Builder bodyBytes(@Nonnull byte[] value) {
+            bodyBytes = value;
+            return this;
+        }
+
         public Builder bodyFile(@Nonnull File value) {
             bodyFile = value;
             return this;
         }
 
+        /**
+         * Sends only part of the body file, as for one part of a multipart upload.
+         */
+        public Builder bodyFile(@Nonnull File value, long offset, long length) {
+            bodyFile = value;
+            bodyOffset = offset;
+            bodyLength = length;
+            return this;
+        }
+
         public GlacierMethod toMethod() {
             return new GlacierMethod(this);
         }
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.SignatureV4Signer;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the Glacier SHA-256 tree hash of a payload as it is read, together with the plain SHA-256 used to sign
+ * the request. Each 1 MiB chunk is hashed as it fills, and adjacent subtrees of the same height are combined as soon
+ * as both exist, so only one hash per level of the tree is ever held: memory stays constant however large the
+ * payload is.
+ */
+class GlacierTreeHash {
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    static private final int BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest chunk  = newDigest();
+    private final MessageDigest linear = newDigest();
+    private final List<byte[]>  hashes = new ArrayList<byte[]>();
+    private final List<Integer> levels = new ArrayList<Integer>();
+    private int                 filled;
+    private long                length;
+    private byte[]              treeHash;
+    private byte[]              linearHash;
+
+    static private @Nonnull MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hashes a range of a file in one pass of positional reads, so several parts of one file can be hashed at once.
+     * @return the hashes of the range
+     * @throws InternalException the file could not be read
+     */
+    static @Nonnull GlacierTreeHash of( @Nonnull File file, long offset, long length ) throws InternalException {
+        GlacierTreeHash hash = new GlacierTreeHash();
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(length, 1L)));
+        FileInputStream input = null;
+
+        try {
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            long position = offset;
+            long end = offset + length;
+
+            while( position < end ) {
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+
+                if( read == -1 ) {
+                    throw new InternalException("Unexpected end of " + file + " at " + position);
+                }
+                hash.update(buffer.array(), 0, read);
+                position += read;
+            }
+            return hash;
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            if( input != null ) {
+                try {
+                    input.close();
+                }
+                catch( IOException ignore ) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the hashes of the bytes
+     */
+    static @Nonnull GlacierTreeHash of( @Nonnull byte[] bytes ) {
+        GlacierTreeHash hash = new GlacierTreeHash();
+
+        hash.update(bytes, 0, bytes.length);
+        return hash;
+    }
+
+    void update( @Nonnull byte[] bytes, int offset, int count ) {
+        if( treeHash != null ) {
+            throw new IllegalStateException("The hash has already been read");
+        }
+        linear.update(bytes, offset, count);
+        length += count;
+        while( count > 0 ) {
+            int n = Math.min(count, CHUNK_SIZE - filled);
+
+            chunk.update(bytes, offset, n);
+            filled += n;
+            offset += n;
+            count -= n;
+            if( filled == CHUNK_SIZE ) {
+                push(chunk.digest(), 0);
+                filled = 0;
+            }
+        }
+    }
+
+    /**
+     * Adds a subtree, merging it with the subtree before it for as long as both are the same height.
+     */
+    private void push( @Nonnull byte[] hash, int level ) {
+        int last = hashes.size() - 1;
+
+        while( last >= 0 && levels.get(last) == level ) {
+            hash = combine(hashes.remove(last), hash);
+            levels.remove(last);
+            level++;
+            last--;
+        }
+        hashes.add(hash);
+        levels.add(level);
+    }
+
+    static private @Nonnull byte[] combine( @Nonnull byte[] left, @Nonnull byte[] right ) {
+        MessageDigest digest = newDigest();
+
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    /**
+     * @return the number of bytes hashed
+     */
+    long getLength() {
+        return length;
+    }
+
+    @Nonnull byte[] getTreeHash() {
+        if( treeHash == null ) {
+            if( filled > 0 || hashes.isEmpty() ) {
+                push(chunk.digest(), 0);
+                filled = 0;
+            }
+            // subtrees left unpaired at the end are promoted, which folds them together from the right
+            byte[] hash = hashes.get(hashes.size() - 1);
+
+            for( int i = hashes.size() - 2; i >= 0; i-- ) {
+                hash = combine(hashes.get(i), hash);
+            }
+            treeHash = hash;
+            linearHash = linear.digest();
+        }
+        return treeHash.clone();
+    }
+
+    @Nonnull String getTreeHashHex() {
+        return SignatureV4Signer.toHex(getTreeHash());
+    }
+
+    /**
+     * @return the plain SHA-256 of the payload as hex, the payload hash of a signed request
+     */
+    @Nonnull String getLinearHashHex() {
+        getTreeHash();
+        return SignatureV4Signer.toHex(linearHash);
+    }
+
+    /**
+     * Combines the tree hashes of consecutive parts into the tree hash of the whole archive. Every part but the last
+     * must cover a power of two number of chunks, as Glacier requires of multipart uploads, so each is a complete
+     * subtree of the archive's tree.
+     * @param parts the tree hashes of the parts, in order
+     * @return the tree hash of the archive
+     */
+    static @Nonnull byte[] combine( @Nonnull List<byte[]> parts ) {
+        if( parts.isEmpty() ) {
+            throw new IllegalArgumentException("No parts to combine");
+        }
+        List<byte[]> level = parts;
+
+        while( level.size() > 1 ) {
+            List<byte[]> next = new ArrayList<byte[]>((level.size() + 1) / 2);
+
+            for( int i = 0; i < level.size(); i += 2 ) {
+                next.add(i + 1 < level.size() ? combine(level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+}
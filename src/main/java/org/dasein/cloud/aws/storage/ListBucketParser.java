@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Streams one page of a <code>ListBucketResult</code>. Each <code>Contents</code> entry is handed to the
+ * {@link Handler} as soon as it closes, so objects reach the caller while the rest of the page is still downloading
+ * and no DOM is built for the page. Common prefixes, the truncation flag and the marker for the next page are
+ * available once parsing is done.
+ */
+class ListBucketParser {
+    static private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    static {
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    /**
+     * Receives the objects of a page in the order they are listed.
+     */
+    interface Handler {
+        void object( @Nonnull String key, long size, long lastModified ) throws CloudException, InternalException;
+    }
+
+    private final Handler          handler;
+    private final SimpleDateFormat dateFormat;
+    private final List<String>     commonPrefixes = new ArrayList<String>();
+    private boolean                truncated;
+    private String                 nextMarker;
+    private String                 lastKey;
+
+    ListBucketParser( @Nonnull Handler handler ) {
+        this.handler = handler;
+        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * @return the prefixes rolled up by the delimiter, in listing order
+     */
+    @Nonnull List<String> getCommonPrefixes() {
+        return commonPrefixes;
+    }
+
+    /**
+     * @return the marker to list the next page from, or <code>null</code> if this was the last page
+     */
+    @Nullable String getNextMarker() {
+        if( !truncated ) {
+            return null;
+        }
+        // NextMarker is only sent when a delimiter was given
+        if( nextMarker != null ) {
+            return nextMarker;
+        }
+        if( !commonPrefixes.isEmpty() ) {
+            String prefix = commonPrefixes.get(commonPrefixes.size() - 1);
+
+            if( lastKey == null || prefix.compareTo(lastKey) > 0 ) {
+                return prefix;
+            }
+        }
+        return lastKey;
+    }
+
+    void parse( @Nonnull InputStream stream ) throws IOException, CloudException, InternalException {
+        XMLStreamReader reader = null;
+
+        try {
+            reader = factory.createXMLStreamReader(stream);
+            while( reader.hasNext() ) {
+                if( reader.next() != XMLStreamConstants.START_ELEMENT ) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+
+                if( "Contents".equals(name) ) {
+                    readContents(reader);
+                }
+                else if( "CommonPrefixes".equals(name) ) {
+                    readCommonPrefix(reader);
+                }
+                else if( "IsTruncated".equals(name) ) {
+                    truncated = "true".equalsIgnoreCase(reader.getElementText().trim());
+                }
+                else if( "NextMarker".equals(name) ) {
+                    nextMarker = reader.getElementText();
+                }
+            }
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            if( reader != null ) {
+                try {
+                    reader.close();
+                }
+                catch( XMLStreamException ignore ) {
+                }
+            }
+        }
+    }
+
+    private void readContents( @Nonnull XMLStreamReader reader ) throws XMLStreamException, CloudException, InternalException {
+        String key = null;
+        long size = -1L;
+        long lastModified = -1L;
+
+        while( reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamConstants.END_ELEMENT && "Contents".equals(reader.getLocalName()) ) {
+                break;
+            }
+            if( event != XMLStreamConstants.START_ELEMENT ) {
+                continue;
+            }
+            String name = reader.getLocalName();
+
+            if( "Key".equals(name) ) {
+                // keys may legitimately begin or end with spaces, so they are not trimmed
+                key = reader.getElementText();
+            }
+            else if( "Size".equals(name) ) {
+                size = Long.parseLong(reader.getElementText().trim());
+            }
+            else if( "LastModified".equals(name) ) {
+                String value = reader.getElementText().trim();
+
+                try {
+                    lastModified = dateFormat.parse(value).getTime();
+                }
+                catch( ParseException e ) {
+                    throw new CloudException("Invalid LastModified for " + key + ": " + value);
+                }
+            }
+        }
+        if( key != null ) {
+            lastKey = key;
+            if( size >= 0L ) {
+                handler.object(key, size, lastModified);
+            }
+        }
+    }
+
+    private void readCommonPrefix( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        while( reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamConstants.END_ELEMENT && "CommonPrefixes".equals(reader.getLocalName()) ) {
+                return;
+            }
+            if( event == XMLStreamConstants.START_ELEMENT && "Prefix".equals(reader.getLocalName()) ) {
+                commonPrefixes.add(reader.getElementText());
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small, bounded cache of object lookups. Objects that were found are kept for the positive TTL; objects that
+ * were not found are remembered as absent for the shorter negative TTL, so polling for an object that is about to
+ * appear soon sees it. Once full, the least recently used entry is dropped. Writes made through this provider
+ * invalidate their entries; changes made by anyone else become visible when the entry expires.
+ * @param <T> the metadata kept for each object
+ */
+final class ObjectMetadataCache<T> {
+    static final int  DEFAULT_MAX_ENTRIES  = 10000;
+    static final long DEFAULT_POSITIVE_TTL = 30000L;
+    static final long DEFAULT_NEGATIVE_TTL = 5000L;
+
+    /**
+     * A cached lookup; {@link #getValue()} is <code>null</code> when the object was known not to exist.
+     */
+    static final class Entry<T> {
+        private final T    value;
+        private final long expires;
+
+        private Entry( @Nullable T value, long expires ) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        @Nullable T getValue() {
+            return value;
+        }
+    }
+
+    private final long                            positiveTtl;
+    private final long                            negativeTtl;
+    private final LinkedHashMap<String, Entry<T>> entries;
+
+    ObjectMetadataCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_POSITIVE_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * @param maxEntries  the most lookups kept at once
+     * @param positiveTtl milliseconds an object that was found is cached
+     * @param negativeTtl milliseconds an object that was not found is cached
+     */
+    ObjectMetadataCache( final int maxEntries, long positiveTtl, long negativeTtl ) {
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        this.entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Entry<T>> eldest ) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    static private @Nonnull String getKey( @Nonnull String bucket, @Nonnull String object ) {
+        return bucket + "/" + object;
+    }
+
+    /**
+     * @return the cached lookup, or <code>null</code> if the object must be looked up
+     */
+    synchronized @Nullable Entry<T> get( @Nonnull String bucket, @Nonnull String object ) {
+        String key = getKey(bucket, object);
+        Entry<T> entry = entries.get(key);
+
+        if( entry == null ) {
+            return null;
+        }
+        if( entry.expires <= System.currentTimeMillis() ) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Records a lookup.
+     * @param value the metadata found, or <code>null</code> if the object does not exist
+     */
+    synchronized void put( @Nonnull String bucket, @Nonnull String object, @Nullable T value ) {
+        long ttl = ( value == null ? negativeTtl : positiveTtl );
+
+        entries.put(getKey(bucket, object), new Entry<T>(value, System.currentTimeMillis() + ttl));
+    }
+
+    synchronized void invalidate( @Nonnull String bucket, @Nonnull String object ) {
+        entries.remove(getKey(bucket, object));
+    }
+
+    /**
+     * Forgets every object in a bucket.
+     */
+    synchronized void invalidate( @Nonnull String bucket ) {
+        String prefix = bucket + "/";
+        Iterator<String> keys = entries.keySet().iterator();
+
+        while( keys.hasNext() ) {
+            if( keys.next().startsWith(prefix) ) {
+                keys.remove();
+            }
+        }
+    }
+}
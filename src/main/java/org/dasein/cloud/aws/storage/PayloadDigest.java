@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.Header;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.SignatureV4Signer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * The MD5 and SHA-256 digests of a payload, computed together as the bytes pass through an upload or download so the
+ * data is never read a second time just to check it. The MD5 is what S3 reports as the ETag of an object stored in
+ * one piece and accepts as <code>Content-MD5</code>; the SHA-256 is the payload hash of a signed request.
+ */
+class PayloadDigest {
+    static private final int BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+    private byte[]              md5Value;
+    private byte[]              sha256Value;
+    private long                length;
+
+    PayloadDigest() {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha256 = MessageDigest.getInstance("SHA-256");
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the digests of the bytes
+     */
+    static @Nonnull PayloadDigest of( @Nonnull byte[] bytes ) {
+        PayloadDigest digest = new PayloadDigest();
+
+        digest.update(bytes, 0, bytes.length);
+        return digest;
+    }
+
+    /**
+     * Digests a range of a file in one pass of positional reads, so several ranges of one file can be digested at once.
+     * @return the digests of the range
+     * @throws InternalException the file could not be read
+     */
+    static @Nonnull PayloadDigest of( @Nonnull File file, long offset, long length ) throws InternalException {
+        PayloadDigest digest = new PayloadDigest();
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(length, 1L)));
+        FileInputStream input = null;
+
+        try {
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            long position = offset;
+            long end = offset + length;
+
+            while( position < end ) {
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+
+                if( read == -1 ) {
+                    throw new InternalException("Unexpected end of " + file + " at " + position);
+                }
+                digest.update(buffer.array(), 0, read);
+                position += read;
+            }
+            return digest;
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            if( input != null ) {
+                try {
+                    input.close();
+                }
+                catch( IOException ignore ) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts over, as when a request body is written again on a retry.
+     */
+    synchronized void reset() {
+        md5.reset();
+        sha256.reset();
+        md5Value = null;
+        sha256Value = null;
+        length = 0L;
+    }
+
+    synchronized void update( @Nonnull byte[] bytes, int offset, int count ) {
+        if( md5Value != null ) {
+            throw new IllegalStateException("The digest has already been read");
+        }
+        md5.update(bytes, offset, count);
+        sha256.update(bytes, offset, count);
+        length += count;
+    }
+
+    /**
+     * @return the number of bytes digested
+     */
+    synchronized long getLength() {
+        return length;
+    }
+
+    synchronized @Nonnull byte[] getMd5() {
+        finish();
+        return md5Value.clone();
+    }
+
+    /**
+     * @return the MD5 as hex, the form S3 uses for the ETag of an object stored in one piece
+     */
+    @Nonnull String getMd5Hex() {
+        return SignatureV4Signer.toHex(getMd5());
+    }
+
+    /**
+     * @return the MD5 as base64, the form used by the <code>Content-MD5</code> header
+     */
+    @Nonnull String getContentMd5() {
+        return S3Method.toBase64(getMd5());
+    }
+
+    synchronized @Nonnull String getSha256Hex() {
+        finish();
+        return SignatureV4Signer.toHex(sha256Value);
+    }
+
+    private void finish() {
+        if( md5Value == null ) {
+            md5Value = md5.digest();
+            sha256Value = sha256.digest();
+        }
+    }
+
+    /**
+     * Checks the payload against the checksums in a response: the <code>Content-MD5</code> header if there is one,
+     * and the ETag when it is the MD5 of the object. ETags of multipart objects and of objects encrypted with KMS or
+     * customer keys are not MD5s and are not checked.
+     * @param headers the response headers
+     * @return a description of the mismatch, or <code>null</code> if nothing disagreed with the payload
+     */
+    @Nullable String verify( @Nullable Header[] headers ) {
+        if( headers == null ) {
+            return null;
+        }
+        String etag = null, contentMd5 = null;
+        boolean encrypted = false;
+
+        for( Header header : headers ) {
+            String name = header.getName().toLowerCase(Locale.US);
+
+            if( name.equals("etag") ) {
+                etag = header.getValue();
+            }
+            else if( name.equals("content-md5") ) {
+                contentMd5 = header.getValue().trim();
+            }
+            else if( name.equals("x-amz-server-side-encryption-customer-algorithm") ) {
+                encrypted = true;
+            }
+            else if( name.equals("x-amz-server-side-encryption") && header.getValue().trim().equalsIgnoreCase("aws:kms") ) {
+                encrypted = true;
+            }
+        }
+        if( contentMd5 != null && !contentMd5.equals(getContentMd5()) ) {
+            return "Content-MD5 " + contentMd5 + " does not match " + getContentMd5();
+        }
+        String expected = ( encrypted ? null : toMd5Hex(etag) );
+
+        if( expected != null && !expected.equals(getMd5Hex()) ) {
+            return "ETag " + expected + " does not match MD5 " + getMd5Hex();
+        }
+        return null;
+    }
+
+    /**
+     * @return the ETag as lower case hex without quotes if it is a plain MD5, otherwise <code>null</code>
+     */
+    static @Nullable String toMd5Hex( @Nullable String etag ) {
+        if( etag == null ) {
+            return null;
+        }
+        String value = etag.trim();
+
+        if( value.length() > 1 && value.startsWith("\"") && value.endsWith("\"") ) {
+            value = value.substring(1, value.length() - 1);
+        }
+        if( value.length() != 32 ) {
+            return null;
+        }
+        for( int i = 0; i < value.length(); i++ ) {
+            if( Character.digit(value.charAt(i), 16) < 0 ) {
+                return null;
+            }
+        }
+        return value.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Computes the ETag S3 gives an object assembled from parts: the MD5 of the concatenated part MD5s, followed by
+     * the number of parts.
+     * @param partETags the ETags of the parts in part number order
+     * @return the expected ETag without quotes, or <code>null</code> if a part ETag is not a plain MD5
+     */
+    static @Nullable String getMultipartETag( @Nonnull String[] partETags ) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+        for( String partETag : partETags ) {
+            String hex = toMd5Hex(partETag);
+
+            if( hex == null ) {
+                return null;
+            }
+            byte[] bytes = new byte[16];
+
+            for( int i = 0; i < bytes.length; i++ ) {
+                bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+            digest.update(bytes);
+        }
+        return SignatureV4Signer.toHex(digest.digest()) + "-" + partETags.length;
+    }
+}
@@ -53,11 +53,14 @@ import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.DatatypeConverter;
 import java.io.*;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
     static private final Logger                                    logger              = AWSCloud.getLogger(S3.class);
@@ -65,7 +68,8 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
 
 
     static private final Random random = new Random();
-    private static final int MAX_RETRIES = 0;
+
+    static private final int TRANSFER_BUFFER_SIZE = 64 * 1024;
 
     public S3( AWSCloud provider ) {
         super(provider);
@@ -174,7 +178,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             // set tags
             List<Tag> tags = new ArrayList<Tag>();
             tags.add(new Tag("Name", bucketName));
-            updateTags( 1, bucketName, S3Action.PUT_BUCKET_TAG, tags.toArray(new Tag[tags.size()]));
+            updateTags(bucketName, S3Action.PUT_BUCKET_TAG, tags.toArray(new Tag[tags.size()]));
 
             return Blob.getInstance(regionId, "http://" + bucketName + ".s3.amazonaws.com", bucketName, System.currentTimeMillis());
         }
@@ -213,7 +217,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
-    private void updateTags ( int attempt, String bucketName, S3Action action, Tag... keyValuePairs ) throws CloudException, InternalException{
+    private void updateTags ( String bucketName, S3Action action, Tag... keyValuePairs ) throws CloudException, InternalException{
     	APITrace.begin(getProvider(),  "Cloud.updateTags");
     	try {
     		try {
@@ -242,14 +246,8 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
     				return;
     			}
     			catch( S3Exception e ) {
-    				if( attempt > MAX_RETRIES ) {
-    					logger.error("S3 error setting tags for " + bucketName + ": " + e.getSummary());
-    					return;
-    				}
-    				try { Thread.sleep(5000L); } 
-    				catch( InterruptedException ignore ) { }
-    				logger.warn("Retry attempt "+ (attempt + 1) + " to create tags for ["+bucketName+"]");
-    				updateTags( attempt + 1, bucketName, action, keyValuePairs);
+    				// throttling and transient failures have already been retried by S3Method under the retry policy
+    				logger.error("S3 error setting tags for " + bucketName + ": " + e.getSummary());
     			} 
     		}catch( Throwable ignore ) {
     			logger.error("Error while creating tags for " + bucketName + ".", ignore);
@@ -295,23 +293,35 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
     	}
     }
 
-    private String getRegion( @Nonnull String bucket, boolean reload ) throws CloudException, InternalException {
-        ProviderContext ctx = getProvider().getContext();
-
-        if( ctx == null ) {
-            throw new CloudException("No context was set for this request");
-        }
+    /**
+     * @return the per-bucket region and ACL state cached for this account
+     */
+    private @Nonnull Affinity getAffinity( @Nonnull ProviderContext ctx ) {
         Cache<Affinity> cache = Cache.getInstance(getProvider(), "affinity", Affinity.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
         Iterable<Affinity> affinities = cache.get(ctx);
-        Affinity affinity;
 
-        if( affinities == null ) {
-            affinity = new Affinity();
+        if( affinities != null ) {
+            return affinities.iterator().next();
+        }
+        synchronized( cache ) {
+            affinities = cache.get(ctx);
+            if( affinities != null ) {
+                return affinities.iterator().next();
+            }
+            Affinity affinity = new Affinity();
+
             cache.put(ctx, Collections.singletonList(affinity));
+            return affinity;
         }
-        else {
-            affinity = affinities.iterator().next();
+    }
+
+    private String getRegion( @Nonnull String bucket, boolean reload ) throws CloudException, InternalException {
+        ProviderContext ctx = getProvider().getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was set for this request");
         }
+        Affinity affinity = getAffinity(ctx);
         Constraint c = affinity.constraints.get(bucket);
 
         if( reload || c == null || c.timeout <= System.currentTimeMillis() ) {
@@ -430,85 +440,181 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( !myRegion.equals(regionId) ) {
                 return null;
             }
+            return lookupObject(ctx, bucketName, objectName);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            HashMap<String, String> parameters = new HashMap<String, String>();
-            S3Response response;
-            String marker = null;
-            boolean done = false;
-            S3Method method;
+    /**
+     * Looks an object up in the metadata cache, falling back to a HEAD request.
+     * @return the object, or <code>null</code> if it does not exist
+     */
+    private @Nullable Blob lookupObject( @Nonnull ProviderContext ctx, @Nonnull String bucketName, @Nonnull String objectName ) throws CloudException, InternalException {
+        ObjectMetadataCache<Blob> cache = getObjectCache(ctx);
+        ObjectMetadataCache.Entry<Blob> entry = cache.get(bucketName, objectName);
 
-            while( !done ) {
-                NodeList blocks;
+        if( entry != null ) {
+            return entry.getValue();
+        }
+        Blob blob = headObject(ctx.getRegionId(), bucketName, objectName);
 
-                parameters.clear();
-                if( marker != null ) {
-                    parameters.put("marker", marker);
-                }
-                parameters.put("max-keys", String.valueOf(30));
-                method = new S3Method(getProvider(), S3Action.LIST_CONTENTS, parameters, null);
-                try {
-                    response = method.invoke(bucketName, null);
-                }
-                catch( S3Exception e ) {
-                    String code = e.getCode();
+        cache.put(bucketName, objectName, blob);
+        return blob;
+    }
 
-                    if( code == null || !code.equals("SignatureDoesNotMatch") ) {
-                        throw new CloudException(e);
-                    }
-                    logger.error(e.getSummary());
-                    throw new CloudException(e);
-                }
-                blocks = response.document.getElementsByTagName("IsTruncated");
-                if( blocks.getLength() > 0 ) {
-                    done = blocks.item(0).getFirstChild().getNodeValue().trim().equalsIgnoreCase("false");
-                }
-                blocks = response.document.getElementsByTagName("Contents");
-                for( int i = 0; i < blocks.getLength(); i++ ) {
-                    Node object = blocks.item(i);
-                    Storage<org.dasein.util.uom.storage.Byte> size = null;
-                    String name = null;
-                    long ts = -1L;
+    private @Nullable Blob headObject( @Nonnull String regionId, @Nonnull String bucketName, @Nonnull String objectName ) throws CloudException, InternalException {
+        S3Method method = new S3Method(getProvider(), S3Action.OBJECT_EXISTS);
+        S3Response response;
 
-                    if( object.hasChildNodes() ) {
-                        NodeList attrs = object.getChildNodes();
+        try {
+            response = method.invoke(bucketName, objectName);
+        }
+        catch( S3Exception e ) {
+            String code = e.getCode();
 
-                        for( int j = 0; j < attrs.getLength(); j++ ) {
-                            Node attr = attrs.item(j);
+            if( e.getStatus() == HttpServletResponse.SC_NOT_FOUND || ( code != null && ( code.equals("NoSuchBucket") || code.equals("NoSuchKey") ) ) ) {
+                return null;
+            }
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        Storage<org.dasein.util.uom.storage.Byte> size = null;
+        long ts = -1L;
 
-                            if( attr.getNodeName().equalsIgnoreCase("Key") ) {
-                                String key = attr.getFirstChild().getNodeValue().trim();
+        if( response != null ) {
+            try {
+                if( response.headers != null ) {
+                    for( Header header : response.headers ) {
+                        if( header.getName().equalsIgnoreCase("Content-Length") ) {
+                            size = new Storage<org.dasein.util.uom.storage.Byte>(Long.parseLong(header.getValue()), Storage.BYTE);
+                        }
+                        else if( header.getName().equalsIgnoreCase("Last-Modified") ) {
+                            SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
 
-                                name = key;
-                                marker = key;
-                            }
-                            else if( attr.getNodeName().equalsIgnoreCase("Size") ) {
-                                size = new Storage<org.dasein.util.uom.storage.Byte>(Long.parseLong(attr.getFirstChild().getNodeValue().trim()), Storage.BYTE);
+                            try {
+                                ts = fmt.parse(header.getValue()).getTime();
                             }
-                            else if( attr.getNodeName().equalsIgnoreCase("LastModified") ) {
-                                SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                                String dateString = attr.getFirstChild().getNodeValue().trim();
-
-                                try {
-                                    ts = fmt.parse(dateString).getTime();
-                                }
-                                catch( ParseException e ) {
-                                    logger.error(e);
-                                    e.printStackTrace();
-                                    throw new CloudException(e);
-                                }
+                            catch( ParseException e ) {
+                                logger.error(e);
+                                throw new CloudException(e);
                             }
                         }
                     }
-                    if( !objectName.equals(name) || size == null ) {
-                        continue;
-                    }
-                    return Blob.getInstance(regionId, getLocation(bucketName, name), bucketName, name, ts, size);
                 }
             }
+            finally {
+                response.close();
+            }
+        }
+        if( size == null ) {
+            // some S3 implementations leave the length out of HEAD responses
+            return listObject(regionId, bucketName, objectName);
+        }
+        return Blob.getInstance(regionId, getLocation(bucketName, objectName), bucketName, objectName, ts, size);
+    }
+
+    /**
+     * Finds an object with a listing limited to its name as a prefix. The object itself sorts before anything else
+     * with that prefix, so one key is enough.
+     */
+    private @Nullable Blob listObject( @Nonnull String regionId, @Nonnull String bucketName, @Nonnull String objectName ) throws CloudException, InternalException {
+        HashMap<String, String> parameters = new HashMap<String, String>();
+        S3Response response;
+
+        parameters.put("prefix", objectName);
+        parameters.put("max-keys", "1");
+        S3Method method = new S3Method(getProvider(), S3Action.LIST_CONTENTS, parameters, null);
+
+        try {
+            response = method.invoke(bucketName, null);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        if( response == null || response.document == null ) {
             return null;
         }
-        finally {
-            APITrace.end();
+        NodeList blocks = response.document.getElementsByTagName("Contents");
+
+        for( int i = 0; i < blocks.getLength(); i++ ) {
+            Node object = blocks.item(i);
+            Storage<org.dasein.util.uom.storage.Byte> size = null;
+            String name = null;
+            long ts = -1L;
+
+            if( object.hasChildNodes() ) {
+                NodeList attrs = object.getChildNodes();
+
+                for( int j = 0; j < attrs.getLength(); j++ ) {
+                    Node attr = attrs.item(j);
+
+                    if( attr.getNodeName().equalsIgnoreCase("Key") ) {
+                        name = attr.getFirstChild().getNodeValue().trim();
+                    }
+                    else if( attr.getNodeName().equalsIgnoreCase("Size") ) {
+                        size = new Storage<org.dasein.util.uom.storage.Byte>(Long.parseLong(attr.getFirstChild().getNodeValue().trim()), Storage.BYTE);
+                    }
+                    else if( attr.getNodeName().equalsIgnoreCase("LastModified") ) {
+                        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+                        String dateString = attr.getFirstChild().getNodeValue().trim();
+
+                        try {
+                            ts = fmt.parse(dateString).getTime();
+                        }
+                        catch( ParseException e ) {
+                            logger.error(e);
+                            throw new CloudException(e);
+                        }
+                    }
+                }
+            }
+            if( objectName.equals(name) && size != null ) {
+                return Blob.getInstance(regionId, getLocation(bucketName, name), bucketName, name, ts, size);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the object metadata cache shared by this account's S3 calls in the current region
+     */
+    @SuppressWarnings("unchecked")
+    private @Nonnull ObjectMetadataCache<Blob> getObjectCache( @Nonnull ProviderContext ctx ) {
+        Cache<ObjectMetadataCache> cache = Cache.getInstance(getProvider(), "objectMetadata", ObjectMetadataCache.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
+
+        synchronized( cache ) {
+            Iterable<ObjectMetadataCache> caches = cache.get(ctx);
+
+            if( caches != null ) {
+                return (ObjectMetadataCache<Blob>)caches.iterator().next();
+            }
+            ObjectMetadataCache<Blob> objects = new ObjectMetadataCache<Blob>();
+
+            cache.put(ctx, Collections.<ObjectMetadataCache>singletonList(objects));
+            return objects;
+        }
+    }
+
+    /**
+     * Drops cached metadata for an object this provider has written or removed, or for a whole bucket, including its
+     * region and ACL state, when <code>object</code> is <code>null</code>.
+     */
+    private void forget( @Nullable String bucket, @Nullable String object ) {
+        ProviderContext ctx = getProvider().getContext();
+
+        if( ctx == null || bucket == null ) {
+            return;
+        }
+        if( object == null ) {
+            getObjectCache(ctx).invalidate(bucket);
+            getAffinity(ctx).constraints.remove(bucket);
+            getAffinity(ctx).publicity.remove(bucket);
+        }
+        else {
+            getObjectCache(ctx).invalidate(bucket, object);
         }
     }
 
@@ -584,7 +690,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
-    private @Nonnull String getLocation( @Nonnull String bucketName, @Nullable String objectName ) {
+    static @Nonnull String getLocation( @Nonnull String bucketName, @Nullable String objectName ) {
         if( objectName == null ) {
             return ( "http://" + bucketName + ".s3.amazonaws.com" );
         }
@@ -609,31 +715,9 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( !getRegion(bucket, false).equals(ctx.getRegionId()) ) {
                 return null;
             }
-            S3Method method = new S3Method(getProvider(), S3Action.OBJECT_EXISTS);
-            S3Response response;
-
-            try {
-                response = method.invoke(bucket, object);
-                if( response != null && response.headers != null ) {
-                    for( Header header : response.headers ) {
-                        if( header.getName().equalsIgnoreCase("Content-Length") ) {
-                            return new Storage<org.dasein.util.uom.storage.Byte>(Long.parseLong(header.getValue()), Storage.BYTE);
-                        }
-                    }
-                }
-                return null;
-            }
-            catch( S3Exception e ) {
-                if( e.getStatus() != HttpServletResponse.SC_NOT_FOUND ) {
-                    String code = e.getCode();
+            Blob blob = lookupObject(ctx, bucket, object);
 
-                    if( code == null || ( !code.equals("NoSuchBucket") && !code.equals("NoSuchKey") ) ) {
-                        logger.error(e.getSummary());
-                        throw new CloudException(e);
-                    }
-                }
-                return null;
-            }
+            return ( blob == null ? null : blob.getSize() );
         }
         finally {
             APITrace.end();
@@ -696,17 +780,56 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( bucket == null ) {
                 throw new CloudException("No bucket was specified");
             }
+            TransferStatistics statistics = new TransferStatistics(logger, "GET " + bucket + "/" + object);
+            String etag = null;
+
+            if( getProvider().getEC2Provider().isAWS() ) {
+                S3ParallelDownload download = new S3ParallelDownload(getProvider(), bucket, object, toFile, transfer);
+                // the first range also sizes the object, so an object that fits in it takes a single request
+                S3Response first = download.open();
+
+                if( first != null ) {
+                    etag = download.getEtag();
+                    // objects of more than one part are fetched as parallel ranges
+                    if( download.getSize() > getProvider().getS3PartSize() ) {
+                        download.download(first);
+                        statistics.log(logger, download.getSize());
+                        return;
+                    }
+                    try {
+                        statistics.log(logger, transferTo(first, toFile, transfer));
+                        return;
+                    }
+                    catch( FileNotFoundException e ) {
+                        logger.error(e);
+                        throw new InternalException(e);
+                    }
+                    catch( IOException e ) {
+                        // fetched again whole below
+                        logger.warn(e);
+                    }
+                    finally {
+                        first.close();
+                    }
+                }
+            }
             IOException lastError = null;
             int attempts = 0;
 
             while( attempts < 5 ) {
-                S3Method method = new S3Method(getProvider(), S3Action.GET_OBJECT);
+                Map<String,String> headers = new HashMap<String,String>();
+
+                if( etag != null ) {
+                    // fail rather than finish the download from a replaced object
+                    headers.put("If-Match", etag);
+                }
+                S3Method method = new S3Method(getProvider(), S3Action.GET_OBJECT, null, headers);
                 S3Response response;
 
                 try {
                     response = method.invoke(bucket, object);
                     try {
-                        copy(response.input, new FileOutputStream(toFile), transfer);
+                        statistics.log(logger, transferTo(response, toFile, transfer));
                         return;
                     }
                     catch( FileNotFoundException e ) {
@@ -748,6 +871,56 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
+    /**
+     * Writes a response body to a file, digesting it on the way so it can be checked against the object's checksums.
+     * @return the number of bytes written
+     * @throws IOException the body could not be read or written, or it does not match the checksums in the response
+     */
+    private long transferTo( @Nonnull S3Response response, @Nonnull File toFile, @Nullable FileTransfer transfer ) throws IOException {
+        FileOutputStream output = new FileOutputStream(toFile);
+
+        try {
+            PayloadDigest digest = new PayloadDigest();
+            FileChannel channel = output.getChannel();
+            // the response is a stream that only fills byte arrays, so a direct buffer would cost one more copy
+            ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            long position = 0L;
+            int count;
+
+            if( transfer != null ) {
+                if( response.contentLength > 0L ) {
+                    transfer.setBytesToTransfer(response.contentLength);
+                }
+                transfer.setBytesTransferred(0L);
+            }
+            while( (count = response.input.read(bytes)) != -1 ) {
+                digest.update(bytes, 0, count);
+                buffer.clear();
+                buffer.limit(count);
+                while( buffer.hasRemaining() ) {
+                    position += channel.write(buffer, position);
+                }
+                if( transfer != null ) {
+                    transfer.setBytesTransferred(position);
+                }
+            }
+            String mismatch = digest.verify(response.headers);
+
+            if( mismatch != null ) {
+                // thrown as an I/O error so the download is retried
+                throw new IOException("Checksum mismatch reading " + toFile + ": " + mismatch);
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Downloaded " + position + " bytes to " + toFile + " with MD5 " + digest.getMd5Hex() + " and SHA-256 " + digest.getSha256Hex());
+            }
+            return position;
+        }
+        finally {
+            output.close();
+        }
+    }
+
     private @Nullable Document getAcl( @Nonnull String bucket, @Nullable String object ) throws CloudException, InternalException {
         S3Method method;
 
@@ -770,65 +943,85 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( bucket == null ) {
                 throw new CloudException("A bucket name was not specified");
             }
-            Document acl = getAcl(bucket, object);
+            if( object != null ) {
+                return isPublicRead(getAcl(bucket, object));
+            }
+            ProviderContext ctx = getProvider().getContext();
 
-            if( acl == null ) {
-                return false;
+            if( ctx == null ) {
+                throw new CloudException("No context was set for this request");
             }
-            NodeList grants;
+            Affinity affinity = getAffinity(ctx);
+            Publicity publicity = affinity.publicity.get(bucket);
+
+            if( publicity == null || publicity.timeout <= System.currentTimeMillis() ) {
+                publicity = new Publicity(isPublicRead(getAcl(bucket, null)));
+                affinity.publicity.put(bucket, publicity);
+            }
+            return publicity.isPublic;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            grants = acl.getElementsByTagName("Grant");
-            for( int i = 0; i < grants.getLength(); i++ ) {
-                boolean isAll = false, isRead = false;
-                Node grant = grants.item(i);
-                NodeList grantData;
+    /**
+     * @return true if the ACL grants everyone read access
+     */
+    static private boolean isPublicRead( @Nullable Document acl ) {
+        if( acl == null ) {
+            return false;
+        }
+        NodeList grants;
 
-                grantData = grant.getChildNodes();
-                for( int j = 0; j < grantData.getLength(); j++ ) {
-                    Node item = grantData.item(j);
+        grants = acl.getElementsByTagName("Grant");
+        for( int i = 0; i < grants.getLength(); i++ ) {
+            boolean isAll = false, isRead = false;
+            Node grant = grants.item(i);
+            NodeList grantData;
 
-                    if( item.getNodeName().equals("Grantee") ) {
-                        String type = item.getAttributes().getNamedItem("xsi:type").getNodeValue();
+            grantData = grant.getChildNodes();
+            for( int j = 0; j < grantData.getLength(); j++ ) {
+                Node item = grantData.item(j);
 
-                        if( type.equals("Group") ) {
-                            NodeList items = item.getChildNodes();
+                if( item.getNodeName().equals("Grantee") ) {
+                    String type = item.getAttributes().getNamedItem("xsi:type").getNodeValue();
 
-                            for( int k = 0; k < items.getLength(); k++ ) {
-                                Node n = items.item(k);
+                    if( type.equals("Group") ) {
+                        NodeList items = item.getChildNodes();
 
-                                if( n.getNodeName().equals("URI") ) {
-                                    if( n.hasChildNodes() ) {
-                                        String uri = n.getFirstChild().getNodeValue();
+                        for( int k = 0; k < items.getLength(); k++ ) {
+                            Node n = items.item(k);
 
-                                        if( uri.equals("http://acs.amazonaws.com/groups/global/AllUsers") ) {
-                                            isAll = true;
-                                            break;
-                                        }
+                            if( n.getNodeName().equals("URI") ) {
+                                if( n.hasChildNodes() ) {
+                                    String uri = n.getFirstChild().getNodeValue();
+
+                                    if( uri.equals("http://acs.amazonaws.com/groups/global/AllUsers") ) {
+                                        isAll = true;
+                                        break;
                                     }
                                 }
-                                if( isAll ) {
-                                    break;
-                                }
+                            }
+                            if( isAll ) {
+                                break;
                             }
                         }
                     }
-                    else if( item.getNodeName().equals("Permission") ) {
-                        if( item.hasChildNodes() ) {
-                            String perm = item.getFirstChild().getNodeValue();
+                }
+                else if( item.getNodeName().equals("Permission") ) {
+                    if( item.hasChildNodes() ) {
+                        String perm = item.getFirstChild().getNodeValue();
 
-                            isRead = ( perm.equals("READ") || perm.equals("FULL_CONTROL") );
-                        }
+                        isRead = ( perm.equals("READ") || perm.equals("FULL_CONTROL") );
                     }
                 }
-                if( isAll ) {
-                    return isRead;
-                }
             }
-            return false;
-        }
-        finally {
-            APITrace.end();
+            if( isAll ) {
+                return isRead;
+            }
         }
+        return false;
     }
 
     @Override
@@ -949,6 +1142,48 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         return populator.getResult();
     }
 
+    /**
+     * Lists the objects under each of the given key prefixes, listing up to {@link AWSCloud#getS3ListThreads()}
+     * prefixes at once. Objects arrive in no particular order, and objects under overlapping prefixes are listed
+     * more than once.
+     * @param bucket the bucket to list
+     * @param prefixes the key prefixes that partition the part of the bucket to list
+     * @return the objects under the prefixes, populated in the background
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException a local error occurred talking to S3
+     */
+    public @Nonnull Iterable<Blob> list( final @Nonnull String bucket, final @Nonnull Collection<String> prefixes ) throws CloudException, InternalException {
+        final ProviderContext ctx = getProvider().getContext();
+        PopulatorThread<Blob> populator;
+
+        if( ctx == null ) {
+            throw new CloudException("No context was specified for this request");
+        }
+        final String regionId = ctx.getRegionId();
+
+        if( regionId == null ) {
+            throw new CloudException("No region ID was specified");
+        }
+        if( !getRegion(bucket, false).equals(regionId) ) {
+            throw new CloudException("No such bucket in target region: " + bucket + " in " + regionId);
+        }
+        getProvider().hold();
+        populator = new PopulatorThread<Blob>(new JiteratorPopulator<Blob>() {
+            public void populate( @Nonnull Jiterator<Blob> iterator ) throws CloudException, InternalException {
+                APITrace.begin(getProvider(), "Blob.listPrefixes");
+                try {
+                    new S3BucketListing(getProvider(), regionId, bucket, iterator).list(prefixes, getProvider().getS3ListThreads());
+                }
+                finally {
+                    APITrace.end();
+                    getProvider().release();
+                }
+            }
+        });
+        populator.populate();
+        return populator.getResult();
+    }
+
     private void list( @Nonnull String regionId, @Nullable String bucket, @Nonnull Jiterator<Blob> iterator ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.list");
         try {
@@ -1042,80 +1277,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
     }
 
     private void loadObjects( @Nonnull String regionId, @Nonnull String bucket, @Nonnull Jiterator<Blob> iterator ) throws CloudException, InternalException {
-        HashMap<String, String> parameters = new HashMap<String, String>();
-        S3Response response;
-        String marker = null;
-        boolean done = false;
-        S3Method method;
-
-        while( !done ) {
-            NodeList blocks;
-
-            parameters.clear();
-            if( marker != null ) {
-                parameters.put("marker", marker);
-            }
-            parameters.put("max-keys", String.valueOf(30));
-            method = new S3Method(getProvider(), S3Action.LIST_CONTENTS, parameters, null);
-            try {
-                response = method.invoke(bucket, null);
-            }
-            catch( S3Exception e ) {
-                String code = e.getCode();
-
-                if( code == null || !code.equals("SignatureDoesNotMatch") ) {
-                    throw new CloudException(e);
-                }
-                logger.error(e.getSummary());
-                throw new CloudException(e);
-            }
-            blocks = response.document.getElementsByTagName("IsTruncated");
-            if( blocks.getLength() > 0 ) {
-                done = blocks.item(0).getFirstChild().getNodeValue().trim().equalsIgnoreCase("false");
-            }
-            blocks = response.document.getElementsByTagName("Contents");
-            for( int i = 0; i < blocks.getLength(); i++ ) {
-                Node object = blocks.item(i);
-                Storage<org.dasein.util.uom.storage.Byte> size = null;
-                String name = null;
-                long ts = -1L;
-
-                if( object.hasChildNodes() ) {
-                    NodeList attrs = object.getChildNodes();
-
-                    for( int j = 0; j < attrs.getLength(); j++ ) {
-                        Node attr = attrs.item(j);
-
-                        if( attr.getNodeName().equalsIgnoreCase("Key") ) {
-                            String key = attr.getFirstChild().getNodeValue().trim();
-
-                            name = key;
-                            marker = key;
-                        }
-                        else if( attr.getNodeName().equalsIgnoreCase("Size") ) {
-                            size = new Storage<org.dasein.util.uom.storage.Byte>(Long.parseLong(attr.getFirstChild().getNodeValue().trim()), Storage.BYTE);
-                        }
-                        else if( attr.getNodeName().equalsIgnoreCase("LastModified") ) {
-                            SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                            String dateString = attr.getFirstChild().getNodeValue().trim();
-
-                            try {
-                                ts = fmt.parse(dateString).getTime();
-                            }
-                            catch( ParseException e ) {
-                                logger.error(e);
-                                e.printStackTrace();
-                                throw new CloudException(e);
-                            }
-                        }
-                    }
-                }
-                if( name == null || size == null ) {
-                    continue;
-                }
-                iterator.push(Blob.getInstance(regionId, getLocation(bucket, name), bucket, name, ts, size));
-            }
-        }
+        new S3BucketListing(getProvider(), regionId, bucket, iterator).listAll("/");
     }
 
     @Override
@@ -1294,7 +1456,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( object == null ) {
                 throw new CloudException("No source object was specified");
             }
-            copy(sourceBucket, object, targetBucket, object);
+            copy(sourceBucket, object, targetBucket, object, null);
             removeObject(sourceBucket, object);
         }
         finally {
@@ -1302,8 +1464,119 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
+    /**
+     * Moves every object under the given prefixes to the same names in another bucket. The objects are copied on the
+     * server side, several at a time, and the sources are removed in bulk only once every copy has succeeded.
+     * @param sourceBucket the bucket holding the objects
+     * @param prefixes the key prefixes to move; they should not overlap
+     * @param targetBucket the bucket to move the objects to
+     * @param transfer optional progress tracker, updated with the bytes copied; it is not marked complete
+     * @throws CloudException an error occurred with the cloud provider; if a copy failed no source was removed
+     * @throws InternalException a local error occurred talking to S3
+     */
+    public void move( @Nonnull String sourceBucket, @Nonnull Collection<String> prefixes, @Nonnull String targetBucket, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.movePrefixes");
+        try {
+            moveAll(sourceBucket, list(sourceBucket, prefixes), targetBucket, transfer);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Moves objects to the same names in another bucket, copying them in parallel before removing the sources in
+     * bulk, so a failed copy leaves every source in place.
+     */
+    private void moveAll( @Nonnull String sourceBucket, @Nonnull Iterable<Blob> objects, @Nonnull String targetBucket, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
+        if( !getProvider().getEC2Provider().isAWS() ) {
+            for( Blob blob : objects ) {
+                move(sourceBucket, blob.getObjectName(), targetBucket);
+            }
+            return;
+        }
+        List<String> copied;
+
+        try {
+            copied = new S3Copy(getProvider(), getCopyHeaders(targetBucket), transfer).copyAll(objects, targetBucket);
+        }
+        finally {
+            ProviderContext ctx = getProvider().getContext();
+
+            if( ctx != null ) {
+                getObjectCache(ctx).invalidate(targetBucket);
+            }
+        }
+        requireRemoved(sourceBucket, removeObjects(sourceBucket, copied));
+    }
+
+    /**
+     * Copies an object on the server side, so its data does not pass through this client. Objects larger than one
+     * part are copied as a multipart upload of parallel <code>UploadPartCopy</code> ranges. Outside AWS the object is
+     * copied by downloading and uploading it.
+     * @param sourceBucket the bucket holding the object
+     * @param sourceObject the object to copy
+     * @param targetBucket the bucket to copy the object to
+     * @param targetObject the name of the copy
+     * @param transfer optional progress tracker, updated with the bytes copied; it is not marked complete
+     * @throws CloudException an error occurred with the cloud provider, or the source does not exist
+     * @throws InternalException a local error occurred talking to S3
+     */
+    public void copy( @Nonnull String sourceBucket, @Nonnull String sourceObject, @Nonnull String targetBucket, @Nonnull String targetObject, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.copyObject");
+        try {
+            if( !getProvider().getEC2Provider().isAWS() ) {
+                copy(sourceBucket, sourceObject, targetBucket, targetObject);
+                return;
+            }
+            ProviderContext ctx = getProvider().getContext();
+
+            if( ctx == null ) {
+                throw new CloudException("No context was set for this request");
+            }
+            Blob source = lookupObject(ctx, sourceBucket, sourceObject);
+
+            if( source == null ) {
+                throw new CloudException("No such object: " + sourceBucket + "/" + sourceObject);
+            }
+            long size = ( source.getSize() == null ? 0L : source.getSize().getQuantity().longValue() );
+
+            new S3Copy(getProvider(), getCopyHeaders(targetBucket), transfer).copy(sourceBucket, sourceObject, size, targetBucket, targetObject);
+        }
+        finally {
+            forget(targetBucket, targetObject);
+            APITrace.end();
+        }
+    }
+
+    /**
+     * @return the headers for objects copied into a bucket, so copies into a public bucket are public like uploads
+     */
+    private @Nullable Map<String, String> getCopyHeaders( @Nonnull String bucket ) throws CloudException, InternalException {
+        if( !isPublic(bucket, null) ) {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+
+        headers.put("x-amz-acl", "public-read");
+        return headers;
+    }
+
     @Override
     protected void put( @Nullable String bucket, @Nonnull String object, @Nonnull File file ) throws CloudException, InternalException {
+        put(bucket, object, file, null);
+    }
+
+    /**
+     * Uploads a file, splitting it into a parallel multipart upload when it is larger than one part.
+     * @param bucket the target bucket
+     * @param object the target object name
+     * @param file the file to upload
+     * @param transfer optional progress tracker, updated as the file is stored
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException a local error occurred reading the file or talking to S3
+     */
+    private void put( @Nullable String bucket, @Nonnull String object, @Nonnull File file, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.putFile");
         try {
             boolean bucketIsPublic = isPublic(bucket, null);
@@ -1314,6 +1587,16 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
                 headers = new HashMap<String, String>();
                 headers.put("x-amz-acl", "public-read");
             }
+            if( transfer != null ) {
+                transfer.setBytesToTransfer(file.length());
+            }
+            TransferStatistics statistics = new TransferStatistics(logger, "PUT " + bucket + "/" + object);
+
+            if( bucket != null && getProvider().getEC2Provider().isAWS() && file.length() > getProvider().getS3PartSize() ) {
+                new S3MultipartUpload(getProvider(), bucket, object, file, "application/octet-stream", headers, transfer).upload();
+                statistics.log(logger, file.length());
+                return;
+            }
             method = new S3Method(getProvider(), S3Action.PUT_OBJECT, null, headers, "application/octet-stream", file);
             try {
                 method.invoke(bucket, object);
@@ -1321,8 +1604,13 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             catch( S3Exception e ) {
                 throw new CloudException(e);
             }
+            statistics.log(logger, file.length());
+            if( transfer != null ) {
+                transfer.setBytesTransferred(file.length());
+            }
         }
         finally {
+            forget(bucket, object);
             APITrace.end();
         }
     }
@@ -1339,41 +1627,216 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
                 headers = new HashMap<String, String>();
                 headers.put("x-amz-acl", "public-read");
             }
-            File file = null;
             try {
-                try {
-                    file = File.createTempFile(object, ".txt");
-                    PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file)));
-                    writer.print(content);
-                    writer.flush();
-                    writer.close();
+                method = new S3Method(getProvider(), S3Action.PUT_OBJECT, null, headers, "text/plain", content.getBytes("utf-8"));
+            }
+            catch( UnsupportedEncodingException e ) {
+                throw new InternalException(e);
+            }
+            try {
+                method.invoke(bucket, object);
+            }
+            catch( S3Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+        }
+        finally {
+            forget(bucket, object);
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Uploads a stream. Streams that fit in one part are buffered and sent in a single request; longer streams, and
+     * streams of unknown length that turn out to be longer than one part, become a parallel multipart upload that
+     * buffers only the parts in flight.
+     * @param bucket the target bucket
+     * @param object the target object name
+     * @param input the stream to upload, read to its end but not closed
+     * @param length the number of bytes in the stream, or -1 if it is not known
+     * @param contentType the content type of the object
+     * @param transfer optional progress tracker, updated as the stream is stored
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException a local error occurred reading the stream or talking to S3
+     */
+    private void put( @Nullable String bucket, @Nonnull String object, @Nonnull InputStream input, long length, @Nullable String contentType, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.putStream");
+        try {
+            boolean bucketIsPublic = isPublic(bucket, null);
+            HashMap<String, String> headers = null;
+            long partSize = getProvider().getS3PartSize();
+            byte[] first;
+
+            if( bucketIsPublic ) {
+                headers = new HashMap<String, String>();
+                headers.put("x-amz-acl", "public-read");
+            }
+            if( length >= 0L ) {
+                partSize = S3MultipartUpload.getPartSize(length, partSize);
+                if( transfer != null ) {
+                    transfer.setBytesToTransfer(length);
+                }
+            }
+            TransferStatistics statistics = new TransferStatistics(logger, "PUT " + bucket + "/" + object);
+
+            try {
+                first = S3MultipartUpload.readPart(input, (int)(length >= 0L ? Math.min(length, partSize) : partSize));
+            }
+            catch( IOException e ) {
+                throw new InternalException(e);
+            }
+            // a full first part means there may be more to come, unless the length says otherwise
+            if( first.length == partSize && length != partSize ) {
+                if( bucket != null && getProvider().getEC2Provider().isAWS() ) {
+                    S3MultipartUpload upload = new S3MultipartUpload(getProvider(), bucket, object, input, first, length, contentType, headers, transfer);
+
+                    upload.upload();
+                    statistics.log(logger, upload.getBytesUploaded());
                 }
-                catch( IOException e ) {
-                    logger.error(e);
-                    e.printStackTrace();
-                    throw new InternalException(e);
+                else {
+                    putSpooled(bucket, object, input, first, transfer);
                 }
-                method = new S3Method(getProvider(), S3Action.PUT_OBJECT, null, headers, "text/plain", file);
+                return;
+            }
+            S3Method method = new S3Method(getProvider(), S3Action.PUT_OBJECT, null, headers, contentType, first);
+
+            try {
+                method.invoke(bucket, object);
+            }
+            catch( S3Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+            statistics.log(logger, first.length);
+            if( transfer != null ) {
+                transfer.setBytesTransferred(first.length);
+            }
+        }
+        finally {
+            forget(bucket, object);
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Uploads a stream through a temporary file, for providers without multipart uploads.
+     */
+    private void putSpooled( @Nullable String bucket, @Nonnull String object, @Nonnull InputStream input, @Nonnull byte[] first, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
+        File file = null;
+
+        try {
+            try {
+                file = File.createTempFile("upload", ".tmp");
+                OutputStream output = new FileOutputStream(file);
+
                 try {
-                    method.invoke(bucket, object);
+                    byte[] bytes = new byte[TRANSFER_BUFFER_SIZE];
+                    int count;
+
+                    output.write(first);
+                    while( (count = input.read(bytes)) != -1 ) {
+                        output.write(bytes, 0, count);
+                    }
                 }
-                catch( S3Exception e ) {
-                    logger.error(e.getSummary());
-                    throw new CloudException(e);
+                finally {
+                    output.close();
                 }
             }
-            finally {
-                if( file != null ) {
-                    //noinspection ResultOfMethodCallIgnored
-                    file.delete();
+            catch( IOException e ) {
+                logger.error(e);
+                throw new InternalException(e);
+            }
+            put(bucket, object, file, transfer);
+        }
+        finally {
+            if( file != null ) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public void clearBucket( @Nonnull String bucket ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.clearBucket");
+        try {
+            if( !getProvider().getEC2Provider().isAWS() ) {
+                // Multi-Object Delete is not available outside AWS
+                for( Blob blob : list(bucket) ) {
+                    removeObject(bucket, blob.getObjectName());
                 }
+                return;
             }
+            // the listing populates in the background while earlier keys are being deleted
+            requireRemoved(bucket, removeObjects(bucket, toObjectNames(list(bucket))));
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * @param failures the result of {@link #removeObjects(String, Iterable)}
+     * @throws CloudException some of the objects were not removed
+     */
+    static private void requireRemoved( @Nonnull String bucket, @Nonnull Map<String, String> failures ) throws CloudException {
+        if( !failures.isEmpty() ) {
+            Map.Entry<String, String> first = failures.entrySet().iterator().next();
+
+            throw new CloudException(failures.size() + " objects could not be removed from " + bucket + ", including " + first.getKey() + " (" + first.getValue() + ")");
+        }
+    }
+
+    /**
+     * Removes many objects with S3 Multi-Object Delete, 1000 keys per request with several requests in flight.
+     * @param bucket the bucket holding the objects
+     * @param objectNames the names of the objects to remove; read once, as they become available
+     * @return the objects that could not be removed, mapped to the error S3 reported for each; empty if all were
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException a local error occurred talking to S3
+     */
+    public @Nonnull Map<String, String> removeObjects( @Nonnull String bucket, @Nonnull Iterable<String> objectNames ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.removeObjects");
+        try {
+            return new S3BulkDelete(getProvider(), bucket).delete(objectNames);
         }
         finally {
+            ProviderContext ctx = getProvider().getContext();
+
+            if( ctx != null ) {
+                getObjectCache(ctx).invalidate(bucket);
+            }
             APITrace.end();
         }
     }
 
+    static private @Nonnull Iterable<String> toObjectNames( @Nonnull final Iterable<Blob> blobs ) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                final Iterator<Blob> iterator = blobs.iterator();
+
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return iterator.next().getObjectName();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
     @Override
     public void removeBucket( @Nonnull String bucket ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.removeBucket");
@@ -1394,6 +1857,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             }
         }
         finally {
+            forget(bucket, null);
             APITrace.end();
         }
     }
@@ -1421,6 +1885,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             }
         }
         finally {
+            forget(bucket, name);
             APITrace.end();
         }
     }
@@ -1431,34 +1896,9 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         try {
             Blob bucket = createBucket(newName, findFreeName);
 
-            for( Blob file : list(oldName) ) {
-                int retries = 10;
-
-                while( true ) {
-                    retries--;
-                    try {
-                        move(oldName, file.getObjectName(), bucket.getBucketName());
-                        break;
-                    }
-                    catch( CloudException e ) {
-                        if( retries < 1 ) {
-                            throw e;
-                        }
-                    }
-                    try {
-                        Thread.sleep(retries * 10000L);
-                    }
-                    catch( InterruptedException ignore ) {
-                    }
-                }
-            }
-            boolean ok = true;
-            for( Blob file : list(oldName) ) {
-                if( file != null ) {
-                    ok = false;
-                }
-            }
-            if( ok ) {
+            // failed requests are already retried with backoff by S3Method, so a failure here is final
+            moveAll(oldName, list(oldName), bucket.getBucketName(), null);
+            if( !list(oldName).iterator().hasNext() ) {
                 removeBucket(oldName);
             }
             return newName;
@@ -1475,7 +1915,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( bucket == null ) {
                 throw new CloudException("No bucket was specified");
             }
-            copy(bucket, object, bucket, newName);
+            copy(bucket, object, bucket, newName, null);
             removeObject(bucket, object);
         }
         finally {
@@ -1483,6 +1923,17 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
+    /**
+     * Drops the cached public state of a bucket whose ACL this provider has changed.
+     */
+    private void forgetAcl( @Nonnull String bucket ) {
+        ProviderContext ctx = getProvider().getContext();
+
+        if( ctx != null ) {
+            getAffinity(ctx).publicity.remove(bucket);
+        }
+    }
+
     private void setAcl( @Nonnull String bucket, @Nullable String object, @Nonnull String body ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.setAcl");
         try {
@@ -1499,12 +1950,30 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             }
         }
         finally {
+            if( object == null ) {
+                forgetAcl(bucket);
+            }
             APITrace.end();
         }
     }
 
     @Override
     public @Nonnull Blob upload( @Nonnull File source, @Nullable String bucket, @Nonnull String fileName ) throws CloudException, InternalException {
+        return upload(source, bucket, fileName, null);
+    }
+
+    /**
+     * Uploads a file as {@link #upload(File, String, String)} does, reporting progress as parts of large files are
+     * stored.
+     * @param source the file to upload
+     * @param bucket the target bucket
+     * @param fileName the target object name
+     * @param transfer optional progress tracker; its byte counts are updated but it is not marked complete
+     * @return the uploaded object
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException a local error occurred reading the file or talking to S3
+     */
+    public @Nonnull Blob upload( @Nonnull File source, @Nullable String bucket, @Nonnull String fileName, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.upload");
         try {
             if( bucket == null ) {
@@ -1513,7 +1982,36 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( !exists(bucket) ) {
                 createBucket(bucket, false);
             }
-            put(bucket, fileName, source);
+            put(bucket, fileName, source, transfer);
+            return getObject(bucket, fileName);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Uploads the contents of a stream without staging them in a local file. Streams longer than one part, including
+     * streams of unknown length, are sent as a parallel multipart upload.
+     * @param source the stream to upload, read to its end but not closed
+     * @param bucket the target bucket
+     * @param fileName the target object name
+     * @param length the number of bytes in the stream, or -1 if it is not known
+     * @param transfer optional progress tracker; its byte counts are updated but it is not marked complete
+     * @return the uploaded object
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException a local error occurred reading the stream or talking to S3
+     */
+    public @Nonnull Blob upload( @Nonnull InputStream source, @Nullable String bucket, @Nonnull String fileName, long length, @Nullable FileTransfer transfer ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.upload");
+        try {
+            if( bucket == null ) {
+                throw new OperationNotSupportedException("Root objects are not supported");
+            }
+            if( !exists(bucket) ) {
+                createBucket(bucket, false);
+            }
+            put(bucket, fileName, source, length, "application/octet-stream", transfer);
             return getObject(bucket, fileName);
         }
         finally {
@@ -1530,7 +2028,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
 
     		for (int i = 0; i < tags.length ; i++ )
     			tagsList.add(new Tag (tags[i].getKey(), tags[i].getValue()));
-    		updateTags(1, bucketName, S3Action.PUT_BUCKET_TAG, tagsList.toArray(new Tag[tagsList.size()]));
+    		updateTags(bucketName, S3Action.PUT_BUCKET_TAG, tagsList.toArray(new Tag[tagsList.size()]));
     	}
     	finally {
     		APITrace.end();
@@ -1558,8 +2056,8 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
     						break;
     					}
     				}
-    		updateTags(1, bucketName, S3Action.DELETE_BUCKET_TAG);
-    		updateTags(1, bucketName, S3Action.PUT_BUCKET_TAG, existTags.toArray(new Tag[existTags.size()]));
+    		updateTags(bucketName, S3Action.DELETE_BUCKET_TAG);
+    		updateTags(bucketName, S3Action.PUT_BUCKET_TAG, existTags.toArray(new Tag[existTags.size()]));
     	}
         finally {
             APITrace.end();
@@ -1583,7 +2081,18 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
+    static private class Publicity {
+        public boolean isPublic;
+        public long    timeout;
+
+        public Publicity( boolean isPublic ) {
+            this.isPublic = isPublic;
+            this.timeout = System.currentTimeMillis() + ( CalendarWrapper.MINUTE * 5L ) + random.nextInt(( int ) CalendarWrapper.MINUTE);
+        }
+    }
+
     static private class Affinity {
-        public HashMap<String, Constraint> constraints = new HashMap<String, Constraint>();
+        public final ConcurrentHashMap<String, Constraint> constraints = new ConcurrentHashMap<String, Constraint>();
+        public final ConcurrentHashMap<String, Publicity>  publicity   = new ConcurrentHashMap<String, Publicity>();
     }
 }
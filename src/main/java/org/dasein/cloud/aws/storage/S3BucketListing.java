@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.dasein.cloud.storage.Blob;
+import org.dasein.util.Jiterator;
+import org.dasein.util.uom.storage.Storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Lists the objects of a bucket into a {@link Jiterator}. Pages are read with {@link ListBucketParser}, so objects
+ * are pushed as they are parsed. A bucket can also be listed as separate key prefixes, up to
+ * {@link AWSCloud#getS3ListThreads()} at a time, so a large listing is bounded by the number of workers rather
+ * than by the latency of one page after another. Objects listed in parallel arrive in no particular order.
+ */
+class S3BucketListing {
+    static private final Logger logger = AWSCloud.getLogger(S3BucketListing.class);
+
+    static private final int PAGE_SIZE = 1000;
+
+    private final AWSCloud        provider;
+    private final String          regionId;
+    private final String          bucket;
+    private final Jiterator<Blob> iterator;
+
+    S3BucketListing( @Nonnull AWSCloud provider, @Nonnull String regionId, @Nonnull String bucket, @Nonnull Jiterator<Blob> iterator ) {
+        this.provider = provider;
+        this.regionId = regionId;
+        this.bucket = bucket;
+        this.iterator = iterator;
+    }
+
+    /**
+     * Lists every object in the bucket, in parallel by the prefixes under the delimiter when more than one worker is
+     * configured and the bucket has more than one such prefix.
+     * @param delimiter the character that separates the levels of the key space, usually <code>/</code>
+     */
+    void listAll( @Nonnull String delimiter ) throws CloudException, InternalException {
+        int threads = provider.getS3ListThreads();
+
+        if( threads < 2 ) {
+            list(null);
+            return;
+        }
+        // objects above the first delimiter are pushed while the prefixes are discovered
+        List<String> prefixes = discover(delimiter);
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Listing " + bucket + " as " + prefixes.size() + " prefixes on " + threads + " workers");
+        }
+        list(prefixes, threads);
+    }
+
+    /**
+     * Lists the objects under each prefix, at most <code>threads</code> prefixes at a time. The prefixes should not
+     * overlap, or objects under both will be listed twice.
+     */
+    void list( @Nonnull Collection<String> prefixes, int threads ) throws CloudException, InternalException {
+        if( prefixes.size() == 1 || threads < 2 ) {
+            for( String prefix : prefixes ) {
+                list(prefix);
+            }
+            return;
+        }
+        CompletionService<String> completion = new ExecutorCompletionService<String>(provider.getAsyncExecutor());
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        List<String> pending = new ArrayList<String>(prefixes);
+        int submitted = 0, done = 0;
+
+        try {
+            while( done < pending.size() ) {
+                while( submitted < pending.size() && submitted - done < threads ) {
+                    final String prefix = pending.get(submitted);
+
+                    futures.add(completion.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            list(prefix);
+                            return prefix;
+                        }
+                    }));
+                    submitted++;
+                }
+                completion.take().get();
+                done++;
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while listing " + bucket);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( done < pending.size() ) {
+                for( Future<String> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists every object under one prefix, a page at a time.
+     * @param prefix the prefix to list, or <code>null</code> for the whole bucket
+     */
+    void list( @Nullable String prefix ) throws CloudException, InternalException {
+        String marker = null;
+
+        do {
+            marker = fetchPage(prefix, null, marker).getNextMarker();
+        } while( marker != null );
+    }
+
+    /**
+     * Lists the top level of the bucket under the delimiter, pushing the objects found there.
+     * @return the prefixes one level below the top
+     */
+    private @Nonnull List<String> discover( @Nonnull String delimiter ) throws CloudException, InternalException {
+        List<String> prefixes = new ArrayList<String>();
+        String marker = null;
+
+        do {
+            ListBucketParser page = fetchPage(null, delimiter, marker);
+
+            prefixes.addAll(page.getCommonPrefixes());
+            marker = page.getNextMarker();
+        } while( marker != null );
+        return prefixes;
+    }
+
+    private @Nonnull ListBucketParser fetchPage( @Nullable String prefix, @Nullable String delimiter, @Nullable String marker ) throws CloudException, InternalException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        ListBucketParser parser = new ListBucketParser(new ListBucketParser.Handler() {
+            @Override
+            public void object( @Nonnull String key, long size, long lastModified ) {
+                iterator.push(Blob.getInstance(regionId, S3.getLocation(bucket, key), bucket, key, lastModified, new Storage<org.dasein.util.uom.storage.Byte>(size, Storage.BYTE)));
+            }
+        });
+
+        if( prefix != null ) {
+            parameters.put("prefix", prefix);
+        }
+        if( delimiter != null ) {
+            parameters.put("delimiter", delimiter);
+        }
+        if( marker != null ) {
+            parameters.put("marker", marker);
+        }
+        parameters.put("max-keys", String.valueOf(PAGE_SIZE));
+        S3Response response;
+
+        try {
+            response = new S3Method(provider, S3Action.LIST_CONTENTS, parameters, null).invokeRaw(bucket, null);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        if( response == null ) {
+            return parser;
+        }
+        try {
+            if( response.input != null ) {
+                parser.parse(response.input);
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            response.close();
+        }
+        return parser;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Deletes objects from a bucket with S3 Multi-Object Delete, up to 1000 keys per request. Keys are taken from the
+ * source as they become available, so deletion runs alongside a background listing of the same bucket, and at most
+ * {@link AWSCloud#getS3TransferThreads()} batches are in flight at once. Keys S3 refuses to delete are collected
+ * rather than aborting the remaining batches.
+ */
+class S3BulkDelete {
+    static private final Logger logger = AWSCloud.getLogger(S3BulkDelete.class);
+
+    static final int MAX_KEYS = 1000;
+
+    private final AWSCloud provider;
+    private final String   bucket;
+
+    S3BulkDelete( @Nonnull AWSCloud provider, @Nonnull String bucket ) {
+        this.provider = provider;
+        this.bucket = bucket;
+    }
+
+    /**
+     * Deletes the given keys.
+     * @param keys the keys to delete, read once and in order
+     * @return the keys that could not be deleted, mapped to the error S3 reported for each
+     * @throws CloudException a batch request failed as a whole
+     * @throws InternalException a local error occurred talking to S3
+     */
+    @Nonnull Map<String, String> delete( @Nonnull Iterable<String> keys ) throws CloudException, InternalException {
+        final Map<String, String> failures = new TreeMap<String, String>();
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(provider.getAsyncExecutor());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        Iterator<String> source = keys.iterator();
+        int window = provider.getS3TransferThreads();
+        int submitted = 0, done = 0, deleted = 0;
+
+        try {
+            while( source.hasNext() || done < submitted ) {
+                while( source.hasNext() && submitted - done < window ) {
+                    final List<String> batch = new ArrayList<String>(MAX_KEYS);
+
+                    while( batch.size() < MAX_KEYS && source.hasNext() ) {
+                        batch.add(source.next());
+                    }
+                    futures.add(completion.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            Map<String, String> errors = deleteBatch(batch);
+
+                            synchronized( failures ) {
+                                failures.putAll(errors);
+                            }
+                            return batch.size() - errors.size();
+                        }
+                    }));
+                    submitted++;
+                }
+                if( done < submitted ) {
+                    deleted += completion.take().get();
+                    done++;
+                }
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Deleted " + deleted + " objects from " + bucket + " in " + submitted + " batches, " + failures.size() + " failed");
+            }
+            return failures;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while deleting objects from " + bucket);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( source.hasNext() || done < submitted ) {
+                for( Future<Integer> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the keys of the batch that were not deleted, mapped to their errors
+     */
+    private @Nonnull Map<String, String> deleteBatch( @Nonnull List<String> keys ) throws CloudException, InternalException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        byte[] body;
+
+        try {
+            body = toXml(keys).getBytes("utf-8");
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        parameters.put("delete", null);
+        // S3 requires a Content-MD5 for this call, which S3Method adds from its digest of the body
+        S3Method method = new S3Method(provider, S3Action.DELETE_OBJECTS, parameters, null, "application/xml", body);
+        S3Response response;
+
+        try {
+            response = method.invoke(bucket, null);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        Map<String, String> errors = new HashMap<String, String>();
+
+        if( response == null || response.document == null ) {
+            return errors;
+        }
+        NodeList blocks = response.document.getElementsByTagName("Error");
+
+        for( int i = 0; i < blocks.getLength(); i++ ) {
+            NodeList attrs = blocks.item(i).getChildNodes();
+            String key = null, code = null, message = null;
+
+            for( int j = 0; j < attrs.getLength(); j++ ) {
+                Node attr = attrs.item(j);
+
+                if( !attr.hasChildNodes() ) {
+                    continue;
+                }
+                if( attr.getNodeName().equals("Key") ) {
+                    key = attr.getFirstChild().getNodeValue();
+                }
+                else if( attr.getNodeName().equals("Code") ) {
+                    code = attr.getFirstChild().getNodeValue().trim();
+                }
+                else if( attr.getNodeName().equals("Message") ) {
+                    message = attr.getFirstChild().getNodeValue().trim();
+                }
+            }
+            if( key != null ) {
+                errors.put(key, code + ": " + message);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @return the quiet-mode request body for the keys, so S3 only reports the keys it failed to delete
+     */
+    static @Nonnull String toXml( @Nonnull List<String> keys ) {
+        StringBuilder xml = new StringBuilder();
+
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<Delete><Quiet>true</Quiet>");
+        for( String key : keys ) {
+            xml.append("<Object><Key>").append(AWSCloud.escapeXml(key)).append("</Key></Object>");
+        }
+        xml.append("</Delete>");
+        return xml.toString();
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.Header;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.dasein.cloud.storage.Blob;
+import org.dasein.cloud.storage.FileTransfer;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies objects inside S3 without moving their data through the client. An object up to one part in size is copied
+ * with a single server-side copy; a larger object is copied as a multipart upload whose parts are
+ * <code>UploadPartCopy</code> ranges of the source, up to {@link AWSCloud#getS3TransferThreads()} at once. Many
+ * objects can be copied together, up to {@link AWSCloud#getS3CopyThreads()} at once, so the time to copy a bucket is
+ * bounded by the workers rather than by one object after another. Progress is reported in bytes copied.
+ * <p>
+ * When many objects are copied, each worker copies the parts of its own object one after another instead of
+ * queueing them on the executor it is running on; workers waiting on parts that cannot start because every thread
+ * is a waiting worker would otherwise hang the copy.
+ * </p>
+ */
+class S3Copy {
+    static private final Logger logger = AWSCloud.getLogger(S3Copy.class);
+
+    private final AWSCloud            provider;
+    private final Map<String, String> headers;
+    private final FileTransfer        transfer;
+    private final AtomicLong          expected = new AtomicLong();
+    private final AtomicLong          copied   = new AtomicLong();
+
+    /**
+     * @param provider the provider to copy through
+     * @param headers  headers for the new objects, such as <code>x-amz-acl</code>
+     * @param transfer updated with the bytes to copy as objects are queued and the bytes copied as they complete
+     */
+    S3Copy( @Nonnull AWSCloud provider, @Nullable Map<String, String> headers, @Nullable FileTransfer transfer ) {
+        this.provider = provider;
+        this.headers = headers;
+        this.transfer = transfer;
+    }
+
+    /**
+     * @return the number of bytes copied so far
+     */
+    long getBytesCopied() {
+        return copied.get();
+    }
+
+    /**
+     * Copies one object.
+     * @param size the size of the source object in bytes
+     */
+    void copy( @Nonnull String sourceBucket, @Nonnull String sourceObject, long size, @Nonnull String targetBucket, @Nonnull String targetObject ) throws CloudException, InternalException {
+        copy(sourceBucket, sourceObject, size, targetBucket, targetObject, false);
+    }
+
+    /**
+     * @param inline true to copy parts on the calling thread, as a worker of the executor must
+     */
+    private void copy( @Nonnull String sourceBucket, @Nonnull String sourceObject, long size, @Nonnull String targetBucket, @Nonnull String targetObject, boolean inline ) throws CloudException, InternalException {
+        expect(size);
+        if( size > provider.getS3PartSize() ) {
+            copyParts(sourceBucket, sourceObject, size, targetBucket, targetObject, inline);
+        }
+        else {
+            copyObject(sourceBucket, sourceObject, targetBucket, targetObject);
+            progress(size);
+        }
+    }
+
+    /**
+     * Copies each object to the same name in the target bucket.
+     * @param sources the objects to copy, read once and in order
+     * @return the names of the objects copied, in the order they completed
+     * @throws CloudException an object could not be copied; objects already copied are left in place
+     * @throws InternalException a local error occurred talking to S3
+     */
+    @Nonnull List<String> copyAll( @Nonnull Iterable<Blob> sources, @Nonnull final String targetBucket ) throws CloudException, InternalException {
+        final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+        CompletionService<String> completion = new ExecutorCompletionService<String>(provider.getAsyncExecutor());
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        Iterator<Blob> source = sources.iterator();
+        int window = provider.getS3CopyThreads();
+        int submitted = 0, done = 0;
+
+        try {
+            while( source.hasNext() || done < submitted ) {
+                while( source.hasNext() && submitted - done < window ) {
+                    final Blob blob = source.next();
+
+                    if( blob == null || blob.getObjectName() == null ) {
+                        continue;
+                    }
+                    futures.add(completion.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            long size = ( blob.getSize() == null ? 0L : blob.getSize().getQuantity().longValue() );
+
+                            copy(blob.getBucketName(), blob.getObjectName(), size, targetBucket, blob.getObjectName(), true);
+                            names.add(blob.getObjectName());
+                            return blob.getObjectName();
+                        }
+                    }));
+                    submitted++;
+                }
+                if( done < submitted ) {
+                    completion.take().get();
+                    done++;
+                }
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Copied " + names.size() + " objects (" + copied.get() + " bytes) to " + targetBucket);
+            }
+            return names;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while copying objects to " + targetBucket);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( source.hasNext() || done < submitted ) {
+                for( Future<String> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private void copyObject( @Nonnull String sourceBucket, @Nonnull String sourceObject, @Nonnull String targetBucket, @Nonnull String targetObject ) throws CloudException, InternalException {
+        Map<String, String> copyHeaders = new HashMap<String, String>();
+
+        if( headers != null ) {
+            copyHeaders.putAll(headers);
+        }
+        copyHeaders.put("x-amz-copy-source", getCopySource(sourceBucket, sourceObject));
+        S3Method method = new S3Method(provider, S3Action.COPY_OBJECT, null, copyHeaders);
+        S3Response response;
+
+        try {
+            response = method.invoke(targetBucket, targetObject);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        String error = getError(response);
+
+        if( error != null ) {
+            throw new CloudException("Unable to copy " + sourceBucket + "/" + sourceObject + " to " + targetBucket + "/" + targetObject + ": " + error);
+        }
+    }
+
+    private void copyParts( @Nonnull String sourceBucket, @Nonnull String sourceObject, long size, @Nonnull String targetBucket, @Nonnull String targetObject, boolean inline ) throws CloudException, InternalException {
+        Map<String, String> initiateHeaders = new HashMap<String, String>();
+        String contentType = getMetadata(sourceBucket, sourceObject, initiateHeaders);
+
+        if( headers != null ) {
+            initiateHeaders.putAll(headers);
+        }
+        String uploadId = S3MultipartUpload.initiate(provider, targetBucket, targetObject, contentType, initiateHeaders);
+        boolean completed = false;
+
+        try {
+            String[] etags;
+
+            if( inline ) {
+                etags = copyPartsInline(sourceBucket, sourceObject, size, targetBucket, targetObject, uploadId);
+            }
+            else {
+                etags = copyParts(sourceBucket, sourceObject, size, targetBucket, targetObject, uploadId);
+            }
+            S3MultipartUpload.complete(provider, targetBucket, targetObject, uploadId, etags);
+            completed = true;
+        }
+        finally {
+            if( !completed ) {
+                S3MultipartUpload.abort(provider, targetBucket, targetObject, uploadId);
+            }
+        }
+    }
+
+    private @Nonnull String[] copyParts( @Nonnull final String sourceBucket, @Nonnull final String sourceObject, long size, @Nonnull final String targetBucket, @Nonnull final String targetObject, @Nonnull final String uploadId ) throws CloudException, InternalException {
+        final Map<Integer, String> etags = new ConcurrentHashMap<Integer, String>();
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(provider.getAsyncExecutor());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        long partSize = S3MultipartUpload.getPartSize(size, provider.getS3PartSize());
+        int parts = (int)((size + partSize - 1) / partSize);
+        int window = provider.getS3TransferThreads();
+        int submitted = 0, done = 0;
+
+        try {
+            while( done < parts ) {
+                while( submitted < parts && submitted - done < window ) {
+                    final int partNumber = submitted + 1;
+                    final long first = submitted * partSize;
+                    final long last = Math.min(size, first + partSize) - 1;
+
+                    futures.add(completion.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            etags.put(partNumber, copyPart(sourceBucket, sourceObject, first, last, targetBucket, targetObject, uploadId, partNumber));
+                            progress(last - first + 1);
+                            return partNumber;
+                        }
+                    }));
+                    submitted++;
+                }
+                completion.take().get();
+                done++;
+            }
+            String[] ordered = new String[parts];
+
+            for( int i = 0; i < parts; i++ ) {
+                ordered[i] = etags.get(i + 1);
+            }
+            return ordered;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while copying " + sourceBucket + "/" + sourceObject);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( done < parts ) {
+                for( Future<Integer> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private @Nonnull String[] copyPartsInline( @Nonnull String sourceBucket, @Nonnull String sourceObject, long size, @Nonnull String targetBucket, @Nonnull String targetObject, @Nonnull String uploadId ) throws CloudException, InternalException {
+        long partSize = S3MultipartUpload.getPartSize(size, provider.getS3PartSize());
+        String[] etags = new String[(int)((size + partSize - 1) / partSize)];
+
+        for( int i = 0; i < etags.length; i++ ) {
+            long first = i * partSize;
+            long last = Math.min(size, first + partSize) - 1;
+
+            if( Thread.currentThread().isInterrupted() ) {
+                throw new CloudException("Interrupted while copying " + sourceBucket + "/" + sourceObject);
+            }
+            etags[i] = copyPart(sourceBucket, sourceObject, first, last, targetBucket, targetObject, uploadId, i + 1);
+            progress(last - first + 1);
+        }
+        return etags;
+    }
+
+    private @Nonnull String copyPart( @Nonnull String sourceBucket, @Nonnull String sourceObject, long first, long last, @Nonnull String targetBucket, @Nonnull String targetObject, @Nonnull String uploadId, int partNumber ) throws CloudException, InternalException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        Map<String, String> copyHeaders = new HashMap<String, String>();
+
+        parameters.put("partNumber", String.valueOf(partNumber));
+        parameters.put("uploadId", uploadId);
+        copyHeaders.put("x-amz-copy-source", getCopySource(sourceBucket, sourceObject));
+        copyHeaders.put("x-amz-copy-source-range", "bytes=" + first + "-" + last);
+        S3Method method = new S3Method(provider, S3Action.UPLOAD_PART_COPY, parameters, copyHeaders);
+        S3Response response;
+
+        try {
+            response = method.invoke(targetBucket, targetObject);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        String error = getError(response);
+
+        if( error != null ) {
+            throw new CloudException("Unable to copy part " + partNumber + " of " + sourceBucket + "/" + sourceObject + ": " + error);
+        }
+        // the ETag of a copied part is in the CopyPartResult body rather than a header
+        NodeList etags = ( response == null || response.document == null ? null : response.document.getElementsByTagName("ETag") );
+
+        if( etags != null && etags.getLength() > 0 && etags.item(0).getFirstChild() != null ) {
+            return etags.item(0).getFirstChild().getNodeValue().trim();
+        }
+        String etag = S3MultipartUpload.getETag(response);
+
+        if( etag == null ) {
+            throw new CloudException("No ETag was returned for part " + partNumber + " of " + targetBucket + "/" + targetObject);
+        }
+        return etag;
+    }
+
+    /**
+     * Reads the metadata of the source, which a multipart copy does not carry over by itself the way a single copy
+     * does.
+     * @param into receives the user metadata and the standard headers stored with the object
+     * @return the content type of the source
+     */
+    private @Nullable String getMetadata( @Nonnull String bucket, @Nonnull String object, @Nonnull Map<String, String> into ) throws CloudException, InternalException {
+        S3Response response;
+
+        try {
+            response = new S3Method(provider, S3Action.OBJECT_EXISTS, null, null).invoke(bucket, object);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        if( response == null ) {
+            return null;
+        }
+        try {
+            if( response.headers != null ) {
+                for( Header header : response.headers ) {
+                    String name = header.getName().toLowerCase(Locale.US);
+
+                    if( name.startsWith("x-amz-meta-") || name.equals("cache-control") || name.equals("content-disposition") || name.equals("content-encoding") || name.equals("expires") ) {
+                        into.put(header.getName(), header.getValue());
+                    }
+                }
+            }
+            return response.contentType;
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    static private @Nonnull String getCopySource( @Nonnull String bucket, @Nonnull String object ) throws InternalException {
+        return "/" + bucket + "/" + AWSCloud.encode(object, true);
+    }
+
+    /**
+     * S3 can report a failed copy in the body of a 200 response, since the status is sent before the copy is done.
+     * @return the error message in the response, or <code>null</code> if the copy succeeded
+     */
+    static private @Nullable String getError( @Nullable S3Response response ) {
+        if( response == null || response.document == null || response.document.getElementsByTagName("Error").getLength() < 1 ) {
+            return null;
+        }
+        NodeList messages = response.document.getElementsByTagName("Message");
+
+        return ( messages.getLength() > 0 && messages.item(0).getFirstChild() != null ? messages.item(0).getFirstChild().getNodeValue() : "unknown error" );
+    }
+
+    private void expect( long bytes ) {
+        if( transfer != null ) {
+            synchronized( transfer ) {
+                transfer.setBytesToTransfer(expected.addAndGet(bytes));
+            }
+        }
+    }
+
+    private void progress( long bytes ) {
+        if( transfer != null ) {
+            synchronized( transfer ) {
+                transfer.setBytesTransferred(copied.addAndGet(bytes));
+            }
+        }
+        else {
+            copied.addAndGet(bytes);
+        }
+    }
+}
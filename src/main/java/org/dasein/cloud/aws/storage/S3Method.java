@@ -27,14 +27,20 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.AdaptiveConcurrencyLimiter;
+import org.dasein.cloud.aws.AsyncTransport;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.SignatureV4Signer;
+import org.dasein.cloud.aws.WireLogInputStream;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.storage.BlobStoreSupport;
 import org.dasein.cloud.util.APITrace;
@@ -53,6 +59,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import static org.apache.http.entity.ContentType.APPLICATION_XML;
@@ -98,6 +105,9 @@ public class S3Method {
 		
 		public void close() {
 			try { input.close(); } catch( Throwable ignore ) { }
+			if( method != null ) {
+				method.releaseConnection();
+			}
 		}
 	}
 	
@@ -141,13 +151,17 @@ public class S3Method {
     }
 
     private S3Action           action      = null;
-    private int                attempts    = 0;
     private String             body        = null;
     private String             contentType = null;
     private Map<String,String> headers     = null;
     private Map<String,String> parameters  = null;
     private AWSCloud           provider    = null;
     private File               uploadFile  = null;
+    private byte[]             uploadBytes = null;
+    private boolean            rawResponse = false;
+    private long               uploadOffset = 0L;
+    private long               uploadLength = -1L;
+    private PayloadDigest      digest       = null;
 
     public S3Method(AWSCloud provider, S3Action action) {
         this.action = action;
@@ -180,6 +194,77 @@ public class S3Method {
         this.parameters = parameters;
     }
 
+    /**
+     * Uploads <code>length</code> bytes of <code>uploadFile</code> starting at <code>offset</code>, as used for the
+     * parts of a multipart upload.
+     */
+    public S3Method(AWSCloud provider, S3Action action, Map<String,String> parameters, Map<String,String> headers, String contentType, File uploadFile, long offset, long length) {
+        this(provider, action, parameters, headers, contentType, uploadFile);
+        this.uploadOffset = offset;
+        this.uploadLength = length;
+    }
+
+    /**
+     * Uploads an in-memory payload, so small objects need no temporary file.
+     */
+    public S3Method(AWSCloud provider, S3Action action, Map<String,String> parameters, Map<String,String> headers, String contentType, byte[] uploadBytes) {
+        this.action = action;
+        this.headers = (headers == null ? new HashMap<String,String>() : headers);
+        this.contentType = contentType;
+        this.uploadBytes = uploadBytes;
+        this.provider = provider;
+        this.parameters = parameters;
+    }
+
+    private boolean hasPayload() {
+        return ( body != null || uploadFile != null || uploadBytes != null );
+    }
+
+    /**
+     * @return the digests of the payload as it was last sent, or <code>null</code> if this request has no upload
+     */
+    @Nullable PayloadDigest getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return true if the file is sent with chunk signatures, which are only understood by AWS itself
+     */
+    private boolean isChunked() {
+        return ( uploadFile != null && provider.getEC2Provider().isAWS() && provider.isS3ChunkedUpload() );
+    }
+
+    /**
+     * @return true if the payload is digested by its entity as it is sent rather than up front
+     */
+    private boolean isDigestStreamed() {
+        return ( uploadFile != null && (isChunked() || !provider.getEC2Provider().isAWS()) );
+    }
+
+    /**
+     * Digests the payload, once for every attempt of this request. Signed AWS requests need the payload hash up
+     * front, and the MD5 from the same pass lets S3 reject a corrupted body; otherwise the entity digests the file
+     * as it is sent.
+     */
+    private void digestPayload() throws InternalException {
+        if( digest != null ) {
+            return;
+        }
+        if( uploadBytes != null ) {
+            digest = PayloadDigest.of(uploadBytes);
+        }
+        else if( isDigestStreamed() ) {
+            digest = new PayloadDigest();
+        }
+        else if( uploadFile != null ) {
+            digest = PayloadDigest.of(uploadFile, uploadOffset, getUploadLength());
+        }
+    }
+
+    private long getUploadLength() {
+        return (uploadLength < 0L ? uploadFile.length() : uploadLength);
+    }
+
     private String getDate() throws CloudException {
         if( provider.getEC2Provider().isStorage() && "google".equalsIgnoreCase(provider.getProviderName()) ) {
             SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ssz", new Locale("US"));
@@ -201,465 +286,708 @@ public class S3Method {
         return invoke(bucket, object, null);
     }
 
+    /**
+     * Invokes the request, leaving the body of a successful response unparsed in {@link S3Response#input} even when
+     * it is XML, so large listings can be read with a streaming parser. The caller must close the response.
+     * @param bucket the bucket to target
+     * @param object the object to target
+     * @return the response, or <code>null</code> if there was none
+     */
+    S3Response invokeRaw(@Nullable String bucket, @Nullable String object) throws S3Exception, CloudException, InternalException {
+        rawResponse = true;
+        return invoke(bucket, object, null);
+    }
+
+    /**
+     * Sends this request through the provider's non-blocking transport and returns without waiting for the response.
+     * Failures surface from {@link Future#get()} wrapped in an {@link java.util.concurrent.ExecutionException}.
+     * The response, including any object body, is held in memory, so this suits small objects and API calls; large
+     * downloads should use {@link #invoke(String, String)} to stream. File uploads cannot be sent this way.
+     * @param bucket the bucket to target
+     * @param object the object to target
+     * @return the pending response
+     * @throws InternalException the request uploads a file or the transport could not be started
+     */
+    public @Nonnull Future<S3Response> invokeAsync(@Nullable final String bucket, @Nullable final String object) throws InternalException {
+        if( uploadFile != null ) {
+            throw new InternalException("File uploads cannot be sent asynchronously");
+        }
+        digestPayload();
+        return provider.getAsyncTransport().execute(new AsyncTransport.Exchange<S3Response>() {
+            private String endpoint = null;
+
+            @Override
+            public @Nonnull String getName() {
+                return action.toString();
+            }
+
+            @Override
+            public @Nonnull HttpUriRequest createRequest() throws CloudException, InternalException {
+                APITrace.trace(provider, action.toString());
+                return S3Method.this.createRequest(bucket, object, endpoint);
+            }
+
+            @Override
+            public S3Response handle(@Nonnull HttpUriRequest request, @Nonnull HttpResponse response) throws CloudException, InternalException {
+                try {
+                    return handleResponse((HttpRequestBase)request, response, bucket, object);
+                }
+                catch( TemporaryRedirect e ) {
+                    if( endpoint != null ) {
+                        throw new CloudException("Too deep redirect to " + e.getEndpoint());
+                    }
+                    endpoint = e.getEndpoint();
+                    throw e;
+                }
+            }
+
+            @Override
+            public @Nonnull RetryPolicy.ErrorCategory classify(@Nonnull Exception failure) {
+                if( failure instanceof TemporaryRedirect ) {
+                    return RetryPolicy.ErrorCategory.TRANSIENT;
+                }
+                if( failure instanceof S3Exception ) {
+                    S3Exception e = (S3Exception)failure;
+
+                    return provider.getRetryPolicy().classify(e.getStatus(), e.getCode());
+                }
+                return RetryPolicy.ErrorCategory.FATAL;
+            }
+        }, provider.getRetryPolicy());
+    }
+
     static private final Logger wire = AWSCloud.getWireLogger(S3.class);
 
-    // TODO(stas): This method screams for some heavy refactoring
     S3Response invoke(@Nullable String bucket, @Nullable String object, @Nullable String temporaryEndpoint) throws S3Exception, CloudException, InternalException {
+        RetryPolicy retryPolicy = provider.getRetryPolicy();
+        long totalDelay = 0L;
+        int attempt = 0;
+
+        digestPayload();
+        while( true ) {
+            attempt++;
+            try {
+                return execute(bucket, object, temporaryEndpoint);
+            }
+            catch( S3Exception e ) {
+                RetryPolicy.ErrorCategory category = retryPolicy.classify(e.getStatus(), e.getCode());
+                long delay = retryPolicy.getDelay(attempt, category, totalDelay);
+
+                if( delay < 0L ) {
+                    if( category != RetryPolicy.ErrorCategory.FATAL ) {
+                        logger.error("Giving up on " + action + " after " + attempt + " attempts: " + e.getSummary());
+                    }
+                    throw e;
+                }
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Retrying " + action + " in " + delay + "ms after " + category + " error: " + e.getSummary());
+                }
+                try {
+                    Thread.sleep(delay);
+                }
+                catch( InterruptedException interrupted ) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                totalDelay += delay;
+            }
+        }
+    }
+
+    private S3Response execute(@Nullable String bucket, @Nullable String object, @Nullable String temporaryEndpoint) throws S3Exception, CloudException, InternalException {
         if( wire.isDebugEnabled() ) {
             wire.debug("");
             wire.debug("----------------------------------------------------------------------------------");
         }
-        HttpClient client = null;
-        boolean leaveOpen = false;
+        HttpRequestBase method = null;
+        S3Response response = null;
+
         try {
-            StringBuilder url = new StringBuilder();
-            HttpRequestBase method;
-            int status;
+            method = createRequest(bucket, object, temporaryEndpoint);
 
-            // Sanitise the parameters as they may have spaces and who knows what else
-            if( bucket != null ) {
-                bucket = AWSCloud.encode(bucket, false);
+            HttpClient client = provider.getClient(!hasPayload());
+            HttpResponse httpResponse = null;
+            AdaptiveConcurrencyLimiter limiter = provider.getConcurrencyLimiter("s3", provider.getContext().getRegionId());
+            long started = limiter.acquire();
+
+            try {
+                APITrace.trace(provider, action.toString());
+                httpResponse = client.execute(method);
             }
-            if( object != null && !"?location".equalsIgnoreCase( object ) && !"?acl".equalsIgnoreCase( object ) && !"?tagging".equalsIgnoreCase( object )) {
-                object = AWSCloud.encode(object, false);
+            catch( IOException e ) {
+                logger.error(method.getURI() + ": " + e.getMessage());
+                throw new InternalException(e);
             }
-            if( temporaryEndpoint != null ) {
-                temporaryEndpoint = AWSCloud.encode(temporaryEndpoint, false);
+            finally {
+                if( httpResponse == null ) {
+                    limiter.release();
+                }
             }
-            if( provider.getEC2Provider().isAWS() ) {
-                url.append("https://");
-                String regionId = provider.getContext().getRegionId();
-
-                if( temporaryEndpoint == null ) {
-                    boolean validDomainName = isValidDomainName(bucket);
+            int status = httpResponse.getStatusLine().getStatusCode();
+            String errorCode = null;
+            boolean released = false;
 
-                    if( bucket != null && validDomainName ) {
-                        url.append(bucket);
-                        if (regionId != null && !regionId.isEmpty() && !"us-east-1".equals(regionId)) {
-                            url.append(".s3-");
-                            url.append(regionId);
-                            url.append(".amazonaws.com/");
-                        }
-                        else {
-                            url.append(".s3.amazonaws.com/");
-                        }
-                    }
-                    else {
-                        if (regionId != null && !regionId.isEmpty() && !"us-east-1".equals(regionId)) {
-                            url.append("s3-");
-                            url.append(regionId);
-                            url.append(".amazonaws.com/");
-                        }
-                        else {
-                            url.append("s3.amazonaws.com/");
-                        }
-                    }
-                    if ( bucket != null && !validDomainName) {
-                        url.append(bucket);
-                        url.append("/");
-                    }
-                }
-                else {
-                    url.append(temporaryEndpoint);
-                    url.append("/");
-                }
+            if( status >= HttpServletResponse.SC_OK && status < HttpServletResponse.SC_MULTIPLE_CHOICES ) {
+                released = true;
+                release(limiter, started, status, null);
             }
-            else if( provider.getEC2Provider().isStorage() && "google".equalsIgnoreCase(provider.getProviderName()) ) {
-                url.append("https://");
-                if( temporaryEndpoint == null ) {
-                    if( bucket != null ) {
-                        url.append(bucket);
-                        url.append(".");
-                    }
-                    url.append("commondatastorage.googleapis.com/");
-                }
-                else {
-                    url.append(temporaryEndpoint);
-                    url.append("/");
+            try {
+                response = handleResponse(method, httpResponse, bucket, object);
+                return response;
+            }
+            catch( TemporaryRedirect e ) {
+                errorCode = e.getCode();
+                if( temporaryEndpoint != null ) {
+                    throw new CloudException("Too deep redirect to " + e.getEndpoint());
                 }
+                // free the slot before following the redirect, which needs one of its own
+                released = true;
+                release(limiter, started, status, errorCode);
+                return invoke(bucket, object, e.getEndpoint());
             }
-            else {
-                int idx = 0;
-                
-                if( !provider.getContext().getEndpoint().startsWith("http") ) {
-                    url.append("https://");
+            catch( S3Exception e ) {
+                errorCode = e.getCode();
+                throw e;
+            }
+            finally {
+                if( !released ) {
+                    // S3 throttles with a 503 SlowDown, so errors can only be classified once their code is known
+                    release(limiter, started, status, errorCode);
                 }
-                else {
-                    idx = provider.getContext().getEndpoint().indexOf("https://");
-                    if( idx == -1 ) {
-                        idx = "http://".length();
-                        url.append("http://");
+            }
+        }
+        finally {
+            if( method != null && (response == null || response.input == null) ) {
+                method.releaseConnection();
+            }
+            if( wire.isDebugEnabled() ) {
+                wire.debug("----------------------------------------------------------------------------------");
+                wire.debug("");
+            }
+        }
+    }
+
+    /**
+     * Builds and signs the request, which is sent as it is by both {@link #execute(String, String, String)} and
+     * {@link #invokeAsync(String, String)}.
+     */
+    private @Nonnull HttpRequestBase createRequest(@Nullable String bucket, @Nullable String object, @Nullable String temporaryEndpoint) throws CloudException, InternalException {
+        HttpRequestBase method;
+        StringBuilder url = new StringBuilder();
+
+
+        // Sanitise the parameters as they may have spaces and who knows what else
+        if( bucket != null ) {
+            bucket = AWSCloud.encode(bucket, false);
+        }
+        if( object != null && !"?location".equalsIgnoreCase( object ) && !"?acl".equalsIgnoreCase( object ) && !"?tagging".equalsIgnoreCase( object )) {
+            object = AWSCloud.encode(object, false);
+        }
+        if( temporaryEndpoint != null ) {
+            temporaryEndpoint = AWSCloud.encode(temporaryEndpoint, false);
+        }
+        if( provider.getEC2Provider().isAWS() ) {
+            url.append("https://");
+            String regionId = provider.getContext().getRegionId();
+
+            if( temporaryEndpoint == null ) {
+                boolean validDomainName = isValidDomainName(bucket);
+
+                if( bucket != null && validDomainName ) {
+                    url.append(bucket);
+                    if (regionId != null && !regionId.isEmpty() && !"us-east-1".equals(regionId)) {
+                        url.append(".s3-");
+                        url.append(regionId);
+                        url.append(".amazonaws.com/");
                     }
                     else {
-                        idx = "https://".length();
-                        url.append("https://");
+                        url.append(".s3.amazonaws.com/");
                     }
                 }
-                String service = "";
-                if( provider.getEC2Provider().isEucalyptus() ) {
-                    service = "Walrus/";
-                }
-
-                if( temporaryEndpoint == null ) {
-                    url.append(provider.getContext().getEndpoint().substring(idx));
-                    if( !provider.getContext().getEndpoint().endsWith("/") ) {
-                        url.append("/").append(service);
+                else {
+                    if (regionId != null && !regionId.isEmpty() && !"us-east-1".equals(regionId)) {
+                        url.append("s3-");
+                        url.append(regionId);
+                        url.append(".amazonaws.com/");
                     }
                     else {
-                        url.append(service);
+                        url.append("s3.amazonaws.com/");
                     }
                 }
-                else {
-                    url.append(temporaryEndpoint);
+                if ( bucket != null && !validDomainName) {
+                    url.append(bucket);
                     url.append("/");
-                    url.append(service);
                 }
+            }
+            else {
+                url.append(temporaryEndpoint);
+                url.append("/");
+            }
+        }
+        else if( provider.getEC2Provider().isStorage() && "google".equalsIgnoreCase(provider.getProviderName()) ) {
+            url.append("https://");
+            if( temporaryEndpoint == null ) {
                 if( bucket != null ) {
                     url.append(bucket);
-                    url.append("/");
+                    url.append(".");
                 }
+                url.append("commondatastorage.googleapis.com/");
             }
-            if( object != null ) {
-                url.append(object);
+            else {
+                url.append(temporaryEndpoint);
+                url.append("/");
             }
-            else if( parameters != null ) {
-                boolean first = true;
-
-                if( object != null && object.indexOf('?') != -1 ) {
-                    first = false;
+        }
+        else {
+            int idx = 0;
+            
+            if( !provider.getContext().getEndpoint().startsWith("http") ) {
+                url.append("https://");
+            }
+            else {
+                idx = provider.getContext().getEndpoint().indexOf("https://");
+                if( idx == -1 ) {
+                    idx = "http://".length();
+                    url.append("http://");
                 }
-                for( Map.Entry<String,String> entry : parameters.entrySet() ) {
-                    String key = entry.getKey();
-                    String val = entry.getValue();
-
-                    if( first ) {
-                        url.append("?");
-                        first = false;
-                    }
-                    else {
-                        url.append("&");
-                    }
-                    if( val != null ) {
-                        url.append(AWSCloud.encode(key, false));
-                        url.append("=");
-                        url.append(AWSCloud.encode(val, false));
-                    }
-                    else {
-                        url.append(AWSCloud.encode(key, false));
-                    }
+                else {
+                    idx = "https://".length();
+                    url.append("https://");
                 }
             }
+            String service = "";
+            if( provider.getEC2Provider().isEucalyptus() ) {
+                service = "Walrus/";
+            }
 
-            if( provider.getEC2Provider().isStorage() && provider.getProviderName().equalsIgnoreCase("Google") ) {
-                headers.put(AWSCloud.P_GOOG_DATE, getDate());
+            if( temporaryEndpoint == null ) {
+                url.append(provider.getContext().getEndpoint().substring(idx));
+                if( !provider.getContext().getEndpoint().endsWith("/") ) {
+                    url.append("/").append(service);
+                }
+                else {
+                    url.append(service);
+                }
             }
             else {
-                headers.put(AWSCloud.P_AWS_DATE, provider.getV4HeaderDate(null));
-            }
-            if( contentType == null && body != null ) {
-                contentType = "application/xml";
-                headers.put("Content-Type", contentType);
+                url.append(temporaryEndpoint);
+                url.append("/");
+                url.append(service);
             }
-            else if( contentType != null ) {
-                headers.put("Content-Type", contentType);
+            if( bucket != null ) {
+                url.append(bucket);
+                url.append("/");
             }
+        }
+        if( object != null ) {
+            url.append(object);
+        }
+        if( parameters != null ) {
+            boolean first = true;
 
-            method = action.getMethod(url.toString());
-            String host = method.getURI().getHost();
-            headers.put("host", host);
+            if( object != null && object.indexOf('?') != -1 ) {
+                first = false;
+            }
+            for( Map.Entry<String,String> entry : parameters.entrySet() ) {
+                String key = entry.getKey();
+                String val = entry.getValue();
 
-            if(action.equals(S3Action.PUT_BUCKET_TAG))
-            	try {
-            		headers.put("Content-MD5", toBase64(computeMD5Hash(body)));
-            	} catch (NoSuchAlgorithmException e) {
-            		logger.error(e);
-            	} catch (IOException e) {
-            		logger.error(e);
-            	}
-            
-            if( headers != null ) {
-                for( Map.Entry<String, String> entry : headers.entrySet() ) {
-                    method.addHeader(entry.getKey(), entry.getValue());
+                if( first ) {
+                    url.append("?");
+                    first = false;
+                }
+                else {
+                    url.append("&");
+                }
+                if( val != null ) {
+                    url.append(AWSCloud.encode(key, false));
+                    url.append("=");
+                    url.append(AWSCloud.encode(val, false));
+                }
+                else {
+                    url.append(AWSCloud.encode(key, false));
                 }
             }
+        }
 
-            if( body != null ) {
-                ((HttpEntityEnclosingRequestBase)method).setEntity(new StringEntity(body, APPLICATION_XML));
-            }
-            else if( uploadFile != null ) {
-                ((HttpEntityEnclosingRequestBase)method).setEntity(new FileEntity(uploadFile, contentType));
+        if( provider.getEC2Provider().isStorage() && provider.getProviderName().equalsIgnoreCase("Google") ) {
+            headers.put(AWSCloud.P_GOOG_DATE, getDate());
+        }
+        else {
+            headers.put(AWSCloud.P_AWS_DATE, provider.getV4HeaderDate(null));
+        }
+        if( contentType == null && body != null ) {
+            contentType = "application/xml";
+            headers.put("Content-Type", contentType);
+        }
+        else if( contentType != null ) {
+            headers.put("Content-Type", contentType);
+        }
+
+        boolean chunked = isChunked();
+
+        if( chunked ) {
+            headers.put(AWSCloud.P_AWS_CONTENT_SHA256, SignatureV4Signer.STREAMING_PAYLOAD);
+            headers.put("Content-Encoding", "aws-chunked");
+            headers.put("x-amz-decoded-content-length", String.valueOf(getUploadLength()));
+        }
+        // the digest was taken by digestPayload() before the first attempt; a streamed one is refilled as it is sent
+        PayloadDigest streamed = ( isDigestStreamed() ? digest : null );
+
+        if( digest != null && streamed == null && provider.getEC2Provider().isAWS() ) {
+            headers.put("Content-MD5", digest.getContentMd5());
+        }
+        method = action.getMethod(url.toString());
+        String host = method.getURI().getHost();
+        headers.put("host", host);
+
+        if(action.equals(S3Action.PUT_BUCKET_TAG))
+        	try {
+        		headers.put("Content-MD5", toBase64(computeMD5Hash(body)));
+        	} catch (NoSuchAlgorithmException e) {
+        		logger.error(e);
+        	} catch (IOException e) {
+        		logger.error(e);
+        	}
+        
+        if( headers != null ) {
+            for( Map.Entry<String, String> entry : headers.entrySet() ) {
+                method.addHeader(entry.getKey(), entry.getValue());
             }
-            try {
-                String hash = null;
-                if( method instanceof HttpEntityEnclosingRequestBase ) {
-                    try {
-                        hash = provider.getRequestBodyHash(EntityUtils.toString(((HttpEntityEnclosingRequestBase)method).getEntity()));
-                    }
-                    catch( IOException e ) {
-                        throw new InternalException(e);
-                    }
+        }
+
+        if( body != null ) {
+            ((HttpEntityEnclosingRequestBase)method).setEntity(new StringEntity(body, APPLICATION_XML));
+        }
+        else if( uploadFile != null && !chunked ) {
+            ((HttpEntityEnclosingRequestBase)method).setEntity(new FileRangeEntity(uploadFile, uploadOffset, getUploadLength(), contentType, streamed));
+        }
+        else if( uploadBytes != null ) {
+            ByteArrayEntity entity = new ByteArrayEntity(uploadBytes);
+
+            entity.setContentType(contentType);
+            ((HttpEntityEnclosingRequestBase)method).setEntity(entity);
+        }
+        try {
+            String signature;
+            if( provider.getEC2Provider().isAWS() ) {
+                String hash;
+
+                if( chunked ) {
+                    hash = SignatureV4Signer.STREAMING_PAYLOAD;
+                }
+                else if( body != null ) {
+                    hash = provider.getRequestBodyHash(body);
+                }
+                else if( digest != null ) {
+                    hash = digest.getSha256Hex();
                 }
                 else {
                     hash = provider.getRequestBodyHash("");
                 }
-
-                String signature;
-                if( provider.getEC2Provider().isAWS() ) {
-                    // Sign v4 for AWS
-                    signature = provider.getV4Authorization(
-                            new String(provider.getAccessKey()[0]),
-                            new String(provider.getAccessKey()[1]),
-                            method.getMethod(),
-                            url.toString(),
-                            SERVICE_ID,
-                            headers,
-                            hash);
-                    if( hash != null ) {
-                        method.addHeader(AWSCloud.P_AWS_CONTENT_SHA256, hash);
-                    }
+                // Sign v4 for AWS
+                signature = provider.getV4Authorization(
+                        new String(provider.getAccessKey()[0]),
+                        new String(provider.getAccessKey()[1]),
+                        method.getMethod(),
+                        url.toString(),
+                        SERVICE_ID,
+                        headers,
+                        hash);
+                if( chunked ) {
+                    ((HttpEntityEnclosingRequestBase)method).setEntity(getChunkedEntity(url.toString(), headers, signature, contentType, streamed));
                 }
                 else {
-                    // Eucalyptus et al use v2
-                    signature = provider.signS3(
-                            new String(provider.getAccessKey()[0], "utf-8"),
-                            provider.getAccessKey()[1],
-                            method.getMethod(),
-                            null,
-                            contentType,
-                            headers,
-                            bucket,
-                            object);
+                    method.addHeader(AWSCloud.P_AWS_CONTENT_SHA256, hash);
                 }
-                method.addHeader(AWSCloud.P_CFAUTH, signature);
             }
-            catch (UnsupportedEncodingException e) {
-                logger.error(e);
+            else {
+                // Eucalyptus et al use v2
+                signature = provider.signS3(
+                        new String(provider.getAccessKey()[0], "utf-8"),
+                        provider.getAccessKey()[1],
+                        method.getMethod(),
+                        null,
+                        contentType,
+                        headers,
+                        bucket,
+                        object);
             }
+            method.addHeader(AWSCloud.P_CFAUTH, signature);
+        }
+        catch (UnsupportedEncodingException e) {
+            logger.error(e);
+        }
+
+        if( wire.isDebugEnabled() ) {
+            wire.debug("[" + url.toString() + "]");
+            wire.debug(method.getRequestLine().toString());
+            for( Header header : method.getAllHeaders() ) {
+                wire.debug(header.getName() + ": " + header.getValue());
+            }
+            wire.debug("");
+            if( body != null ) {
+                try { wire.debug(EntityUtils.toString(((HttpEntityEnclosingRequestBase)method).getEntity())); }
+                catch( IOException ignore ) { }
 
-            if( wire.isDebugEnabled() ) {
-                wire.debug("[" + url.toString() + "]");
-                wire.debug(method.getRequestLine().toString());
-                for( Header header : method.getAllHeaders() ) {
-                    wire.debug(header.getName() + ": " + header.getValue());
-                }
                 wire.debug("");
-                if( body != null ) {
-                    try { wire.debug(EntityUtils.toString(((HttpEntityEnclosingRequestBase)method).getEntity())); }
-                    catch( IOException ignore ) { }
+            }
+            else if( uploadFile != null ) {
+                wire.debug("-- file upload --");
+                wire.debug("");
+            }
+            else if( uploadBytes != null ) {
+                wire.debug("-- " + uploadBytes.length + " byte upload --");
+                wire.debug("");
+            }
+        }
 
-                    wire.debug("");
-                }
-                else if( uploadFile != null ) {
-                    wire.debug("-- file upload --");
-                    wire.debug("");
-                }
+        return method;
+    }
+
+    /**
+     * Interprets a response to a request from {@link #createRequest(String, String, String)}.
+     * @throws TemporaryRedirect the request must be sent again to another endpoint
+     */
+    private @Nullable S3Response handleResponse(@Nonnull HttpRequestBase method, @Nonnull HttpResponse httpResponse, @Nullable String bucket, @Nullable String object) throws S3Exception, CloudException, InternalException {
+        int status = httpResponse.getStatusLine().getStatusCode();
+
+        if( wire.isDebugEnabled() ) {
+            wire.debug(httpResponse.getStatusLine().toString());
+            for( Header header : httpResponse.getAllHeaders() ) {
+                wire.debug(header.getName() + ": " + header.getValue());
             }
+            wire.debug("");
+        }
+        S3Response response = new S3Response();
+        boolean leaveOpen = false;
 
-            attempts++;
-            client = provider.getClient(body == null && uploadFile == null);
-            
-            S3Response response = new S3Response();
-            HttpResponse httpResponse;
-            
+        response.headers = httpResponse.getAllHeaders();
+
+        HttpEntity entity = httpResponse.getEntity();
+        InputStream input = null;
+
+        if( entity != null ) {
             try {
-                APITrace.trace(provider, action.toString());
-                httpResponse = client.execute(method);
-                if( wire.isDebugEnabled() ) {
-                    wire.debug(httpResponse.getStatusLine().toString());
-                    for( Header header : httpResponse.getAllHeaders() ) {
-                        wire.debug(header.getName() + ": " + header.getValue());
-                    }             
-                    wire.debug("");
-                }
-                status = httpResponse.getStatusLine().getStatusCode();
-            } 
+                input = entity.getContent();
+            }
             catch( IOException e ) {
-                logger.error(url + ": " + e.getMessage());
-                throw new InternalException(e);
+                throw new CloudException(e);
             }
-            response.headers = httpResponse.getAllHeaders();
-    
-            HttpEntity entity = httpResponse.getEntity();
-            InputStream input = null;
+        }
+        try {
+            if( digest != null && status >= HttpServletResponse.SC_OK && status < HttpServletResponse.SC_MULTIPLE_CHOICES ) {
+                String mismatch = digest.verify(response.headers);
 
-            if( entity != null ) {
-                try {
-                    input = entity.getContent();
-                }
-                catch( IOException e ) {
-                    throw new CloudException(e);
+                if( mismatch != null ) {
+                    throw new CloudException("Checksum mismatch storing " + bucket + "/" + object + ": " + mismatch);
                 }
             }
-            try {
-                if( status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_CREATED || status == HttpServletResponse.SC_ACCEPTED ) {
-                    Header clen = httpResponse.getFirstHeader("Content-Length");
-                    long len = -1L;
-                    
-                    if( clen != null ) {
-                        len = Long.parseLong(clen.getValue());
-                    }
-                    if( len != 0L ) {
-                        try {
-                            Header ct = httpResponse.getFirstHeader("Content-Type");
-    
-                            if( (ct != null && (ct.getValue().startsWith("application/xml") || ct.getValue().startsWith("text/xml"))) || ( action.equals(S3Action.GET_BUCKET_TAG) && input != null )) {
-                                try {
-                                    response.document = parseResponse(input);
-                                    return response;
-                                }
-                                finally {
-                                    input.close();
-                                }
-                            }
-                            else if( ct != null && ct.getValue().startsWith("application/octet-stream") && len < 1 ) {
-                                return null;
-                            }
-                            else {
-                                response.contentLength = len;
-                                if( ct != null ) {
-                                    response.contentType = ct.getValue();
-                                }
-                                response.input = input;
-                                response.method = method;
-                                leaveOpen = true;
+            if( status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_CREATED || status == HttpServletResponse.SC_ACCEPTED || status == HttpServletResponse.SC_PARTIAL_CONTENT ) {
+                Header clen = httpResponse.getFirstHeader("Content-Length");
+                long len = -1L;
+                
+                if( clen != null ) {
+                    len = Long.parseLong(clen.getValue());
+                }
+                if( len != 0L ) {
+                    try {
+                        Header ct = httpResponse.getFirstHeader("Content-Type");
+
+                        // object bodies are returned as they are, even when the object itself is XML
+                        boolean isObject = ( action.equals(S3Action.GET_OBJECT) || action.equals(S3Action.OBJECT_EXISTS) );
+
+                        if( rawResponse && input != null ) {
+                            response.contentLength = len;
+                            response.input = WireLogInputStream.wrap(input, wire);
+                            response.method = method;
+                            leaveOpen = true;
+                            return response;
+                        }
+                        else if( (!isObject && ct != null && (ct.getValue().startsWith("application/xml") || ct.getValue().startsWith("text/xml"))) || ( action.equals(S3Action.GET_BUCKET_TAG) && input != null )) {
+                            try {
+                                response.document = parseResponse(input);
                                 return response;
                             }
+                            finally {
+                                input.close();
+                            }
                         }
-                        catch( IOException e ) {
-                            logger.error(e);
-                            throw new CloudException(e);
+                        else if( ct != null && ct.getValue().startsWith("application/octet-stream") && len < 1 ) {
+                            return null;
+                        }
+                        else {
+                            response.contentLength = len;
+                            if( ct != null ) {
+                                response.contentType = ct.getValue();
+                            }
+                            response.input = input;
+                            response.method = method;
+                            leaveOpen = true;
+                            return response;
                         }
                     }
-                    else {
-                        return response;
+                    catch( IOException e ) {
+                        logger.error(e);
+                        throw new CloudException(e);
                     }
                 }
-                else if( status == HttpServletResponse.SC_NO_CONTENT ) {
+                else {
                     return response;
                 }
-                if( status == HttpServletResponse.SC_FORBIDDEN ) {
-                    throw new S3Exception(status, "", "AccessForbidden", "Access was denied : " + (url != null ? url.toString() : "" ));
-                }
-                else if( status == HttpServletResponse.SC_NOT_FOUND ) {
-                    throw new S3Exception(status, null, null, "Object not found.");
-                }
-                else {
-                    if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
-                        if( attempts >= 5 ) {
-                            String msg;
-                            
-                            if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
-                                msg = "Cloud service is currently unavailable.";
-                            }
-                            else {
-                                msg = "The cloud service encountered a server error while processing your request.";
-                            }
-                            logger.error(msg);
-                            throw new CloudException(msg);
-                        }
-                        else {
-                            leaveOpen = true;
-                            if( input != null ) {
-                                try { input.close(); }
-                                catch( IOException ignore ) { }
-                            }
-                            try { Thread.sleep(5000L); }
-                            catch( InterruptedException ignore ) { }
-                            return invoke(bucket, object);
-                        }
-                    }
+            }
+            else if( status == HttpServletResponse.SC_NO_CONTENT ) {
+                return response;
+            }
+            if( status == HttpServletResponse.SC_FORBIDDEN ) {
+                throw new S3Exception(status, "", "AccessForbidden", "Access was denied : " + method.getURI());
+            }
+            else if( status == HttpServletResponse.SC_NOT_FOUND ) {
+                throw new S3Exception(status, null, null, "Object not found.");
+            }
+            else {
+                try {
+                    Document doc;
+                    
                     try {
-                        Document doc;
-                        
-                        try {
-                            logger.warn("Received error code: " + status);
-                            doc = parseResponse(input);
+                        logger.warn("Received error code: " + status);
+                        doc = parseResponse(input);
+                    }
+                    catch( CloudException e ) {
+                        if( status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+                            // server errors often come without a parsable body; keep the status so they can be retried
+                            throw new S3Exception(status, null, null, getServerErrorMessage(status));
                         }
-                        finally {
-                            if( input != null ) {
-                                input.close();
-                            }
+                        throw e;
+                    }
+                    finally {
+                        if( input != null ) {
+                            input.close();
                         }
-                        if( doc != null ) {
-                            String endpoint = null, code = null, message = null, requestId = null;
-                            NodeList blocks = doc.getElementsByTagName("Error");
-        
-                            if( blocks.getLength() > 0 ) {
-                                Node error = blocks.item(0);
-                                NodeList attrs;
+                    }
+                    if( doc != null ) {
+                        String endpoint = null, code = null, message = null, requestId = null;
+                        NodeList blocks = doc.getElementsByTagName("Error");
+    
+                        if( blocks.getLength() > 0 ) {
+                            Node error = blocks.item(0);
+                            NodeList attrs;
+                            
+                            attrs = error.getChildNodes();
+                            for( int i=0; i<attrs.getLength(); i++ ) {
+                                Node attr = attrs.item(i);
                                 
-                                attrs = error.getChildNodes();
-                                for( int i=0; i<attrs.getLength(); i++ ) {
-                                    Node attr = attrs.item(i);
-                                    
-                                    if( attr.getNodeName().equals("Code") && attr.hasChildNodes() ) {
-                                        code = attr.getFirstChild().getNodeValue().trim();
-                                    }
-                                    else if( attr.getNodeName().equals("Message") && attr.hasChildNodes() ) {
-                                        message = attr.getFirstChild().getNodeValue().trim();
-                                    }
-                                    else if( attr.getNodeName().equals("RequestId") && attr.hasChildNodes() ) {
-                                        requestId = attr.getFirstChild().getNodeValue().trim();
-                                    }
-                                    else if( attr.getNodeName().equals("Endpoint") && attr.hasChildNodes() ) {
-                                        endpoint = attr.getFirstChild().getNodeValue().trim();
-                                    }
+                                if( attr.getNodeName().equals("Code") && attr.hasChildNodes() ) {
+                                    code = attr.getFirstChild().getNodeValue().trim();
                                 }
-                                
-                            }
-                            if( endpoint != null && code.equals("TemporaryRedirect") ) {
-                                if( temporaryEndpoint != null ) {
-                                    throw new CloudException("Too deep redirect to " + endpoint);
+                                else if( attr.getNodeName().equals("Message") && attr.hasChildNodes() ) {
+                                    message = attr.getFirstChild().getNodeValue().trim();
                                 }
-                                else {
-                                    return invoke(bucket, object, endpoint);
+                                else if( attr.getNodeName().equals("RequestId") && attr.hasChildNodes() ) {
+                                    requestId = attr.getFirstChild().getNodeValue().trim();
                                 }
-                            }
-                            else {
-                                if( message == null ) {
-                                    throw new CloudException("Unable to identify error condition: " + status + "/" + requestId + "/" + code);
+                                else if( attr.getNodeName().equals("Endpoint") && attr.hasChildNodes() ) {
+                                    endpoint = attr.getFirstChild().getNodeValue().trim();
                                 }
-                                throw new S3Exception(status, requestId, code, message);
                             }
+                            
+                        }
+                        if( endpoint != null && code.equals("TemporaryRedirect") ) {
+                            throw new TemporaryRedirect(status, requestId, code, message, endpoint);
                         }
                         else {
-                            throw new CloudException("Unable to parse error.");
+                            if( message == null ) {
+                                if( status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+                                    throw new S3Exception(status, requestId, code, getServerErrorMessage(status));
+                                }
+                                throw new CloudException("Unable to identify error condition: " + status + "/" + requestId + "/" + code);
+                            }
+                            throw new S3Exception(status, requestId, code, message);
                         }
                     }
-                    catch( IOException e ) {
-                        if( status == HttpServletResponse.SC_FORBIDDEN ) {
-                            throw new S3Exception(status, "", "AccessForbidden", "Access was denied without explanation.");
-                        }                              
-                        throw new CloudException(e);
-                    }
-                    catch( RuntimeException e ) {
-                        throw new CloudException(e);
+                    else {
+                        if( status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+                            throw new S3Exception(status, null, null, getServerErrorMessage(status));
+                        }
+                        throw new CloudException("Unable to parse error.");
                     }
-                    catch( Error e ) {
-                        throw new CloudException(e);
-                    }					
                 }
-            }
-            finally {
-                if( !leaveOpen ) {
-                    if( input != null ) {
-                        try { input.close(); }
-                        catch( IOException ignore ) { }
-                    }
+                catch( IOException e ) {
+                    if( status == HttpServletResponse.SC_FORBIDDEN ) {
+                        throw new S3Exception(status, "", "AccessForbidden", "Access was denied without explanation.");
+                    }                              
+                    throw new CloudException(e);
+                }
+                catch( RuntimeException e ) {
+                    throw new CloudException(e);
                 }
+                catch( Error e ) {
+                    throw new CloudException(e);
+                }					
             }
         }
         finally {
-            if (!leaveOpen && client != null) {
-                client.getConnectionManager().shutdown();
-            }
-            if( wire.isDebugEnabled() ) {
-                wire.debug("----------------------------------------------------------------------------------");
-                wire.debug("");
+            if( !leaveOpen ) {
+                if( input != null ) {
+                    try { input.close(); }
+                    catch( IOException ignore ) { }
+                }
             }
         }
     }
 	
+    private void release(@Nonnull AdaptiveConcurrencyLimiter limiter, long started, int status, @Nullable String code) {
+        boolean throttled = AdaptiveConcurrencyLimiter.isThrottled(provider.getRetryPolicy(), status, code);
+
+        if( !hasPayload() ) {
+            limiter.release(started, action.toString(), throttled);
+        }
+        else {
+            // upload time depends on the payload size, not on how loaded the endpoint is
+            limiter.release(throttled);
+        }
+    }
+
+    private String getServerErrorMessage(int status) {
+        if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
+            return "Cloud service is currently unavailable.";
+        }
+        return "The cloud service encountered a server error while processing your request.";
+    }
+
+    /**
+     * Signals that the bucket must be addressed through another endpoint while its DNS name propagates.
+     */
+    static private class TemporaryRedirect extends S3Exception {
+        private static final long serialVersionUID = 4862217509834106425L;
+
+        private final String endpoint;
+
+        TemporaryRedirect(int status, @Nullable String requestId, @Nonnull String code, @Nullable String message, @Nonnull String endpoint) {
+            super(status, requestId, code, message);
+            this.endpoint = endpoint;
+        }
+
+        @Nonnull String getEndpoint() {
+            return endpoint;
+        }
+    }
+
+    /**
+     * Builds the body of a chunk-signed upload, continuing the signature chain from the seed signature in the
+     * Authorization header.
+     */
+    private @Nonnull ChunkedUploadEntity getChunkedEntity(@Nonnull String url, @Nonnull Map<String,String> headers, @Nonnull String authorization, @Nullable String contentType, @Nullable PayloadDigest digest) throws InternalException {
+        String amzDate = headers.get(AWSCloud.P_AWS_DATE);
+        String dateStamp = amzDate.substring(0, 8);
+        String regionId = SignatureV4Signer.getRegion(SignatureV4Signer.getHost(url), SERVICE_ID, provider.getContext().getRegionId());
+        SignatureV4Signer signer = provider.getV4Signer();
+        byte[] signingKey = signer.getSigningKey(new String(provider.getAccessKey()[1]), dateStamp, regionId, SERVICE_ID);
+        String seedSignature = authorization.substring(authorization.lastIndexOf("Signature=") + "Signature=".length());
+
+        return new ChunkedUploadEntity(uploadFile, uploadOffset, getUploadLength(), contentType, signer, signingKey, amzDate, SignatureV4Signer.getScope(dateStamp, regionId, SERVICE_ID), seedSignature, digest);
+    }
+
 	private boolean isValidDomainName(String bucket) {
         return (bucket != null && Pattern.matches("^[a-z0-9](-*[a-z0-9]){2,62}$", bucket));
     }
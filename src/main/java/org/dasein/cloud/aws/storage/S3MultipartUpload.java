@@ -0,0 +1,451 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.Header;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.dasein.cloud.storage.FileTransfer;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a file or stream to S3 as a multipart upload. The source is split into parts of
+ * {@link AWSCloud#getS3PartSize()} bytes, at most {@link AWSCloud#getS3TransferThreads()} of which are sent at once
+ * on the provider's asynchronous executor. File parts are sent straight from a mapping of their range of the file;
+ * stream parts are read into memory one at a time as a slot in the window frees up, so no more than the window of
+ * parts is ever buffered. Each part is retried on its own if the connection fails, so a failure costs one part
+ * rather than the whole upload. Each part is checked against the ETag S3 returns for it, and the assembled object
+ * against the ETag expected from its parts. If the upload cannot be completed it is aborted, so S3 does not keep the
+ * parts that were stored.
+ */
+class S3MultipartUpload {
+    static private final Logger logger = AWSCloud.getLogger(S3MultipartUpload.class);
+
+    static private final int MAX_PARTS     = 10000;
+    static private final int PART_ATTEMPTS = 3;
+
+    private final AWSCloud            provider;
+    private final String              bucket;
+    private final String              object;
+    private final File                file;
+    private final InputStream         input;
+    private final String              contentType;
+    private final Map<String, String> headers;
+    private final FileTransfer        transfer;
+    private final AtomicLong          transferred = new AtomicLong();
+
+    private final long   length;
+    private final long   partSize;
+    private byte[]       firstPart;
+
+    /**
+     * @param provider    the provider to upload through
+     * @param bucket      the target bucket
+     * @param object      the target object name
+     * @param file        the file to upload
+     * @param contentType the content type of the object
+     * @param headers     headers for the object as a whole, such as <code>x-amz-acl</code>
+     * @param transfer    updated with the bytes stored as each part completes
+     */
+    S3MultipartUpload( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull File file, @Nullable String contentType, @Nullable Map<String, String> headers, @Nullable FileTransfer transfer ) {
+        this.provider = provider;
+        this.bucket = bucket;
+        this.object = object;
+        this.file = file;
+        this.input = null;
+        this.contentType = contentType;
+        this.headers = headers;
+        this.transfer = transfer;
+        this.length = file.length();
+        this.partSize = getPartSize(length, provider.getS3PartSize());
+    }
+
+    /**
+     * @param provider    the provider to upload through
+     * @param bucket      the target bucket
+     * @param object      the target object name
+     * @param input       the rest of the stream to upload, read to its end but not closed
+     * @param firstPart   the first part, already read from the stream by the caller
+     * @param length      the total length of the stream including the first part, or -1 if it is not known
+     * @param contentType the content type of the object
+     * @param headers     headers for the object as a whole, such as <code>x-amz-acl</code>
+     * @param transfer    updated with the bytes stored as each part completes
+     */
+    S3MultipartUpload( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull InputStream input, @Nonnull byte[] firstPart, long length, @Nullable String contentType, @Nullable Map<String, String> headers, @Nullable FileTransfer transfer ) {
+        this.provider = provider;
+        this.bucket = bucket;
+        this.object = object;
+        this.file = null;
+        this.input = input;
+        this.firstPart = firstPart;
+        this.contentType = contentType;
+        this.headers = headers;
+        this.transfer = transfer;
+        this.length = length;
+        this.partSize = firstPart.length;
+    }
+
+    /**
+     * @return the configured part size, doubled as often as needed to keep the file within the S3 part limit
+     */
+    static long getPartSize( long fileSize, long configured ) {
+        long partSize = configured;
+
+        while( (fileSize + partSize - 1) / partSize > MAX_PARTS ) {
+            partSize *= 2;
+        }
+        return partSize;
+    }
+
+    /**
+     * Reads up to <code>max</code> bytes, stopping early only at the end of the stream.
+     * @return the bytes read, an array shorter than <code>max</code> if the stream ended first
+     * @throws IOException the stream could not be read
+     */
+    static @Nonnull byte[] readPart( @Nonnull InputStream input, int max ) throws IOException {
+        byte[] bytes = new byte[max];
+        int total = 0;
+
+        while( total < max ) {
+            int count = input.read(bytes, total, max - total);
+
+            if( count == -1 ) {
+                return Arrays.copyOf(bytes, total);
+            }
+            total += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of bytes stored so far
+     */
+    long getBytesUploaded() {
+        return transferred.get();
+    }
+
+    void upload() throws CloudException, InternalException {
+        String uploadId = initiate(provider, bucket, object, contentType, headers);
+        boolean completed = false;
+
+        try {
+            complete(provider, bucket, object, uploadId, uploadParts(uploadId));
+            completed = true;
+        }
+        finally {
+            if( !completed ) {
+                abort(provider, bucket, object, uploadId);
+            }
+        }
+    }
+
+    /**
+     * Starts a multipart upload.
+     * @return the ID of the new upload
+     */
+    static @Nonnull String initiate( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nullable String contentType, @Nullable Map<String, String> headers ) throws CloudException, InternalException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        Map<String, String> initiateHeaders = new HashMap<String, String>();
+
+        parameters.put("uploads", null);
+        if( headers != null ) {
+            initiateHeaders.putAll(headers);
+        }
+        S3Method method = new S3Method(provider, S3Action.INITIATE_MULTIPART_UPLOAD, parameters, initiateHeaders, contentType, (String)null);
+        S3Response response;
+
+        try {
+            response = method.invoke(bucket, object);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        NodeList ids = (response == null || response.document == null ? null : response.document.getElementsByTagName("UploadId"));
+
+        if( ids == null || ids.getLength() < 1 || ids.item(0).getFirstChild() == null ) {
+            throw new CloudException("No upload ID was returned for a multipart upload of " + bucket + "/" + object);
+        }
+        return ids.item(0).getFirstChild().getNodeValue().trim();
+    }
+
+    private @Nonnull String[] uploadParts( @Nonnull final String uploadId ) throws CloudException, InternalException {
+        final Map<Integer, String> etags = new ConcurrentHashMap<Integer, String>();
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(provider.getAsyncExecutor());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        int window = provider.getS3TransferThreads();
+        int submitted = 0, done = 0;
+        boolean more = true;
+
+        try {
+            while( more || done < submitted ) {
+                while( more && submitted - done < window ) {
+                    final int partNumber = submitted + 1;
+                    final Part part = nextPart(partNumber);
+
+                    if( part == null ) {
+                        more = false;
+                        break;
+                    }
+                    futures.add(completion.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            etags.put(partNumber, uploadPart(uploadId, partNumber, part));
+                            progress(part.size);
+                            return partNumber;
+                        }
+                    }));
+                    submitted++;
+                }
+                if( done < submitted ) {
+                    completion.take().get();
+                    done++;
+                }
+            }
+            String[] ordered = new String[submitted];
+
+            for( int i = 0; i < submitted; i++ ) {
+                ordered[i] = etags.get(i + 1);
+            }
+            return ordered;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while uploading " + bucket + "/" + object);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( more || done < submitted ) {
+                for( Future<Integer> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the next part of the source, or <code>null</code> once it is exhausted
+     */
+    private @Nullable Part nextPart( int partNumber ) throws CloudException, InternalException {
+        long offset = (partNumber - 1) * partSize;
+
+        if( file != null ) {
+            return ( offset < length ? new Part(offset, Math.min(partSize, length - offset), null) : null );
+        }
+        byte[] bytes;
+
+        if( partNumber == 1 ) {
+            bytes = firstPart;
+            firstPart = null;
+        }
+        else {
+            try {
+                bytes = readPart(input, (int)(length < 0L ? partSize : Math.max(0L, Math.min(partSize, length - offset))));
+            }
+            catch( IOException e ) {
+                throw new InternalException(e);
+            }
+            if( bytes.length == 0 ) {
+                return null;
+            }
+        }
+        if( partNumber > MAX_PARTS ) {
+            throw new CloudException("Unable to upload " + bucket + "/" + object + " in at most " + MAX_PARTS + " parts of " + partSize + " bytes");
+        }
+        return new Part(offset, bytes.length, bytes);
+    }
+
+    private @Nonnull String uploadPart( @Nonnull String uploadId, int partNumber, @Nonnull Part part ) throws CloudException, InternalException {
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            Map<String, String> parameters = new HashMap<String, String>();
+
+            parameters.put("partNumber", String.valueOf(partNumber));
+            parameters.put("uploadId", uploadId);
+            S3Method method;
+
+            if( part.bytes == null ) {
+                method = new S3Method(provider, S3Action.UPLOAD_PART, parameters, null, null, file, part.offset, part.size);
+            }
+            else {
+                method = new S3Method(provider, S3Action.UPLOAD_PART, parameters, null, null, part.bytes);
+            }
+            S3Response response = null;
+
+            try {
+                response = method.invoke(bucket, object);
+                String etag = getETag(response);
+
+                if( etag == null ) {
+                    throw new CloudException("No ETag was returned for part " + partNumber + " of " + bucket + "/" + object);
+                }
+                return etag;
+            }
+            catch( S3Exception e ) {
+                // the retry policy has already been applied to S3 errors
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+            catch( InternalException e ) {
+                if( !(e.getCause() instanceof IOException) || attempt >= PART_ATTEMPTS ) {
+                    throw e;
+                }
+                logger.warn("Retrying part " + partNumber + " of " + bucket + "/" + object + " after I/O error: " + e.getMessage());
+            }
+            finally {
+                if( response != null ) {
+                    response.close();
+                }
+            }
+        }
+    }
+
+    static @Nullable String getETag( @Nullable S3Response response ) {
+        if( response == null || response.headers == null ) {
+            return null;
+        }
+        for( Header header : response.headers ) {
+            if( header.getName().equalsIgnoreCase("ETag") ) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private void progress( long bytes ) {
+        if( transfer != null ) {
+            synchronized( transfer ) {
+                transfer.setBytesTransferred(transferred.addAndGet(bytes));
+            }
+        }
+    }
+
+    /**
+     * Assembles the stored parts into the object.
+     * @param etags the ETags of the parts, in part number order
+     */
+    static void complete( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull String uploadId, @Nonnull String[] etags ) throws CloudException, InternalException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        StringBuilder body = new StringBuilder();
+
+        parameters.put("uploadId", uploadId);
+        body.append("<CompleteMultipartUpload>");
+        for( int i = 0; i < etags.length; i++ ) {
+            body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>");
+            body.append(AWSCloud.escapeXml(etags[i])).append("</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+        S3Method method = new S3Method(provider, S3Action.COMPLETE_MULTIPART_UPLOAD, parameters, null, "application/xml", body.toString());
+        S3Response response;
+
+        try {
+            response = method.invoke(bucket, object);
+        }
+        catch( S3Exception e ) {
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        // S3 can report a failed completion in the body of a 200 response
+        if( response != null && response.document != null && response.document.getElementsByTagName("Error").getLength() > 0 ) {
+            NodeList messages = response.document.getElementsByTagName("Message");
+            String message = (messages.getLength() > 0 && messages.item(0).getFirstChild() != null ? messages.item(0).getFirstChild().getNodeValue() : "unknown error");
+
+            throw new CloudException("Unable to complete the multipart upload of " + bucket + "/" + object + ": " + message);
+        }
+        // each part was checked against its own ETag as it was stored, so this checks the parts were assembled as sent
+        String expected = PayloadDigest.getMultipartETag(etags);
+        NodeList tags = ( response == null || response.document == null ? null : response.document.getElementsByTagName("ETag") );
+
+        if( expected != null && tags != null && tags.getLength() > 0 && tags.item(0).getFirstChild() != null ) {
+            String actual = tags.item(0).getFirstChild().getNodeValue().trim().replace("\"", "");
+
+            if( !expected.equalsIgnoreCase(actual) ) {
+                throw new CloudException("Checksum mismatch completing the multipart upload of " + bucket + "/" + object + ": ETag " + actual + " does not match " + expected);
+            }
+        }
+    }
+
+    /**
+     * Discards an upload and any parts already stored; failures are logged, not thrown.
+     */
+    static void abort( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull String uploadId ) {
+        Map<String, String> parameters = new HashMap<String, String>();
+
+        parameters.put("uploadId", uploadId);
+        try {
+            S3Response response = new S3Method(provider, S3Action.ABORT_MULTIPART_UPLOAD, parameters, null).invoke(bucket, object);
+
+            if( response != null ) {
+                response.close();
+            }
+        }
+        catch( Exception e ) {
+            logger.warn("Unable to abort multipart upload " + uploadId + " of " + bucket + "/" + object + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A range of the source file, or a buffered part of the source stream.
+     */
+    static private class Part {
+        final long   offset;
+        final long   size;
+        final byte[] bytes;
+
+        Part( long offset, long size, @Nullable byte[] bytes ) {
+            this.offset = offset;
+            this.size = size;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.Header;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads an S3 object as byte ranges fetched in parallel. The first range is requested before anything else and
+ * its <code>Content-Range</code> sizes the object, so an object that fits in one range takes a single request. For
+ * a larger object the target file is preallocated, and the other ranges of {@link AWSCloud#getS3PartSize()} bytes
+ * are fetched with at most {@link AWSCloud#getS3TransferThreads()} in flight while the first is still being read.
+ * Each range is written at its own offset with positional writes to a shared channel, and a range that fails part
+ * way resumes from the last byte written rather than restarting the download. Later range requests carry the ETag
+ * of the first so an object replaced mid-download fails instead of producing a mixed file.
+ */
+class S3ParallelDownload {
+    static private final Logger logger = AWSCloud.getLogger(S3ParallelDownload.class);
+
+    static private final int BUFFER_SIZE    = 64 * 1024;
+    static private final int RANGE_ATTEMPTS = 3;
+
+    private final AWSCloud     provider;
+    private final String       bucket;
+    private final String       object;
+    private final File         toFile;
+    private final FileTransfer transfer;
+    private final AtomicLong   transferred = new AtomicLong();
+
+    private long   size = -1L;
+    private String etag;
+
+    S3ParallelDownload( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull File toFile, @Nullable FileTransfer transfer ) {
+        this.provider = provider;
+        this.bucket = bucket;
+        this.object = object;
+        this.toFile = toFile;
+        this.transfer = transfer;
+    }
+
+    /**
+     * Requests the first range of the object, which also reports the object's size and ETag.
+     * @return the open response for the first range, or <code>null</code> if the object could not be sized this way,
+     * as happens for an empty object
+     * @throws CloudException the object could not be found or read
+     * @throws InternalException a local error occurred talking to S3
+     */
+    @Nullable S3Response open() throws CloudException, InternalException {
+        Map<String, String> headers = new HashMap<String, String>();
+        S3Response response;
+
+        headers.put("Range", "bytes=0-" + (provider.getS3PartSize() - 1));
+        try {
+            response = new S3Method(provider, S3Action.GET_OBJECT, null, headers).invoke(bucket, object);
+        }
+        catch( S3Exception e ) {
+            if( e.getStatus() == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE ) {
+                // an empty object has no first byte to ask for
+                return null;
+            }
+            logger.error(e.getSummary());
+            throw new CloudException(e);
+        }
+        if( response == null ) {
+            return null;
+        }
+        boolean ranged = false;
+
+        try {
+            if( response.headers != null ) {
+                for( Header header : response.headers ) {
+                    if( header.getName().equalsIgnoreCase("Content-Range") ) {
+                        String total = header.getValue().substring(header.getValue().lastIndexOf('/') + 1).trim();
+
+                        ranged = true;
+                        size = ( total.equals("*") ? -1L : Long.parseLong(total) );
+                    }
+                    else if( header.getName().equalsIgnoreCase("ETag") ) {
+                        etag = header.getValue();
+                    }
+                }
+            }
+            if( !ranged ) {
+                // the whole object came back
+                size = response.contentLength;
+            }
+        }
+        catch( NumberFormatException e ) {
+            size = -1L;
+        }
+        finally {
+            if( size < 0L || response.input == null ) {
+                response.close();
+            }
+        }
+        return ( size < 0L || response.input == null ? null : response );
+    }
+
+    /**
+     * @return the size of the object as reported by {@link #open()}
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the ETag of the object as reported by {@link #open()}
+     */
+    @Nullable String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Downloads the object into the target file, reading the first range from the response of {@link #open()}.
+     * @param first the response to {@link #open()}, which is closed once it has been read
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException a local error occurred writing the file or talking to S3
+     */
+    void download( @Nonnull S3Response first ) throws CloudException, InternalException {
+        long rangeSize = provider.getS3PartSize();
+        int ranges = (int)((size + rangeSize - 1) / rangeSize);
+        RandomAccessFile file = null;
+
+        if( transfer != null ) {
+            transfer.setBytesToTransfer(size);
+        }
+        try {
+            file = new RandomAccessFile(toFile, "rw");
+            file.setLength(size);
+            fetchRanges(file.getChannel(), first, rangeSize, ranges);
+            file.getChannel().force(false);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            first.close();
+            if( file != null ) {
+                try {
+                    file.close();
+                }
+                catch( IOException ignore ) {
+                }
+            }
+        }
+    }
+
+    private void fetchRanges( @Nonnull final FileChannel channel, @Nonnull final S3Response first, long rangeSize, int ranges ) throws CloudException, InternalException {
+        CompletionService<Long> completion = new ExecutorCompletionService<Long>(provider.getAsyncExecutor());
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        int window = provider.getS3TransferThreads();
+        int submitted = 0, done = 0;
+
+        try {
+            while( done < ranges ) {
+                while( submitted < ranges && submitted - done < window ) {
+                    final long start = submitted * rangeSize;
+                    final long end = Math.min(start + rangeSize, size) - 1;
+                    final S3Response response = ( submitted == 0 ? first : null );
+
+                    futures.add(completion.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            fetchRange(channel, start, end, response);
+                            return start;
+                        }
+                    }));
+                    submitted++;
+                }
+                completion.take().get();
+                done++;
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while downloading " + bucket + "/" + object);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            if( done < ranges ) {
+                for( Future<Long> future : futures ) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches the bytes from <code>start</code> to <code>end</code> inclusive, resuming from the last byte written
+     * if the connection fails.
+     * @param response a response already open on the start of the range, or <code>null</code> to request it
+     */
+    private void fetchRange( @Nonnull FileChannel channel, long start, long end, @Nullable S3Response response ) throws CloudException, InternalException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = start;
+        int attempt = 0;
+
+        while( position <= end ) {
+            attempt++;
+            Map<String, String> headers = new HashMap<String, String>();
+
+            headers.put("Range", "bytes=" + position + "-" + end);
+            if( etag != null ) {
+                headers.put("If-Match", etag);
+            }
+            try {
+                if( response == null ) {
+                    response = new S3Method(provider, S3Action.GET_OBJECT, null, headers).invoke(bucket, object);
+                }
+                if( response == null || response.input == null ) {
+                    throw new CloudException("No content was returned for bytes " + position + "-" + end + " of " + bucket + "/" + object);
+                }
+                position = write(response.input, channel, buffer, position, end);
+            }
+            catch( S3Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+            catch( IOException e ) {
+                if( attempt >= RANGE_ATTEMPTS ) {
+                    throw new InternalException(e);
+                }
+                logger.warn("Resuming " + bucket + "/" + object + " at byte " + position + " after I/O error: " + e.getMessage());
+            }
+            finally {
+                if( response != null ) {
+                    response.close();
+                    response = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the response body into the file at its offset.
+     * @return the position after the last byte written
+     */
+    private long write( @Nonnull InputStream input, @Nonnull FileChannel channel, @Nonnull ByteBuffer buffer, long position, long end ) throws IOException {
+        byte[] bytes = buffer.array();
+
+        while( position <= end ) {
+            int read = input.read(bytes, 0, (int)Math.min(bytes.length, end - position + 1));
+
+            if( read == -1 ) {
+                throw new EOFException("Connection closed at byte " + position + " of " + bucket + "/" + object);
+            }
+            buffer.clear();
+            buffer.limit(read);
+            while( buffer.hasRemaining() ) {
+                position += channel.write(buffer, position);
+            }
+            progress(read);
+        }
+        return position;
+    }
+
+    private void progress( long bytes ) {
+        if( transfer != null ) {
+            synchronized( transfer ) {
+                transfer.setBytesTransferred(transferred.addAndGet(bytes));
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures one object transfer: elapsed time, throughput, and the garbage collections that ran while it was in
+ * progress. Collections are counted for the whole JVM, so they are only attributable to the transfer when it is the
+ * main activity, as when timing a large object. Nothing is measured unless the logger is at debug level.
+ */
+final class TransferStatistics {
+    private final String  name;
+    private final boolean enabled;
+    private long          startNanos;
+    private long          gcCount;
+    private long          gcMillis;
+
+    /**
+     * Starts measuring.
+     * @param logger the logger the statistics will be written to
+     * @param name   a description of the transfer, such as the action and object name
+     */
+    TransferStatistics( @Nonnull Logger logger, @Nonnull String name ) {
+        this.name = name;
+        this.enabled = logger.isDebugEnabled();
+        if( enabled ) {
+            long[] gc = getCollections();
+
+            gcCount = gc[0];
+            gcMillis = gc[1];
+            startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Writes the statistics for the transfer to the logger at debug level.
+     * @param logger the logger to write to
+     * @param bytes  the number of bytes transferred
+     */
+    void log( @Nonnull Logger logger, long bytes ) {
+        if( !enabled ) {
+            return;
+        }
+        long elapsed = Math.max(1L, System.nanoTime() - startNanos);
+        long[] gc = getCollections();
+        double mbPerSecond = (bytes / (1024.0 * 1024.0)) / (elapsed / 1000000000.0);
+
+        logger.debug(String.format("%s: %d bytes in %d ms (%.1f MB/s), %d GCs taking %d ms", name, bytes, elapsed / 1000000L, mbPerSecond, gc[0] - gcCount, gc[1] - gcMillis));
+    }
+
+    /**
+     * @return the total count and time in milliseconds of collections so far, over all collectors
+     */
+    static @Nonnull long[] getCollections() {
+        long count = 0L, millis = 0L;
+
+        for( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() ) {
+            // -1 means the collector does not report the value
+            count += Math.max(0L, collector.getCollectionCount());
+            millis += Math.max(0L, collector.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+}
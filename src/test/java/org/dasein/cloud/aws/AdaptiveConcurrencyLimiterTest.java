@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+    /**
+     * Completes one request that appears to have taken the given time.
+     */
+    static private void request( AdaptiveConcurrencyLimiter limiter, String action, long millis, boolean throttled ) throws Exception {
+        long started = limiter.acquire();
+
+        limiter.release(started - TimeUnit.MILLISECONDS.toNanos(millis), action, throttled);
+    }
+
+    @Test
+    public void testThrottlingHalvesLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("ec2", "us-east-1", 1, 10, 100);
+
+        request(limiter, "DescribeInstances", 5L, true);
+        assertEquals(5, limiter.getLimit());
+        assertEquals(1L, limiter.getThrottleCount());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testLimitNeverFallsBelowMinimum() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("ec2", "us-east-1", 2, 2, 100);
+
+        request(limiter, "DescribeInstances", 0L, true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testBusyEndpointGrowsLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("ec2", "us-east-1", 1, 10, 100);
+
+        // keep the endpoint busy with requests that never finish
+        for( int i = 0; i < 9; i++ ) {
+            limiter.acquire();
+        }
+        for( int i = 0; i < 100; i++ ) {
+            request(limiter, "DescribeInstances", 20L, false);
+        }
+        assertTrue("The limit should grow while the endpoint is busy", limiter.getLimit() > 10);
+    }
+
+    @Test
+    public void testIdleEndpointKeepsLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("ec2", "us-east-1", 1, 10, 100);
+
+        for( int i = 0; i < 100; i++ ) {
+            request(limiter, "DescribeInstances", 20L, false);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testMixedActionsAreNotCongestion() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("ec2", "us-east-1", 1, 10, 100);
+
+        for( int i = 0; i < 200; i++ ) {
+            request(limiter, "DescribeRegions", 5L, false);
+            request(limiter, "DescribeInstances", 200L, false);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testRisingLatencyShrinksLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("ec2", "us-east-1", 1, 10, 100);
+
+        for( int i = 0; i < 20; i++ ) {
+            request(limiter, "DescribeInstances", 5L, false);
+        }
+        assertEquals(10, limiter.getLimit());
+        for( int i = 0; i < 20; i++ ) {
+            request(limiter, "DescribeInstances", 50L, false);
+        }
+        assertTrue("The limit should shrink once latency rises", limiter.getLimit() < 10);
+    }
+
+    @Test
+    public void testThrottlingIsClassifiedByCode() {
+        RetryPolicy policy = new ExponentialBackoffRetryPolicy();
+
+        assertTrue(AdaptiveConcurrencyLimiter.isThrottled(policy, 400, "Throttling"));
+        assertTrue(AdaptiveConcurrencyLimiter.isThrottled(policy, 503, "SlowDown"));
+        assertTrue(AdaptiveConcurrencyLimiter.isThrottled(policy, 429, null));
+        assertFalse(AdaptiveConcurrencyLimiter.isThrottled(policy, 400, "InvalidParameterValue"));
+        assertFalse(AdaptiveConcurrencyLimiter.isThrottled(policy, 500, null));
+        assertFalse(AdaptiveConcurrencyLimiter.isThrottled(policy, 200, null));
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.junit.Test;
+
+import static org.dasein.cloud.aws.RetryPolicy.ErrorCategory.FATAL;
+import static org.dasein.cloud.aws.RetryPolicy.ErrorCategory.THROTTLING;
+import static org.dasein.cloud.aws.RetryPolicy.ErrorCategory.TRANSIENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExponentialBackoffRetryPolicyTest {
+    @Test
+    public void testClassifyByCode() {
+        RetryPolicy policy = new ExponentialBackoffRetryPolicy();
+
+        assertEquals(THROTTLING, policy.classify(400, "Throttling"));
+        assertEquals(THROTTLING, policy.classify(503, "RequestLimitExceeded"));
+        assertEquals(THROTTLING, policy.classify(503, "SlowDown"));
+        assertEquals(TRANSIENT, policy.classify(500, "InternalError"));
+        assertEquals(TRANSIENT, policy.classify(400, "RequestTimeout"));
+        assertEquals(FATAL, policy.classify(400, "InvalidParameterValue"));
+    }
+
+    @Test
+    public void testClassifyByStatus() {
+        RetryPolicy policy = new ExponentialBackoffRetryPolicy();
+
+        assertEquals(THROTTLING, policy.classify(429, null));
+        assertEquals(TRANSIENT, policy.classify(500, null));
+        assertEquals(TRANSIENT, policy.classify(503, null));
+        assertEquals(FATAL, policy.classify(400, null));
+        assertEquals(FATAL, policy.classify(404, null));
+    }
+
+    @Test
+    public void testDelayIsJitteredUnderCeiling() {
+        RetryPolicy policy = new ExponentialBackoffRetryPolicy(10, 100L, 500L, 20000L, Long.MAX_VALUE);
+
+        for( int i = 0; i < 1000; i++ ) {
+            long transientDelay = policy.getDelay(3, TRANSIENT, 0L);
+            long throttlingDelay = policy.getDelay(3, THROTTLING, 0L);
+
+            assertTrue(transientDelay >= 0L && transientDelay <= 400L);
+            assertTrue(throttlingDelay >= 0L && throttlingDelay <= 2000L);
+        }
+    }
+
+    @Test
+    public void testDelayIsCapped() {
+        RetryPolicy policy = new ExponentialBackoffRetryPolicy(100, 100L, 500L, 1000L, Long.MAX_VALUE);
+
+        for( int i = 0; i < 1000; i++ ) {
+            assertTrue(policy.getDelay(60, THROTTLING, 0L) <= 1000L);
+        }
+    }
+
+    @Test
+    public void testGivesUp() {
+        RetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 100L, 500L, 20000L, 1000L);
+
+        assertEquals(-1L, policy.getDelay(1, FATAL, 0L));
+        assertEquals(-1L, policy.getDelay(3, TRANSIENT, 0L));
+        assertEquals(-1L, policy.getDelay(1, TRANSIENT, 1001L));
+        assertTrue(policy.getDelay(2, TRANSIENT, 0L) >= 0L);
+    }
+}
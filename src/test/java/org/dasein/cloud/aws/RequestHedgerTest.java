@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestHedgerTest {
+    static private final String ACTION = "DescribeInstances";
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answers immediately except for the calls listed, which take a second.
+     */
+    static private class Stub implements RequestHedger.Request<Integer> {
+        final AtomicInteger calls = new AtomicInteger();
+        final int           slowCall;
+
+        Stub( int slowCall ) {
+            this.slowCall = slowCall;
+        }
+
+        @Override
+        public Integer execute( RequestHedger.Race race ) throws CloudException, InternalException {
+            int call = calls.incrementAndGet();
+
+            if( call == slowCall ) {
+                try {
+                    Thread.sleep(1000L);
+                }
+                catch( InterruptedException e ) {
+                    throw new InternalException(e);
+                }
+            }
+            return call;
+        }
+    }
+
+    @Test
+    public void testOnlyWhitelistedActionsAreHedged() {
+        RequestHedger hedger = new RequestHedger(executor, Collections.singleton(ACTION), 0.95, 0.05);
+
+        assertTrue(hedger.isHedged(ACTION));
+        assertFalse(hedger.isHedged("RunInstances"));
+        assertFalse(hedger.isHedged(null));
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        RequestHedger hedger = new RequestHedger(executor, Collections.singleton(ACTION), 0.95, 1.0);
+        Stub stub = new Stub(41);
+
+        for( int i = 0; i < 40; i++ ) {
+            hedger.invoke(ACTION, stub);
+        }
+        long started = System.currentTimeMillis();
+
+        assertEquals(42, hedger.invoke(ACTION, stub).intValue());
+        assertTrue("The hedge should answer before the slow request", System.currentTimeMillis() - started < 900L);
+        assertEquals(1L, hedger.getHedgeCount());
+        assertEquals(1L, hedger.getWinCount());
+    }
+
+    @Test
+    public void testBudgetCapsHedges() throws Exception {
+        RequestHedger hedger = new RequestHedger(executor, Collections.singleton(ACTION), 0.95, 0.0);
+        Stub stub = new Stub(41);
+
+        for( int i = 0; i < 40; i++ ) {
+            hedger.invoke(ACTION, stub);
+        }
+        assertEquals(41, hedger.invoke(ACTION, stub).intValue());
+        assertEquals(0L, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void testClaimedCopyAnswers() throws Exception {
+        RequestHedger hedger = new RequestHedger(executor, Collections.singleton(ACTION), 0.95, 1.0);
+        final Stub stub = new Stub(0);
+
+        for( int i = 0; i < 40; i++ ) {
+            hedger.invoke(ACTION, stub);
+        }
+        // the first copy starts answering after the hedge is sent but finishes after it; the hedge's answer is dropped
+        int answer = hedger.invoke(ACTION, new RequestHedger.Request<Integer>() {
+            @Override
+            public Integer execute( RequestHedger.Race race ) throws CloudException, InternalException {
+                int call = stub.calls.incrementAndGet();
+
+                try {
+                    if( call == 41 ) {
+                        Thread.sleep(100L);
+                        assertTrue(race.claim());
+                        Thread.sleep(400L);
+                    }
+                    else {
+                        Thread.sleep(200L);
+                    }
+                }
+                catch( InterruptedException e ) {
+                    throw new InternalException(e);
+                }
+                return call;
+            }
+        });
+
+        assertEquals(41, answer);
+        assertEquals(1L, hedger.getHedgeCount());
+        assertEquals(0L, hedger.getWinCount());
+    }
+}
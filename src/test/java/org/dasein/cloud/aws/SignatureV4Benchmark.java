@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.platform.KeyValuePair;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares {@link SignatureV4Signer} against the signing code <code>AWSCloud</code> used before it, which is kept
+ * below as it was: a new <code>Mac</code> and <code>MessageDigest</code> per call, the signing key derived for every
+ * request, and regular expressions for the host, region and header values. Both produce the same signature for the
+ * sample request, which is checked before timing starts.
+ * <p>
+ * Not a unit test; run it with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.dasein.cloud.aws.SignatureV4Benchmark</code>.
+ * </p>
+ */
+public class SignatureV4Benchmark {
+    static private final int    ITERATIONS = 200000;
+    static private final int    ROUNDS     = 5;
+    static private final String ACCESS_KEY = "AKIDEXAMPLE";
+    static private final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+    static private final String URL        = "https://ec2.eu-west-1.amazonaws.com/?Action=DescribeInstances&Version=2014-10-01&Filter.1.Name=instance-state-name&Filter.1.Value.1=running";
+    static private final String BODY_HASH  = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    static public void main( String ... args ) throws Exception {
+        SignatureV4Signer signer = new SignatureV4Signer();
+        Map<String, String> headers = new HashMap<String, String>();
+
+        headers.put(AWSCloud.P_AWS_DATE, "20150830T123600Z");
+        headers.put("Host", "ec2.eu-west-1.amazonaws.com");
+        headers.put("Content-Type", "application/x-www-form-urlencoded;  charset=utf-8");
+
+        String expected = legacyAuthorization(headers);
+        String actual = signer.getAuthorization(ACCESS_KEY, SECRET_KEY, "GET", URL, "ec2", headers, BODY_HASH, null);
+
+        if( !expected.equals(actual) ) {
+            throw new IllegalStateException("Signatures differ:\n" + expected + "\n" + actual);
+        }
+        // warm up both paths before measuring
+        run(signer, headers, false);
+        run(signer, headers, true);
+        long legacy = Long.MAX_VALUE, cached = Long.MAX_VALUE;
+
+        for( int i = 0; i < ROUNDS; i++ ) {
+            legacy = Math.min(legacy, run(signer, headers, false));
+            cached = Math.min(cached, run(signer, headers, true));
+        }
+        System.out.println("signer\tns/signature\tsignatures/s");
+        System.out.println("legacy\t" + (legacy / ITERATIONS) + "\t" + (ITERATIONS * 1000000000L / legacy));
+        System.out.println("cached\t" + (cached / ITERATIONS) + "\t" + (ITERATIONS * 1000000000L / cached));
+    }
+
+    static private long run( SignatureV4Signer signer, Map<String, String> headers, boolean cached ) throws Exception {
+        int length = 0;
+        long start = System.nanoTime();
+
+        for( int i = 0; i < ITERATIONS; i++ ) {
+            if( cached ) {
+                length += signer.getAuthorization(ACCESS_KEY, SECRET_KEY, "GET", URL, "ec2", headers, BODY_HASH, null).length();
+            }
+            else {
+                length += legacyAuthorization(headers).length();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if( length == 0 ) {
+            throw new IllegalStateException("No signatures produced");
+        }
+        return elapsed;
+    }
+
+    static private String legacyAuthorization( Map<String, String> headers ) throws Exception {
+        String host = URL.replaceAll("https?:\\/\\/", "");
+
+        if( host.indexOf('/') > 0 ) {
+            host = host.substring(0, host.indexOf('/', 1));
+        }
+        String[] urlParts = host.split("\\.");
+        String regionId = urlParts[urlParts.length - 3];
+        String amzDate = headers.get(AWSCloud.P_AWS_DATE);
+        String scope = amzDate.substring(0, 8) + "/" + regionId + "/ec2/" + AWSCloud.V4_TERMINATION;
+        URI endpoint = new URI(URL.replace(" ", "%20")).normalize();
+        StringBuilder s = new StringBuilder();
+
+        s.append("GET\n");
+        s.append(AWSCloud.encode(endpoint.getPath().length() == 0 ? "/" : endpoint.getPath(), true)).append("\n");
+        List<KeyValuePair> queryParams = new ArrayList<KeyValuePair>();
+
+        for( NameValuePair param : URLEncodedUtils.parse(endpoint, "UTF-8") ) {
+            queryParams.add(new KeyValuePair(AWSCloud.encode(param.getName(), false), param.getValue() != null ? AWSCloud.encode(param.getValue(), false) : ""));
+        }
+        Collections.sort(queryParams);
+        StringBuilder query = new StringBuilder();
+
+        for( KeyValuePair pair : queryParams ) {
+            if( query.length() > 0 ) {
+                query.append("&");
+            }
+            query.append(pair.getKey()).append("=").append(pair.getValue());
+        }
+        s.append(query).append("\n");
+        List<String> sortedHeaders = new ArrayList<String>(headers.keySet());
+
+        Collections.sort(sortedHeaders, String.CASE_INSENSITIVE_ORDER);
+        for( String header : sortedHeaders ) {
+            String value = headers.get(header).trim().replaceAll("\\s+", " ");
+
+            s.append(header.toLowerCase().replaceAll("\\s+", " ")).append(":").append(value).append("\n");
+        }
+        Set<String> signed = new TreeSet<String>();
+
+        for( String header : headers.keySet() ) {
+            signed.add(header.toLowerCase());
+        }
+        StringBuilder signedHeaders = new StringBuilder();
+
+        for( String header : signed ) {
+            if( signedHeaders.length() > 0 ) {
+                signedHeaders.append(";");
+            }
+            signedHeaders.append(header);
+        }
+        s.append("\n").append(signedHeaders).append("\n").append(BODY_HASH);
+
+        String stringToSign = AWSCloud.V4_ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + sha256(s.toString());
+        byte[] key = hmac(amzDate.substring(0, 8), ("AWS4" + SECRET_KEY).getBytes());
+
+        key = hmac(regionId, key);
+        key = hmac("ec2", key);
+        key = hmac(AWSCloud.V4_TERMINATION, key);
+        String signature = new String(Hex.encodeHex(hmac(stringToSign, key), true));
+
+        return AWSCloud.V4_ALGORITHM + " Credential=" + ACCESS_KEY + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+    }
+
+    static private byte[] hmac( String data, byte[] key ) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes("UTF-8"));
+    }
+
+    static private String sha256( String value ) throws InternalException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            return new String(Hex.encodeHex(digest.digest(value.getBytes("UTF-8")), true));
+        }
+        catch( Exception e ) {
+            throw new InternalException(e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.util.Jiterator;
+import org.junit.Test;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the streaming parser used to parse DescribeInstances responses.
+ * @see org.dasein.cloud.aws.compute.DescribeInstancesResponseParser
+ */
+public class DescribeInstancesResponseParserTest {
+    final static String XML_RESERVATION_1 = "        <item>\n" +
+            "            <reservationId>r-1a2b3c4d</reservationId>\n" +
+            "            <ownerId>111122223333</ownerId>\n" +
+            "            <groupSet>\n" +
+            "                <item><groupId>sg-1a2b3c4d</groupId></item>\n" +
+            "            </groupSet>\n" +
+            "            <instancesSet>\n" +
+            "                <item>\n" +
+            "                    <instanceId>i-00000001</instanceId>\n" +
+            "                    <instanceState><code>16</code><name>running</name></instanceState>\n" +
+            "                    <tagSet>\n" +
+            "                        <item><key>Name</key><value>first &amp; best</value></item>\n" +
+            "                    </tagSet>\n" +
+            "                </item>\n" +
+            "                <item>\n" +
+            "                    <instanceId>i-00000002</instanceId>\n" +
+            "                    <dnsName/>\n" +
+            "                </item>\n" +
+            "            </instancesSet>\n" +
+            "        </item>\n";
+
+    final static String XML_RESERVATION_2 = "        <item>\n" +
+            "            <reservationId>r-2a2b3c4d</reservationId>\n" +
+            "            <instancesSet>\n" +
+            "                <item>\n" +
+            "                    <instanceId>i-00000003</instanceId>\n" +
+            "                </item>\n" +
+            "            </instancesSet>\n" +
+            "        </item>\n";
+
+    final static String TEST_XML_PAGE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<DescribeInstancesResponse xmlns=\"http://ec2.amazonaws.com/doc/2014-10-01/\">\n" +
+            "    <requestId>fdcdcab1-ae5c-489e-9c33-4637c5dda355</requestId>\n" +
+            "    <reservationSet>\n" +
+            XML_RESERVATION_1 +
+            XML_RESERVATION_2 +
+            "    </reservationSet>\n" +
+            "    <nextToken>token-2</nextToken>\n" +
+            "</DescribeInstancesResponse>\n";
+
+    final static String TEST_XML_LAST_PAGE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<DescribeInstancesResponse xmlns=\"http://ec2.amazonaws.com/doc/2014-10-01/\">\n" +
+            "    <requestId>fdcdcab1-ae5c-489e-9c33-4637c5dda355</requestId>\n" +
+            "    <reservationSet>\n" +
+            XML_RESERVATION_2 +
+            "    </reservationSet>\n" +
+            "</DescribeInstancesResponse>\n";
+
+    /**
+     * Keeps the instance id and the text of a Name tag, which is all the tests need from the item.
+     */
+    private static final DescribeInstancesResponseParser.Converter CONVERTER = new DescribeInstancesResponseParser.Converter() {
+        @Override
+        public VirtualMachine toVirtualMachine( @Nonnull Node item ) {
+            VirtualMachine vm = new VirtualMachine();
+            NodeList attrs = item.getChildNodes();
+
+            for( int i = 0; i < attrs.getLength(); i++ ) {
+                Node attr = attrs.item(i);
+
+                if( attr.getNodeName().equals("instanceId") ) {
+                    vm.setProviderVirtualMachineId(attr.getFirstChild().getNodeValue().trim());
+                }
+                else if( attr.getNodeName().equals("tagSet") ) {
+                    Node value = attr.getFirstChild().getLastChild();
+
+                    vm.setName(value.getFirstChild().getNodeValue());
+                }
+            }
+            return vm;
+        }
+    };
+
+    @Test
+    public void testParseInstancesAcrossReservations() throws Exception {
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+        new DescribeInstancesResponseParser(CONVERTER, null, list).parse(new ByteArrayInputStream(TEST_XML_PAGE.getBytes("UTF-8")));
+        assertEquals("Incorrect number of instances parsed", 3, list.size());
+        assertEquals("i-00000001", list.get(0).getProviderVirtualMachineId());
+        assertEquals("i-00000002", list.get(1).getProviderVirtualMachineId());
+        assertEquals("i-00000003", list.get(2).getProviderVirtualMachineId());
+    }
+
+    @Test
+    public void testParseNestedText() throws Exception {
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+        new DescribeInstancesResponseParser(CONVERTER, null, list).parse(new ByteArrayInputStream(TEST_XML_PAGE.getBytes("UTF-8")));
+        assertEquals("Tag value was not copied as a single text node", "first & best", list.get(0).getName());
+    }
+
+    @Test
+    public void testParseNextToken() throws Exception {
+        DescribeInstancesResponseParser parser = new DescribeInstancesResponseParser(CONVERTER, null, new ArrayList<VirtualMachine>());
+
+        parser.parse(new ByteArrayInputStream(TEST_XML_PAGE.getBytes("UTF-8")));
+        assertEquals("token-2", parser.getNextToken());
+        parser.parse(new ByteArrayInputStream(TEST_XML_LAST_PAGE.getBytes("UTF-8")));
+        assertNull("Last page should not have a next token", parser.getNextToken());
+    }
+
+    @Test
+    public void testParseWithinUnconsumedLimit() throws Exception {
+        Jiterator<VirtualMachine> iterator = new Jiterator<VirtualMachine>();
+        Semaphore unconsumed = new Semaphore(3);
+        DescribeInstancesResponseParser parser = new DescribeInstancesResponseParser(CONVERTER, null, iterator, unconsumed, 10L);
+
+        parser.parse(new ByteArrayInputStream(TEST_XML_PAGE.getBytes("UTF-8")));
+        assertFalse("Parser gave up although the consumer had room", parser.isAbandoned());
+        assertEquals("token-2", parser.getNextToken());
+        assertEquals("Every result should have taken a permit", 0, unconsumed.availablePermits());
+    }
+
+    @Test
+    public void testParseAbandonedWhenUnconsumed() throws Exception {
+        Jiterator<VirtualMachine> iterator = new Jiterator<VirtualMachine>();
+        DescribeInstancesResponseParser parser = new DescribeInstancesResponseParser(CONVERTER, null, iterator, new Semaphore(2), 10L);
+
+        parser.parse(new ByteArrayInputStream(TEST_XML_PAGE.getBytes("UTF-8")));
+        assertTrue("Parser should stop when results are not consumed", parser.isAbandoned());
+        assertNull("An abandoned page has no next token", parser.getNextToken());
+        iterator.complete();
+        assertEquals("i-00000001", iterator.next().getProviderVirtualMachineId());
+        assertEquals("i-00000002", iterator.next().getProviderVirtualMachineId());
+        assertFalse("Only the permitted results should have been pushed", iterator.hasNext());
+    }
+}
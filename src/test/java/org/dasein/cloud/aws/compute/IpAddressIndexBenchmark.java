@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.network.IPVersion;
+import org.dasein.cloud.network.IpAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares joining instances to their elastic IPs through {@link IpAddressIndex} against the per-instance scan of the
+ * address pool that <code>EC2Instance.toVirtualMachine</code> used to do. The instance count is fixed and the pool
+ * grows; the indexed join should stay flat while the scan grows with the pool.
+ * <p>
+ * Not a unit test; run it with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.dasein.cloud.aws.compute.IpAddressIndexBenchmark</code>.
+ * </p>
+ */
+public class IpAddressIndexBenchmark {
+    static private final int INSTANCES  = 5000;
+    static private final int ITERATIONS = 5;
+
+    static public void main( String ... args ) {
+        int[] poolSizes = { 100, 1000, 5000, 20000 };
+
+        // warm up both paths before measuring
+        run(1000, false);
+        run(1000, true);
+        System.out.println("instances\teips\tscan (ms)\tindex (ms)");
+        for( int poolSize : poolSizes ) {
+            long scan = Long.MAX_VALUE, index = Long.MAX_VALUE;
+
+            for( int i = 0; i < ITERATIONS; i++ ) {
+                scan = Math.min(scan, run(poolSize, false));
+                index = Math.min(index, run(poolSize, true));
+            }
+            System.out.println(INSTANCES + "\t" + poolSize + "\t" + (scan / 1000000L) + "\t" + (index / 1000000L));
+        }
+    }
+
+    static private long run( int poolSize, boolean indexed ) {
+        List<IpAddress> pool = new ArrayList<IpAddress>();
+
+        for( int i = 0; i < poolSize; i++ ) {
+            IpAddress address = new IpAddress();
+
+            address.setAddress(toIp(i));
+            address.setIpAddressId("eipalloc-" + i);
+            address.setServerId("i-" + i);
+            address.setVersion(IPVersion.IPV4);
+            pool.add(address);
+        }
+        int matched = 0;
+        long start = System.nanoTime();
+
+        if( indexed ) {
+            IpAddressIndex index = new IpAddressIndex(pool);
+
+            for( int i = 0; i < INSTANCES; i++ ) {
+                if( index.forPublicIp(toIp(i)) != null ) {
+                    matched++;
+                }
+            }
+        }
+        else {
+            for( int i = 0; i < INSTANCES; i++ ) {
+                String ip = toIp(i);
+
+                for( IpAddress addr : pool ) {
+                    if( ip.equals(addr.getRawAddress().getIpAddress()) ) {
+                        matched++;
+                        break;
+                    }
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if( matched != Math.min(poolSize, INSTANCES) ) {
+            throw new IllegalStateException("Expected " + Math.min(poolSize, INSTANCES) + " matches, got " + matched);
+        }
+        return elapsed;
+    }
+
+    static private String toIp( int i ) {
+        return "10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+    }
+}
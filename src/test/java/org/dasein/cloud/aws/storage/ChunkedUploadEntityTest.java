@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.aws.SignatureV4Signer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks chunk-signed uploads against the example request in the AWS documentation for
+ * <code>STREAMING-AWS4-HMAC-SHA256-PAYLOAD</code>: a 66560 byte object of 'a' sent as one 64KB and one 1KB chunk.
+ * @see org.dasein.cloud.aws.storage.ChunkedUploadEntity
+ */
+public class ChunkedUploadEntityTest {
+    static private final String SECRET_KEY     = "wJalrXUtnFEMI/K7MDENG/bPxRfiCYEXAMPLEKEY";
+    static private final String AMZ_DATE       = "20130524T000000Z";
+    static private final String SEED_SIGNATURE = "4f232c4386841ef735655705268965c44a0e4690baa4adea153f7db9fa80a0a9";
+
+    @Test
+    public void testChunkSignatures() throws Exception {
+        File file = File.createTempFile("chunked", ".bin");
+
+        try {
+            byte[] data = new byte[66560];
+
+            Arrays.fill(data, (byte)'a');
+            FileOutputStream output = new FileOutputStream(file);
+
+            output.write(data);
+            output.close();
+
+            SignatureV4Signer signer = new SignatureV4Signer();
+            byte[] key = signer.getSigningKey(SECRET_KEY, "20130524", "us-east-1", "s3");
+            PayloadDigest digest = new PayloadDigest();
+            ChunkedUploadEntity entity = new ChunkedUploadEntity(file, 0L, data.length, "text/plain", signer, key, AMZ_DATE, SignatureV4Signer.getScope("20130524", "us-east-1", "s3"), SEED_SIGNATURE, digest);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+            entity.writeTo(body);
+            String encoded = new String(body.toByteArray(), "US-ASCII");
+
+            assertEquals("Content-Length does not match the bytes written", 66824, entity.getContentLength());
+            assertEquals(entity.getContentLength(), body.size());
+            assertTrue(encoded.startsWith("10000;chunk-signature=ad80c730a21e5b8d04586a2213dd63b9a0e99e0e2307b0ade35a65485a288648\r\n"));
+            assertTrue(encoded.contains("\r\n400;chunk-signature=0055627c9e194cb4542bae2aa5492e3c1575bbb81b612b7d234b86a503ef5497\r\n"));
+            assertTrue(encoded.endsWith("\r\n0;chunk-signature=b6c6ea8a5354eaf15b3cb7646744f4275b71ea724fed81ceb9323e279d449df9\r\n\r\n"));
+            assertEquals("The digest should cover the file bytes, not the chunk framing", PayloadDigest.of(data).getMd5Hex(), digest.getMd5Hex());
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testContentMatchesWrittenBody() throws Exception {
+        File file = File.createTempFile("chunked", ".bin");
+
+        try {
+            byte[] data = new byte[150000];
+
+            for( int i = 0; i < data.length; i++ ) {
+                data[i] = (byte)i;
+            }
+            FileOutputStream output = new FileOutputStream(file);
+
+            output.write(data);
+            output.close();
+
+            SignatureV4Signer signer = new SignatureV4Signer();
+            byte[] key = signer.getSigningKey(SECRET_KEY, "20130524", "us-east-1", "s3");
+            ChunkedUploadEntity entity = new ChunkedUploadEntity(file, 1000L, 140000L, null, signer, key, AMZ_DATE, SignatureV4Signer.getScope("20130524", "us-east-1", "s3"), SEED_SIGNATURE, null);
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            InputStream content = entity.getContent();
+            byte[] buffer = new byte[1000];
+            int count;
+
+            entity.writeTo(written);
+            while( (count = content.read(buffer)) != -1 ) {
+                read.write(buffer, 0, count);
+            }
+            content.close();
+            assertEquals(entity.getContentLength(), read.size());
+            assertArrayEquals("The content stream should produce the same chunks as writing", written.toByteArray(), read.toByteArray());
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmptyFileIsOnlyTheFinalChunk() throws Exception {
+        assertEquals(ChunkedUploadEntity.getEncodedLength(0), "0;chunk-signature=".length() + 64 + 4);
+    }
+}
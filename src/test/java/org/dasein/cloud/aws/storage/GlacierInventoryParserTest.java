@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GlacierInventoryParserTest {
+    static private final String INVENTORY =
+            "{\"VaultARN\":\"arn:aws:glacier:us-east-1:012345678901:vaults/examplevault\"," +
+            "\"InventoryDate\":\"2011-12-12T14:19:01Z\"," +
+            "\"ArchiveList\":[" +
+            "{\"ArchiveId\":\"DMTmICA2n5Tdqq\",\"ArchiveDescription\":\"a.txt\",\"CreationDate\":\"2012-05-15T17:19:46.700Z\"," +
+            "\"Size\":2140123,\"SHA256TreeHash\":\"6b9d4cf8697bd3af6aa1b590a0b27b337da5b18988dbcc619a3e608a554a1e62\"}," +
+            "{\"ArchiveId\":\"2lHzwhKhgF2JHy\",\"ArchiveDescription\":{\"nested\":[1,2]},\"CreationDate\":\"2012-05-15T17:21:39Z\"," +
+            "\"Size\":2140123,\"SHA256TreeHash\":null}" +
+            "]}";
+
+    static private class Collector implements GlacierInventoryParser.Handler {
+        final List<String> archives = new ArrayList<String>();
+
+        @Override
+        public void archive( @Nonnull String archiveId, long size, long created ) {
+            archives.add(archiveId + "/" + size + "/" + created);
+        }
+    }
+
+    @Test
+    public void testStreamsArchives() throws Exception {
+        Collector collector = new Collector();
+        GlacierInventoryParser parser = new GlacierInventoryParser(collector);
+
+        parser.parse(new ByteArrayInputStream(INVENTORY.getBytes("utf-8")));
+        assertEquals(Arrays.asList("DMTmICA2n5Tdqq/2140123/1337102386700", "2lHzwhKhgF2JHy/2140123/1337102499000"), collector.archives);
+        assertEquals(2, parser.getArchiveCount());
+    }
+
+    @Test( expected = CloudException.class )
+    public void testRejectsArchiveWithoutId() throws Exception {
+        new GlacierInventoryParser(new Collector()).parse(new ByteArrayInputStream("{\"ArchiveList\":[{\"Size\":1}]}".getBytes("utf-8")));
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GlacierTreeHashTest {
+
+    static private byte[] sha256( byte[]... values ) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        for( byte[] value : values ) {
+            digest.update(value);
+        }
+        return digest.digest();
+    }
+
+    static private byte[] payload( int length ) {
+        byte[] bytes = new byte[length];
+
+        for( int i = 0; i < length; i++ ) {
+            bytes[i] = (byte)(i * 31 + 7);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testSingleChunkIsLinearHash() throws Exception {
+        GlacierTreeHash hash = GlacierTreeHash.of("abc".getBytes("utf-8"));
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash.getTreeHashHex());
+        assertEquals(hash.getTreeHashHex(), hash.getLinearHashHex());
+    }
+
+    @Test
+    public void testUnpairedChunkIsPromoted() throws Exception {
+        int size = GlacierTreeHash.CHUNK_SIZE;
+        byte[] bytes = payload(2 * size + 10);
+        GlacierTreeHash hash = new GlacierTreeHash();
+
+        // feed in pieces that straddle chunk boundaries
+        for( int offset = 0; offset < bytes.length; offset += 300000 ) {
+            hash.update(bytes, offset, Math.min(300000, bytes.length - offset));
+        }
+        byte[] a = sha256(Arrays.copyOfRange(bytes, 0, size));
+        byte[] b = sha256(Arrays.copyOfRange(bytes, size, 2 * size));
+        byte[] c = sha256(Arrays.copyOfRange(bytes, 2 * size, bytes.length));
+
+        assertArrayEquals(sha256(sha256(a, b), c), hash.getTreeHash());
+        assertEquals(bytes.length, hash.getLength());
+    }
+
+    @Test
+    public void testPartsCombineToArchiveHash() throws Exception {
+        int size = GlacierTreeHash.CHUNK_SIZE;
+        byte[] bytes = payload(5 * size + 1);
+        byte[] first = GlacierTreeHash.of(Arrays.copyOfRange(bytes, 0, 2 * size)).getTreeHash();
+        byte[] second = GlacierTreeHash.of(Arrays.copyOfRange(bytes, 2 * size, 4 * size)).getTreeHash();
+        byte[] last = GlacierTreeHash.of(Arrays.copyOfRange(bytes, 4 * size, bytes.length)).getTreeHash();
+
+        assertArrayEquals(GlacierTreeHash.of(bytes).getTreeHash(), GlacierTreeHash.combine(Arrays.asList(first, second, last)));
+    }
+}
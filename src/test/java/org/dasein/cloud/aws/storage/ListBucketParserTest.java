@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ListBucketParserTest {
+    static private final String TRUNCATED =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">\n" +
+            "  <Name>bucket</Name><Prefix></Prefix><Marker></Marker><MaxKeys>2</MaxKeys>\n" +
+            "  <IsTruncated>true</IsTruncated>\n" +
+            "  <Contents><Key>a.txt</Key><LastModified>2009-10-12T17:50:30.000Z</LastModified>" +
+            "<ETag>&quot;fba9dede5f27731c9771645a39863328&quot;</ETag><Size>434234</Size><StorageClass>STANDARD</StorageClass></Contents>\n" +
+            "  <Contents><Key>b &amp; c.txt</Key><LastModified>2009-10-12T17:50:31.000Z</LastModified><Size>0</Size></Contents>\n" +
+            "</ListBucketResult>";
+
+    static private final String DELIMITED =
+            "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">" +
+            "<IsTruncated>true</IsTruncated><NextMarker>photos/</NextMarker>" +
+            "<Contents><Key>index.html</Key><LastModified>2009-10-12T17:50:30.000Z</LastModified><Size>12</Size></Contents>" +
+            "<CommonPrefixes><Prefix>logs/</Prefix></CommonPrefixes>" +
+            "<CommonPrefixes><Prefix>photos/</Prefix></CommonPrefixes>" +
+            "</ListBucketResult>";
+
+    static private class Collector implements ListBucketParser.Handler {
+        final List<String> keys  = new ArrayList<String>();
+        final List<Long>   sizes = new ArrayList<Long>();
+        final List<Long>   times = new ArrayList<Long>();
+
+        @Override
+        public void object( @Nonnull String key, long size, long lastModified ) {
+            keys.add(key);
+            sizes.add(size);
+            times.add(lastModified);
+        }
+    }
+
+    @Test
+    public void testContents() throws Exception {
+        Collector collector = new Collector();
+        ListBucketParser parser = new ListBucketParser(collector);
+
+        parser.parse(new ByteArrayInputStream(TRUNCATED.getBytes("utf-8")));
+        assertEquals(Arrays.asList("a.txt", "b & c.txt"), collector.keys);
+        assertEquals(Arrays.asList(434234L, 0L), collector.sizes);
+        assertEquals(1255369830000L, collector.times.get(0).longValue());
+        assertEquals("The last key should be the next marker without a delimiter", "b & c.txt", parser.getNextMarker());
+    }
+
+    @Test
+    public void testCommonPrefixes() throws Exception {
+        Collector collector = new Collector();
+        ListBucketParser parser = new ListBucketParser(collector);
+
+        parser.parse(new ByteArrayInputStream(DELIMITED.getBytes("utf-8")));
+        assertEquals(Arrays.asList("index.html"), collector.keys);
+        assertEquals(Arrays.asList("logs/", "photos/"), parser.getCommonPrefixes());
+        assertEquals("photos/", parser.getNextMarker());
+    }
+
+    @Test
+    public void testLastPage() throws Exception {
+        ListBucketParser parser = new ListBucketParser(new Collector());
+
+        parser.parse(new ByteArrayInputStream(TRUNCATED.replace("<IsTruncated>true", "<IsTruncated>false").getBytes("utf-8")));
+        assertNull(parser.getNextMarker());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ObjectMetadataCacheTest {
+
+    @Test
+    public void testPositiveAndNegativeEntries() {
+        ObjectMetadataCache<String> cache = new ObjectMetadataCache<String>(10, 60000L, 60000L);
+
+        assertNull(cache.get("bucket", "a"));
+        cache.put("bucket", "a", "found");
+        cache.put("bucket", "b", null);
+        assertEquals("found", cache.get("bucket", "a").getValue());
+        assertNotNull("Absent objects should be cached", cache.get("bucket", "b"));
+        assertNull(cache.get("bucket", "b").getValue());
+    }
+
+    @Test
+    public void testExpiry() {
+        ObjectMetadataCache<String> cache = new ObjectMetadataCache<String>(10, 60000L, 0L);
+
+        cache.put("bucket", "a", "found");
+        cache.put("bucket", "b", null);
+        assertNotNull(cache.get("bucket", "a"));
+        assertNull("Negative entries should expire on their own TTL", cache.get("bucket", "b"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ObjectMetadataCache<String> cache = new ObjectMetadataCache<String>(2, 60000L, 60000L);
+
+        cache.put("bucket", "a", "a");
+        cache.put("bucket", "b", "b");
+        cache.get("bucket", "a");
+        cache.put("bucket", "c", "c");
+        assertNotNull(cache.get("bucket", "a"));
+        assertNull(cache.get("bucket", "b"));
+        assertNotNull(cache.get("bucket", "c"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        ObjectMetadataCache<String> cache = new ObjectMetadataCache<String>(10, 60000L, 60000L);
+
+        cache.put("bucket", "a", "a");
+        cache.put("bucket", "b", "b");
+        cache.put("bucket2", "a", "a");
+        cache.invalidate("bucket", "a");
+        assertNull(cache.get("bucket", "a"));
+        cache.invalidate("bucket");
+        assertNull(cache.get("bucket", "b"));
+        assertNotNull(cache.get("bucket2", "a"));
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PayloadDigestTest {
+
+    @Test
+    public void testDigestsInPieces() throws Exception {
+        PayloadDigest digest = new PayloadDigest();
+        byte[] bytes = "abc".getBytes("utf-8");
+
+        digest.update(bytes, 0, 1);
+        digest.update(bytes, 1, 2);
+        assertEquals(3L, digest.getLength());
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", digest.getMd5Hex());
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digest.getSha256Hex());
+    }
+
+    @Test
+    public void testVerifiesPlainETagsOnly() throws Exception {
+        PayloadDigest digest = PayloadDigest.of("abc".getBytes("utf-8"));
+
+        assertNull(digest.verify(new Header[] { new BasicHeader("ETag", "\"900150983CD24FB0D6963F7D28E17F72\"") }));
+        assertNotNull(digest.verify(new Header[] { new BasicHeader("ETag", "\"3303e12af474ca11d85ed2966a932992\"") }));
+        assertNull("Multipart ETags are not MD5s", digest.verify(new Header[] { new BasicHeader("ETag", "\"0732917abc3288784e318ac0aab1757a-2\"") }));
+        assertNull("KMS ETags are not MD5s", digest.verify(new Header[] { new BasicHeader("ETag", "\"3303e12af474ca11d85ed2966a932992\""), new BasicHeader("x-amz-server-side-encryption", "aws:kms") }));
+    }
+
+    @Test
+    public void testMultipartETag() {
+        String[] parts = { "\"3303e12af474ca11d85ed2966a932992\"", "\"3ea4e15b91a17dc76052c56cfcdf67a2\"" };
+
+        assertEquals("0732917abc3288784e318ac0aab1757a-2", PayloadDigest.getMultipartETag(parts));
+        assertNull(PayloadDigest.getMultipartETag(new String[] { "not-an-md5" }));
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compares the NIO S3 transfer paths (positional channel reads for uploads and writes for downloads) against the
+ * stream copies they replaced, on a local file so the network does not hide the difference. Downloads move an <code>InputStream</code> (standing in for the HTTP
+ * response) into a file; uploads write a file to an <code>OutputStream</code> (standing in for the request body).
+ * Reports throughput and the collections that ran during each pass.
+ * <p>
+ * Not a unit test; run it with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.dasein.cloud.aws.storage.TransferBenchmark -Dexec.args=512</code>, the argument being the
+ * object size in MB.
+ * </p>
+ */
+public class TransferBenchmark {
+    static private final int ROUNDS = 3;
+
+    static public void main( String ... args ) throws IOException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 256L) * 1024L * 1024L;
+        File source = File.createTempFile("transfer", ".src");
+        File target = File.createTempFile("transfer", ".dst");
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(source, "rw");
+
+            file.setLength(size);
+            file.close();
+            System.out.println("path\tMB/s\tGCs\tGC ms");
+            for( int i = 0; i < ROUNDS; i++ ) {
+                report("download heap", size, downloadHeap(source, target));
+                report("download channel", size, downloadChannel(source, target));
+                report("upload heap", size, uploadHeap(source));
+                report("upload channel", size, uploadChannel(source));
+            }
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            source.delete();
+            //noinspection ResultOfMethodCallIgnored
+            target.delete();
+        }
+    }
+
+    static private void report( String name, long size, long[] result ) {
+        double mbPerSecond = (size / (1024.0 * 1024.0)) / (result[0] / 1000000000.0);
+
+        System.out.println(String.format("%s\t%.1f\t%d\t%d", name, mbPerSecond, result[1], result[2]));
+    }
+
+    /**
+     * Hides the file channel so the copy sees only a stream, as it does with an HTTP response.
+     */
+    static private InputStream stream( File file ) throws IOException {
+        return new FilterInputStream(new FileInputStream(file)) { };
+    }
+
+    static private long[] downloadHeap( File source, File target ) throws IOException {
+        long[] start = start();
+        InputStream input = stream(source);
+        OutputStream output = new FileOutputStream(target);
+        byte[] bytes = new byte[10240];
+        int count;
+
+        while( (count = input.read(bytes, 0, bytes.length)) != -1 ) {
+            output.write(bytes, 0, count);
+        }
+        input.close();
+        output.close();
+        return finish(start);
+    }
+
+    static private long[] downloadChannel( File source, File target ) throws IOException {
+        long[] start = start();
+        InputStream input = stream(source);
+        FileOutputStream output = new FileOutputStream(target);
+        FileChannel channel = output.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = 0L;
+        int count;
+
+        // as S3.get and S3ParallelDownload write response bodies
+        while( (count = input.read(buffer.array())) != -1 ) {
+            buffer.clear();
+            buffer.limit(count);
+            while( buffer.hasRemaining() ) {
+                position += channel.write(buffer, position);
+            }
+        }
+        input.close();
+        output.close();
+        return finish(start);
+    }
+
+    static private long[] uploadHeap( File source ) throws IOException {
+        long[] start = start();
+        InputStream input = new FileInputStream(source);
+        OutputStream output = new NullOutputStream();
+        byte[] bytes = new byte[4096];
+        int count;
+
+        // FileEntity.writeTo copies through a 4KB buffer
+        while( (count = input.read(bytes)) != -1 ) {
+            output.write(bytes, 0, count);
+        }
+        input.close();
+        return finish(start);
+    }
+
+    static private long[] uploadChannel( File source ) throws IOException {
+        long[] start = start();
+
+        new FileRangeEntity(source, 0L, source.length(), null).writeTo(new NullOutputStream());
+        return finish(start);
+    }
+
+    static private long[] start() {
+        long[] gc = TransferStatistics.getCollections();
+
+        return new long[] { System.nanoTime(), gc[0], gc[1] };
+    }
+
+    static private long[] finish( long[] start ) {
+        long elapsed = System.nanoTime() - start[0];
+        long[] gc = TransferStatistics.getCollections();
+
+        return new long[] { elapsed, gc[0] - start[1], gc[1] - start[2] };
+    }
+
+    static private class NullOutputStream extends OutputStream {
+        @Override
+        public void write( int b ) {
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) {
+        }
+    }
+}